@@ -0,0 +1,203 @@
+package org.openbot.replay;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import android.app.Activity;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Bundle;
+import android.util.Log;
+import androidx.test.core.app.ActivityScenario;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openbot.main.MainActivity;
+import org.openbot.tflite.Autopilot;
+import org.openbot.tflite.Model;
+import org.openbot.tflite.Network;
+import org.openbot.vehicle.Control;
+import org.zeroturnaround.zip.commons.FileUtils;
+
+/**
+ * Runs the autopilot over recorded sessions on the phone and reports the error of its controls
+ * against the logged ones.
+ *
+ * <p>The TensorFlow Lite library only runs on Android, so this is the replay that scores a model.
+ * Without arguments, the bundled autopilot replays a synthetic session. To score a recorded session
+ * copied to the phone, pass its folder and optionally a model file:
+ *
+ * <pre>
+ * ./gradlew :app:connectedAndroidTest \
+ *   -Pandroid.testInstrumentationRunnerArguments.class=org.openbot.replay.AutopilotReplayTest \
+ *   -Pandroid.testInstrumentationRunnerArguments.sessionDir=/sdcard/Documents/OpenBot/&lt;session&gt; \
+ *   -Pandroid.testInstrumentationRunnerArguments.modelPath=/sdcard/Download/autopilot.tflite \
+ *   -Pandroid.testInstrumentationRunnerArguments.inputSize=256x96 \
+ *   -Pandroid.testInstrumentationRunnerArguments.batchSize=8
+ * </pre>
+ *
+ * The report is written to logcat with the tag {@value #TAG}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class AutopilotReplayTest {
+
+  private static final String TAG = "AutopilotReplay";
+  private static final int NUM_FRAMES = 24;
+
+  private final Bundle arguments = InstrumentationRegistry.getArguments();
+  private ActivityScenario<MainActivity> scenario;
+  private Autopilot autopilot;
+  private File sessionDir;
+
+  @Before
+  public void createAutopilot() throws IOException {
+    scenario = ActivityScenario.launch(MainActivity.class);
+    final Activity[] activity = new Activity[1];
+    scenario.onActivity(a -> activity[0] = a);
+
+    final String modelPath = arguments.getString("modelPath");
+    final Model model =
+        modelPath != null
+            ? new Model(
+                0,
+                Model.CLASS.AUTOPILOT,
+                Model.TYPE.CMDNAV,
+                new File(modelPath).getName(),
+                Model.PATH_TYPE.FILE,
+                modelPath,
+                arguments.getString("inputSize", "256x96"))
+            : new Model(
+                0,
+                Model.CLASS.AUTOPILOT,
+                Model.TYPE.CMDNAV,
+                "CIL-Mobile-Cmd.tflite",
+                Model.PATH_TYPE.ASSET,
+                "networks/autopilot_float.tflite",
+                "256x96");
+    autopilot = new Autopilot(activity[0], model, Network.Device.CPU, 4);
+  }
+
+  @After
+  public void close() {
+    if (autopilot != null) autopilot.close();
+    if (scenario != null) scenario.close();
+    if (sessionDir != null) FileUtils.deleteQuietly(sessionDir);
+  }
+
+  /** Writes a session with noise images and changing controls and indicators. */
+  private File writeSession() throws IOException {
+    sessionDir =
+        new File(
+            InstrumentationRegistry.getInstrumentation().getTargetContext().getCacheDir(),
+            "replaySession");
+    final File images = new File(sessionDir, ReplaySession.IMAGE_FOLDER);
+    assertTrue(images.isDirectory() || images.mkdirs());
+
+    final Random random = new Random(9);
+    final int width = autopilot.getImageSizeX();
+    final int height = autopilot.getImageSizeY();
+    final int[] pixels = new int[width * height];
+    final Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+    final StringBuilder frames = new StringBuilder("timestamp[ns],frame\n");
+    final StringBuilder controls = new StringBuilder("timestamp[ns],leftCtrl,rightCtrl\n");
+    final StringBuilder indicators = new StringBuilder("timestamp[ns],signal\n");
+    for (int frame = 1; frame <= NUM_FRAMES; frame++) {
+      final long timestamp = frame * 33_000_000L;
+      for (int i = 0; i < pixels.length; i++) pixels[i] = 0xff000000 | random.nextInt(0x1000000);
+      bitmap.setPixels(pixels, 0, width, 0, 0, width, height);
+      try (OutputStream out = new FileOutputStream(new File(images, frame + "_crop.jpeg"))) {
+        bitmap.compress(Bitmap.CompressFormat.JPEG, 95, out);
+      }
+      frames.append(timestamp).append(',').append(frame).append('\n');
+      controls
+          .append(timestamp - 1)
+          .append(',')
+          .append(random.nextInt(511) - 255)
+          .append(',')
+          .append(random.nextInt(511) - 255)
+          .append('\n');
+      if (frame % 8 == 1) {
+        indicators.append(timestamp - 1).append(',').append(frame % 3 - 1).append('\n');
+      }
+    }
+    write(ReplaySession.FRAME_LOG, frames);
+    write(ReplaySession.CONTROL_LOG, controls);
+    write(ReplaySession.INDICATOR_LOG, indicators);
+    return sessionDir;
+  }
+
+  private void write(String name, CharSequence content) throws IOException {
+    try (Writer writer = new FileWriter(new File(sessionDir, name))) {
+      writer.append(content);
+    }
+  }
+
+  @Test
+  public void run_reportsErrorAgainstLoggedControls() throws IOException {
+    final ReplayRunner.Report report = AutopilotReplay.run(autopilot, writeSession(), 1);
+    Log.i(TAG, "Synthetic session:\n" + report);
+
+    assertEquals(NUM_FRAMES - AutopilotReplay.WARM_UP_FRAMES, report.getNumFrames());
+    assertEquals(
+        NUM_FRAMES - AutopilotReplay.WARM_UP_FRAMES, report.getPredictLatency().getCount());
+    final double mae = report.getMeanAbsoluteError();
+    assertTrue(mae >= 0 && mae <= 2);
+    assertTrue(report.getRootMeanSquaredError() >= mae);
+  }
+
+  @Test
+  public void recognizeImages_matchesSingleFrames() throws IOException {
+    final List<Bitmap> bitmaps = new ArrayList<>();
+    final int[] indicators = new int[4];
+    final List<Control> single = new ArrayList<>();
+    try (ReplaySession session = ReplaySession.load(writeSession())) {
+      final List<ReplaySession.Frame> frames = session.getFrames();
+      for (int i = 0; i < indicators.length; i++) {
+        final ReplaySession.Frame frame = frames.get(i);
+        final byte[] jpeg = session.readImage(frame, null);
+        final Bitmap bitmap = BitmapFactory.decodeByteArray(jpeg, 0, frame.imageLength);
+        assertNotNull(bitmap);
+        bitmaps.add(bitmap);
+        indicators[i] = frame.indicator;
+        single.add(autopilot.recognizeImage(bitmap, indicators[i]));
+      }
+    }
+
+    final List<Control> batch = autopilot.recognizeImages(bitmaps, indicators);
+    assertEquals(single.size(), batch.size());
+    for (int i = 0; i < single.size(); i++) {
+      assertEquals(single.get(i).getLeft(), batch.get(i).getLeft(), 1e-4);
+      assertEquals(single.get(i).getRight(), batch.get(i).getRight(), 1e-4);
+    }
+    // The single frame path resizes the interpreter back.
+    final Control again = autopilot.recognizeImage(bitmaps.get(0), indicators[0]);
+    assertEquals(single.get(0).getLeft(), again.getLeft(), 1e-4);
+    assertEquals(single.get(0).getRight(), again.getRight(), 1e-4);
+  }
+
+  /** Replays the session given by the {@code sessionDir} argument, skipped without it. */
+  @Test
+  public void run_recordedSession() throws IOException {
+    final String dir = arguments.getString("sessionDir");
+    Assume.assumeTrue("No sessionDir argument", dir != null);
+    final int batchSize = Integer.parseInt(arguments.getString("batchSize", "1"));
+
+    final ReplayRunner.Report report = AutopilotReplay.run(autopilot, new File(dir), batchSize);
+    Log.i(TAG, dir + " in batches of " + batchSize + ":\n" + report);
+    assertTrue(report.getNumFrames() > 0);
+  }
+}
@@ -0,0 +1,145 @@
+package org.openbot.tflite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import android.app.Activity;
+import android.graphics.Bitmap;
+import android.graphics.RectF;
+import android.os.Bundle;
+import androidx.test.core.app.ActivityScenario;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openbot.main.MainActivity;
+
+/**
+ * Runs detectors on batches of frames. The bundled SSD detector has no batches; to check a YOLO
+ * model copied to the phone, pass its file, class and input size:
+ *
+ * <pre>
+ * ./gradlew :app:connectedAndroidTest \
+ *   -Pandroid.testInstrumentationRunnerArguments.class=org.openbot.tflite.DetectorBatchTest \
+ *   -Pandroid.testInstrumentationRunnerArguments.modelPath=/sdcard/Download/yolov5s.tflite \
+ *   -Pandroid.testInstrumentationRunnerArguments.modelClass=YOLOV5 \
+ *   -Pandroid.testInstrumentationRunnerArguments.inputSize=320x320
+ * </pre>
+ */
+@RunWith(AndroidJUnit4.class)
+public class DetectorBatchTest {
+
+  private static final String CLASS_NAME = "person";
+
+  private final Bundle arguments = InstrumentationRegistry.getArguments();
+  private ActivityScenario<MainActivity> scenario;
+  private Activity activity;
+  private Detector detector;
+
+  @Before
+  public void launch() {
+    scenario = ActivityScenario.launch(MainActivity.class);
+    final Activity[] activity = new Activity[1];
+    scenario.onActivity(a -> activity[0] = a);
+    this.activity = activity[0];
+  }
+
+  @After
+  public void close() {
+    if (detector != null) detector.close();
+    if (scenario != null) scenario.close();
+  }
+
+  private List<Bitmap> noiseFrames(int count) {
+    final Random random = new Random(5);
+    final int width = detector.getImageSizeX();
+    final int height = detector.getImageSizeY();
+    final int[] pixels = new int[width * height];
+    final List<Bitmap> bitmaps = new ArrayList<>(count);
+    for (int frame = 0; frame < count; frame++) {
+      for (int i = 0; i < pixels.length; i++) pixels[i] = 0xff000000 | random.nextInt(0x1000000);
+      final Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+      bitmap.setPixels(pixels, 0, width, 0, 0, width, height);
+      bitmaps.add(bitmap);
+    }
+    return bitmaps;
+  }
+
+  @Test
+  public void recognizeImages_rejectsBatchesOfTheSsdDetector() throws IOException {
+    detector =
+        Detector.create(
+            activity,
+            new Model(
+                0,
+                Model.CLASS.MOBILENET,
+                Model.TYPE.DETECTOR,
+                "MobileNetV1-300.tflite",
+                Model.PATH_TYPE.ASSET,
+                "networks/ssd_mobilenet_v1_1_metadata.tflite",
+                "300x300"),
+            Network.Device.CPU,
+            4);
+    assertFalse(detector.supportsBatching());
+
+    final List<Bitmap> bitmaps = noiseFrames(2);
+    try {
+      detector.recognizeImages(bitmaps, CLASS_NAME);
+      fail("Expected the batch to be rejected");
+    } catch (UnsupportedOperationException expected) {
+    }
+    // A single frame is no batch.
+    assertEquals(1, detector.recognizeImages(bitmaps.subList(0, 1), CLASS_NAME).size());
+  }
+
+  /** Runs the model given by the {@code modelPath} argument, skipped without it. */
+  @Test
+  public void recognizeImages_matchesSingleFrames() throws IOException {
+    final String modelPath = arguments.getString("modelPath");
+    Assume.assumeTrue("No modelPath argument", modelPath != null);
+    detector =
+        Detector.create(
+            activity,
+            new Model(
+                0,
+                Model.CLASS.valueOf(arguments.getString("modelClass", "YOLOV5")),
+                Model.TYPE.DETECTOR,
+                new File(modelPath).getName(),
+                Model.PATH_TYPE.FILE,
+                modelPath,
+                arguments.getString("inputSize", "320x320")),
+            Network.Device.CPU,
+            4);
+    assertTrue(detector.supportsBatching());
+
+    final List<Bitmap> bitmaps = noiseFrames(4);
+    final List<List<Detector.Recognition>> single = new ArrayList<>();
+    for (Bitmap bitmap : bitmaps) single.add(detector.recognizeImage(bitmap, CLASS_NAME));
+
+    final List<List<Detector.Recognition>> batch = detector.recognizeImages(bitmaps, CLASS_NAME);
+    assertEquals(single.size(), batch.size());
+    for (int i = 0; i < single.size(); i++) {
+      assertEquals(single.get(i).size(), batch.get(i).size());
+      for (int j = 0; j < single.get(i).size(); j++) {
+        assertEquals(
+            single.get(i).get(j).getConfidence(), batch.get(i).get(j).getConfidence(), 1e-4);
+        final RectF expected = single.get(i).get(j).getLocation();
+        final RectF actual = batch.get(i).get(j).getLocation();
+        assertEquals(expected.centerX(), actual.centerX(), 1e-2);
+        assertEquals(expected.centerY(), actual.centerY(), 1e-2);
+      }
+    }
+    // The single frame path resizes the interpreter back.
+    assertEquals(single.get(0).size(), detector.recognizeImage(bitmaps.get(0), CLASS_NAME).size());
+  }
+}
@@ -6,6 +6,7 @@ import android.content.SharedPreferences;
 import androidx.annotation.NonNull;
 import androidx.preference.PreferenceManager;
 import org.jetbrains.annotations.NotNull;
+import org.openbot.utils.Constants;
 import org.openbot.vehicle.Vehicle;
 import timber.log.Timber;
 
@@ -26,6 +27,8 @@ public class OpenBotApplication extends Application {
     SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(this);
     int baudRate = Integer.parseInt(sharedPreferences.getString("baud_rate", "115200"));
     vehicle = new Vehicle(this, baudRate);
+    vehicle.setControlRate(
+        Integer.parseInt(sharedPreferences.getString(Constants.PREF_CONTROL_RATE, "50")));
     vehicle.connectUsb();
     if (BuildConfig.DEBUG) {
       Timber.plant(
@@ -19,6 +19,7 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.camera.core.ImageProxy;
 import androidx.navigation.Navigation;
+import androidx.preference.PreferenceManager;
 import com.google.android.material.bottomsheet.BottomSheetBehavior;
 import java.io.IOException;
 import java.util.List;
@@ -33,9 +34,12 @@ import org.openbot.env.ImageUtils;
 import org.openbot.tflite.Autopilot;
 import org.openbot.tflite.Model;
 import org.openbot.tflite.Network;
+import org.openbot.tflite.NetworkCache;
 import org.openbot.tracking.MultiBoxTracker;
 import org.openbot.utils.Constants;
 import org.openbot.utils.Enums;
+import org.openbot.utils.LatencyHistogram;
+import org.openbot.utils.Metrics;
 import org.openbot.utils.PermissionUtils;
 import org.openbot.vehicle.Control;
 import timber.log.Timber;
@@ -51,6 +55,8 @@ public class AutopilotFragment extends CameraFragment {
   private boolean computingNetwork = false;
 
   private static final float TEXT_SIZE_DIP = 10;
+  private static final LatencyHistogram FRAME_TO_CONTROL_LATENCY =
+      Metrics.histogram(Metrics.FRAME_TO_CONTROL);
 
   private Autopilot autopilot;
 
@@ -210,15 +216,28 @@ public class AutopilotFragment extends CameraFragment {
     if (model == null) return;
     tracker.clearTrackedObjects();
     if (autopilot != null) {
-      Timber.d("Closing autoPilot.");
-      autopilot.close();
+      Timber.d("Releasing autoPilot.");
+      NetworkCache.getInstance().release(autopilot);
       autopilot = null;
     }
 
     try {
       Timber.d(
           "Creating autopilot (model=%s, device=%s, numThreads=%d)", model, device, numThreads);
-      autopilot = new Autopilot(requireActivity(), model, device, numThreads);
+      autopilot =
+          NetworkCache.getInstance()
+              .acquire(
+                  model,
+                  device,
+                  numThreads,
+                  () -> new Autopilot(requireActivity(), model, device, numThreads));
+      // Opt-in: the interpreter is idle while the next frame is preprocessed, so the stripes can
+      // reuse its threads, but other work on the phone competes for the same cores.
+      autopilot.setNumPreprocessThreads(
+          PreferenceManager.getDefaultSharedPreferences(requireContext())
+                  .getBoolean(Constants.PREF_PARALLEL_PREPROCESSING, false)
+              ? numThreads
+              : 1);
       croppedBitmap =
           Bitmap.createBitmap(
               autopilot.getImageSizeX(), autopilot.getImageSizeY(), Bitmap.Config.ARGB_8888);
@@ -268,6 +287,7 @@ public class AutopilotFragment extends CameraFragment {
 
   @Override
   public synchronized void onPause() {
+    runInBackground(() -> exportMetrics("autopilot"));
     handlerThread.quitSafely();
     try {
       handlerThread.join();
@@ -279,6 +299,16 @@ public class AutopilotFragment extends CameraFragment {
     super.onPause();
   }
 
+  @Override
+  public void onDestroy() {
+    // Keep the network in the cache, so that it is ready when the screen is opened again.
+    if (autopilot != null) {
+      NetworkCache.getInstance().release(autopilot);
+      autopilot = null;
+    }
+    super.onDestroy();
+  }
+
   protected synchronized void runInBackground(final Runnable r) {
     if (handler != null) {
       handler.post(r);
@@ -286,7 +316,10 @@ public class AutopilotFragment extends CameraFragment {
   }
 
   @Override
-  protected void processUSBData(String data) {
+  protected void processUSBData(String data) {}
+
+  @Override
+  protected void processVehicleReadings() {
     binding.controllerContainer.speedInfo.setText(
         getString(
             R.string.speedInfo,
@@ -347,6 +380,7 @@ public class AutopilotFragment extends CameraFragment {
 
   private void setNetworkEnabled(boolean b) {
     binding.autoSwitch.setChecked(b);
+    vehicle.setAutonomous(b);
     binding.controllerContainer.controlMode.setEnabled(!b);
     binding.controllerContainer.driveMode.setEnabled(!b);
     binding.controllerContainer.speedInfo.setEnabled(!b);
@@ -373,6 +407,7 @@ public class AutopilotFragment extends CameraFragment {
 
       computingNetwork = true;
       Timber.i("Putting image " + frameNum + " for detection in bg thread.");
+      final long frameTime = System.nanoTime();
 
       runInBackground(
           () -> {
@@ -383,6 +418,7 @@ public class AutopilotFragment extends CameraFragment {
               Timber.i("Running autopilot on image %s", frameNum);
               final long startTime = SystemClock.elapsedRealtime();
               handleDriveCommand(autopilot.recognizeImage(croppedBitmap, vehicle.getIndicator()));
+              FRAME_TO_CONTROL_LATENCY.recordSince(frameTime);
               lastProcessingTimeMs = SystemClock.elapsedRealtime() - startTime;
             }
 
@@ -4,6 +4,7 @@ import android.annotation.SuppressLint;
 import android.content.res.Configuration;
 import android.graphics.Bitmap;
 import android.os.Bundle;
+import android.os.Environment;
 import android.util.Size;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -22,6 +23,11 @@ import androidx.camera.view.PreviewView;
 import androidx.core.content.ContextCompat;
 import androidx.viewbinding.ViewBinding;
 import com.google.common.util.concurrent.ListenableFuture;
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -29,6 +35,7 @@ import org.openbot.R;
 import org.openbot.env.ImageUtils;
 import org.openbot.utils.Constants;
 import org.openbot.utils.Enums;
+import org.openbot.utils.Metrics;
 import org.openbot.utils.PermissionUtils;
 import org.openbot.utils.YuvToRgbConverter;
 import timber.log.Timber;
@@ -193,5 +200,34 @@ public abstract class CameraFragment extends ControlsFragment {
     bindCameraUseCases();
   }
 
+  /**
+   * Writes the latency histograms of the inference path to the metrics folder next to the logged
+   * data, e.g. Documents/OpenBot/metrics/20210101_120000_autopilot.txt.
+   */
+  protected void exportMetrics(String name) {
+    final String report = Metrics.report();
+    if (report.isEmpty()) return;
+    Timber.i("Latency metrics:\n%s", report);
+    if (!PermissionUtils.hasStoragePermission(requireActivity())) return;
+
+    final File file =
+        new File(
+            Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOCUMENTS)
+                    .getAbsolutePath()
+                + File.separator
+                + getString(R.string.app_name)
+                + File.separator
+                + "metrics",
+            new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault()).format(new Date())
+                + "_"
+                + name
+                + ".txt");
+    try {
+      Metrics.writeReport(file);
+    } catch (IOException e) {
+      Timber.e(e, "Failed to write metrics.");
+    }
+  }
+
   protected abstract void processFrame(Bitmap image, ImageProxy imageProxy);
 }
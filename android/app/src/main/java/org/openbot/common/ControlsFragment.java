@@ -1,6 +1,8 @@
 package org.openbot.common;
 
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 import android.view.KeyEvent;
 import android.view.MotionEvent;
@@ -20,6 +22,7 @@ import androidx.lifecycle.ViewModelProvider;
 import java.io.File;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import org.jetbrains.annotations.NotNull;
@@ -66,6 +69,37 @@ public abstract class ControlsFragment extends Fragment implements ServerListene
   private Spinner modelSpinner;
   private Spinner serverSpinner;
 
+  // The readings arrive on the USB read thread. They are shown at most once per pass of the UI
+  // thread, however often the vehicle reports them.
+  private final Handler uiHandler = new Handler(Looper.getMainLooper());
+  private final AtomicBoolean readingsPosted = new AtomicBoolean();
+  private final Runnable showReadings =
+      () -> {
+        readingsPosted.set(false);
+        if (getView() != null) processVehicleReadings();
+      };
+  private final Vehicle.ReadingListener readingListener =
+      new Vehicle.ReadingListener() {
+        @Override
+        public void onVoltage(long timestampNanos, float volts) {
+          postReadings();
+        }
+
+        @Override
+        public void onSonar(long timestampNanos, float distance) {
+          postReadings();
+        }
+
+        @Override
+        public void onWheelRpm(long timestampNanos, float left, float right) {
+          postReadings();
+        }
+      };
+
+  private void postReadings() {
+    if (readingsPosted.compareAndSet(false, true)) uiHandler.post(showReadings);
+  }
+
   @Override
   public void onCreate(@Nullable Bundle savedInstanceState) {
     super.onCreate(savedInstanceState);
@@ -124,9 +158,8 @@ public abstract class ControlsFragment extends Fragment implements ServerListene
                   vehicle.processVehicleConfig(body);
                   break;
                 case 'v':
-                  if (FormatUtils.isNumeric(body)) {
-                    vehicle.setBatteryVoltage(Float.parseFloat(body));
-                  } else {
+                  // Readings are passed to processVehicleReadings, only the limits arrive here.
+                  if (!FormatUtils.isNumeric(body)) {
                     String[] msgParts = body.split(":");
                     switch (msgParts[0]) {
                       case "min":
@@ -147,20 +180,6 @@ public abstract class ControlsFragment extends Fragment implements ServerListene
                     }
                   }
                   break;
-                case 's':
-                  if (FormatUtils.isNumeric(body)) {
-                    vehicle.setSonarReading(Float.parseFloat(body));
-                  }
-                  break;
-                case 'w':
-                  String[] itemList = body.split(",");
-                  if (itemList.length == 2
-                      && FormatUtils.isNumeric(itemList[0])
-                      && FormatUtils.isNumeric(itemList[1])) {
-                    vehicle.setLeftWheelRpm(Float.parseFloat(itemList[0]));
-                    vehicle.setRightWheelRpm(Float.parseFloat(itemList[1]));
-                  }
-                  break;
                 case 'b':
                   // do nothing
                   break;
@@ -315,6 +334,7 @@ public abstract class ControlsFragment extends Fragment implements ServerListene
   @Override
   public void onResume() {
     serverCommunication.start();
+    vehicle.addReadingListener(readingListener);
     super.onResume();
   }
 
@@ -330,6 +350,9 @@ public abstract class ControlsFragment extends Fragment implements ServerListene
   public synchronized void onPause() {
     Timber.d("onPause");
     serverCommunication.stop();
+    vehicle.removeReadingListener(readingListener);
+    uiHandler.removeCallbacks(showReadings);
+    readingsPosted.set(false);
     vehicle.setControl(0, 0);
     super.onPause();
   }
@@ -463,5 +486,12 @@ public abstract class ControlsFragment extends Fragment implements ServerListene
 
   protected abstract void processControllerKeyData(String command);
 
+  /** Handles a message of the vehicle other than its voltage, sonar and wheel readings. */
   protected abstract void processUSBData(String data);
+
+  /**
+   * Shows the latest readings of the vehicle, see {@link Vehicle#getBatteryVoltage()} and the other
+   * getters. Called on the UI thread after new readings arrived.
+   */
+  protected void processVehicleReadings() {}
 }
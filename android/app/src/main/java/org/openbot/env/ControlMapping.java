@@ -0,0 +1,37 @@
+package org.openbot.env;
+
+import org.openbot.vehicle.Control;
+
+/** Maps the axes of a game controller to a vehicle control for each drive mode. */
+public final class ControlMapping {
+
+  private ControlMapping() {}
+
+  public static Control dualToControl(float leftStick, float rightStick) {
+    return new Control(-leftStick, -rightStick);
+  }
+
+  public static Control gameToControl(float leftTrigger, float rightTrigger, float steeringOffset) {
+    float left = rightTrigger - leftTrigger;
+    float right = rightTrigger - leftTrigger;
+
+    if (left >= 0) left += steeringOffset;
+    else left -= steeringOffset;
+    if (right >= 0) right -= steeringOffset;
+    else right += steeringOffset;
+
+    return new Control(left, right);
+  }
+
+  public static Control joystickToControl(float xAxis, float yAxis) {
+    float left = -yAxis;
+    float right = -yAxis;
+
+    if (left >= 0) left += xAxis;
+    else left -= xAxis;
+    if (right >= 0) right -= xAxis;
+    else right += xAxis;
+
+    return new Control(left, right);
+  }
+}
@@ -144,31 +144,15 @@ public class GameController {
   }
 
   public Control convertDualToControl(float leftStick, float rightStick) {
-    return new Control(-leftStick, -rightStick);
+    return ControlMapping.dualToControl(leftStick, rightStick);
   }
 
   public Control convertGameToControl(float leftTrigger, float rightTrigger, float steeringOffset) {
-    float left = rightTrigger - leftTrigger;
-    float right = rightTrigger - leftTrigger;
-
-    if (left >= 0) left += steeringOffset;
-    else left -= steeringOffset;
-    if (right >= 0) right -= steeringOffset;
-    else right += steeringOffset;
-
-    return new Control(left, right);
+    return ControlMapping.gameToControl(leftTrigger, rightTrigger, steeringOffset);
   }
 
   public Control convertJoystickToControl(float xAxis, float yAxis) {
-    float left = -yAxis;
-    float right = -yAxis;
-
-    if (left >= 0) left += xAxis;
-    else left -= xAxis;
-    if (right >= 0) right -= xAxis;
-    else right += xAxis;
-
-    return new Control(left, right);
+    return ControlMapping.joystickToControl(xAxis, yAxis);
   }
 
   public static Pair<Float, Float> processJoystickInputLeft(MotionEvent event, int historyPos) {
@@ -35,6 +35,8 @@ public class SharedPreferencesManager {
   private static final String CAMERA_SWITCH = "CAMERA_SWITCH";
   private static final String SHEET_EXPANDED = "SHEET_EXPANDED";
   private static final String DELAY = "DELAY";
+  private static final String BINARY_LOGS = "BINARY_LOGS";
+  private static final String VIDEO_FRAMES = "VIDEO_FRAMES";
 
   private final SharedPreferences preferences;
 
@@ -185,4 +187,20 @@ public class SharedPreferencesManager {
   public int getDelay() {
     return preferences.getInt(DELAY, 200);
   }
+
+  public void setBinaryLogs(boolean enabled) {
+    preferences.edit().putBoolean(BINARY_LOGS, enabled).apply();
+  }
+
+  public boolean getBinaryLogs() {
+    return preferences.getBoolean(BINARY_LOGS, false);
+  }
+
+  public void setVideoFrames(boolean enabled) {
+    preferences.edit().putBoolean(VIDEO_FRAMES, enabled).apply();
+  }
+
+  public boolean getVideoFrames() {
+    return preferences.getBoolean(VIDEO_FRAMES, false);
+  }
 }
@@ -0,0 +1,177 @@
+package org.openbot.env;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Timestamped readings of one vehicle sensor with a bounded history, e.g. the battery voltage or
+ * the left and right wheel speed.
+ *
+ * <p>A sample holds a timestamp in nanoseconds and up to two values. Writers are serialized,
+ * readers never lock: the samples are stored in an atomic array guarded by a sequence number that
+ * is odd while a sample is written, and readers retry if it changed while they copied a sample.
+ * Readers therefore always see the timestamp and both values of the same sample. Recording a sample
+ * does not allocate.
+ */
+public class TelemetryChannel {
+
+  /** An immutable copy of one sample. */
+  public static final class Sample {
+    public final long timestampNanos;
+    public final float first;
+    public final float second;
+
+    Sample(long timestampNanos, float first, float second) {
+      this.timestampNanos = timestampNanos;
+      this.first = first;
+      this.second = second;
+    }
+  }
+
+  private final String name;
+  private final int mask;
+  // Timestamp and packed values of each slot of the ring.
+  private final AtomicLongArray samples;
+  private final AtomicLong sequence = new AtomicLong();
+  private volatile long count = 0;
+
+  /** @param historySize Number of samples kept, rounded up to a power of two. */
+  public TelemetryChannel(String name, int historySize) {
+    this.name = name;
+    final int capacity = Integer.highestOneBit(Math.max(historySize, 2) - 1) << 1;
+    mask = capacity - 1;
+    samples = new AtomicLongArray(2 * capacity);
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public int getHistorySize() {
+    return mask + 1;
+  }
+
+  private static long pack(float first, float second) {
+    return ((long) Float.floatToRawIntBits(first) << 32)
+        | (Float.floatToRawIntBits(second) & 0xFFFFFFFFL);
+  }
+
+  private static float unpackFirst(long values) {
+    return Float.intBitsToFloat((int) (values >>> 32));
+  }
+
+  private static float unpackSecond(long values) {
+    return Float.intBitsToFloat((int) values);
+  }
+
+  public void record(long timestampNanos, float value) {
+    record(timestampNanos, value, 0);
+  }
+
+  public synchronized void record(long timestampNanos, float first, float second) {
+    final long seq = sequence.get();
+    sequence.set(seq + 1);
+    final int slot = (int) (count & mask);
+    samples.set(2 * slot, timestampNanos);
+    samples.set(2 * slot + 1, pack(first, second));
+    count++;
+    sequence.set(seq + 2);
+  }
+
+  /** Replaces only the second value, keeping the first one of the latest sample. */
+  public synchronized void recordSecond(long timestampNanos, float second) {
+    record(timestampNanos, getFirst(), second);
+  }
+
+  /** Replaces only the first value, keeping the second one of the latest sample. */
+  public synchronized void recordFirst(long timestampNanos, float first) {
+    record(timestampNanos, first, getSecond());
+  }
+
+  /** Number of samples recorded so far. */
+  public long getCount() {
+    return count;
+  }
+
+  /** Packed values of the latest sample; a single read, so both values belong together. */
+  private long latestValues() {
+    final long n = count;
+    // The slot of the latest sample is only written again after historySize more samples.
+    return n == 0 ? 0 : samples.get(2 * (int) ((n - 1) & mask) + 1);
+  }
+
+  /** First value of the latest sample, or 0 if there is none. */
+  public float getFirst() {
+    return unpackFirst(latestValues());
+  }
+
+  /** Second value of the latest sample, or 0 if there is none. */
+  public float getSecond() {
+    return unpackSecond(latestValues());
+  }
+
+  /** The latest sample, or null if there is none. */
+  public Sample getLatest() {
+    while (true) {
+      final long seq = sequence.get();
+      if ((seq & 1) == 0) {
+        final long n = count;
+        if (n == 0) return null;
+        final int slot = (int) ((n - 1) & mask);
+        final long timestamp = samples.get(2 * slot);
+        final long values = samples.get(2 * slot + 1);
+        if (sequence.get() == seq) {
+          return new Sample(timestamp, unpackFirst(values), unpackSecond(values));
+        }
+      }
+      Thread.yield();
+    }
+  }
+
+  /** Time since the latest sample, or {@link Long#MAX_VALUE} if there is none. */
+  public long getAgeNanos(long nowNanos) {
+    final Sample latest = getLatest();
+    return latest == null ? Long.MAX_VALUE : nowNanos - latest.timestampNanos;
+  }
+
+  /** Time between the two latest samples, or {@link Long#MAX_VALUE} if there are less than two. */
+  public long getIntervalNanos() {
+    final List<Sample> history = getHistory(2);
+    if (history.size() < 2) return Long.MAX_VALUE;
+    return history.get(1).timestampNanos - history.get(0).timestampNanos;
+  }
+
+  /** All samples of the history, oldest first. */
+  public List<Sample> getHistory() {
+    return getHistory(getHistorySize());
+  }
+
+  /** Up to {@code maxSamples} of the latest samples, oldest first, copied at one point in time. */
+  public List<Sample> getHistory(int maxSamples) {
+    final int capacity = getHistorySize();
+    final long[] copy = new long[2 * Math.min(maxSamples, capacity)];
+    while (true) {
+      final long seq = sequence.get();
+      if ((seq & 1) == 0) {
+        final long n = count;
+        final int size = (int) Math.min(n, copy.length / 2);
+        for (int i = 0; i < size; i++) {
+          final int slot = (int) ((n - size + i) & mask);
+          copy[2 * i] = samples.get(2 * slot);
+          copy[2 * i + 1] = samples.get(2 * slot + 1);
+        }
+        if (sequence.get() == seq) {
+          final List<Sample> history = new ArrayList<>(size);
+          for (int i = 0; i < size; i++) {
+            final long values = copy[2 * i + 1];
+            history.add(new Sample(copy[2 * i], unpackFirst(values), unpackSecond(values)));
+          }
+          return history;
+        }
+      }
+      Thread.yield();
+    }
+  }
+}
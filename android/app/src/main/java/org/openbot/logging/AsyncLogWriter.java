@@ -0,0 +1,535 @@
+package org.openbot.logging;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writes the lines of the text logs of a session on a background thread.
+ *
+ * <p>Producers such as sensor callbacks only copy a record of primitive values into a preallocated
+ * ring buffer, without locks, formatting or allocation, and return. A full ring drops the record
+ * and counts it instead of blocking the producer. A single writer thread formats the records into
+ * reusable buffers, one per log file, and writes a buffer when it is full or when {@code
+ * flushIntervalMs} passed since the last write. Every {@code syncIntervalMs} the written data is
+ * also synced to the storage. So a crash of the app loses at most the last flush interval and a
+ * power loss at most the last sync interval, while the number of writes and syncs stays small.
+ *
+ * <p>The lines are formatted like string concatenation would: {@code timestamp,value,value,...},
+ * with floats and longs in their default string representation.
+ *
+ * <p>With a {@link SessionWriter}, the records of all logs go into one binary session file instead.
+ * The columns of a log are given by its first record, e.g. three floats for the accelerometer, and
+ * later records with other columns are dropped. A log without records becomes a channel without
+ * columns on close, so it still converts to a file with its header. Blocks fill up over several
+ * flush intervals, so the partially filled ones are written every {@code syncIntervalMs}.
+ */
+public class AsyncLogWriter {
+
+  public static final int DEFAULT_CAPACITY = 8192;
+  public static final long DEFAULT_FLUSH_INTERVAL_MS = 1000;
+  public static final long DEFAULT_SYNC_INTERVAL_MS = 5000;
+  /** Largest number of values of one record, enough for the pose sensor. */
+  public static final int MAX_VALUES = 15;
+
+  private static final int MAX_LOGS = 64;
+  private static final int BUFFER_SIZE = 16 * 1024;
+  private static final long POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+  private static final byte FLOATS = 0;
+  private static final byte LONGS = 1;
+  private static final byte TEXT = 2;
+
+  /** An open log file with its write buffer, only used by the writer thread after opening. */
+  private static class Log {
+    final FileOutputStream stream;
+    final byte[] buffer = new byte[BUFFER_SIZE];
+    int length = 0;
+    boolean dirty = false;
+
+    Log(FileOutputStream stream) {
+      this.stream = stream;
+    }
+  }
+
+  // Ring of records. A slot is free for the producer of position p when its sequence is p, and
+  // ready for the writer when it is p + 1.
+  private final int mask;
+  private final AtomicLongArray sequences;
+  private final AtomicLong tail = new AtomicLong();
+  private long head = 0;
+  private final int[] logIds;
+  private final byte[] kinds;
+  private final int[] counts;
+  private final long[] timestamps;
+  private final long[] values;
+  private final String[] texts;
+
+  private final AtomicReferenceArray<Log> logs = new AtomicReferenceArray<>(MAX_LOGS);
+  // Written while locked, read without lock by the producers to validate log ids.
+  private volatile int numLogs = 0;
+
+  // Binary format only: the session and, per log, its channel once the first record arrived.
+  private final SessionWriter session;
+  private final String[] names = new String[MAX_LOGS];
+  private final String[] headers = new String[MAX_LOGS];
+  private final int[] channels = new int[MAX_LOGS];
+  private final byte[] channelKinds = new byte[MAX_LOGS];
+  private final int[] channelCounts = new int[MAX_LOGS];
+
+  private final long flushIntervalNanos;
+  private final long syncIntervalNanos;
+  private final StringBuilder line = new StringBuilder(256);
+
+  private final AtomicLong numRecords = new AtomicLong();
+  private final AtomicLong numDropped = new AtomicLong();
+  private final AtomicLong numBytes = new AtomicLong();
+  private final AtomicLong numWrites = new AtomicLong();
+  private final AtomicLong numSyncs = new AtomicLong();
+  private final AtomicLong numErrors = new AtomicLong();
+  private volatile IOException lastError;
+
+  private volatile boolean running = false;
+  private Thread thread;
+
+  public AsyncLogWriter() {
+    this(null, DEFAULT_CAPACITY, DEFAULT_FLUSH_INTERVAL_MS, DEFAULT_SYNC_INTERVAL_MS);
+  }
+
+  /** Writes all logs into the binary session; it is closed with the writer. */
+  public AsyncLogWriter(SessionWriter session) {
+    this(session, DEFAULT_CAPACITY, DEFAULT_FLUSH_INTERVAL_MS, DEFAULT_SYNC_INTERVAL_MS);
+  }
+
+  public AsyncLogWriter(int capacity, long flushIntervalMs, long syncIntervalMs) {
+    this(null, capacity, flushIntervalMs, syncIntervalMs);
+  }
+
+  /**
+   * @param session Binary session to write to, or null for one text file per log.
+   * @param capacity Number of records in the ring, rounded up to a power of two.
+   * @param flushIntervalMs Longest time a line waits in the buffer of its log.
+   * @param syncIntervalMs Longest time written data waits for a sync, 0 to never sync.
+   */
+  public AsyncLogWriter(
+      SessionWriter session, int capacity, long flushIntervalMs, long syncIntervalMs) {
+    this.session = session;
+    final int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+    mask = size - 1;
+    sequences = new AtomicLongArray(size);
+    for (int i = 0; i < size; i++) sequences.set(i, i);
+    logIds = new int[size];
+    kinds = new byte[size];
+    counts = new int[size];
+    timestamps = new long[size];
+    values = new long[size * MAX_VALUES];
+    texts = new String[size];
+    flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+    syncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(syncIntervalMs);
+    Arrays.fill(channels, -1);
+  }
+
+  /**
+   * Opens a log file for appending and queues its header line. In the binary format, the name of
+   * the file and the header are those of the channel, and no file is created.
+   *
+   * @return The id of the log to pass to {@code log}, or -1 if it could not be opened.
+   */
+  public synchronized int open(File file, String header) {
+    if (numLogs == MAX_LOGS) return -1;
+    if (session != null) {
+      names[numLogs] = file.getName();
+      headers[numLogs] = header;
+      return numLogs++;
+    }
+    final File dir = file.getParentFile();
+    if (dir != null && !dir.exists() && !dir.mkdirs() && !dir.exists()) return -1;
+    try {
+      logs.set(numLogs, new Log(new FileOutputStream(file, true)));
+    } catch (IOException e) {
+      onError(e);
+      return -1;
+    }
+    final int id = numLogs++;
+    if (header != null) log(id, header);
+    return id;
+  }
+
+  public synchronized void start() {
+    if (running) return;
+    running = true;
+    thread = new Thread(this::loop, "AsyncLogWriter");
+    thread.start();
+  }
+
+  /** Writes all queued records, syncs and closes the logs. */
+  public void close() {
+    final Thread t;
+    synchronized (this) {
+      running = false;
+      t = thread;
+      thread = null;
+    }
+    if (t != null) {
+      LockSupport.unpark(t);
+      try {
+        t.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    drain();
+    if (session != null) {
+      try {
+        addEmptyChannels();
+        session.close();
+      } catch (IOException e) {
+        onError(e);
+      }
+      updateSessionStats();
+      return;
+    }
+    flush(true);
+    synchronized (this) {
+      for (int i = 0; i < numLogs; i++) {
+        try {
+          logs.get(i).stream.close();
+        } catch (IOException e) {
+          onError(e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Logs {@code timestamp,values[0],...,values[count - 1]}. Like the other {@code log} methods, it
+   * returns false if the log id is invalid or the ring is full.
+   */
+  public boolean log(int log, long timestamp, float[] values, int count) {
+    final long position = claim(log);
+    if (position < 0) return false;
+    final int slot = (int) position & mask;
+    final int base = slot * MAX_VALUES;
+    final int n = Math.min(count, MAX_VALUES);
+    for (int i = 0; i < n; i++) this.values[base + i] = Float.floatToRawIntBits(values[i]);
+    publish(position, slot, log, FLOATS, n, timestamp, null);
+    return true;
+  }
+
+  /** Logs {@code timestamp,value}. */
+  public boolean log(int log, long timestamp, long value) {
+    final long position = claim(log);
+    if (position < 0) return false;
+    final int slot = (int) position & mask;
+    values[slot * MAX_VALUES] = value;
+    publish(position, slot, log, LONGS, 1, timestamp, null);
+    return true;
+  }
+
+  /** Logs {@code timestamp,first,second}. */
+  public boolean log(int log, long timestamp, long first, long second) {
+    final long position = claim(log);
+    if (position < 0) return false;
+    final int slot = (int) position & mask;
+    values[slot * MAX_VALUES] = first;
+    values[slot * MAX_VALUES + 1] = second;
+    publish(position, slot, log, LONGS, 2, timestamp, null);
+    return true;
+  }
+
+  /** Logs {@code timestamp,text}. */
+  public boolean log(int log, long timestamp, String text) {
+    final long position = claim(log);
+    if (position < 0) return false;
+    final int slot = (int) position & mask;
+    publish(position, slot, log, TEXT, 1, timestamp, text);
+    return true;
+  }
+
+  /** Logs the text as it is, e.g. a header. */
+  public boolean log(int log, String text) {
+    final long position = claim(log);
+    if (position < 0) return false;
+    final int slot = (int) position & mask;
+    publish(position, slot, log, TEXT, 0, 0, text);
+    return true;
+  }
+
+  /** @return The position of a free slot, or -1 if the log is invalid or the ring is full. */
+  private long claim(int log) {
+    if (log < 0 || log >= numLogs) return -1;
+    long position = tail.get();
+    while (true) {
+      final long sequence = sequences.get((int) position & mask);
+      if (sequence == position) {
+        if (tail.compareAndSet(position, position + 1)) return position;
+        position = tail.get();
+      } else if (sequence < position) {
+        numDropped.incrementAndGet();
+        return -1;
+      } else {
+        position = tail.get();
+      }
+    }
+  }
+
+  private void publish(
+      long position, int slot, int log, byte kind, int count, long timestamp, String text) {
+    logIds[slot] = log;
+    kinds[slot] = kind;
+    counts[slot] = count;
+    timestamps[slot] = timestamp;
+    texts[slot] = text;
+    sequences.set(slot, position + 1);
+  }
+
+  private void loop() {
+    long lastFlush = System.nanoTime();
+    long lastSync = lastFlush;
+    while (running) {
+      drain();
+      final long now = System.nanoTime();
+      if (now - lastFlush >= flushIntervalNanos) {
+        final boolean sync = syncIntervalNanos > 0 && now - lastSync >= syncIntervalNanos;
+        flush(sync);
+        lastFlush = now;
+        if (sync) lastSync = now;
+      }
+      LockSupport.parkNanos(POLL_NANOS);
+    }
+  }
+
+  /** Formats all ready records into the buffers of their logs. */
+  private void drain() {
+    while (true) {
+      final int slot = (int) head & mask;
+      if (sequences.get(slot) != head + 1) return;
+      format(slot);
+      texts[slot] = null;
+      sequences.set(slot, head + mask + 1);
+      head++;
+      numRecords.incrementAndGet();
+    }
+  }
+
+  private void format(int slot) {
+    if (session != null) {
+      writeRecord(slot);
+      return;
+    }
+    final StringBuilder builder = line;
+    builder.setLength(0);
+    final int count = counts[slot];
+    final int base = slot * MAX_VALUES;
+    switch (kinds[slot]) {
+      case FLOATS:
+        builder.append(timestamps[slot]);
+        for (int i = 0; i < count; i++) {
+          builder.append(',').append(Float.intBitsToFloat((int) values[base + i]));
+        }
+        break;
+      case LONGS:
+        builder.append(timestamps[slot]);
+        for (int i = 0; i < count; i++) builder.append(',').append(values[base + i]);
+        break;
+      default:
+        if (count > 0) builder.append(timestamps[slot]).append(',');
+        builder.append(texts[slot]);
+        break;
+    }
+    builder.append('\n');
+    append(logs.get(logIds[slot]), builder);
+  }
+
+  private void writeRecord(int slot) {
+    final int log = logIds[slot];
+    final byte kind = kinds[slot];
+    final int count = counts[slot];
+    // Only headers have no timestamp, and they belong to the channel.
+    if (kind == TEXT && count == 0) return;
+    try {
+      if (channels[log] < 0) {
+        channels[log] = session.addChannel(names[log], headers[log], columnTypes(kind, count));
+        channelKinds[log] = kind;
+        channelCounts[log] = count;
+      } else if (channelKinds[log] != kind || channelCounts[log] != count) {
+        numDropped.incrementAndGet();
+        return;
+      }
+      session.startRecord(channels[log], timestamps[slot]);
+      final int base = slot * MAX_VALUES;
+      switch (kind) {
+        case FLOATS:
+          for (int i = 0; i < count; i++) {
+            session.putFloat(Float.intBitsToFloat((int) values[base + i]));
+          }
+          break;
+        case LONGS:
+          for (int i = 0; i < count; i++) session.putLong(values[base + i]);
+          break;
+        default:
+          session.putText(texts[slot]);
+          break;
+      }
+      session.endRecord();
+    } catch (IOException e) {
+      session.cancelRecord();
+      onError(e);
+    }
+  }
+
+  /** Adds the logs without records as channels without columns, so they keep their header. */
+  private void addEmptyChannels() throws IOException {
+    final int n;
+    synchronized (this) {
+      n = numLogs;
+    }
+    for (int log = 0; log < n; log++) {
+      if (channels[log] < 0) channels[log] = session.addChannel(names[log], headers[log]);
+    }
+  }
+
+  private static SessionFormat.ColumnType[] columnTypes(byte kind, int count) {
+    final SessionFormat.ColumnType[] types = new SessionFormat.ColumnType[count];
+    Arrays.fill(
+        types,
+        kind == FLOATS
+            ? SessionFormat.ColumnType.FLOAT32
+            : kind == LONGS ? SessionFormat.ColumnType.INT64 : SessionFormat.ColumnType.TEXT);
+    return types;
+  }
+
+  private void updateSessionStats() {
+    numBytes.set(session.getNumBytes());
+    numWrites.set(session.getNumBlocks());
+  }
+
+  private void append(Log log, StringBuilder builder) {
+    final int length = builder.length();
+    for (int i = 0; i < length; i++) {
+      final char c = builder.charAt(i);
+      if (c >= 0x80) {
+        // Rare, e.g. in a text record.
+        append(log, builder.substring(i).getBytes(StandardCharsets.UTF_8));
+        return;
+      }
+      if (log.length == log.buffer.length) write(log);
+      log.buffer[log.length++] = (byte) c;
+    }
+  }
+
+  private void append(Log log, byte[] bytes) {
+    for (byte b : bytes) {
+      if (log.length == log.buffer.length) write(log);
+      log.buffer[log.length++] = b;
+    }
+  }
+
+  private void write(Log log) {
+    if (log.length == 0) return;
+    try {
+      log.stream.write(log.buffer, 0, log.length);
+      numBytes.addAndGet(log.length);
+      numWrites.incrementAndGet();
+      log.dirty = true;
+    } catch (IOException e) {
+      onError(e);
+    }
+    log.length = 0;
+  }
+
+  private void flush(boolean sync) {
+    if (session != null) {
+      if (!sync) return;
+      try {
+        session.flush(true);
+        numSyncs.incrementAndGet();
+      } catch (IOException e) {
+        onError(e);
+      }
+      updateSessionStats();
+      return;
+    }
+    final int n;
+    synchronized (this) {
+      n = numLogs;
+    }
+    for (int i = 0; i < n; i++) {
+      final Log log = logs.get(i);
+      write(log);
+      if (sync && log.dirty) {
+        try {
+          log.stream.getFD().sync();
+          numSyncs.incrementAndGet();
+        } catch (IOException e) {
+          onError(e);
+        }
+        log.dirty = false;
+      }
+    }
+  }
+
+  private void onError(IOException e) {
+    lastError = e;
+    numErrors.incrementAndGet();
+  }
+
+  /** Number of records written to the buffers of the logs. */
+  public long getNumRecords() {
+    return numRecords.get();
+  }
+
+  /**
+   * Number of records dropped because the ring was full or, in the binary format, their columns
+   * differ from the first record of their log.
+   */
+  public long getNumDropped() {
+    return numDropped.get();
+  }
+
+  public long getNumBytes() {
+    return numBytes.get();
+  }
+
+  /**
+   * Number of writes to the files, or of blocks in the binary format; without the writer, every
+   * record was one.
+   */
+  public long getNumWrites() {
+    return numWrites.get();
+  }
+
+  public long getNumSyncs() {
+    return numSyncs.get();
+  }
+
+  public long getNumErrors() {
+    return numErrors.get();
+  }
+
+  /** The last error while opening, writing or closing a log, or null. */
+  public IOException getLastError() {
+    return lastError;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        Locale.US,
+        "records %d, dropped %d, bytes %d, writes %d, syncs %d, errors %d",
+        getNumRecords(),
+        getNumDropped(),
+        getNumBytes(),
+        getNumWrites(),
+        getNumSyncs(),
+        getNumErrors());
+  }
+}
@@ -0,0 +1,263 @@
+package org.openbot.logging;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import org.openbot.env.ImageUtils;
+import org.openbot.utils.FrameWorkerPool;
+import org.openbot.utils.FrameWorkerPool.DropPolicy;
+import timber.log.Timber;
+
+/**
+ * Saves the camera frames of a logging session, as JPEG files or into {@link MjpegWriter} videos.
+ *
+ * <p>The camera thread only copies a frame into a recycled bitmap and returns; a {@link
+ * FrameWorkerPool} compresses and writes the frames. The frame number and timestamp are taken when
+ * the frame is logged, so they match the frame numbers sent to the {@link SensorService} however
+ * long the compression takes. When the workers fall behind, frames are dropped instead of queued:
+ * with {@link DropPolicy#DROP_LOW_PRIORITY} the previews are skipped first and the crops for
+ * training are kept. As a waiting frame can still be dropped for a newer one, the frames go into
+ * the frame log only once saved, see {@link Listener}; frames still waiting when the session stops
+ * can have an image without entry, but every entry has an image. The counters are written to {@code
+ * frameStats.txt} in the images folder when the session ends.
+ */
+public class FrameLogger {
+
+  public static final String STATS_FILE = "frameStats.txt";
+
+  /** Compression is the slow part; more workers mostly compete with the camera and inference. */
+  public static final int DEFAULT_WORKERS =
+      Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() / 2));
+
+  private static final int PREVIEW_PRIORITY = 0;
+  private static final int CROP_PRIORITY = 1;
+
+  /** Receives the frames for the frame log, on the workers. */
+  public interface Listener {
+    /**
+     * Called when the crop of a frame was saved, or its full frame if no crop was logged.
+     *
+     * @param timestampNanos When the frame was logged.
+     */
+    void onFrameSaved(long frameNumber, long timestampNanos);
+  }
+
+  private static class Frame {
+    final boolean preview;
+    final ByteArrayOutputStream jpeg = new ByteArrayOutputStream(256 * 1024);
+    Bitmap bitmap;
+    Canvas canvas;
+    long number;
+    long timestampNanos;
+    // Whether the frame goes into the frame log once saved.
+    boolean inFrameLog;
+
+    Frame(boolean preview) {
+      this.preview = preview;
+    }
+
+    /** Recycles the bitmap of the frame unless its size changed. */
+    Canvas canvas(int width, int height) {
+      if (bitmap == null || bitmap.getWidth() != width || bitmap.getHeight() != height) {
+        bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        canvas = new Canvas(bitmap);
+      }
+      return canvas;
+    }
+  }
+
+  private final String imagesFolder;
+  private final MjpegWriter previewVideo;
+  private final MjpegWriter cropVideo;
+  private final FrameWorkerPool<Frame> pool;
+  private final int previewLane;
+  private final int cropLane;
+  private final Listener listener;
+  private final Runnable beforeSave;
+
+  /**
+   * @param imagesFolder The images folder of the session.
+   * @param asVideo Whether to write the frames into {@code preview.mjpeg} and {@code crop.mjpeg}
+   *     instead of one file per frame.
+   * @param listener Receives the saved frames for the frame log, or null.
+   */
+  public FrameLogger(
+      String imagesFolder, boolean asVideo, int numWorkers, DropPolicy policy, Listener listener) {
+    this(imagesFolder, asVideo, numWorkers, policy, listener, null);
+  }
+
+  /** @param beforeSave Runs on the worker before each frame is saved, e.g. to stall it in tests. */
+  FrameLogger(
+      String imagesFolder,
+      boolean asVideo,
+      int numWorkers,
+      DropPolicy policy,
+      Listener listener,
+      Runnable beforeSave) {
+    this.imagesFolder = imagesFolder;
+    this.listener = listener;
+    this.beforeSave = beforeSave;
+    MjpegWriter preview = null;
+    MjpegWriter crop = null;
+    if (asVideo) {
+      try {
+        preview = new MjpegWriter(new File(imagesFolder, "preview" + MjpegWriter.EXTENSION));
+        crop = new MjpegWriter(new File(imagesFolder, "crop" + MjpegWriter.EXTENSION));
+      } catch (IOException e) {
+        Timber.e(e, "Opening frame videos failed, saving JPEG files");
+        close(preview);
+        preview = null;
+      }
+    }
+    previewVideo = crop != null ? preview : null;
+    cropVideo = crop;
+
+    pool = new FrameWorkerPool<>("FrameLogger", numWorkers, policy, this::save);
+    // One frame more than the workers can wait, so a short stall of the storage drops nothing.
+    previewLane = pool.addLane("preview", PREVIEW_PRIORITY, frames(true, numWorkers + 1));
+    cropLane = pool.addLane("crop", CROP_PRIORITY, frames(false, numWorkers + 1));
+    pool.start();
+  }
+
+  private static List<Frame> frames(boolean preview, int count) {
+    final List<Frame> frames = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) frames.add(new Frame(preview));
+    return frames;
+  }
+
+  /**
+   * Logs the full camera frame and its crop, as enabled. The crop goes into the frame log once
+   * saved, or the full frame when no crop is logged.
+   *
+   * @param preview Whether to log the full frame.
+   * @param frameToCropTransform The crop to log, or null to log no crop.
+   */
+  public void logFrame(
+      Bitmap bitmap,
+      boolean preview,
+      Matrix frameToCropTransform,
+      int cropWidth,
+      int cropHeight,
+      long frameNumber,
+      long timestampNanos) {
+    final boolean crop = frameToCropTransform != null;
+    if (preview && bitmap != null) logPreview(bitmap, frameNumber, timestampNanos, !crop);
+    if (crop) {
+      logCrop(bitmap, frameToCropTransform, cropWidth, cropHeight, frameNumber, timestampNanos);
+    }
+  }
+
+  /**
+   * Logs a copy of the full camera frame.
+   *
+   * @return false if the frame was dropped.
+   */
+  private boolean logPreview(
+      Bitmap bitmap, long frameNumber, long timestampNanos, boolean inFrameLog) {
+    final Frame frame = pool.acquire(previewLane);
+    if (frame == null) return false;
+    frame.canvas(bitmap.getWidth(), bitmap.getHeight()).drawBitmap(bitmap, 0, 0, null);
+    frame.number = frameNumber;
+    frame.timestampNanos = timestampNanos;
+    frame.inFrameLog = inFrameLog;
+    pool.submit(previewLane, frame);
+    return true;
+  }
+
+  /**
+   * Logs the crop of the camera frame given by the transform, e.g. the network input.
+   *
+   * @return false if the frame was dropped.
+   */
+  private boolean logCrop(
+      Bitmap bitmap,
+      Matrix frameToCropTransform,
+      int width,
+      int height,
+      long frameNumber,
+      long timestampNanos) {
+    final Frame frame = pool.acquire(cropLane);
+    if (frame == null) return false;
+    frame.canvas(width, height).drawBitmap(bitmap, frameToCropTransform, null);
+    frame.number = frameNumber;
+    frame.timestampNanos = timestampNanos;
+    frame.inFrameLog = true;
+    pool.submit(cropLane, frame);
+    return true;
+  }
+
+  /** Runs on the workers. */
+  private void save(Frame frame) {
+    if (beforeSave != null) beforeSave.run();
+    final MjpegWriter video = frame.preview ? previewVideo : cropVideo;
+    if (video == null) {
+      ImageUtils.saveBitmap(
+          frame.bitmap,
+          imagesFolder,
+          frame.number + (frame.preview ? "_preview" : "_crop") + ".jpeg");
+    } else {
+      ImageUtils.compressBitmap(frame.bitmap, frame.jpeg);
+      try {
+        // False after the videos were closed.
+        if (!video.write(frame.number, frame.timestampNanos, frame.jpeg)) return;
+      } catch (IOException e) {
+        Timber.e(e, "Writing frame %d failed", frame.number);
+        return;
+      }
+    }
+    if (frame.inFrameLog && listener != null) {
+      listener.onFrameSaved(frame.number, frame.timestampNanos);
+    }
+  }
+
+  public FrameWorkerPool.Stats getStats() {
+    return pool.getStats();
+  }
+
+  /** Stops accepting frames; the waiting ones are still saved, see {@link #awaitClosed}. */
+  public void close() {
+    pool.close();
+  }
+
+  /**
+   * Waits for the waiting frames to be saved, then closes the videos and writes the statistics.
+   *
+   * @return false if the workers did not finish in time; the videos are closed anyway.
+   */
+  public boolean awaitClosed(long timeoutMs) throws InterruptedException {
+    pool.close();
+    final boolean finished = pool.awaitTermination(timeoutMs);
+    close(previewVideo);
+    close(cropVideo);
+    final FrameWorkerPool.Stats stats = pool.getStats();
+    Timber.i("Frame logging: %s", stats);
+    final File folder = new File(imagesFolder);
+    if ((stats.processed > 0 || stats.dropped > 0 || stats.errors > 0)
+        && (folder.isDirectory() || folder.mkdirs())) {
+      try (Writer writer = new FileWriter(new File(folder, STATS_FILE))) {
+        writer.write(stats.toString());
+        writer.write('\n');
+      } catch (IOException e) {
+        Timber.e(e, "Writing frame statistics failed");
+      }
+    }
+    return finished;
+  }
+
+  private static void close(MjpegWriter video) {
+    if (video == null) return;
+    try {
+      video.close();
+      Timber.i("Logged %d frames, %d bytes", video.getNumFrames(), video.getNumBytes());
+    } catch (IOException e) {
+      Timber.e(e, "Closing frame video failed");
+    }
+  }
+}
@@ -31,6 +31,22 @@ public class LogDataUtils {
     return msg;
   }
 
+  /**
+   * A reading of the vehicle sensors, {@code first} for the voltage and sonar messages, {@code
+   * first} and {@code second} for the left and right wheels.
+   */
+  public static Message generateVehicleReadingMessage(
+      long timestamp, int type, float first, float second) {
+    Message msg = Message.obtain();
+    Bundle bundle = new Bundle();
+    bundle.putLong("timestamp", timestamp);
+    bundle.putFloat("first", first);
+    bundle.putFloat("second", second);
+    msg.setData(bundle);
+    msg.what = type;
+    return msg;
+  }
+
   public static Message generateInferenceTimeMessage(long frameNumber, long inferenceTime) {
     Message msg = Message.obtain();
     Bundle bundle = new Bundle();
@@ -41,11 +57,14 @@ public class LogDataUtils {
     return msg;
   }
 
-  public static Message generateFrameNumberMessage(long frameNumber) {
+  /**
+   * @param timestampNanos When the frame was taken, see {@link SystemClock#elapsedRealtimeNanos}.
+   */
+  public static Message generateFrameNumberMessage(long frameNumber, long timestampNanos) {
     Message msg = Message.obtain();
     Bundle bundle = new Bundle();
     bundle.putLong("frameNumber", frameNumber);
-    bundle.putLong("timestamp", SystemClock.elapsedRealtimeNanos());
+    bundle.putLong("timestamp", timestampNanos);
     msg.setData(bundle);
     msg.what = SensorService.MSG_FRAME;
     return msg;
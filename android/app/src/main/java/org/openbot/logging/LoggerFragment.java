@@ -5,7 +5,6 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
 import android.graphics.Bitmap;
-import android.graphics.Canvas;
 import android.graphics.Matrix;
 import android.graphics.RectF;
 import android.os.Bundle;
@@ -32,6 +31,7 @@ import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import org.jetbrains.annotations.NotNull;
 import org.openbot.R;
@@ -39,12 +39,14 @@ import org.openbot.common.CameraFragment;
 import org.openbot.databinding.FragmentLoggerBinding;
 import org.openbot.env.BotToControllerEventBus;
 import org.openbot.env.ImageUtils;
+import org.openbot.server.SessionUploader;
 import org.openbot.tflite.Model;
 import org.openbot.utils.ConnectionUtils;
 import org.openbot.utils.Constants;
 import org.openbot.utils.Enums;
-import org.openbot.utils.FormatUtils;
+import org.openbot.utils.FrameWorkerPool;
 import org.openbot.utils.PermissionUtils;
+import org.openbot.vehicle.Vehicle;
 import org.zeroturnaround.zip.ZipUtil;
 import org.zeroturnaround.zip.commons.FileUtils;
 import timber.log.Timber;
@@ -56,6 +58,8 @@ public class LoggerFragment extends CameraFragment {
   private HandlerThread handlerThread;
   private Intent intentSensorService;
   protected String logFolder;
+  // Counted down by the sensor service when the logs of the current session are closed.
+  private CountDownLatch sensorLogsClosed;
 
   protected boolean loggingEnabled;
   private boolean loggingCanceled;
@@ -65,6 +69,10 @@ public class LoggerFragment extends CameraFragment {
   private int sensorOrientation;
   private RectF cropRect;
   private boolean maintainAspectRatio;
+  // Waits this long for the last chunks before the session is uploaded as zip file instead.
+  private static final long UPLOAD_TIMEOUT_MS = 30000;
+  // Uploads the running session while it is recorded, null without a server.
+  private SessionUploader sessionUploader;
 
   @Override
   public View onCreateView(
@@ -204,7 +212,8 @@ public class LoggerFragment extends CameraFragment {
     }
   }
 
-  Messenger sensorMessenger;
+  // Read on the USB read thread by the reading listener.
+  volatile Messenger sensorMessenger;
 
   ServiceConnection sensorConnection =
       new ServiceConnection() {
@@ -221,10 +230,12 @@ public class LoggerFragment extends CameraFragment {
         }
       };
 
-  protected void sendFrameNumberToSensorService(long frameNumber) {
-    if (sensorMessenger != null) {
+  /** Called by the workers of the {@link FrameLogger} once a frame is saved. */
+  protected void sendFrameNumberToSensorService(long frameNumber, long timestampNanos) {
+    final Messenger messenger = sensorMessenger;
+    if (messenger != null) {
       try {
-        sensorMessenger.send(LogDataUtils.generateFrameNumberMessage(frameNumber));
+        messenger.send(LogDataUtils.generateFrameNumberMessage(frameNumber, timestampNanos));
       } catch (RemoteException e) {
         e.printStackTrace();
       }
@@ -253,6 +264,37 @@ public class LoggerFragment extends CameraFragment {
     }
   }
 
+  // Logs the readings on the USB read thread while logging.
+  private final Vehicle.ReadingListener readingLogger =
+      new Vehicle.ReadingListener() {
+        @Override
+        public void onVoltage(long timestampNanos, float volts) {
+          sendVehicleReadingToSensorService(timestampNanos, SensorService.MSG_VOLTAGE, volts, 0);
+        }
+
+        @Override
+        public void onSonar(long timestampNanos, float distance) {
+          sendVehicleReadingToSensorService(timestampNanos, SensorService.MSG_SONAR, distance, 0);
+        }
+
+        @Override
+        public void onWheelRpm(long timestampNanos, float left, float right) {
+          sendVehicleReadingToSensorService(timestampNanos, SensorService.MSG_WHEELS, left, right);
+        }
+      };
+
+  private void sendVehicleReadingToSensorService(
+      long timestamp, int type, float first, float second) {
+    final Messenger messenger = sensorMessenger;
+    if (messenger != null) {
+      try {
+        messenger.send(LogDataUtils.generateVehicleReadingMessage(timestamp, type, first, second));
+      } catch (RemoteException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
   protected void sendIndicatorToSensorService() {
     if (sensorMessenger != null) {
       try {
@@ -271,9 +313,24 @@ public class LoggerFragment extends CameraFragment {
             + getString(R.string.app_name)
             + File.separator
             + new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault()).format(new Date());
-    intentSensorService.putExtra("logFolder", logFolder + File.separator + "sensor_data");
+    final String sensorFolder = logFolder + File.separator + "sensor_data";
+    intentSensorService.putExtra("logFolder", sensorFolder);
+    sensorLogsClosed = SensorService.registerSession(sensorFolder);
+    frameLogger =
+        new FrameLogger(
+            logFolder + File.separator + "images",
+            preferencesManager.getVideoFrames(),
+            FrameLogger.DEFAULT_WORKERS,
+            FrameWorkerPool.DropPolicy.DROP_LOW_PRIORITY,
+            this::sendFrameNumberToSensorService);
+    final String serverUrl = serverCommunication.getServerUrl();
+    if (serverUrl != null && !serverUrl.isEmpty()) {
+      sessionUploader = new SessionUploader(serverUrl, new File(logFolder));
+      sessionUploader.start();
+    }
     requireActivity().startService(intentSensorService);
     requireActivity().bindService(intentSensorService, sensorConnection, Context.BIND_AUTO_CREATE);
+    vehicle.addReadingListener(readingLogger);
     runInBackground(
         () -> {
           try {
@@ -288,27 +345,63 @@ public class LoggerFragment extends CameraFragment {
   }
 
   private void stopLogging(boolean isCancel) {
+    vehicle.removeReadingListener(readingLogger);
+    final FrameLogger frames = frameLogger;
+    frameLogger = null;
+    if (frames != null) frames.close();
+    final SessionUploader uploader = sessionUploader;
+    sessionUploader = null;
+    final CountDownLatch sensorLogs = sensorLogsClosed;
+    sensorLogsClosed = null;
+    // Unbinding does not call onServiceDisconnected, stop sending to the service here.
+    sensorMessenger = null;
     if (sensorConnection != null) requireActivity().unbindService(sensorConnection);
     requireActivity().stopService(intentSensorService);
 
-    // Pack and upload the collected data
-    runInBackground(
-        () -> {
-          try {
-            File folder = new File(logFolder);
-            if (!isCancel) {
-              // Zip the log folder and then upload it
-              serverCommunication.upload(zip(folder));
-            }
-            TimeUnit.MILLISECONDS.sleep(500);
-            FileUtils.deleteQuietly(folder);
-          } catch (InterruptedException e) {
-            Timber.e(e, "Got interrupted.");
-          }
-        });
+    // Waiting for the files and the upload takes up to the upload timeout, so it runs on its own
+    // thread rather than the logging handler, which onPause joins.
+    final File folder = new File(logFolder);
+    new Thread(() -> finishSession(folder, frames, sensorLogs, uploader, isCancel), "FinishSession")
+        .start();
     loggingEnabled = false;
   }
 
+  /** Uploads the rest of the collected data once the files of the session are closed. */
+  private void finishSession(
+      File folder,
+      FrameLogger frames,
+      CountDownLatch sensorLogs,
+      SessionUploader uploader,
+      boolean isCancel) {
+    try {
+      boolean complete = true;
+      if (frames != null && !frames.awaitClosed(2000)) {
+        Timber.w("Frames were not all saved.");
+        complete = false;
+      }
+      if (sensorLogs != null && !sensorLogs.await(2000, TimeUnit.MILLISECONDS)) {
+        Timber.w("Sensor logs were not closed.");
+        complete = false;
+      }
+      if (isCancel) {
+        if (uploader != null) uploader.cancel();
+      } else if (!complete) {
+        // Finishing would upload files that are still written. The uploaded part and the
+        // log folder are kept, so that the upload can be resumed.
+        if (uploader != null) uploader.stop();
+        Timber.w("Session %s is incomplete, not uploaded.", folder.getName());
+        return;
+      } else if (uploader == null || !uploader.finish(UPLOAD_TIMEOUT_MS)) {
+        // Zip the log folder and then upload it
+        serverCommunication.upload(zip(folder));
+        TimeUnit.MILLISECONDS.sleep(500);
+      }
+      FileUtils.deleteQuietly(folder);
+    } catch (InterruptedException e) {
+      Timber.e(e, "Got interrupted.");
+    }
+  }
+
   private File zip(File folder) {
     String zipFileName = folder + ".zip";
     File zip = new File(zipFileName);
@@ -360,39 +453,20 @@ public class LoggerFragment extends CameraFragment {
 
   @Override
   protected void processUSBData(String data) {
-    long timestamp = SystemClock.elapsedRealtimeNanos();
-    char header = data.charAt(0);
-    String body = data.substring(1);
-    int type = -1;
-
-    switch (header) {
-      case 'v':
-        if (FormatUtils.isNumeric(body)) {
-          type = SensorService.MSG_VOLTAGE;
-        }
-        break;
-      case 's':
-        if (FormatUtils.isNumeric(body)) {
-          type = SensorService.MSG_SONAR;
-        }
-        break;
-      case 'w':
-        type = SensorService.MSG_WHEELS;
-        binding.controllerContainer.speedInfo.setText(
-            getString(
-                R.string.speedInfo,
-                String.format(
-                    Locale.US,
-                    "%3.0f,%3.0f",
-                    vehicle.getLeftWheelRpm(),
-                    vehicle.getRightWheelRpm())));
-        break;
-      case 'b':
-        type = SensorService.MSG_BUMPER;
-        break;
+    // The readings are logged by the reading listener, only the bumper reports arrive as text.
+    if (data.charAt(0) == 'b') {
+      sendVehicleDataToSensorService(
+          SystemClock.elapsedRealtimeNanos(), data.substring(1), SensorService.MSG_BUMPER);
     }
+  }
 
-    if (type > 0) sendVehicleDataToSensorService(timestamp, body, type);
+  @Override
+  protected void processVehicleReadings() {
+    binding.controllerContainer.speedInfo.setText(
+        getString(
+            R.string.speedInfo,
+            String.format(
+                Locale.US, "%3.0f,%3.0f", vehicle.getLeftWheelRpm(), vehicle.getRightWheelRpm())));
   }
 
   @Override
@@ -523,6 +597,8 @@ public class LoggerFragment extends CameraFragment {
   }
 
   private long frameNum = 0;
+  // Saves the frames of the running session, null when not logging.
+  private volatile FrameLogger frameLogger;
 
   @Override
   protected void processFrame(Bitmap bitmap, ImageProxy image) {
@@ -537,15 +613,12 @@ public class LoggerFragment extends CameraFragment {
 
       if (!binding.loggerSwitch.isChecked()) return;
 
-      if (binding.previewCheckBox.isChecked() || binding.trainingDataCheckBox.isChecked()) {
-        sendFrameNumberToSensorService(frameNum);
-      }
-
-      if (binding.previewCheckBox.isChecked()) {
-        if (bitmap != null)
-          ImageUtils.saveBitmap(
-              bitmap, logFolder + File.separator + "images", frameNum + "_preview.jpeg");
-      }
+      final FrameLogger frames = frameLogger;
+      if (frames == null) return;
+      final long timestamp = SystemClock.elapsedRealtimeNanos();
+      Matrix cropTransform = null;
+      int cropWidth = 0;
+      int cropHeight = 0;
       if (binding.trainingDataCheckBox.isChecked()) {
         if (frameToCropTransform == null)
           frameToCropTransform =
@@ -557,12 +630,19 @@ public class LoggerFragment extends CameraFragment {
                   sensorOrientation,
                   cropRect,
                   maintainAspectRatio);
-
-        final Canvas canvas = new Canvas(croppedBitmap);
-        canvas.drawBitmap(bitmap, frameToCropTransform, null);
-        ImageUtils.saveBitmap(
-            croppedBitmap, logFolder + File.separator + "images", frameNum + "_crop.jpeg");
+        cropTransform = frameToCropTransform;
+        cropWidth = croppedBitmap.getWidth();
+        cropHeight = croppedBitmap.getHeight();
       }
+      // The frame logger sends the frame number once the image is saved.
+      frames.logFrame(
+          bitmap,
+          binding.previewCheckBox.isChecked(),
+          cropTransform,
+          cropWidth,
+          cropHeight,
+          frameNum,
+          timestamp);
     }
   }
 
@@ -0,0 +1,354 @@
+package org.openbot.logging;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads the frames of a video written by {@link MjpegWriter}.
+ *
+ * <p>The frames are found with the index of the video. Frames after the last indexed one, e.g. when
+ * the app stopped before the index was written, and videos without index are found by following the
+ * structure of the JPEGs: their segments up to the scan, then the compressed data up to the end
+ * marker. Frames found this way take their frame number and timestamp from the comment segment
+ * written by {@link MjpegWriter}; frames without it have {@link #NO_FRAME_NUMBER} and {@link
+ * #NO_TIMESTAMP}, are sorted after the numbered ones and are not extracted.
+ *
+ * <pre>
+ * java org.openbot.logging.MjpegReader images/crop.mjpeg [outputDir]
+ * </pre>
+ *
+ * writes the frames as the former {@code <frame>_crop.jpeg} files.
+ */
+public class MjpegReader implements Closeable {
+
+  /** Frame number of frames that are neither in the index nor have a frame comment. */
+  public static final long NO_FRAME_NUMBER = -1;
+  /** Timestamp of frames that are neither in the index nor have a frame comment. */
+  public static final long NO_TIMESTAMP = -1;
+
+  private static final int MAX_COMMENT_LENGTH = 64;
+
+  private final RandomAccessFile file;
+  private int numFrames = 0;
+  private long[] frameNumbers = new long[256];
+  private long[] timestamps = new long[256];
+  private long[] offsets = new long[256];
+  private int[] lengths = new int[256];
+  private int numIndexed = 0;
+  private int numNumbered = 0;
+
+  public MjpegReader(File video) throws IOException {
+    file = new RandomAccessFile(video, "r");
+    try {
+      final File index = MjpegWriter.getIndexFile(video);
+      if (index.isFile()) readIndex(index);
+      numIndexed = numFrames;
+      final long end = numFrames == 0 ? 0 : offsets[numFrames - 1] + lengths[numFrames - 1];
+      if (end < file.length()) scan(video, end);
+      sortByFrameNumber();
+    } catch (IOException e) {
+      file.close();
+      throw e;
+    }
+  }
+
+  private void readIndex(File index) throws IOException {
+    final long length = file.length();
+    try (BufferedReader reader =
+        new BufferedReader(
+            new InputStreamReader(new FileInputStream(index), StandardCharsets.US_ASCII))) {
+      String line = reader.readLine();
+      if (!MjpegWriter.INDEX_HEADER.equals(line)) throw new IOException("No frame index: " + index);
+      while ((line = reader.readLine()) != null) {
+        final String[] fields = line.split(",");
+        // The last line can be incomplete.
+        if (fields.length != 4) break;
+        final long offset = Long.parseLong(fields[2]);
+        final int size = Integer.parseInt(fields[3]);
+        if (offset + size > length) break;
+        add(Long.parseLong(fields[0]), Long.parseLong(fields[1]), offset, size);
+      }
+    } catch (NumberFormatException e) {
+      // Ignore the rest of an incomplete index.
+    }
+  }
+
+  private void add(long frameNumber, long timestamp, long offset, int length) {
+    if (numFrames == offsets.length) {
+      final int capacity = 2 * numFrames;
+      frameNumbers = Arrays.copyOf(frameNumbers, capacity);
+      timestamps = Arrays.copyOf(timestamps, capacity);
+      offsets = Arrays.copyOf(offsets, capacity);
+      lengths = Arrays.copyOf(lengths, capacity);
+    }
+    frameNumbers[numFrames] = frameNumber;
+    timestamps[numFrames] = timestamp;
+    offsets[numFrames] = offset;
+    lengths[numFrames] = length;
+    numFrames++;
+  }
+
+  /**
+   * Frames compressed by several workers can be written out of order. The frames without number
+   * keep their order after the numbered ones.
+   */
+  private void sortByFrameNumber() {
+    numNumbered = 0;
+    for (int i = 0; i < numFrames; i++) if (frameNumbers[i] != NO_FRAME_NUMBER) numNumbered++;
+    boolean sorted = true;
+    for (int i = 1; i < numFrames && sorted; i++) {
+      sorted = sortKey(frameNumbers[i - 1]) <= sortKey(frameNumbers[i]);
+    }
+    if (sorted) return;
+    final Integer[] order = new Integer[numFrames];
+    for (int i = 0; i < numFrames; i++) order[i] = i;
+    // Stable, so unnumbered frames stay in the order of the video.
+    Arrays.sort(order, (a, b) -> Long.compare(sortKey(frameNumbers[a]), sortKey(frameNumbers[b])));
+    final long[] sortedNumbers = new long[frameNumbers.length];
+    final long[] sortedTimestamps = new long[timestamps.length];
+    final long[] sortedOffsets = new long[offsets.length];
+    final int[] sortedLengths = new int[lengths.length];
+    for (int i = 0; i < numFrames; i++) {
+      sortedNumbers[i] = frameNumbers[order[i]];
+      sortedTimestamps[i] = timestamps[order[i]];
+      sortedOffsets[i] = offsets[order[i]];
+      sortedLengths[i] = lengths[order[i]];
+    }
+    frameNumbers = sortedNumbers;
+    timestamps = sortedTimestamps;
+    offsets = sortedOffsets;
+    lengths = sortedLengths;
+  }
+
+  private static long sortKey(long frameNumber) {
+    return frameNumber == NO_FRAME_NUMBER ? Long.MAX_VALUE : frameNumber;
+  }
+
+  /** Finds the complete JPEGs from the offset to the end of the video. */
+  private void scan(File video, long start) throws IOException {
+    // The frame number and timestamp of the comment segment of the JPEG.
+    final long[] comment = new long[2];
+    try (CountingInput in = new CountingInput(new FileInputStream(video), start)) {
+      while (true) {
+        final long offset = findStartOfImage(in);
+        if (offset < 0) return;
+        comment[0] = NO_FRAME_NUMBER;
+        comment[1] = NO_TIMESTAMP;
+        if (!skipToEndOfImage(in, comment)) return;
+        add(comment[0], comment[1], offset, (int) (in.position - offset));
+      }
+    }
+  }
+
+  /** @return The offset of the next start of image marker, or -1 at the end of the video. */
+  private static long findStartOfImage(CountingInput in) throws IOException {
+    int previous = 0;
+    int b;
+    while ((b = in.read()) >= 0) {
+      if (previous == 0xFF && b == 0xD8) return in.position - 2;
+      previous = b;
+    }
+    return -1;
+  }
+
+  /**
+   * @param comment Set to the frame number and timestamp of a frame comment.
+   * @return false if the video ends before the end of image marker.
+   */
+  private static boolean skipToEndOfImage(CountingInput in, long[] comment) throws IOException {
+    try {
+      // Segments with a length up to the start of scan.
+      while (true) {
+        if (in.readByte() != 0xFF) return false;
+        int marker = in.readByte();
+        while (marker == 0xFF) marker = in.readByte();
+        if (marker == 0xD9) return true;
+        final int length = in.readByte() << 8 | in.readByte();
+        if (length < 2) return false;
+        if (marker == 0xFE && length - 2 <= MAX_COMMENT_LENGTH) {
+          readComment(in, length - 2, comment);
+        } else {
+          in.skipFully(length - 2);
+        }
+        if (marker == 0xDA) break;
+      }
+      // Entropy-coded data: 0xFF is followed by a stuffed 0x00, a restart or another marker.
+      while (true) {
+        if (in.readByte() != 0xFF) continue;
+        int marker = in.readByte();
+        while (marker == 0xFF) marker = in.readByte();
+        if (marker == 0x00 || (marker >= 0xD0 && marker <= 0xD7)) continue;
+        if (marker == 0xD9) return true;
+        // Another segment, e.g. the next scan of a progressive JPEG.
+        final int length = in.readByte() << 8 | in.readByte();
+        if (length < 2) return false;
+        in.skipFully(length - 2);
+      }
+    } catch (EOFException e) {
+      return false;
+    }
+  }
+
+  private static void readComment(CountingInput in, int length, long[] comment) throws IOException {
+    final byte[] bytes = new byte[length];
+    for (int i = 0; i < length; i++) bytes[i] = (byte) in.readByte();
+    final String text = new String(bytes, StandardCharsets.US_ASCII);
+    if (!text.startsWith(MjpegWriter.COMMENT_PREFIX)) return;
+    final String[] fields = text.substring(MjpegWriter.COMMENT_PREFIX.length()).split(",");
+    if (fields.length != 2) return;
+    try {
+      final long frameNumber = Long.parseLong(fields[0]);
+      final long timestamp = Long.parseLong(fields[1]);
+      comment[0] = frameNumber;
+      comment[1] = timestamp;
+    } catch (NumberFormatException e) {
+      // Not a frame comment.
+    }
+  }
+
+  private static class CountingInput extends BufferedInputStream {
+    long position;
+
+    CountingInput(InputStream in, long start) throws IOException {
+      super(in, 64 * 1024);
+      long skipped = 0;
+      while (skipped < start) {
+        final long n = in.skip(start - skipped);
+        if (n <= 0) throw new EOFException();
+        skipped += n;
+      }
+      position = start;
+    }
+
+    @Override
+    public synchronized int read() throws IOException {
+      final int b = super.read();
+      if (b >= 0) position++;
+      return b;
+    }
+
+    int readByte() throws IOException {
+      final int b = read();
+      if (b < 0) throw new EOFException();
+      return b;
+    }
+
+    void skipFully(long n) throws IOException {
+      while (n > 0) {
+        final long skipped = skip(n);
+        if (skipped <= 0) throw new EOFException();
+        position += skipped;
+        n -= skipped;
+      }
+    }
+  }
+
+  public int getNumFrames() {
+    return numFrames;
+  }
+
+  /** Number of frames found with the index; the others were found by scanning the video. */
+  public int getNumIndexedFrames() {
+    return numIndexed;
+  }
+
+  /** Number of frames with a frame number; they come first. */
+  public int getNumNumberedFrames() {
+    return numNumbered;
+  }
+
+  /** The frame number of the frame, or {@link #NO_FRAME_NUMBER}. */
+  public long getFrameNumber(int i) {
+    return frameNumbers[i];
+  }
+
+  /** The timestamp of the frame in ns, or {@link #NO_TIMESTAMP}. */
+  public long getTimestamp(int i) {
+    return timestamps[i];
+  }
+
+  public int getLength(int i) {
+    return lengths[i];
+  }
+
+  /** @return The position of the frame with the number, or -1. */
+  public int indexOf(long frameNumber) {
+    // Frame numbers increase, but frames can be missing.
+    if (frameNumber == NO_FRAME_NUMBER) return -1;
+    final int i = Arrays.binarySearch(frameNumbers, 0, numNumbered, frameNumber);
+    return i >= 0 ? i : -1;
+  }
+
+  /** Reads the JPEG of the frame into the buffer, which is grown if needed. */
+  public byte[] readFrame(int i, byte[] buffer) throws IOException {
+    final int length = lengths[i];
+    if (buffer == null || buffer.length < length) buffer = new byte[length];
+    file.seek(offsets[i]);
+    file.readFully(buffer, 0, length);
+    return buffer;
+  }
+
+  /**
+   * Writes every numbered frame into its own JPEG file, named like the frames logged without video.
+   * Frames without number are skipped, as their name would not match the frame logs.
+   *
+   * @param suffix E.g. {@code _crop.jpeg}.
+   * @return The number of files written.
+   */
+  public int extract(File outputDir, String suffix) throws IOException {
+    if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+      throw new IOException("Cannot create " + outputDir);
+    }
+    byte[] buffer = null;
+    for (int i = 0; i < numNumbered; i++) {
+      buffer = readFrame(i, buffer);
+      try (FileOutputStream out =
+          new FileOutputStream(new File(outputDir, frameNumbers[i] + suffix))) {
+        out.write(buffer, 0, lengths[i]);
+      }
+    }
+    return numNumbered;
+  }
+
+  @Override
+  public void close() throws IOException {
+    file.close();
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1) {
+      System.err.println("Usage: MjpegReader <video.mjpeg> [outputDir]");
+      System.exit(1);
+    }
+    final File video = new File(args[0]);
+    final File outputDir =
+        args.length > 1 ? new File(args[1]) : video.getAbsoluteFile().getParentFile();
+    String name = video.getName();
+    if (name.endsWith(MjpegWriter.EXTENSION)) {
+      name = name.substring(0, name.length() - MjpegWriter.EXTENSION.length());
+    }
+    try (MjpegReader reader = new MjpegReader(video)) {
+      final int written = reader.extract(outputDir, "_" + name + ".jpeg");
+      System.out.println(
+          written
+              + " frames ("
+              + (reader.getNumFrames() - reader.getNumIndexedFrames())
+              + " not indexed) written to "
+              + outputDir
+              + (written < reader.getNumFrames()
+                  ? ", " + (reader.getNumFrames() - written) + " frames without number skipped"
+                  : ""));
+    }
+  }
+}
@@ -0,0 +1,171 @@
+package org.openbot.logging;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes the logged frames of a camera stream into one Motion JPEG file, the JPEGs one after the
+ * other, instead of one file per frame.
+ *
+ * <p>An index next to the video, e.g. {@code crop_index.txt} for {@code crop.mjpeg}, has one line
+ * {@code frame,timestamp[ns],offset,length} per frame, so a frame can be read without scanning the
+ * video. The index is flushed every {@value #INDEX_FLUSH_FRAMES} frames. Each JPEG also carries its
+ * frame number and timestamp in a comment segment, {@code openbot:<frame>,<timestamp[ns]>}, so the
+ * frames after the last indexed one are still numbered when the app stopped before the index was
+ * written. Frames keep their JPEG quality; unlike a video codec, no frame depends on another one.
+ * {@link MjpegReader} reads the frames back or extracts them into the former {@code
+ * <frame>_crop.jpeg} files.
+ */
+public class MjpegWriter implements Closeable {
+
+  public static final String EXTENSION = ".mjpeg";
+  public static final String INDEX_HEADER = "frame,timestamp[ns],offset,length";
+  /** Start of the comment segment with the frame number and timestamp. */
+  public static final String COMMENT_PREFIX = "openbot:";
+
+  static final int INDEX_FLUSH_FRAMES = 30;
+
+  private static final int BUFFER_SIZE = 256 * 1024;
+
+  private final OutputStreamWithCount video;
+  private final CommentInserter commentInserter = new CommentInserter();
+  private final Writer index;
+  private final StringBuilder line = new StringBuilder(64);
+  private boolean open = true;
+  private long numFrames = 0;
+
+  private static class OutputStreamWithCount extends BufferedOutputStream {
+    long count = 0;
+
+    OutputStreamWithCount(FileOutputStream out) {
+      super(out, BUFFER_SIZE);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) throws IOException {
+      super.write(b, off, len);
+      count += len;
+    }
+
+    @Override
+    public synchronized void write(int b) throws IOException {
+      super.write(b);
+      count++;
+    }
+  }
+
+  /** Writes a JPEG to the video with the comment segment after its start of image marker. */
+  private class CommentInserter extends OutputStream {
+    final byte[] comment = new byte[64];
+    int commentLength;
+    int position;
+    int marker;
+
+    void start(long frameNumber, long timestampNanos) {
+      final byte[] text =
+          (COMMENT_PREFIX + frameNumber + ',' + timestampNanos).getBytes(StandardCharsets.US_ASCII);
+      comment[0] = (byte) 0xFF;
+      comment[1] = (byte) 0xFE;
+      comment[2] = (byte) ((text.length + 2) >> 8);
+      comment[3] = (byte) (text.length + 2);
+      System.arraycopy(text, 0, comment, 4, text.length);
+      commentLength = text.length + 4;
+      position = 0;
+      marker = 0;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      for (; position < 2 && len > 0; position++, off++, len--) {
+        marker = marker << 8 | (b[off] & 0xFF);
+        video.write(b[off]);
+        // Only into JPEGs, other data is written unchanged.
+        if (position == 1 && marker == 0xFFD8) video.write(comment, 0, commentLength);
+      }
+      video.write(b, off, len);
+      position += len;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+  }
+
+  /** The index of the video, e.g. {@code crop_index.txt} for {@code crop.mjpeg}. */
+  public static File getIndexFile(File video) {
+    String name = video.getName();
+    if (name.endsWith(EXTENSION)) name = name.substring(0, name.length() - EXTENSION.length());
+    return new File(video.getParentFile(), name + "_index.txt");
+  }
+
+  public MjpegWriter(File video) throws IOException {
+    final File dir = video.getParentFile();
+    if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+      throw new IOException("Cannot create " + dir);
+    }
+    this.video = new OutputStreamWithCount(new FileOutputStream(video));
+    index =
+        new BufferedWriter(
+            new OutputStreamWriter(
+                new FileOutputStream(getIndexFile(video)), StandardCharsets.US_ASCII));
+    index.write(INDEX_HEADER);
+    index.write('\n');
+  }
+
+  /**
+   * Appends a frame, e.g. a bitmap compressed into a buffer that is reset for every frame.
+   *
+   * @return false if the writer was already closed.
+   */
+  public synchronized boolean write(
+      long frameNumber, long timestampNanos, ByteArrayOutputStream jpeg) throws IOException {
+    if (!open) return false;
+    final long offset = video.count;
+    commentInserter.start(frameNumber, timestampNanos);
+    jpeg.writeTo(commentInserter);
+    line.setLength(0);
+    line.append(frameNumber)
+        .append(',')
+        .append(timestampNanos)
+        .append(',')
+        .append(offset)
+        .append(',')
+        .append(video.count - offset)
+        .append('\n');
+    index.append(line);
+    numFrames++;
+    // Bounds the index lines lost when the app is killed; their frames are found by scanning.
+    if (numFrames % INDEX_FLUSH_FRAMES == 0) index.flush();
+    return true;
+  }
+
+  public synchronized long getNumFrames() {
+    return numFrames;
+  }
+
+  /** Size of the video written so far. */
+  public synchronized long getNumBytes() {
+    return video.count;
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (!open) return;
+    open = false;
+    try {
+      video.close();
+    } finally {
+      index.close();
+    }
+  }
+}
@@ -23,10 +23,11 @@ import com.google.android.gms.location.LocationCallback;
 import com.google.android.gms.location.LocationRequest;
 import com.google.android.gms.location.LocationResult;
 import com.google.android.gms.location.LocationServices;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
 import org.openbot.R;
 import org.openbot.env.Logger;
 import org.openbot.env.SharedPreferencesManager;
@@ -45,25 +46,36 @@ public class SensorService extends Service implements SensorEventListener {
   private Sensor poseSensor;
   private Sensor motionSensor;
 
-  private BufferedWriter accelerometerLog;
-  private BufferedWriter gyroscopeLog;
-  private BufferedWriter gravityLog;
-  private BufferedWriter magneticLog;
-  private BufferedWriter lightLog;
-  private BufferedWriter proximityLog;
-  private BufferedWriter pressureLog;
-  private BufferedWriter temperatureLog;
-  private BufferedWriter poseLog;
-  private BufferedWriter motionLog;
-  private BufferedWriter gpsLog;
-  private BufferedWriter frameLog;
-  private BufferedWriter inferenceLog;
-  private BufferedWriter ctrlLog;
-  private BufferedWriter indicatorLog;
-  private BufferedWriter voltageLog;
-  private BufferedWriter sonarLog;
-  private BufferedWriter wheelsLog;
-  private BufferedWriter bumperLog;
+  // Ids of the logs in the log writer, -1 if not logged.
+  private int accelerometerLog = -1;
+  private int gyroscopeLog = -1;
+  private int gravityLog = -1;
+  private int magneticLog = -1;
+  private int lightLog = -1;
+  private int proximityLog = -1;
+  private int pressureLog = -1;
+  private int temperatureLog = -1;
+  private int poseLog = -1;
+  private int motionLog = -1;
+  private int gpsLog = -1;
+  private int frameLog = -1;
+  private int inferenceLog = -1;
+  private int ctrlLog = -1;
+  private int indicatorLog = -1;
+  private int voltageLog = -1;
+  private int sonarLog = -1;
+  private int wheelsLog = -1;
+  private int bumperLog = -1;
+
+  private AsyncLogWriter logWriter;
+  // Latches of the sessions that were registered but not started yet, by log folder.
+  private static final ConcurrentMap<String, CountDownLatch> pendingSessions =
+      new ConcurrentHashMap<>();
+  // Counted down when the logs of the running session are complete on the storage, or null.
+  private CountDownLatch logsClosed;
+  private final float[] stationaryValue = new float[1];
+  // Used on the main thread by the message handler.
+  private final float[] readingValues = new float[2];
 
   private boolean trackingLocation = false;
   private boolean hasStarted = false;
@@ -118,116 +130,109 @@ public class SensorService extends Service implements SensorEventListener {
       logFolder = (String) extras.get("logFolder");
     }
 
+    closeLogs();
+    logsClosed = pendingSessions.remove(logFolder);
+    logWriter = createLogWriter(logFolder);
     int delay = (int) (preferencesManager.getDelay() * 1000);
     if (preferencesManager.getSensorStatus(Enums.SensorType.ACCELEROMETER.getSensor())
         && accelerometerSensor != null) {
-      accelerometerLog = openLog(logFolder, "accelerometerLog.txt");
-      appendLog(accelerometerLog, "timestamp[ns],x[m/s^2],y[m/s^2],z[m/s^2]");
+      accelerometerLog =
+          openLog(logFolder, "accelerometerLog.txt", "timestamp[ns],x[m/s^2],y[m/s^2],z[m/s^2]");
       sensorManager.registerListener(this, accelerometerSensor, delay);
     }
 
     if (preferencesManager.getSensorStatus(Enums.SensorType.GYROSCOPE.getSensor())
         && gyroscopeSensor != null) {
-      gyroscopeLog = openLog(logFolder, "gyroscopeLog.txt");
-      appendLog(gyroscopeLog, "timestamp[ns],x[rad/s],y[rad/s],z[rad/s]");
+      gyroscopeLog =
+          openLog(logFolder, "gyroscopeLog.txt", "timestamp[ns],x[rad/s],y[rad/s],z[rad/s]");
       sensorManager.registerListener(this, gyroscopeSensor, delay);
     }
 
     if (preferencesManager.getSensorStatus(Enums.SensorType.GRAVITY.getSensor())
         && gravitySensor != null) {
-      gravityLog = openLog(logFolder, "gravityLog.txt");
-      appendLog(gravityLog, "timestamp[ns],x[m/s^2],y[m/s^2],z[m/s^2]");
+      gravityLog = openLog(logFolder, "gravityLog.txt", "timestamp[ns],x[m/s^2],y[m/s^2],z[m/s^2]");
       sensorManager.registerListener(this, gravitySensor, delay);
     }
 
     if (preferencesManager.getSensorStatus(Enums.SensorType.MAGNETIC.getSensor())
         && magneticSensor != null) {
-      magneticLog = openLog(logFolder, "magneticLog.txt");
-      appendLog(magneticLog, "timestamp[ns],x[uT],y[uT],z[uT]");
+      magneticLog = openLog(logFolder, "magneticLog.txt", "timestamp[ns],x[uT],y[uT],z[uT]");
       sensorManager.registerListener(this, magneticSensor, delay);
     }
 
     if (preferencesManager.getSensorStatus(Enums.SensorType.LIGHT.getSensor())
         && lightSensor != null) {
-      lightLog = openLog(logFolder, "lightLog.txt");
-      appendLog(lightLog, "timestamp[ns],light[lux]");
+      lightLog = openLog(logFolder, "lightLog.txt", "timestamp[ns],light[lux]");
       sensorManager.registerListener(this, lightSensor, delay);
     }
 
     if (preferencesManager.getSensorStatus(Enums.SensorType.PROXIMITY.getSensor())
         && proximitySensor != null) {
-      proximityLog = openLog(logFolder, "proximityLog.txt");
-      appendLog(proximityLog, "timestamp[ns],proximity[cm]");
+      proximityLog = openLog(logFolder, "proximityLog.txt", "timestamp[ns],proximity[cm]");
       sensorManager.registerListener(this, proximitySensor, delay);
     }
 
     if (preferencesManager.getSensorStatus(Enums.SensorType.PRESSURE.getSensor())
         && pressureSensor != null) {
-      pressureLog = openLog(logFolder, "pressureLog.txt");
-      appendLog(pressureLog, "timestamp[ns],pressure[hPa]");
+      pressureLog = openLog(logFolder, "pressureLog.txt", "timestamp[ns],pressure[hPa]");
       sensorManager.registerListener(this, pressureSensor, delay);
     }
 
     if (preferencesManager.getSensorStatus(Enums.SensorType.TEMPERATURE.getSensor())
         && temperatureSensor != null) {
-      temperatureLog = openLog(logFolder, "temperatureLog.txt");
-      appendLog(temperatureLog, "timestamp[ns],temperature[degrees]");
+      temperatureLog =
+          openLog(logFolder, "temperatureLog.txt", "timestamp[ns],temperature[degrees]");
       sensorManager.registerListener(this, temperatureSensor, delay);
     }
 
     if (preferencesManager.getSensorStatus(Enums.SensorType.POSE.getSensor())
         && poseSensor != null) {
-      poseLog = openLog(logFolder, "poseLog.txt");
-      appendLog(poseLog, "timestamp[ns],x,y,z,w,x,y,z,dx,dy,dz,dw,dx,dy,dz,id");
+      poseLog =
+          openLog(logFolder, "poseLog.txt", "timestamp[ns],x,y,z,w,x,y,z,dx,dy,dz,dw,dx,dy,dz,id");
       sensorManager.registerListener(this, poseSensor, delay);
     }
 
     if (preferencesManager.getSensorStatus(Enums.SensorType.MOTION.getSensor())
         && motionSensor != null) {
-      motionLog = openLog(logFolder, "motionLog.txt");
-      appendLog(motionLog, "timestamp[ns],motion");
+      motionLog = openLog(logFolder, "motionLog.txt", "timestamp[ns],motion");
       sensorManager.registerListener(this, motionSensor, delay);
     }
 
     if (preferencesManager.getSensorStatus(Enums.SensorType.GPS.getSensor())) {
-      gpsLog = openLog(logFolder, "gpsLog.txt");
-      appendLog(gpsLog, "timestamp[ns],latitude,longitude,altitude[m],bearing,speed[m/s]");
+      gpsLog =
+          openLog(
+              logFolder,
+              "gpsLog.txt",
+              "timestamp[ns],latitude,longitude,altitude[m],bearing,speed[m/s]");
     }
 
-    frameLog = openLog(logFolder, "rgbFrames.txt");
-    appendLog(frameLog, "timestamp[ns],frame");
+    frameLog = openLog(logFolder, "rgbFrames.txt", "timestamp[ns],frame");
 
-    inferenceLog = openLog(logFolder, "inferenceTime.txt");
-    appendLog(inferenceLog, "frame, inferenceTime [ns]");
+    inferenceLog = openLog(logFolder, "inferenceTime.txt", "frame, inferenceTime [ns]");
 
-    ctrlLog = openLog(logFolder, "ctrlLog.txt");
-    appendLog(ctrlLog, "timestamp[ns],leftCtrl,rightCtrl");
+    ctrlLog = openLog(logFolder, "ctrlLog.txt", "timestamp[ns],leftCtrl,rightCtrl");
 
-    indicatorLog = openLog(logFolder, "indicatorLog.txt");
-    appendLog(indicatorLog, "timestamp[ns],signal");
+    indicatorLog = openLog(logFolder, "indicatorLog.txt", "timestamp[ns],signal");
 
     if (preferencesManager.getSensorStatus(Enums.SensorType.VEHICLE.getSensor())) {
-      voltageLog = openLog(logFolder, "voltageLog.txt");
-      appendLog(voltageLog, "timestamp[ns],batteryVoltage");
-      sonarLog = openLog(logFolder, "sonarLog.txt");
-      appendLog(sonarLog, "timestamp[ns],distance[cm]");
-      wheelsLog = openLog(logFolder, "wheelsLog.txt");
-      appendLog(wheelsLog, "timestamp[ns],leftWheel,rightWheel");
-      bumperLog = openLog(logFolder, "bumperLog.txt");
-      appendLog(bumperLog, "timestamp[ns],bumper");
+      voltageLog = openLog(logFolder, "voltageLog.txt", "timestamp[ns],batteryVoltage");
+      sonarLog = openLog(logFolder, "sonarLog.txt", "timestamp[ns],distance[cm]");
+      wheelsLog = openLog(logFolder, "wheelsLog.txt", "timestamp[ns],leftWheel,rightWheel");
+      bumperLog = openLog(logFolder, "bumperLog.txt", "timestamp[ns],bumper");
     }
 
     locationCallback =
         new LocationCallback() {
           @Override
           public void onLocationResult(LocationResult locationResult) {
+            // Results delivered after the logs were closed are dropped.
+            final AsyncLogWriter writer = logWriter;
             Location location = locationResult.getLastLocation();
-            if (location != null) {
-              appendLog(
+            if (location != null && writer != null) {
+              writer.log(
                   gpsLog,
-                  location.getElapsedRealtimeNanos()
-                      + ","
-                      + location.getLatitude()
+                  location.getElapsedRealtimeNanos(),
+                  location.getLatitude()
                       + ","
                       + location.getLongitude()
                       + ","
@@ -240,6 +245,7 @@ public class SensorService extends Service implements SensorEventListener {
           }
         };
 
+    logWriter.start();
     startTrackingLocation();
     hasStarted = true;
 
@@ -263,76 +269,47 @@ public class SensorService extends Service implements SensorEventListener {
     // The light sensor returns a single value.
     // Many sensors return 3 values, one for each axis.
     String sensorName = event.sensor.getName();
+    // Events still queued when the logs were closed are dropped.
+    final AsyncLogWriter writer = logWriter;
+    if (writer == null) return;
     // Do something with this sensor value.
     switch (event.sensor.getType()) {
       case Sensor.TYPE_ACCELEROMETER:
         // Acceleration including gravity along the X, Y and Z axis
         // Units are m/s^2
-        appendLog(
-            accelerometerLog,
-            event.timestamp
-                + ","
-                + event.values[0]
-                + ","
-                + event.values[1]
-                + ","
-                + event.values[2]);
+        writer.log(accelerometerLog, event.timestamp, event.values, 3);
         break;
       case Sensor.TYPE_GYROSCOPE:
         // Angular speed around the device's local X, Y and Z axis
         // Units are radians/second
         // The coordinate system is the same as is used by the acceleration sensor
-        appendLog(
-            gyroscopeLog,
-            event.timestamp
-                + ","
-                + event.values[0]
-                + ","
-                + event.values[1]
-                + ","
-                + event.values[2]);
+        writer.log(gyroscopeLog, event.timestamp, event.values, 3);
         break;
       case Sensor.TYPE_GRAVITY:
         // A three dimensional vector indicating the direction and magnitude of gravity
         // Units are m/s^2
         // The coordinate system is the same as is used by the acceleration sensor
-        appendLog(
-            gravityLog,
-            event.timestamp
-                + ","
-                + event.values[0]
-                + ","
-                + event.values[1]
-                + ","
-                + event.values[2]);
+        writer.log(gravityLog, event.timestamp, event.values, 3);
         break;
       case Sensor.TYPE_MAGNETIC_FIELD:
         // Ambient magnetic field in the X, Y and Z axis in micro-Tesla (uT).
-        appendLog(
-            magneticLog,
-            event.timestamp
-                + ","
-                + event.values[0]
-                + ","
-                + event.values[1]
-                + ","
-                + event.values[2]);
+        writer.log(magneticLog, event.timestamp, event.values, 3);
         break;
       case Sensor.TYPE_LIGHT:
         // Ambient light level in SI lux units
-        appendLog(lightLog, event.timestamp + "," + event.values[0]);
+        writer.log(lightLog, event.timestamp, event.values, 1);
         break;
       case Sensor.TYPE_PROXIMITY:
         // Proximity sensor distance measured in centimeters
-        appendLog(proximityLog, event.timestamp + "," + event.values[0]);
+        writer.log(proximityLog, event.timestamp, event.values, 1);
         break;
       case Sensor.TYPE_PRESSURE:
         // Atmospheric pressure in mPa (millibar)
-        appendLog(pressureLog, event.timestamp + "," + event.values[0]);
+        writer.log(pressureLog, event.timestamp, event.values, 1);
         break;
       case Sensor.TYPE_AMBIENT_TEMPERATURE:
         // Ambient temperature in degrees
-        appendLog(temperatureLog, event.timestamp + "," + event.values[0]);
+        writer.log(temperatureLog, event.timestamp, event.values, 1);
         break;
       case Sensor.TYPE_POSE_6DOF:
         // values[0]: x*sin(θ/2)
@@ -350,45 +327,14 @@ public class SensorService extends Service implements SensorEventListener {
         // values[12]: Delta translation along y axis.
         // values[13]: Delta translation along z axis.
         // values[14]: Sequence number
-        appendLog(
-            poseLog,
-            event.timestamp
-                + ","
-                + event.values[0]
-                + ","
-                + event.values[1]
-                + ","
-                + event.values[2]
-                + ","
-                + event.values[3]
-                + ","
-                + event.values[4]
-                + ","
-                + event.values[5]
-                + ","
-                + event.values[6]
-                + ","
-                + event.values[7]
-                + ","
-                + event.values[8]
-                + ","
-                + event.values[9]
-                + ","
-                + event.values[10]
-                + ","
-                + event.values[11]
-                + ","
-                + event.values[12]
-                + ","
-                + event.values[13]
-                + ","
-                + event.values[14]);
+        writer.log(poseLog, event.timestamp, event.values, 15);
         break;
       case Sensor.TYPE_MOTION_DETECT:
-        appendLog(motionLog, event.timestamp + "," + event.values[0]);
+        writer.log(motionLog, event.timestamp, event.values, 1);
         break;
       case Sensor.TYPE_STATIONARY_DETECT:
-        appendLog(motionLog, event.timestamp + "," + (-1) * event.values[0]);
+        stationaryValue[0] = (-1) * event.values[0];
+        writer.log(motionLog, event.timestamp, stationaryValue, 1);
         break;
       default:
         // Unknown sensor
@@ -396,43 +342,43 @@ public class SensorService extends Service implements SensorEventListener {
     }
   }
 
+  /** Logs a message of {@link LogDataUtils#generateVehicleReadingMessage}. */
+  private void logReading(AsyncLogWriter writer, int log, Bundle data, int count) {
+    readingValues[0] = data.getFloat("first");
+    readingValues[1] = data.getFloat("second");
+    writer.log(log, data.getLong("timestamp"), readingValues, count);
+  }
+
   private class SensorMessageHandler extends android.os.Handler {
     @Override
     public void handleMessage(Message msg) {
-      if (hasStarted) {
+      // Messages still queued when the logs were closed are dropped.
+      final AsyncLogWriter writer = logWriter;
+      if (hasStarted && writer != null) {
         if (msg.what == MSG_FRAME) {
           long frameNumber = msg.getData().getLong("frameNumber");
           long timestamp = msg.getData().getLong("timestamp");
-          if (frameLog != null) appendLog(frameLog, timestamp + "," + frameNumber);
+          writer.log(frameLog, timestamp, frameNumber);
         } else if (msg.what == MSG_INFERENCE) {
           long frameNumber = msg.getData().getLong("frameNumber");
           long inferenceTime = msg.getData().getLong("inferenceTime");
-          if (inferenceLog != null) appendLog(inferenceLog, frameNumber + "," + inferenceTime);
+          writer.log(inferenceLog, frameNumber, inferenceTime);
         } else if (msg.what == MSG_CONTROL) {
           // msg.arg1 and msg.arg2 contain left and right control signals respectively
-          if (ctrlLog != null)
-            appendLog(
-                ctrlLog, SystemClock.elapsedRealtimeNanos() + "," + msg.arg1 + "," + msg.arg2);
+          writer.log(ctrlLog, SystemClock.elapsedRealtimeNanos(), msg.arg1, msg.arg2);
         } else if (msg.what == MSG_INDICATOR) {
           // msg.arg1 contains indicator signal
-          if (indicatorLog != null)
-            appendLog(indicatorLog, SystemClock.elapsedRealtimeNanos() + "," + msg.arg1);
+          writer.log(indicatorLog, SystemClock.elapsedRealtimeNanos(), msg.arg1);
         } else if (msg.what == MSG_VOLTAGE) {
-          long timestamp = msg.getData().getLong("timestamp");
-          String data = msg.getData().getString("data");
-          if (voltageLog != null) appendLog(voltageLog, timestamp + "," + data);
+          logReading(writer, voltageLog, msg.getData(), 1);
         } else if (msg.what == MSG_SONAR) {
-          long timestamp = msg.getData().getLong("timestamp");
-          String data = msg.getData().getString("data");
-          if (sonarLog != null) appendLog(sonarLog, timestamp + "," + data);
+          logReading(writer, sonarLog, msg.getData(), 1);
         } else if (msg.what == MSG_WHEELS) {
-          long timestamp = msg.getData().getLong("timestamp");
-          String data = msg.getData().getString("data");
-          if (wheelsLog != null) appendLog(wheelsLog, timestamp + "," + data);
+          logReading(writer, wheelsLog, msg.getData(), 2);
         } else if (msg.what == MSG_BUMPER) {
           long timestamp = msg.getData().getLong("timestamp");
           String data = msg.getData().getString("data");
-          if (bumperLog != null) appendLog(bumperLog, timestamp + "," + data);
+          writer.log(bumperLog, timestamp, data);
         } else LOGGER.d("Message skipped.");
       }
     }
@@ -443,75 +389,53 @@ public class SensorService extends Service implements SensorEventListener {
     hasStarted = false;
     sensorManager.unregisterListener(this);
     stopTrackingLocation();
-
-    if (accelerometerLog != null) closeLog(accelerometerLog);
-    if (gyroscopeLog != null) closeLog(gyroscopeLog);
-    if (gravityLog != null) closeLog(gravityLog);
-    if (magneticLog != null) closeLog(magneticLog);
-    if (lightLog != null) closeLog(lightLog);
-    if (proximityLog != null) closeLog(proximityLog);
-    if (pressureLog != null) closeLog(pressureLog);
-    if (temperatureLog != null) closeLog(temperatureLog);
-    if (poseLog != null) closeLog(poseLog);
-    if (motionLog != null) closeLog(motionLog);
-    if (gpsLog != null) closeLog(gpsLog);
-    if (frameLog != null) closeLog(frameLog);
-    if (inferenceLog != null) closeLog(inferenceLog);
-    if (ctrlLog != null) closeLog(ctrlLog);
-    if (indicatorLog != null) closeLog(indicatorLog);
-    if (voltageLog != null) closeLog(voltageLog);
-    if (sonarLog != null) closeLog(sonarLog);
-    if (wheelsLog != null) closeLog(wheelsLog);
-    if (bumperLog != null) closeLog(bumperLog);
+    closeLogs();
   }
 
-  public BufferedWriter openLog(String path, String filename) {
-    LOGGER.i("Opening log file: " + filename);
-    final File myDir = new File(path);
-
-    if (!myDir.exists()) {
-      if (!myDir.mkdirs()) {
-        LOGGER.i("Make dir failed");
-      }
+  private void closeLogs() {
+    if (logWriter != null) {
+      logWriter.close();
+      LOGGER.i("Sensor logs closed: " + logWriter);
+      logWriter = null;
+    }
+    if (logsClosed != null) {
+      logsClosed.countDown();
+      logsClosed = null;
     }
+  }
 
-    final File file = new File(myDir, filename);
+  /**
+   * Registers a session that will be started with the given {@code logFolder} extra. The last lines
+   * are written in {@link #onDestroy}, so the log folder must not be packed before the returned
+   * latch is counted down.
+   *
+   * @return A latch counted down when the logs of this session are closed.
+   */
+  public static CountDownLatch registerSession(String logFolder) {
+    final CountDownLatch closed = new CountDownLatch(1);
+    pendingSessions.put(logFolder, closed);
+    return closed;
+  }
 
-    if (!file.exists()) {
+  /** Writes one binary session file if enabled in the settings, otherwise one text file per log. */
+  private AsyncLogWriter createLogWriter(String logFolder) {
+    if (preferencesManager.getBinaryLogs()) {
+      File file = new File(logFolder, SessionWriter.FILE_NAME);
       try {
-        file.createNewFile();
+        if (file.getParentFile().mkdirs()) LOGGER.i("Created log folder: " + logFolder);
+        return new AsyncLogWriter(new SessionWriter(file));
       } catch (IOException e) {
-        // TODO Auto-generated catch block
-        e.printStackTrace();
+        LOGGER.e(e, "Opening session file failed, writing text logs");
       }
     }
-
-    try {
-      // BufferedWriter for performance, true to set append to file flag
-      return new BufferedWriter(new FileWriter(file, true));
-    } catch (IOException e) {
-      // TODO Auto-generated catch block
-      e.printStackTrace();
-      return null;
-    }
+    return new AsyncLogWriter();
   }
 
-  public void appendLog(BufferedWriter writer, String text) {
-    try {
-      writer.append(text);
-      writer.newLine();
-      writer.flush();
-    } catch (Exception e) {
-      e.printStackTrace();
-    }
-  }
-
-  public void closeLog(BufferedWriter writer) {
-    try {
-      writer.close();
-    } catch (IOException e) {
-      e.printStackTrace();
-    }
+  private int openLog(String path, String filename, String header) {
+    LOGGER.i("Opening log file: " + filename);
+    final int log = logWriter.open(new File(path, filename), header);
+    if (log < 0) LOGGER.e("Opening log file failed: " + filename);
+    return log;
   }
 
   private void startTrackingLocation() {
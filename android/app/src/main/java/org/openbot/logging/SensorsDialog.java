@@ -97,6 +97,13 @@ public class SensorsDialog extends DialogFragment {
           adapter.notifyDataSetChanged();
         });
 
+    binding.binaryLogs.setChecked(preferencesManager.getBinaryLogs());
+    binding.binaryLogs.setOnCheckedChangeListener(
+        (buttonView, isChecked) -> preferencesManager.setBinaryLogs(isChecked));
+    binding.videoFrames.setChecked(preferencesManager.getVideoFrames());
+    binding.videoFrames.setOnCheckedChangeListener(
+        (buttonView, isChecked) -> preferencesManager.setVideoFrames(isChecked));
+
     binding.delay.setText(String.valueOf(preferencesManager.getDelay()));
     binding.delay.addTextChangedListener(
         new TextWatcher() {
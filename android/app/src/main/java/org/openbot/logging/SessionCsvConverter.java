@@ -0,0 +1,69 @@
+package org.openbot.logging;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.openbot.logging.SessionFormat.Channel;
+
+/**
+ * Converts a binary session file into the text logs that {@link SessionWriter} replaced, with the
+ * same names, headers and lines, so the scripts of the policy folder can read the session.
+ *
+ * <pre>
+ * java org.openbot.logging.SessionCsvConverter sensor_data/sensorData.bin [outputDir]
+ * </pre>
+ */
+public final class SessionCsvConverter {
+
+  private SessionCsvConverter() {}
+
+  /**
+   * Writes one text log per channel of the session into the directory.
+   *
+   * @return The written files.
+   */
+  public static List<File> convert(File sessionFile, File outputDir) throws IOException {
+    final List<File> files = new ArrayList<>();
+    if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+      throw new IOException("Cannot create " + outputDir);
+    }
+    try (SessionReader reader = new SessionReader(sessionFile)) {
+      final StringBuilder line = new StringBuilder(256);
+      for (Channel channel : reader.getChannels()) {
+        final File file = new File(outputDir, channel.getName());
+        try (Writer writer =
+            new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8),
+                64 * 1024)) {
+          if (!channel.getHeader().isEmpty()) writer.append(channel.getHeader()).append('\n');
+          final SessionReader.Cursor cursor = reader.read(channel);
+          while (cursor.next()) {
+            line.setLength(0);
+            cursor.appendLine(line);
+            line.append('\n');
+            writer.append(line);
+          }
+        }
+        files.add(file);
+      }
+    }
+    return files;
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1) {
+      System.err.println("Usage: SessionCsvConverter <sessionFile> [outputDir]");
+      System.exit(1);
+    }
+    final File sessionFile = new File(args[0]);
+    final File outputDir =
+        args.length > 1 ? new File(args[1]) : sessionFile.getAbsoluteFile().getParentFile();
+    for (File file : convert(sessionFile, outputDir)) System.out.println(file);
+  }
+}
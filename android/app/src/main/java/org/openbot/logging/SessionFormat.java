@@ -0,0 +1,174 @@
+package org.openbot.logging;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Layout of the binary session file written by {@link SessionWriter} and read by {@link
+ * SessionReader}. All numbers are big-endian, as written by {@link java.io.DataOutputStream}.
+ *
+ * <pre>
+ * file    = MAGIC VERSION chunk* [index trailer]
+ * chunk   = CHANNEL id name header numColumns type*
+ *         | BLOCK channel count minTimestamp maxTimestamp rawLength compressedLength crc32 data
+ * index   = INDEX numChannels (id name header numColumns type*)* numBlocks
+ *           (channel count minTimestamp maxTimestamp offset)*
+ * trailer = indexOffset TRAILER_MAGIC
+ * </pre>
+ *
+ * A block holds up to a few thousand records of one channel, column by column: the timestamps as
+ * differences to the previous one, then every column. Numbers are stored with a fixed width and
+ * their bytes shuffled, i.e. the first bytes of all values of the column, then the second bytes and
+ * so on. Texts are stored as all their lengths, shuffled like numbers, followed by all their UTF-8
+ * bytes. The block is compressed with deflate. The index at the end lists every block, so a reader
+ * finds the blocks of a channel and a time range without reading the others. A file without index,
+ * e.g. after a crash, can still be read up to its last complete block.
+ */
+public final class SessionFormat {
+
+  /** "OBSD" */
+  static final int MAGIC = 0x4F425344;
+
+  static final int VERSION = 1;
+  /** "OBSI" */
+  static final int TRAILER_MAGIC = 0x4F425349;
+
+  static final int TRAILER_SIZE = 12;
+
+  static final byte CHANNEL = 'C';
+  static final byte BLOCK = 'B';
+  static final byte INDEX = 'I';
+
+  /** Size of a block chunk before its data. */
+  static final int BLOCK_HEADER_SIZE = 1 + 4 + 4 + 8 + 8 + 4 + 4 + 4;
+
+  private SessionFormat() {}
+
+  public enum ColumnType {
+    FLOAT32(4),
+    FLOAT64(8),
+    INT64(8),
+    TEXT(0);
+
+    /** Size of a value in bytes, 0 for variable length. */
+    final int size;
+
+    ColumnType(int size) {
+      this.size = size;
+    }
+  }
+
+  /** A log of the session, e.g. the accelerometer, with a timestamp and a fixed set of columns. */
+  public static class Channel {
+    private final int id;
+    private final String name;
+    private final String header;
+    private final ColumnType[] columns;
+    final List<Block> blocks = new ArrayList<>();
+    // Largest timestamp of the blocks up to each block, for the search by time.
+    private long[] maxTimestamps = new long[0];
+
+    Channel(int id, String name, String header, ColumnType[] columns) {
+      this.id = id;
+      this.name = name;
+      this.header = header;
+      this.columns = columns;
+    }
+
+    public int getId() {
+      return id;
+    }
+
+    /** Name of the text log of the channel, e.g. {@code accelerometerLog.txt}. */
+    public String getName() {
+      return name;
+    }
+
+    /** First line of the text log of the channel. */
+    public String getHeader() {
+      return header;
+    }
+
+    public int getNumColumns() {
+      return columns.length;
+    }
+
+    public ColumnType getColumnType(int column) {
+      return columns[column];
+    }
+
+    ColumnType[] getColumns() {
+      return columns;
+    }
+
+    public List<Block> getBlocks() {
+      return Collections.unmodifiableList(blocks);
+    }
+
+    public long getNumRecords() {
+      long count = 0;
+      for (Block block : blocks) count += block.count;
+      return count;
+    }
+
+    void addBlock(Block block) {
+      blocks.add(block);
+    }
+
+    /** Index of the first block that can hold a record at or after the timestamp. */
+    int findBlock(long timestamp) {
+      if (maxTimestamps.length != blocks.size()) {
+        maxTimestamps = new long[blocks.size()];
+        long max = Long.MIN_VALUE;
+        for (int i = 0; i < maxTimestamps.length; i++) {
+          max = Math.max(max, blocks.get(i).maxTimestamp);
+          maxTimestamps[i] = max;
+        }
+      }
+      int low = 0;
+      int high = blocks.size();
+      while (low < high) {
+        final int mid = (low + high) >>> 1;
+        if (maxTimestamps[mid] < timestamp) low = mid + 1;
+        else high = mid;
+      }
+      return low;
+    }
+
+    @Override
+    public String toString() {
+      return name + " " + Arrays.toString(columns);
+    }
+  }
+
+  /** Position and time range of a block in the file. */
+  public static class Block {
+    final int channel;
+    final int count;
+    final long minTimestamp;
+    final long maxTimestamp;
+    final long offset;
+
+    Block(int channel, int count, long minTimestamp, long maxTimestamp, long offset) {
+      this.channel = channel;
+      this.count = count;
+      this.minTimestamp = minTimestamp;
+      this.maxTimestamp = maxTimestamp;
+      this.offset = offset;
+    }
+
+    public int getCount() {
+      return count;
+    }
+
+    public long getMinTimestamp() {
+      return minTimestamp;
+    }
+
+    public long getMaxTimestamp() {
+      return maxTimestamp;
+    }
+  }
+}
@@ -0,0 +1,312 @@
+package org.openbot.logging;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import org.openbot.logging.SessionFormat.Block;
+import org.openbot.logging.SessionFormat.Channel;
+import org.openbot.logging.SessionFormat.ColumnType;
+
+/**
+ * Reads a session file written by {@link SessionWriter}. Opening reads only the index at the end of
+ * the file; the blocks of a channel are read and decompressed while its records are iterated. Files
+ * without index, e.g. of a session that did not end, are scanned once up to the last complete
+ * block.
+ */
+public class SessionReader implements Closeable {
+
+  private final RandomAccessFile file;
+  private final List<Channel> channels = new ArrayList<>();
+  private final boolean complete;
+
+  public SessionReader(File file) throws IOException {
+    this.file = new RandomAccessFile(file, "r");
+    try {
+      if (this.file.length() < 8
+          || this.file.readInt() != SessionFormat.MAGIC
+          || this.file.readInt() != SessionFormat.VERSION) {
+        throw new IOException("Not a session file: " + file);
+      }
+      complete = readIndex();
+      if (!complete) scan();
+    } catch (IOException e) {
+      this.file.close();
+      throw e;
+    }
+  }
+
+  private boolean readIndex() throws IOException {
+    final long length = file.length();
+    if (length < 8 + SessionFormat.TRAILER_SIZE) return false;
+    file.seek(length - SessionFormat.TRAILER_SIZE);
+    final long indexOffset = file.readLong();
+    if (file.readInt() != SessionFormat.TRAILER_MAGIC || indexOffset < 8 || indexOffset >= length) {
+      return false;
+    }
+    final byte[] index = new byte[(int) (length - SessionFormat.TRAILER_SIZE - indexOffset)];
+    file.seek(indexOffset);
+    file.readFully(index);
+    final DataInputStream in = new DataInputStream(new ByteArrayInputStream(index));
+    if (in.readByte() != SessionFormat.INDEX) return false;
+    final int numChannels = in.readInt();
+    for (int i = 0; i < numChannels; i++) channels.add(readChannel(in));
+    final int numBlocks = in.readInt();
+    for (int i = 0; i < numBlocks; i++) {
+      final int channel = in.readInt();
+      final int count = in.readInt();
+      final long minTimestamp = in.readLong();
+      final long maxTimestamp = in.readLong();
+      final long offset = in.readLong();
+      channels.get(channel).addBlock(new Block(channel, count, minTimestamp, maxTimestamp, offset));
+    }
+    return true;
+  }
+
+  private static Channel readChannel(DataInput in) throws IOException {
+    final int id = in.readInt();
+    final String name = in.readUTF();
+    final String header = in.readUTF();
+    final ColumnType[] columns = new ColumnType[in.readUnsignedByte()];
+    final ColumnType[] types = ColumnType.values();
+    for (int i = 0; i < columns.length; i++) {
+      final int type = in.readUnsignedByte();
+      if (type >= types.length) throw new IOException("Unknown column type " + type);
+      columns[i] = types[type];
+    }
+    return new Channel(id, name, header, columns);
+  }
+
+  /** Rebuilds the index from the chunks, up to the first incomplete one. */
+  private void scan() throws IOException {
+    final long length = file.length();
+    long offset = 8;
+    file.seek(offset);
+    try {
+      while (offset < length) {
+        final byte type = file.readByte();
+        if (type == SessionFormat.CHANNEL) {
+          final Channel channel = readChannel(file);
+          if (channel.getId() != channels.size()) break;
+          channels.add(channel);
+        } else if (type == SessionFormat.BLOCK) {
+          final int channel = file.readInt();
+          final int count = file.readInt();
+          final long minTimestamp = file.readLong();
+          final long maxTimestamp = file.readLong();
+          file.readInt();
+          final int compressedLength = file.readInt();
+          if (channel < 0 || channel >= channels.size()) break;
+          if (offset + SessionFormat.BLOCK_HEADER_SIZE + compressedLength > length) break;
+          channels
+              .get(channel)
+              .addBlock(new Block(channel, count, minTimestamp, maxTimestamp, offset));
+          file.seek(offset + SessionFormat.BLOCK_HEADER_SIZE + compressedLength);
+        } else {
+          break;
+        }
+        offset = file.getFilePointer();
+      }
+    } catch (EOFException e) {
+      // The last chunk is incomplete.
+    }
+  }
+
+  /** Whether the file has its index, i.e. the session was closed. */
+  public boolean isComplete() {
+    return complete;
+  }
+
+  public List<Channel> getChannels() {
+    return Collections.unmodifiableList(channels);
+  }
+
+  /** The channel of the text log with the name, e.g. {@code gyroscopeLog.txt}, or null. */
+  public Channel getChannel(String name) {
+    for (Channel channel : channels) if (channel.getName().equals(name)) return channel;
+    return null;
+  }
+
+  /** Iterates all records of the channel. */
+  public Cursor read(Channel channel) {
+    return read(channel, Long.MIN_VALUE);
+  }
+
+  /** Iterates the records of the channel from the first one at or after the timestamp. */
+  public Cursor read(Channel channel, long fromTimestamp) {
+    return new Cursor(channel, fromTimestamp);
+  }
+
+  @Override
+  public void close() throws IOException {
+    file.close();
+  }
+
+  /** The records of a channel in the order they were written. */
+  public class Cursor {
+    private final Channel channel;
+    private final long fromTimestamp;
+    private final Inflater inflater = new Inflater();
+    private final CRC32 crc = new CRC32();
+    private final int[] offsets;
+    // Start of the bytes of the current text of each text column.
+    private final int[] textOffsets;
+    private int nextBlock;
+    private byte[] compressed = new byte[0];
+    private byte[] raw = new byte[0];
+    private int count = 0;
+    private int index = -1;
+    private long timestamp;
+
+    Cursor(Channel channel, long fromTimestamp) {
+      this.channel = channel;
+      this.fromTimestamp = fromTimestamp;
+      offsets = new int[channel.getNumColumns()];
+      textOffsets = new int[channel.getNumColumns()];
+      nextBlock = channel.findBlock(fromTimestamp);
+    }
+
+    /** Moves to the next record; false at the end of the channel. */
+    public boolean next() throws IOException {
+      while (true) {
+        if (index + 1 >= count) {
+          if (nextBlock >= channel.blocks.size()) {
+            inflater.end();
+            return false;
+          }
+          readBlock(channel.blocks.get(nextBlock++));
+          index = -1;
+          timestamp = 0;
+        }
+        index++;
+        if (index > 0) advanceTexts();
+        timestamp += get(0, 8);
+        if (timestamp >= fromTimestamp) return true;
+      }
+    }
+
+    private void readBlock(Block block) throws IOException {
+      file.seek(block.offset);
+      if (file.readByte() != SessionFormat.BLOCK || file.readInt() != channel.getId()) {
+        throw new IOException("No block of " + channel.getName() + " at " + block.offset);
+      }
+      count = file.readInt();
+      file.readLong();
+      file.readLong();
+      final int rawLength = file.readInt();
+      final int compressedLength = file.readInt();
+      final int checksum = file.readInt();
+      if (compressed.length < compressedLength) compressed = new byte[compressedLength];
+      if (raw.length < rawLength) raw = new byte[rawLength];
+      file.readFully(compressed, 0, compressedLength);
+      crc.reset();
+      crc.update(compressed, 0, compressedLength);
+      if ((int) crc.getValue() != checksum) {
+        throw new IOException("Corrupt block of " + channel.getName() + " at " + block.offset);
+      }
+      inflater.reset();
+      inflater.setInput(compressed, 0, compressedLength);
+      try {
+        if (inflater.inflate(raw, 0, rawLength) != rawLength) {
+          throw new IOException("Short block of " + channel.getName() + " at " + block.offset);
+        }
+      } catch (DataFormatException e) {
+        throw new IOException("Corrupt block of " + channel.getName() + " at " + block.offset, e);
+      }
+      int offset = 8 * count;
+      for (int i = 0; i < offsets.length; i++) {
+        offsets[i] = offset;
+        final ColumnType type = channel.getColumnType(i);
+        if (type == ColumnType.TEXT) {
+          textOffsets[i] = offset + 4 * count;
+          int length = 0;
+          for (int j = 0; j < count; j++) length += (int) get(offset, 4, j);
+          offset += 4 * count + length;
+        } else {
+          offset += type.size * count;
+        }
+      }
+    }
+
+    /** The shuffled value of the current record in the column at the offset. */
+    private long get(int offset, int size) {
+      return get(offset, size, index);
+    }
+
+    private long get(int offset, int size, int record) {
+      long value = 0;
+      for (int k = 0; k < size; k++) value = value << 8 | (raw[offset + k * count + record] & 0xFF);
+      return value;
+    }
+
+    private void advanceTexts() {
+      for (int i = 0; i < offsets.length; i++) {
+        if (channel.getColumnType(i) == ColumnType.TEXT) {
+          textOffsets[i] += (int) get(offsets[i], 4, index - 1);
+        }
+      }
+    }
+
+    public long getTimestamp() {
+      return timestamp;
+    }
+
+    private int offset(int column, ColumnType type) {
+      if (channel.getColumnType(column) != type) {
+        throw new IllegalArgumentException(
+            "Column " + column + " of " + channel + " is not " + type);
+      }
+      return offsets[column];
+    }
+
+    public float getFloat(int column) {
+      return Float.intBitsToFloat((int) get(offset(column, ColumnType.FLOAT32), 4));
+    }
+
+    public double getDouble(int column) {
+      return Double.longBitsToDouble(get(offset(column, ColumnType.FLOAT64), 8));
+    }
+
+    public long getLong(int column) {
+      return get(offset(column, ColumnType.INT64), 8);
+    }
+
+    public String getText(int column) {
+      final int length = (int) get(offset(column, ColumnType.TEXT), 4);
+      return new String(raw, textOffsets[column], length, StandardCharsets.UTF_8);
+    }
+
+    /** Appends the record as a line of the text log, without line break. */
+    public void appendLine(StringBuilder builder) {
+      builder.append(timestamp);
+      for (int i = 0; i < offsets.length; i++) {
+        builder.append(',');
+        switch (channel.getColumnType(i)) {
+          case FLOAT32:
+            builder.append(getFloat(i));
+            break;
+          case FLOAT64:
+            builder.append(getDouble(i));
+            break;
+          case INT64:
+            builder.append(getLong(i));
+            break;
+          default:
+            builder.append(getText(i));
+            break;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,358 @@
+package org.openbot.logging;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import org.openbot.logging.SessionFormat.Block;
+import org.openbot.logging.SessionFormat.Channel;
+import org.openbot.logging.SessionFormat.ColumnType;
+
+/**
+ * Writes the logs of a session into one binary file in the {@link SessionFormat}.
+ *
+ * <p>Records are added one value at a time, without allocation: {@link #startRecord}, one {@code
+ * put} per column in the order of the column types of the channel, then {@link #endRecord}. The
+ * records of each channel are collected column by column and written as a compressed block when
+ * {@code blockRecords} are reached or on {@link #flush}. Not thread-safe; {@link AsyncLogWriter}
+ * calls it from its writer thread.
+ */
+public class SessionWriter implements Closeable {
+
+  public static final String FILE_NAME = "sensorData.bin";
+  public static final int DEFAULT_BLOCK_RECORDS = 4096;
+
+  /** Bytes of one column of the open block of a channel. */
+  private static class Column {
+    byte[] data = new byte[256];
+    int length = 0;
+
+    void ensure(int n) {
+      if (length + n > data.length) {
+        data = Arrays.copyOf(data, Math.max(2 * data.length, length + n));
+      }
+    }
+
+    void putInt(int v) {
+      ensure(4);
+      data[length++] = (byte) (v >>> 24);
+      data[length++] = (byte) (v >>> 16);
+      data[length++] = (byte) (v >>> 8);
+      data[length++] = (byte) v;
+    }
+
+    void putLong(long v) {
+      putInt((int) (v >>> 32));
+      putInt((int) v);
+    }
+
+    void put(byte[] bytes) {
+      ensure(bytes.length);
+      System.arraycopy(bytes, 0, data, length, bytes.length);
+      length += bytes.length;
+    }
+  }
+
+  private static class OpenBlock {
+    final Channel channel;
+    final long[] timestamps;
+    final Column[] columns;
+    // Texts are stored as their lengths followed by their bytes.
+    final Column[] texts;
+    int count = 0;
+    long minTimestamp;
+    long maxTimestamp;
+
+    OpenBlock(Channel channel, int blockRecords) {
+      this.channel = channel;
+      timestamps = new long[blockRecords];
+      columns = new Column[channel.getNumColumns()];
+      texts = new Column[channel.getNumColumns()];
+      for (int i = 0; i < columns.length; i++) {
+        columns[i] = new Column();
+        if (channel.getColumnType(i) == ColumnType.TEXT) texts[i] = new Column();
+      }
+    }
+  }
+
+  private final FileOutputStream fileStream;
+  private final DataOutputStream out;
+  private final int blockRecords;
+  private final Deflater deflater;
+  private final CRC32 crc = new CRC32();
+  private final List<Channel> channels = new ArrayList<>();
+  private final List<OpenBlock> openBlocks = new ArrayList<>();
+  private byte[] raw = new byte[64 * 1024];
+  private byte[] compressed = new byte[64 * 1024];
+  private long position = 0;
+
+  private OpenBlock record;
+  private int column;
+
+  private long numRecords = 0;
+  private long numBlocks = 0;
+  private long numRawBytes = 0;
+
+  public SessionWriter(File file) throws IOException {
+    this(file, DEFAULT_BLOCK_RECORDS, Deflater.BEST_SPEED);
+  }
+
+  /**
+   * @param blockRecords Largest number of records of a block.
+   * @param level Compression level of {@link Deflater}.
+   */
+  public SessionWriter(File file, int blockRecords, int level) throws IOException {
+    this.blockRecords = blockRecords;
+    fileStream = new FileOutputStream(file);
+    out = new DataOutputStream(new BufferedOutputStream(fileStream, 64 * 1024));
+    deflater = new Deflater(level);
+    out.writeInt(SessionFormat.MAGIC);
+    out.writeInt(SessionFormat.VERSION);
+    position = 8;
+  }
+
+  /** Declares a channel; its records have a timestamp and a value of each column type. */
+  public int addChannel(String name, String header, ColumnType... columns) throws IOException {
+    final Channel channel =
+        new Channel(channels.size(), name, header == null ? "" : header, columns.clone());
+    channels.add(channel);
+    openBlocks.add(new OpenBlock(channel, blockRecords));
+    out.writeByte(SessionFormat.CHANNEL);
+    position += 1 + writeChannel(channel);
+    return channel.getId();
+  }
+
+  private int writeChannel(Channel channel) throws IOException {
+    final int start = out.size();
+    out.writeInt(channel.getId());
+    out.writeUTF(channel.getName());
+    out.writeUTF(channel.getHeader());
+    out.writeByte(channel.getNumColumns());
+    for (ColumnType type : channel.getColumns()) out.writeByte(type.ordinal());
+    return out.size() - start;
+  }
+
+  public void startRecord(int channel, long timestamp) {
+    if (record != null) throw new IllegalStateException("Record not ended");
+    record = openBlocks.get(channel);
+    column = 0;
+    final int i = record.count;
+    record.timestamps[i] = timestamp;
+    if (i == 0 || timestamp < record.minTimestamp) record.minTimestamp = timestamp;
+    if (i == 0 || timestamp > record.maxTimestamp) record.maxTimestamp = timestamp;
+  }
+
+  private Column next(ColumnType type) {
+    if (record == null) throw new IllegalStateException("Record not started");
+    if (column >= record.columns.length || record.channel.getColumnType(column) != type) {
+      throw new IllegalArgumentException(
+          type + " is not column " + column + " of " + record.channel);
+    }
+    return record.columns[column++];
+  }
+
+  public void putFloat(float value) {
+    next(ColumnType.FLOAT32).putInt(Float.floatToRawIntBits(value));
+  }
+
+  public void putDouble(double value) {
+    next(ColumnType.FLOAT64).putLong(Double.doubleToRawLongBits(value));
+  }
+
+  public void putLong(long value) {
+    next(ColumnType.INT64).putLong(value);
+  }
+
+  public void putText(String value) {
+    final int index = column;
+    final Column lengths = next(ColumnType.TEXT);
+    final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    lengths.putInt(bytes.length);
+    record.texts[index].put(bytes);
+  }
+
+  public void endRecord() throws IOException {
+    final OpenBlock block = record;
+    if (block == null) throw new IllegalStateException("Record not started");
+    if (column != block.columns.length) {
+      throw new IllegalArgumentException(
+          "Record has " + column + " of " + block.columns.length + " columns");
+    }
+    record = null;
+    block.count++;
+    numRecords++;
+    if (block.count == blockRecords) writeBlock(block);
+  }
+
+  /** Discards the values of a started record, e.g. after a wrong {@code put}. */
+  public void cancelRecord() {
+    final OpenBlock block = record;
+    if (block == null) return;
+    // The columns of the record are the last bytes of each column.
+    for (int i = 0; i < column; i++) {
+      final ColumnType type = block.channel.getColumnType(i);
+      if (type == ColumnType.TEXT) {
+        final Column lengths = block.columns[i];
+        final int length = readInt(lengths.data, lengths.length - 4);
+        lengths.length -= 4;
+        block.texts[i].length -= length;
+      } else {
+        block.columns[i].length -= type.size;
+      }
+    }
+    record = null;
+  }
+
+  private static int readInt(byte[] data, int offset) {
+    return (data[offset] & 0xFF) << 24
+        | (data[offset + 1] & 0xFF) << 16
+        | (data[offset + 2] & 0xFF) << 8
+        | (data[offset + 3] & 0xFF);
+  }
+
+  /** Writes the records of the block, which is empty afterwards, also if the write failed. */
+  private void writeBlock(OpenBlock block) throws IOException {
+    if (block.count == 0) return;
+    try {
+      compressAndWrite(block);
+    } finally {
+      block.count = 0;
+      for (int i = 0; i < block.columns.length; i++) {
+        block.columns[i].length = 0;
+        if (block.texts[i] != null) block.texts[i].length = 0;
+      }
+    }
+  }
+
+  private void compressAndWrite(OpenBlock block) throws IOException {
+    int rawLength = 8 * block.count;
+    for (int i = 0; i < block.columns.length; i++) {
+      rawLength += block.columns[i].length;
+      if (block.texts[i] != null) rawLength += block.texts[i].length;
+    }
+    if (raw.length < rawLength) raw = new byte[Math.max(rawLength, 2 * raw.length)];
+
+    // Timestamps as differences to the previous one, then the columns. Numbers are shuffled: the
+    // first bytes of all values, then the second bytes, and so on. Neighbouring values of a sensor
+    // mostly differ in their last bytes, so deflate finds much longer repetitions.
+    final int count = block.count;
+    long previous = 0;
+    for (int i = 0; i < count; i++) {
+      final long delta = block.timestamps[i] - previous;
+      previous = block.timestamps[i];
+      for (int k = 0; k < 8; k++) raw[k * count + i] = (byte) (delta >>> (56 - 8 * k));
+    }
+    int offset = 8 * count;
+    for (int i = 0; i < block.columns.length; i++) {
+      final ColumnType type = block.channel.getColumnType(i);
+      final int size = type == ColumnType.TEXT ? 4 : type.size;
+      final byte[] data = block.columns[i].data;
+      for (int j = 0; j < count; j++) {
+        for (int k = 0; k < size; k++) raw[offset + k * count + j] = data[j * size + k];
+      }
+      offset += size * count;
+      if (block.texts[i] != null) {
+        System.arraycopy(block.texts[i].data, 0, raw, offset, block.texts[i].length);
+        offset += block.texts[i].length;
+      }
+    }
+
+    deflater.reset();
+    deflater.setInput(raw, 0, rawLength);
+    deflater.finish();
+    int compressedLength = 0;
+    while (!deflater.finished()) {
+      if (compressedLength == compressed.length) {
+        compressed = Arrays.copyOf(compressed, 2 * compressed.length);
+      }
+      compressedLength +=
+          deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+    }
+    crc.reset();
+    crc.update(compressed, 0, compressedLength);
+
+    final Block info =
+        new Block(
+            block.channel.getId(), block.count, block.minTimestamp, block.maxTimestamp, position);
+    out.writeByte(SessionFormat.BLOCK);
+    out.writeInt(info.channel);
+    out.writeInt(info.count);
+    out.writeLong(info.minTimestamp);
+    out.writeLong(info.maxTimestamp);
+    out.writeInt(rawLength);
+    out.writeInt(compressedLength);
+    out.writeInt((int) crc.getValue());
+    out.write(compressed, 0, compressedLength);
+    position += SessionFormat.BLOCK_HEADER_SIZE + compressedLength;
+    block.channel.addBlock(info);
+    numBlocks++;
+    numRawBytes += rawLength;
+  }
+
+  /**
+   * Writes the partially filled blocks of all channels to the file.
+   *
+   * @param sync Whether to also sync the file to the storage.
+   */
+  public void flush(boolean sync) throws IOException {
+    for (OpenBlock block : openBlocks) writeBlock(block);
+    out.flush();
+    if (sync) fileStream.getFD().sync();
+  }
+
+  /** Writes the remaining blocks and the index, then closes the file. */
+  @Override
+  public void close() throws IOException {
+    try {
+      cancelRecord();
+      flush(false);
+      final long indexOffset = position;
+      out.writeByte(SessionFormat.INDEX);
+      out.writeInt(channels.size());
+      for (Channel channel : channels) writeChannel(channel);
+      out.writeInt((int) numBlocks);
+      for (Channel channel : channels) {
+        for (Block block : channel.blocks) {
+          out.writeInt(block.channel);
+          out.writeInt(block.count);
+          out.writeLong(block.minTimestamp);
+          out.writeLong(block.maxTimestamp);
+          out.writeLong(block.offset);
+        }
+      }
+      out.writeLong(indexOffset);
+      out.writeInt(SessionFormat.TRAILER_MAGIC);
+      out.flush();
+      fileStream.getFD().sync();
+    } finally {
+      deflater.end();
+      out.close();
+    }
+  }
+
+  public long getNumRecords() {
+    return numRecords;
+  }
+
+  public long getNumBlocks() {
+    return numBlocks;
+  }
+
+  /** Size of the written blocks before compression. */
+  public long getNumRawBytes() {
+    return numRawBytes;
+  }
+
+  /** Size of the file written so far. */
+  public long getNumBytes() {
+    return position;
+  }
+}
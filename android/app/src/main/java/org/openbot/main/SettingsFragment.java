@@ -116,6 +116,15 @@ public class SettingsFragment extends PreferenceFragmentCompat {
           });
     }
 
+    ListPreference controlRate = findPreference(Constants.PREF_CONTROL_RATE);
+    if (controlRate != null) {
+      controlRate.setOnPreferenceChangeListener(
+          (preference, newValue) -> {
+            if (vehicle != null) vehicle.setControlRate(Integer.parseInt((String) newValue));
+            return true;
+          });
+    }
+
     camera = findPreference("camera");
     if (camera != null) {
       camera.setChecked(PermissionUtils.hasCameraPermission(requireActivity()));
@@ -4,7 +4,6 @@ import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Matrix;
-import android.graphics.Paint;
 import android.graphics.RectF;
 import android.graphics.Typeface;
 import android.os.Bundle;
@@ -23,8 +22,10 @@ import androidx.annotation.Nullable;
 import androidx.camera.core.CameraSelector;
 import androidx.camera.core.ImageProxy;
 import androidx.navigation.Navigation;
+import androidx.preference.PreferenceManager;
 import com.google.android.material.bottomsheet.BottomSheetBehavior;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
@@ -37,10 +38,14 @@ import org.openbot.env.ImageUtils;
 import org.openbot.tflite.Detector;
 import org.openbot.tflite.Model;
 import org.openbot.tflite.Network;
+import org.openbot.tflite.NetworkCache;
 import org.openbot.tracking.MultiBoxTracker;
 import org.openbot.utils.CameraUtils;
 import org.openbot.utils.Constants;
 import org.openbot.utils.Enums;
+import org.openbot.utils.FramePipeline;
+import org.openbot.utils.LatencyHistogram;
+import org.openbot.utils.Metrics;
 import org.openbot.utils.MovingAverage;
 import org.openbot.utils.PermissionUtils;
 import org.openbot.vehicle.Control;
@@ -51,17 +56,16 @@ public class ObjectNavFragment extends CameraFragment {
   private Handler handler;
   private HandlerThread handlerThread;
 
-  private boolean computingNetwork = false;
   public static float MINIMUM_CONFIDENCE_TF_OD_API = 0.5f;
 
   private static final float TEXT_SIZE_DIP = 10;
+  private static final LatencyHistogram FRAME_TO_CONTROL_LATENCY =
+      Metrics.histogram(Metrics.FRAME_TO_CONTROL);
 
   private Detector detector;
 
   private Matrix frameToCropTransform;
-  private Bitmap croppedBitmap;
   private int sensorOrientation;
-  private Bitmap cropCopyBitmap;
   private Matrix cropToFrameTransform;
 
   private MultiBoxTracker tracker;
@@ -79,6 +83,36 @@ public class ObjectNavFragment extends CameraFragment {
   private final int movingAvgSize = 100;
   private MovingAverage movingAvgProcessingTimeMs = new MovingAverage(movingAvgSize);
 
+  // Preprocessing, inference and postprocessing of consecutive frames overlap in a pipeline.
+  // One frame per stage plus one that is being filled by the camera.
+  private static final int NUM_PIPELINE_FRAMES = 4;
+  private static final int PIPELINE_STATS_INTERVAL = 100;
+  // Guards the pipeline and its stage handlers. Not the fragment itself: the inference thread
+  // swaps the pipeline while onPause may be waiting for that thread to end.
+  private final Object pipelineLock = new Object();
+  private volatile FramePipeline<PipelineFrame> pipeline;
+  private HandlerThread preprocessThread;
+  private Handler preprocessHandler;
+  private HandlerThread postprocessThread;
+  private Handler postprocessHandler;
+  private long lastFrameDoneMs = -1;
+  private long completedFrames = 0;
+
+  /** Buffers of one frame in the pipeline. */
+  private static class PipelineFrame {
+    private final Bitmap croppedBitmap;
+    private final Canvas canvas;
+    private final Detector.Tensors tensors;
+    private long frameNum;
+    private long frameTime;
+
+    PipelineFrame(Bitmap croppedBitmap, Detector.Tensors tensors) {
+      this.croppedBitmap = croppedBitmap;
+      this.canvas = new Canvas(croppedBitmap);
+      this.tensors = tensors;
+    }
+  }
+
   @Override
   public void onCreate(@Nullable Bundle savedInstanceState) {
     super.onCreate(savedInstanceState);
@@ -251,8 +285,7 @@ public class ObjectNavFragment extends CameraFragment {
   }
 
   protected void onInferenceConfigurationChanged() {
-    computingNetwork = false;
-    if (croppedBitmap == null) {
+    if (tracker == null) {
       // Defer creation until we're getting camera frames.
       return;
     }
@@ -267,31 +300,45 @@ public class ObjectNavFragment extends CameraFragment {
     if (model == null) return;
     tracker.clearTrackedObjects();
     if (detector != null) {
-      Timber.d("Closing detector.");
-      detector.close();
+      Timber.d("Releasing detector.");
+      final Detector oldDetector = detector;
       detector = null;
+      // Frames still in flight use the old detector, release it once they are done.
+      final Runnable release = () -> NetworkCache.getInstance().release(oldDetector);
+      if (!closePipeline(release)) release.run();
     }
 
     try {
       Timber.d("Creating detector (model=%s, device=%s, numThreads=%d)", model, device, numThreads);
-      detector = Detector.create(requireActivity(), model, device, numThreads);
+      detector =
+          NetworkCache.getInstance()
+              .acquire(
+                  model,
+                  device,
+                  numThreads,
+                  () -> Detector.create(requireActivity(), model, device, numThreads));
 
       assert detector != null;
-      croppedBitmap =
-          Bitmap.createBitmap(
-              detector.getImageSizeX(), detector.getImageSizeY(), Bitmap.Config.ARGB_8888);
+      // Opt-in: the pipeline preprocesses a frame while the previous one is inferred, so the
+      // stripes only get the cores the interpreter threads leave free.
+      detector.setNumPreprocessThreads(
+          PreferenceManager.getDefaultSharedPreferences(requireContext())
+                  .getBoolean(Constants.PREF_PARALLEL_PREPROCESSING, false)
+              ? Runtime.getRuntime().availableProcessors() - numThreads
+              : 1);
       frameToCropTransform =
           ImageUtils.getTransformationMatrix(
               getMaxAnalyseImageSize().getWidth(),
               getMaxAnalyseImageSize().getHeight(),
-              croppedBitmap.getWidth(),
-              croppedBitmap.getHeight(),
+              detector.getImageSizeX(),
+              detector.getImageSizeY(),
               sensorOrientation,
               detector.getCropRect(),
               detector.getMaintainAspect());
 
       cropToFrameTransform = new Matrix();
       frameToCropTransform.invert(cropToFrameTransform);
+      createPipeline();
 
       requireActivity()
           .runOnUiThread(
@@ -327,26 +374,206 @@ public class ObjectNavFragment extends CameraFragment {
   }
 
   @Override
-  public synchronized void onResume() {
-    handlerThread = new HandlerThread("inference");
-    handlerThread.start();
-    handler = new Handler(handlerThread.getLooper());
+  public void onResume() {
+    synchronized (this) {
+      handlerThread = new HandlerThread("inference");
+      handlerThread.start();
+      handler = new Handler(handlerThread.getLooper());
+    }
+    synchronized (pipelineLock) {
+      preprocessThread = new HandlerThread("preprocess");
+      preprocessThread.start();
+      preprocessHandler = new Handler(preprocessThread.getLooper());
+      postprocessThread = new HandlerThread("postprocess");
+      postprocessThread.start();
+      postprocessHandler = new Handler(postprocessThread.getLooper());
+      if (detector != null) createPipeline();
+    }
     super.onResume();
   }
 
   @Override
-  public synchronized void onPause() {
+  public void onPause() {
+    runInBackground(() -> exportMetrics("objectNav"));
+    // The threads are joined without holding a lock that recreateNetwork, which may be running on
+    // the inference thread, could be waiting for.
+    final HandlerThread preprocessThread;
+    final HandlerThread postprocessThread;
+    synchronized (pipelineLock) {
+      // A pipeline can no longer be created once the stage handlers are gone.
+      closePipeline(null);
+      preprocessThread = this.preprocessThread;
+      postprocessThread = this.postprocessThread;
+      this.preprocessThread = null;
+      this.postprocessThread = null;
+      preprocessHandler = null;
+      postprocessHandler = null;
+    }
+    final HandlerThread handlerThread;
+    synchronized (this) {
+      handlerThread = this.handlerThread;
+      this.handlerThread = null;
+      handler = null;
+    }
     handlerThread.quitSafely();
+    preprocessThread.quitSafely();
+    postprocessThread.quitSafely();
     try {
       handlerThread.join();
-      handlerThread = null;
-      handler = null;
+      preprocessThread.join();
+      postprocessThread.join();
     } catch (final InterruptedException e) {
       e.printStackTrace();
     }
     super.onPause();
   }
 
+  /**
+   * Creates the pipeline for the current detector: the camera thread crops the image into a free
+   * frame, then the preprocess, inference and postprocess threads each work on a different frame.
+   */
+  private void createPipeline() {
+    synchronized (pipelineLock) {
+      final Handler handler = this.handler;
+      if (detector == null || handler == null || preprocessHandler == null) return;
+      closePipeline(null);
+      pipeline = buildPipeline(detector, handler, preprocessHandler, postprocessHandler);
+    }
+  }
+
+  private FramePipeline<PipelineFrame> buildPipeline(
+      Detector detector, Handler handler, Handler preprocessHandler, Handler postprocessHandler) {
+    final Matrix cropToFrameTransform = this.cropToFrameTransform;
+    final List<PipelineFrame> frames = new ArrayList<>(NUM_PIPELINE_FRAMES);
+    for (int i = 0; i < NUM_PIPELINE_FRAMES; i++) {
+      frames.add(
+          new PipelineFrame(
+              Bitmap.createBitmap(
+                  detector.getImageSizeX(), detector.getImageSizeY(), Bitmap.Config.ARGB_8888),
+              detector.createTensors()));
+    }
+    lastFrameDoneMs = -1;
+    completedFrames = 0;
+    return new FramePipeline<>(frames)
+        .addStage(
+            "preprocess",
+            preprocessHandler::post,
+            frame -> {
+              detector.preprocess(frame.croppedBitmap, frame.tensors);
+              return true;
+            })
+        .addStage(
+            "inference",
+            handler::post,
+            frame -> {
+              detector.runInference(frame.tensors);
+              return true;
+            })
+        .addStage(
+            "postprocess",
+            postprocessHandler::post,
+            frame -> {
+              final List<Detector.Recognition> results =
+                  detector.postprocess(frame.tensors, classType);
+              // Frames still in flight when the network is disabled must not drive the car.
+              if (binding != null && binding.autoSwitch.isChecked()) {
+                trackResults(results, cropToFrameTransform, frame.frameNum);
+                FRAME_TO_CONTROL_LATENCY.recordSince(frame.frameTime);
+              }
+              onPipelineFrameDone();
+              return true;
+            });
+  }
+
+  /**
+   * Closes the current pipeline, if any.
+   *
+   * @param onClosed Called once no stage of the pipeline is running anymore.
+   * @return false if there was no pipeline, then {@code onClosed} is not called.
+   */
+  private boolean closePipeline(Runnable onClosed) {
+    final FramePipeline<PipelineFrame> pipeline;
+    synchronized (pipelineLock) {
+      pipeline = this.pipeline;
+      if (pipeline == null) return false;
+      this.pipeline = null;
+    }
+    pipeline.close(onClosed);
+    return true;
+  }
+
+  private void onPipelineFrameDone() {
+    final long now = SystemClock.elapsedRealtime();
+    // The time between two finished frames, i.e. the throughput of the whole pipeline.
+    if (lastFrameDoneMs > 0) lastProcessingTimeMs = now - lastFrameDoneMs;
+    lastFrameDoneMs = now;
+
+    final FramePipeline<PipelineFrame> pipeline = this.pipeline;
+    if (++completedFrames % PIPELINE_STATS_INTERVAL == 0 && pipeline != null) {
+      Timber.d(
+          "Pipeline: %d frames acquired, %d skipped",
+          pipeline.getNumAcquired(), pipeline.getNumAcquireFailed());
+      for (FramePipeline.StageStats stats : pipeline.getStats()) Timber.d("Pipeline %s", stats);
+    }
+  }
+
+  /** Crops the camera image into a free pipeline frame, the camera reuses its bitmap. */
+  private void submitToPipeline(Bitmap bitmap) {
+    final FramePipeline<PipelineFrame> pipeline = this.pipeline;
+    if (pipeline == null) return;
+    final PipelineFrame frame = pipeline.acquire();
+    if (frame == null) return;
+    frame.frameTime = System.nanoTime();
+
+    if (lensFacing == CameraSelector.LENS_FACING_FRONT) {
+      frame.canvas.drawBitmap(CameraUtils.flipBitmapHorizontal(bitmap), frameToCropTransform, null);
+    } else {
+      frame.canvas.drawBitmap(bitmap, frameToCropTransform, null);
+    }
+    frame.frameNum = frameNum;
+    pipeline.submit(frame);
+  }
+
+  /** Maps the results back to the camera frame, tracks them and drives towards the target. */
+  private void trackResults(
+      List<Detector.Recognition> results, Matrix cropToFrameTransform, long frameNum) {
+    if (!results.isEmpty())
+      Timber.i(
+          "Object: "
+              + results.get(0).getLocation().centerX()
+              + ", "
+              + results.get(0).getLocation().centerY()
+              + ", "
+              + results.get(0).getLocation().height()
+              + ", "
+              + results.get(0).getLocation().width());
+
+    final List<Detector.Recognition> mappedRecognitions = new LinkedList<>();
+
+    for (final Detector.Recognition result : results) {
+      final RectF location = result.getLocation();
+      if (location != null && result.getConfidence() >= MINIMUM_CONFIDENCE_TF_OD_API) {
+        cropToFrameTransform.mapRect(location);
+        result.setLocation(location);
+        mappedRecognitions.add(result);
+      }
+    }
+
+    tracker.trackResults(mappedRecognitions, frameNum);
+    handleDriveCommand(tracker.updateTarget());
+    binding.trackingOverlay.postInvalidate();
+  }
+
+  @Override
+  public void onDestroy() {
+    // Keep the network in the cache, so that it is ready when the screen is opened again.
+    if (detector != null) {
+      NetworkCache.getInstance().release(detector);
+      detector = null;
+    }
+    super.onDestroy();
+  }
+
   protected synchronized void runInBackground(final Runnable r) {
     if (handler != null) {
       handler.post(r);
@@ -354,7 +581,10 @@ public class ObjectNavFragment extends CameraFragment {
   }
 
   @Override
-  protected void processUSBData(String data) {
+  protected void processUSBData(String data) {}
+
+  @Override
+  protected void processVehicleReadings() {
     binding.controllerContainer.speedInfo.setText(
         getString(
             R.string.speedInfo,
@@ -385,6 +615,7 @@ public class ObjectNavFragment extends CameraFragment {
 
   private void setNetworkEnabled(boolean b) {
     binding.autoSwitch.setChecked(b);
+    vehicle.setAutonomous(b);
 
     binding.controllerContainer.controlMode.setEnabled(!b);
     binding.controllerContainer.driveMode.setEnabled(!b);
@@ -404,68 +635,7 @@ public class ObjectNavFragment extends CameraFragment {
 
     ++frameNum;
     if (binding != null && binding.autoSwitch.isChecked()) {
-      // If network is busy, return.
-      if (computingNetwork) {
-        return;
-      }
-
-      computingNetwork = true;
-      Timber.i("Putting image " + frameNum + " for detection in bg thread.");
-
-      runInBackground(
-          () -> {
-            final Canvas canvas = new Canvas(croppedBitmap);
-            if (lensFacing == CameraSelector.LENS_FACING_FRONT) {
-              canvas.drawBitmap(
-                  CameraUtils.flipBitmapHorizontal(bitmap), frameToCropTransform, null);
-            } else {
-              canvas.drawBitmap(bitmap, frameToCropTransform, null);
-            }
-
-            if (detector != null) {
-              Timber.i("Running detection on image %s", frameNum);
-              final long startTime = SystemClock.elapsedRealtime();
-              final List<Detector.Recognition> results =
-                  detector.recognizeImage(croppedBitmap, classType);
-              lastProcessingTimeMs = SystemClock.elapsedRealtime() - startTime;
-
-              if (!results.isEmpty())
-                Timber.i(
-                    "Object: "
-                        + results.get(0).getLocation().centerX()
-                        + ", "
-                        + results.get(0).getLocation().centerY()
-                        + ", "
-                        + results.get(0).getLocation().height()
-                        + ", "
-                        + results.get(0).getLocation().width());
-
-              cropCopyBitmap = Bitmap.createBitmap(croppedBitmap);
-              final Canvas canvas1 = new Canvas(cropCopyBitmap);
-              final Paint paint = new Paint();
-              paint.setColor(Color.RED);
-              paint.setStyle(Paint.Style.STROKE);
-              paint.setStrokeWidth(2.0f);
-
-              final List<Detector.Recognition> mappedRecognitions = new LinkedList<>();
-
-              for (final Detector.Recognition result : results) {
-                final RectF location = result.getLocation();
-                if (location != null && result.getConfidence() >= MINIMUM_CONFIDENCE_TF_OD_API) {
-                  canvas1.drawRect(location, paint);
-                  cropToFrameTransform.mapRect(location);
-                  result.setLocation(location);
-                  mappedRecognitions.add(result);
-                }
-              }
-
-              tracker.trackResults(mappedRecognitions, frameNum);
-              handleDriveCommand(tracker.updateTarget());
-              binding.trackingOverlay.postInvalidate();
-            }
-
-            computingNetwork = false;
-          });
+      submitToPipeline(bitmap);
       if (lastProcessingTimeMs > 0) {
         if (isBenchmarkMode) {
           double avgProcessingTimeMs = movingAvgProcessingTimeMs.next(lastProcessingTimeMs);
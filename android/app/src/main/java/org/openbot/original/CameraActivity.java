@@ -78,6 +78,7 @@ import java.util.Locale;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 import org.json.JSONObject;
 import org.openbot.OpenBotApplication;
@@ -368,20 +369,13 @@ public abstract class CameraActivity extends AppCompatActivity
                   char header = data.charAt(0);
                   String body = data.substring(1);
                   int type = -1;
+                  // Readings are passed to the reading listener, only the other messages arrive.
                   switch (header) {
                     case 'f':
                       vehicle.processVehicleConfig(body);
                       break;
                     case 'v':
-                      if (FormatUtils.isNumeric(body)) {
-                        type = SensorService.MSG_VOLTAGE;
-                        vehicle.setBatteryVoltage(Float.parseFloat(body));
-                        runOnUiThread(
-                            () -> {
-                              voltageTextView.setText(
-                                  String.format(Locale.US, "%2.1f V", vehicle.getBatteryVoltage()));
-                            });
-                      } else {
+                      if (!FormatUtils.isNumeric(body)) {
                         String[] msgParts = body.split(":");
                         switch (msgParts[0]) {
                           case "min":
@@ -403,36 +397,6 @@ public abstract class CameraActivity extends AppCompatActivity
                         }
                       }
                       break;
-                    case 's':
-                      if (FormatUtils.isNumeric(body)) {
-                        type = SensorService.MSG_SONAR;
-                        vehicle.setSonarReading(Float.parseFloat(body));
-                        runOnUiThread(
-                            () -> {
-                              sonarTextView.setText(
-                                  String.format(Locale.US, "%3.0f cm", vehicle.getSonarReading()));
-                            });
-                      }
-                      break;
-                    case 'w':
-                      String[] itemList = body.split(",");
-                      if (itemList.length == 2
-                          && FormatUtils.isNumeric(itemList[0])
-                          && FormatUtils.isNumeric(itemList[1])) {
-                        type = SensorService.MSG_WHEELS;
-                        vehicle.setLeftWheelRpm(Float.parseFloat(itemList[0]));
-                        vehicle.setRightWheelRpm(Float.parseFloat(itemList[1]));
-                        runOnUiThread(
-                            () -> {
-                              speedTextView.setText(
-                                  String.format(
-                                      Locale.US,
-                                      "%3.0f,%3.0f rpm",
-                                      vehicle.getLeftWheelRpm(),
-                                      vehicle.getRightWheelRpm()));
-                            });
-                      }
-                      break;
                     case 'b':
                       type = SensorService.MSG_BUMPER;
                       break;
@@ -449,9 +413,56 @@ public abstract class CameraActivity extends AppCompatActivity
     localIntentFilter.addAction(Constants.USB_ACTION_DATA_RECEIVED);
     localBroadcastManager = LocalBroadcastManager.getInstance(this);
     localBroadcastManager.registerReceiver(localBroadcastReceiver, localIntentFilter);
+    vehicle.addReadingListener(readingListener);
     vehicle.requestVehicleConfig();
   }
 
+  // Shows the readings at most once per pass of the UI thread and logs each of them.
+  private final AtomicBoolean readingsPosted = new AtomicBoolean();
+  private final Runnable showReadings =
+      () -> {
+        readingsPosted.set(false);
+        voltageTextView.setText(String.format(Locale.US, "%2.1f V", vehicle.getBatteryVoltage()));
+        sonarTextView.setText(String.format(Locale.US, "%3.0f cm", vehicle.getSonarReading()));
+        speedTextView.setText(
+            String.format(
+                Locale.US,
+                "%3.0f,%3.0f rpm",
+                vehicle.getLeftWheelRpm(),
+                vehicle.getRightWheelRpm()));
+      };
+
+  private final Vehicle.ReadingListener readingListener =
+      new Vehicle.ReadingListener() {
+        @Override
+        public void onVoltage(long timestampNanos, float volts) {
+          onReading(timestampNanos, SensorService.MSG_VOLTAGE, volts, 0);
+        }
+
+        @Override
+        public void onSonar(long timestampNanos, float distance) {
+          onReading(timestampNanos, SensorService.MSG_SONAR, distance, 0);
+        }
+
+        @Override
+        public void onWheelRpm(long timestampNanos, float left, float right) {
+          onReading(timestampNanos, SensorService.MSG_WHEELS, left, right);
+        }
+      };
+
+  // Called on the USB read thread.
+  private void onReading(long timestamp, int type, float first, float second) {
+    if (readingsPosted.compareAndSet(false, true)) runOnUiThread(showReadings);
+    final Messenger messenger = sensorMessenger;
+    if (messenger != null) {
+      try {
+        messenger.send(LogDataUtils.generateVehicleReadingMessage(timestamp, type, first, second));
+      } catch (RemoteException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
   /**
    * Initalize bottom sheet views/fields with shared preference values (@see
    * SharedPreferenceManager)
@@ -692,6 +703,7 @@ public abstract class CameraActivity extends AppCompatActivity
   @Override
   public synchronized void onDestroy() {
     //    toggleConnection(false);
+    vehicle.removeReadingListener(readingListener);
     if (localBroadcastManager != null) {
       localBroadcastManager.unregisterReceiver(localBroadcastReceiver);
       localBroadcastManager = null;
@@ -1003,7 +1015,8 @@ public abstract class CameraActivity extends AppCompatActivity
     }
   }
 
-  Messenger sensorMessenger;
+  // Read on the USB read thread by the reading listener.
+  volatile Messenger sensorMessenger;
 
   ServiceConnection sensorConnection =
       new ServiceConnection() {
@@ -1115,6 +1128,8 @@ public abstract class CameraActivity extends AppCompatActivity
   }
 
   private void stopLogging() {
+    // Unbinding does not call onServiceDisconnected, stop sending to the service here.
+    sensorMessenger = null;
     if (sensorConnection != null) unbindService(sensorConnection);
     stopService(intentSensorService);
 
@@ -301,6 +301,7 @@ public class DefaultActivity extends CameraActivity implements OnImageAvailableL
   @Override
   protected void setNetworkEnabled(final boolean isChecked) {
     networkEnabled = isChecked;
+    vehicle.setAutonomous(isChecked);
     if (networkEnabled) {
       networkSwitchCompat.setText(R.string.on);
     } else {
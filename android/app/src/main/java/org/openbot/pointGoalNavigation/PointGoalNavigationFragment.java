@@ -23,6 +23,7 @@ import com.google.ar.core.exceptions.UnavailableArcoreNotInstalledException;
 import com.google.ar.core.exceptions.UnavailableDeviceNotCompatibleException;
 import com.google.ar.core.exceptions.UnavailableSdkTooOldException;
 import java.io.IOException;
+import java.util.concurrent.TimeUnit;
 import org.openbot.R;
 import org.openbot.common.ControlsFragment;
 import org.openbot.databinding.FragmentPointGoalNavigationBinding;
@@ -34,8 +35,11 @@ import org.openbot.tflite.Model.TYPE;
 import org.openbot.tflite.Navigation;
 import org.openbot.tflite.Network.Device;
 import org.openbot.utils.Constants;
+import org.openbot.utils.LatencyHistogram;
+import org.openbot.utils.Metrics;
 import org.openbot.utils.PermissionUtils;
 import org.openbot.vehicle.Control;
+import org.openbot.vehicle.PoseEstimator;
 import org.openbot.vehicle.Vehicle;
 import timber.log.Timber;
 
@@ -50,6 +54,19 @@ public class PointGoalNavigationFragment extends ControlsFragment implements ArC
   private boolean isPermissionRequested = false;
   private Navigation navigationPolicy;
   static final int kMaxChannelValue = 262143;
+  private static final LatencyHistogram FRAME_TO_CONTROL_LATENCY =
+      Metrics.histogram(Metrics.FRAME_TO_CONTROL);
+  private static final float GOAL_RADIUS_M = 0.15f;
+  // While ARCore lost the tracking, the pose of the vehicle from its wheels and the gyroscope
+  // steers towards the goal for at most this long, at this fraction of the full speed.
+  private static final long ODOMETRY_FALLBACK_NANOS = TimeUnit.SECONDS.toNanos(2);
+  private static final float ODOMETRY_FALLBACK_SPEED = 0.5f;
+  private final PoseEstimator.Pose odometryPose = new PoseEstimator.Pose();
+  // Goal in the frame of the pose estimator, updated on every tracked frame.
+  private double odometryGoalX;
+  private double odometryGoalY;
+  // Zero until the first tracked frame of a run.
+  private long lastTrackedNanos = 0;
 
   public PointGoalNavigationFragment() {
     // Required empty public constructor
@@ -98,17 +115,17 @@ public class PointGoalNavigationFragment extends ControlsFragment implements ArC
       CameraIntrinsics cameraIntrinsics,
       long timestamp) {
     if (isRunning) {
+      final long frameTime = System.nanoTime();
       float goalDistance =
           computeDistance(navigationPoses.getTargetPose(), navigationPoses.getCurrentPose());
 
-      if (goalDistance < 0.15f) {
-        stop();
-        audioPlayer.playFromStringID(R.string.goal_reached);
-        showInfoDialog(getString(R.string.goal_reached));
-      } else {
-        float deltaYaw =
-            computeDeltaYaw(navigationPoses.getCurrentPose(), navigationPoses.getTargetPose());
+      float deltaYaw =
+          computeDeltaYaw(navigationPoses.getCurrentPose(), navigationPoses.getTargetPose());
+      updateOdometryGoal(goalDistance, deltaYaw, timestamp);
 
+      if (goalDistance < GOAL_RADIUS_M) {
+        stopAtGoal();
+      } else {
         Bitmap bitmap = convertRGBFrameToScaledBitmap(rgb, 160.f / 480.f);
         bitmap = Bitmap.createBitmap(bitmap, 0, 30, 160, 90);
 
@@ -118,6 +135,7 @@ public class PointGoalNavigationFragment extends ControlsFragment implements ArC
 
         Timber.d("control: (" + control.getLeft() + ", " + control.getRight() + ")");
         vehicle.setControl(control);
+        FRAME_TO_CONTROL_LATENCY.recordSince(frameTime);
       }
     }
   }
@@ -219,9 +237,47 @@ public class PointGoalNavigationFragment extends ControlsFragment implements ArC
     return 0xff000000 | ((r << 6) & 0xff0000) | ((g >> 2) & 0xff00) | ((b >> 10) & 0xff);
   }
 
+  /** Places the goal in the frame of the pose estimator, as seen from the tracked frame. */
+  private void updateOdometryGoal(float goalDistance, float deltaYaw, long timestamp) {
+    vehicle.getPoseEstimator().getPose(odometryPose);
+    // The delta yaw is counterclockwise from the forward axis, like the heading of the estimator.
+    final double bearing = odometryPose.heading + deltaYaw;
+    odometryGoalX = odometryPose.x + goalDistance * Math.cos(bearing);
+    odometryGoalY = odometryPose.y + goalDistance * Math.sin(bearing);
+    lastTrackedNanos = timestamp;
+  }
+
+  /** Turns towards the goal and drives to it with the pose of the vehicle. */
+  private void driveByOdometry() {
+    vehicle.getPoseEstimator().getPose(odometryPose);
+    final double dx = odometryGoalX - odometryPose.x;
+    final double dy = odometryGoalY - odometryPose.y;
+    if (Math.hypot(dx, dy) < GOAL_RADIUS_M) {
+      stopAtGoal();
+      return;
+    }
+    double bearing = Math.atan2(dy, dx) - odometryPose.heading;
+    bearing = Math.atan2(Math.sin(bearing), Math.cos(bearing));
+    final float turn = (float) Math.max(-1, Math.min(1, bearing)) * ODOMETRY_FALLBACK_SPEED;
+    final float forward = (float) Math.max(0, Math.cos(bearing)) * ODOMETRY_FALLBACK_SPEED;
+    vehicle.setControl(new Control(forward - turn, forward + turn));
+  }
+
+  private void stopAtGoal() {
+    stop();
+    audioPlayer.playFromStringID(R.string.goal_reached);
+    showInfoDialog(getString(R.string.goal_reached));
+  }
+
   @Override
   public void onArCoreTrackingFailure(long timestamp, TrackingFailureReason trackingFailureReason) {
-    if (isRunning) {
+    if (isRunning
+        && (vehicle.isHasWheelOdometryFront() || vehicle.isHasWheelOdometryBack())
+        && lastTrackedNanos > 0
+        && timestamp - lastTrackedNanos < ODOMETRY_FALLBACK_NANOS) {
+      Timber.d("Tracking lost (" + trackingFailureReason + "), driving by odometry");
+      driveByOdometry();
+    } else if (isRunning) {
       stop();
       audioPlayer.playFromStringID(R.string.tracking_lost);
       showInfoDialog(getString(R.string.tracking_lost));
@@ -238,6 +294,9 @@ public class PointGoalNavigationFragment extends ControlsFragment implements ArC
   private void stop() {
     arCore.detachAnchors();
     vehicle.stopBot();
+    vehicle.setAutonomous(false);
+    vehicle.stopPoseTracking();
+    lastTrackedNanos = 0;
     isRunning = false;
   }
 
@@ -452,6 +511,9 @@ public class PointGoalNavigationFragment extends ControlsFragment implements ArC
       return;
     }
 
+    vehicle.getPoseEstimator().reset();
+    vehicle.startPoseTracking();
+    vehicle.setAutonomous(true);
     isRunning = true;
   }
 }
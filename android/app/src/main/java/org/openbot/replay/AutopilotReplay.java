@@ -0,0 +1,69 @@
+package org.openbot.replay;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import java.io.File;
+import java.io.IOException;
+import org.openbot.tflite.Autopilot;
+import timber.log.Timber;
+
+/**
+ * Replays a recorded session through an {@link Autopilot}. {@code AutopilotReplayTest} runs it on a
+ * phone, see there for the arguments.
+ */
+public class AutopilotReplay {
+
+  static final int WARM_UP_FRAMES = 10;
+
+  private AutopilotReplay() {}
+
+  /**
+   * Runs the autopilot on every frame of the session stored in {@code logFolder}. Must be called on
+   * the thread that owns the autopilot.
+   *
+   * @param batchSize Frames per run of the model, see {@link Autopilot#recognizeImages}. 1 runs
+   *     {@link Autopilot#recognizeImage} like the live autopilot.
+   */
+  public static ReplayRunner.Report run(Autopilot autopilot, File logFolder, int batchSize)
+      throws IOException {
+    final ReplayRunner<Bitmap> runner =
+        batchSize == 1
+            ? new ReplayRunner<>(new BitmapDecoder(1), autopilot::recognizeImage)
+            : new ReplayRunner<>(
+                new BitmapDecoder(batchSize), autopilot::recognizeImages, batchSize);
+    final ReplayRunner.Report report;
+    try (ReplaySession session = ReplaySession.load(logFolder)) {
+      report = runner.run(session, WARM_UP_FRAMES);
+    }
+    Timber.i("Replayed %s in batches of %d:\n%s", logFolder.getName(), batchSize, report);
+    return report;
+  }
+
+  /**
+   * Decodes the frames into a ring of bitmaps, one per frame of a batch. The crops of a session all
+   * have the same size, so the bitmaps are reused.
+   */
+  private static class BitmapDecoder implements ReplayRunner.Decoder<Bitmap> {
+    private final BitmapFactory.Options[] options;
+    private int next = 0;
+
+    BitmapDecoder(int numBitmaps) {
+      options = new BitmapFactory.Options[numBitmaps];
+      for (int i = 0; i < numBitmaps; i++) {
+        options[i] = new BitmapFactory.Options();
+        options[i].inMutable = true;
+        options[i].inPreferredConfig = Bitmap.Config.ARGB_8888;
+      }
+    }
+
+    @Override
+    public Bitmap decode(byte[] jpeg, int length) throws IOException {
+      final BitmapFactory.Options slot = options[next];
+      next = (next + 1) % options.length;
+      final Bitmap bitmap = BitmapFactory.decodeByteArray(jpeg, 0, length, slot);
+      if (bitmap == null) throw new IOException("Cannot decode frame");
+      slot.inBitmap = bitmap;
+      return bitmap;
+    }
+  }
+}
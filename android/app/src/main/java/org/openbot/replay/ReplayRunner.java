@@ -0,0 +1,184 @@
+package org.openbot.replay;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import org.openbot.utils.LatencyHistogram;
+import org.openbot.vehicle.Control;
+
+/**
+ * Streams the frames of a {@link ReplaySession} through a policy and compares its controls with the
+ * logged ones.
+ *
+ * <p>The runner does not depend on the Android SDK. The app replays with {@code Bitmap} frames and
+ * {@code Autopilot#recognizeImage}, or {@code Autopilot#recognizeImages} for batches, see {@link
+ * AutopilotReplay}; the benchmark module decodes the frames on a plain JVM.
+ *
+ * @param <T> The decoded image type.
+ */
+public class ReplayRunner<T> {
+
+  /** Decodes a recorded image. */
+  public interface Decoder<T> {
+    /**
+     * @param jpeg The JPEG in its first {@code length} bytes. The buffer is reused for the next
+     *     frame.
+     */
+    T decode(byte[] jpeg, int length) throws IOException;
+  }
+
+  /** Predicts the control for a frame, or returns null to only measure its throughput. */
+  public interface Policy<T> {
+    Control predict(T image, int indicator);
+  }
+
+  /** Predicts the controls of several frames with one call, e.g. a batched model. */
+  public interface BatchPolicy<T> {
+    /**
+     * @param indicators The indicator of each image.
+     * @return the control of each image in order, or null to only measure the throughput.
+     */
+    List<Control> predict(List<T> images, int[] indicators);
+  }
+
+  /** Throughput and error of one replay. */
+  public static class Report {
+    private final LatencyHistogram decodeLatency = new LatencyHistogram("decode");
+    private final LatencyHistogram predictLatency = new LatencyHistogram("predict");
+    private int numFrames;
+    private int numPredicted;
+    private long elapsedNanos;
+    private double sumAbsError;
+    private double sumSquaredError;
+
+    private void add(Control logged, Control predicted) {
+      numFrames++;
+      if (predicted == null) return;
+      numPredicted++;
+      final float left = predicted.getLeft() - logged.getLeft();
+      final float right = predicted.getRight() - logged.getRight();
+      sumAbsError += Math.abs(left) + Math.abs(right);
+      sumSquaredError += left * left + right * right;
+    }
+
+    public int getNumFrames() {
+      return numFrames;
+    }
+
+    public LatencyHistogram getDecodeLatency() {
+      return decodeLatency;
+    }
+
+    public LatencyHistogram getPredictLatency() {
+      return predictLatency;
+    }
+
+    /** Frames per second including decoding. */
+    public double getFramesPerSecond() {
+      return elapsedNanos == 0 ? 0 : numFrames * 1e9 / elapsedNanos;
+    }
+
+    /** Mean absolute error of the left and right control, in the range of 0 to 2. */
+    public double getMeanAbsoluteError() {
+      return numPredicted == 0 ? 0 : sumAbsError / (2.0 * numPredicted);
+    }
+
+    public double getRootMeanSquaredError() {
+      return numPredicted == 0 ? 0 : Math.sqrt(sumSquaredError / (2.0 * numPredicted));
+    }
+
+    @Override
+    public String toString() {
+      String summary =
+          String.format(Locale.US, "frames %d, %.1f frames/s", numFrames, getFramesPerSecond());
+      if (numPredicted > 0) {
+        summary +=
+            String.format(
+                Locale.US,
+                ", mae %.4f, rmse %.4f",
+                getMeanAbsoluteError(),
+                getRootMeanSquaredError());
+      }
+      return summary + "\n" + decodeLatency + "\n" + predictLatency;
+    }
+  }
+
+  private final Decoder<T> decoder;
+  private final BatchPolicy<T> policy;
+  private final int batchSize;
+
+  /** Replays one frame at a time. */
+  public ReplayRunner(Decoder<T> decoder, Policy<T> policy) {
+    this(
+        decoder,
+        (images, indicators) ->
+            Collections.singletonList(policy.predict(images.get(0), indicators[0])),
+        1);
+  }
+
+  /**
+   * Replays the frames in batches. The last batch holds the remaining frames and may be smaller.
+   *
+   * @param decoder Decodes the frames of a batch one after the other; each image has to stay valid
+   *     until the decoder was called {@code batchSize} more times.
+   */
+  public ReplayRunner(Decoder<T> decoder, BatchPolicy<T> policy, int batchSize) {
+    if (batchSize < 1) throw new IllegalArgumentException("Invalid batch size: " + batchSize);
+    this.decoder = decoder;
+    this.policy = policy;
+    this.batchSize = batchSize;
+  }
+
+  /** Replays all frames of the session on the calling thread. */
+  public Report run(ReplaySession session) throws IOException {
+    return run(session, 0);
+  }
+
+  /**
+   * Replays the session on the calling thread.
+   *
+   * @param warmUpFrames Number of frames that are run first without being measured, so that the
+   *     report does not include class loading and the first interpreter runs. Rounded up to whole
+   *     batches.
+   */
+  public Report run(ReplaySession session, int warmUpFrames) throws IOException {
+    final Report report = new Report();
+    final List<ReplaySession.Frame> frames = session.getFrames();
+    final List<T> images = new ArrayList<>(batchSize);
+    final int[] indicators = new int[batchSize];
+    byte[] jpeg = null;
+    long startTime = System.nanoTime();
+    for (int first = 0; first < frames.size(); first += batchSize) {
+      final int count = Math.min(batchSize, frames.size() - first);
+      final boolean measured = first >= warmUpFrames;
+      if (measured && first < warmUpFrames + batchSize) startTime = System.nanoTime();
+
+      final long decodeStart = System.nanoTime();
+      images.clear();
+      for (int i = 0; i < count; i++) {
+        final ReplaySession.Frame frame = frames.get(first + i);
+        jpeg = session.readImage(frame, jpeg);
+        images.add(decoder.decode(jpeg, frame.imageLength));
+        indicators[i] = frame.indicator;
+      }
+      final long predictStart = System.nanoTime();
+      final List<Control> predicted =
+          policy.predict(
+              images, count == batchSize ? indicators : Arrays.copyOf(indicators, count));
+      final long predictEnd = System.nanoTime();
+      if (!measured) continue;
+
+      // The latencies are per frame, a batch counts as its share for each of its frames.
+      for (int i = 0; i < count; i++) {
+        report.decodeLatency.record((predictStart - decodeStart) / count);
+        report.predictLatency.record((predictEnd - predictStart) / count);
+        report.add(frames.get(first + i).control, predicted == null ? null : predicted.get(i));
+      }
+    }
+    report.elapsedNanos = System.nanoTime() - startTime;
+    return report;
+  }
+}
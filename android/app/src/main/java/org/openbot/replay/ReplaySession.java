@@ -0,0 +1,233 @@
+package org.openbot.replay;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.openbot.logging.MjpegReader;
+import org.openbot.logging.MjpegWriter;
+import org.openbot.logging.SessionFormat;
+import org.openbot.logging.SessionReader;
+import org.openbot.logging.SessionWriter;
+import org.openbot.vehicle.Control;
+
+/**
+ * A driving session recorded by the logger, read back from its log folder.
+ *
+ * <p>Every frame of {@code rgbFrames.txt} that has a {@code images/<frame>_crop.jpeg} is aligned
+ * with the last entries of {@code ctrlLog.txt} and {@code indicatorLog.txt} logged at or before its
+ * timestamp. Both are only logged when they change, so the last value is the one that was active
+ * when the frame was taken. Frames before the first control are dropped, and the indicator is 0
+ * until it is first logged. Only the aligned index is kept in memory; the images are read and
+ * decoded while replaying.
+ *
+ * <p>Sessions logged in the binary format have the logs as channels of {@code sensorData.bin}, and
+ * sessions logged as video have the crops in {@code images/crop.mjpeg}; both are read instead of
+ * the text logs and the JPEG files when present. The logs can also be in a {@code sensor_data}
+ * folder next to {@code images}, as the app stores them.
+ */
+public class ReplaySession implements Closeable {
+
+  public static final String FRAME_LOG = "rgbFrames.txt";
+  public static final String CONTROL_LOG = "ctrlLog.txt";
+  public static final String INDICATOR_LOG = "indicatorLog.txt";
+  public static final String IMAGE_FOLDER = "images";
+  public static final String SENSOR_FOLDER = "sensor_data";
+  public static final String CROP_VIDEO = "crop" + MjpegWriter.EXTENSION;
+
+  /** A recorded frame and the control and indicator that were active at the time. */
+  public static class Frame {
+    public final int frameNumber;
+    public final long timestampNanos;
+    public final int indicator;
+    public final Control control;
+    /** The JPEG file of the frame, or null if the frame is in the crop video. */
+    public final File image;
+    /** Size of the JPEG in bytes. */
+    public final int imageLength;
+    // Position of the frame in the crop video, or -1.
+    private final int videoIndex;
+
+    Frame(
+        int frameNumber,
+        long timestampNanos,
+        int indicator,
+        Control control,
+        File image,
+        int imageLength,
+        int videoIndex) {
+      this.frameNumber = frameNumber;
+      this.timestampNanos = timestampNanos;
+      this.indicator = indicator;
+      this.control = control;
+      this.image = image;
+      this.imageLength = imageLength;
+      this.videoIndex = videoIndex;
+    }
+  }
+
+  private final File folder;
+  private final List<Frame> frames;
+  private final MjpegReader video;
+
+  private ReplaySession(File folder, List<Frame> frames, MjpegReader video) {
+    this.folder = folder;
+    this.frames = Collections.unmodifiableList(frames);
+    this.video = video;
+  }
+
+  /** Reads the logs of the session stored in {@code folder}. The session has to be closed. */
+  public static ReplaySession load(File folder) throws IOException {
+    final File sensorFolder = new File(folder, SENSOR_FOLDER);
+    final File logFolder = sensorFolder.isDirectory() ? sensorFolder : folder;
+    final File sessionFile = new File(logFolder, SessionWriter.FILE_NAME);
+    final List<long[]> frameLog;
+    final List<long[]> ctrlLog;
+    final List<long[]> indicatorLog;
+    if (sessionFile.isFile()) {
+      try (SessionReader reader = new SessionReader(sessionFile)) {
+        frameLog = readChannel(reader, FRAME_LOG, 2);
+        ctrlLog = readChannel(reader, CONTROL_LOG, 3);
+        indicatorLog = readChannel(reader, INDICATOR_LOG, 2);
+      }
+    } else {
+      frameLog = readLog(new File(logFolder, FRAME_LOG), 2);
+      ctrlLog = readLog(new File(logFolder, CONTROL_LOG), 3);
+      indicatorLog = readLog(new File(logFolder, INDICATOR_LOG), 2);
+    }
+    final File imageFolder = new File(folder, IMAGE_FOLDER);
+    final File videoFile = new File(imageFolder, CROP_VIDEO);
+    final MjpegReader video = videoFile.isFile() ? new MjpegReader(videoFile) : null;
+
+    final List<Frame> frames = new ArrayList<>(frameLog.size());
+    int ctrl = -1;
+    int indicator = -1;
+    for (long[] entry : frameLog) {
+      final long timestamp = entry[0];
+      ctrl = advance(ctrlLog, ctrl, timestamp);
+      indicator = advance(indicatorLog, indicator, timestamp);
+      if (ctrl < 0) continue;
+
+      final int frameNumber = (int) entry[1];
+      final int videoIndex = video == null ? -1 : video.indexOf(frameNumber);
+      File image = null;
+      final int imageLength;
+      if (videoIndex >= 0) {
+        imageLength = video.getLength(videoIndex);
+      } else {
+        image = new File(imageFolder, frameNumber + "_crop.jpeg");
+        if (!image.isFile()) continue;
+        imageLength = (int) image.length();
+      }
+
+      final long[] ctrlEntry = ctrlLog.get(ctrl);
+      // The wheel speeds are logged as control times speed multiplier. Like the training code,
+      // normalize by the maximum speed of 255.
+      final Control control = new Control(ctrlEntry[1] / 255.f, ctrlEntry[2] / 255.f);
+      final int signal = indicator < 0 ? 0 : (int) indicatorLog.get(indicator)[1];
+      frames.add(
+          new Frame(frameNumber, timestamp, signal, control, image, imageLength, videoIndex));
+    }
+    return new ReplaySession(folder, frames, video);
+  }
+
+  /** Returns the index of the last entry logged at or before {@code timestamp}. */
+  private static int advance(List<long[]> log, int index, long timestamp) {
+    while (index + 1 < log.size() && log.get(index + 1)[0] <= timestamp) index++;
+    return index;
+  }
+
+  /**
+   * Reads the comma separated integer columns of a log, skipping its header. The entries are sorted
+   * by timestamp, as log lines may be written slightly out of order by different threads.
+   */
+  private static List<long[]> readLog(File file, int numColumns) throws IOException {
+    final List<long[]> entries = new ArrayList<>();
+    try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+      String line;
+      int lineNumber = 0;
+      while ((line = reader.readLine()) != null) {
+        lineNumber++;
+        line = line.trim();
+        if (line.isEmpty() || !Character.isDigit(line.charAt(0))) continue;
+        final String[] columns = line.split(",");
+        if (columns.length < numColumns) {
+          throw new IOException(
+              file.getName() + ":" + lineNumber + ": expected " + numColumns + " columns");
+        }
+        final long[] entry = new long[numColumns];
+        try {
+          for (int i = 0; i < numColumns; i++) {
+            entry[i] = Long.parseLong(columns[i].trim());
+          }
+        } catch (NumberFormatException e) {
+          throw new IOException(file.getName() + ":" + lineNumber + ": " + e.getMessage());
+        }
+        entries.add(entry);
+      }
+    }
+    Collections.sort(entries, (a, b) -> Long.compare(a[0], b[0]));
+    return entries;
+  }
+
+  /**
+   * Reads the channel of a binary session like {@link #readLog} reads the log, the timestamp
+   * followed by the integer columns.
+   */
+  private static List<long[]> readChannel(SessionReader reader, String name, int numColumns)
+      throws IOException {
+    final SessionFormat.Channel channel = reader.getChannel(name);
+    if (channel == null) throw new IOException("No channel " + name);
+    final List<long[]> entries = new ArrayList<>();
+    final SessionReader.Cursor cursor = reader.read(channel);
+    while (cursor.next()) {
+      if (channel.getNumColumns() < numColumns - 1) {
+        throw new IOException(name + ": expected " + numColumns + " columns");
+      }
+      final long[] entry = new long[numColumns];
+      entry[0] = cursor.getTimestamp();
+      try {
+        for (int i = 1; i < numColumns; i++) entry[i] = cursor.getLong(i - 1);
+      } catch (IllegalArgumentException e) {
+        throw new IOException(name + ": " + e.getMessage());
+      }
+      entries.add(entry);
+    }
+    Collections.sort(entries, (a, b) -> Long.compare(a[0], b[0]));
+    return entries;
+  }
+
+  /** Reads the JPEG of the frame into the buffer, which is grown if needed. */
+  public byte[] readImage(Frame frame, byte[] buffer) throws IOException {
+    if (frame.videoIndex >= 0) return video.readFrame(frame.videoIndex, buffer);
+    if (buffer == null || buffer.length < frame.imageLength) buffer = new byte[frame.imageLength];
+    try (InputStream in = new FileInputStream(frame.image)) {
+      int length = 0;
+      while (length < frame.imageLength) {
+        final int n = in.read(buffer, length, frame.imageLength - length);
+        if (n < 0) throw new IOException("Short image " + frame.image);
+        length += n;
+      }
+    }
+    return buffer;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (video != null) video.close();
+  }
+
+  public File getFolder() {
+    return folder;
+  }
+
+  public List<Frame> getFrames() {
+    return frames;
+  }
+}
@@ -100,8 +100,10 @@ public class FreeRoamFragment extends ControlsFragment {
   }
 
   @Override
-  protected void processUSBData(String data) {
+  protected void processUSBData(String data) {}
 
+  @Override
+  protected void processVehicleReadings() {
     binding.controllerContainer.speedInfo.setText(
         getString(
             R.string.speedInfo,
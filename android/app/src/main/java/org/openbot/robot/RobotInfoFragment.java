@@ -133,10 +133,7 @@ public class RobotInfoFragment extends ControlsFragment {
 
   @Override
   protected void processUSBData(String data) {
-    if (!vehicle.isReady()) {
-      vehicle.setReady(true);
-      vehicle.requestVehicleConfig();
-    }
+    onVehicleMessage();
     char header = data.charAt(0);
     // String body = data.substring(1);
     // int type = -1;
@@ -147,21 +144,28 @@ public class RobotInfoFragment extends ControlsFragment {
         binding.refreshToggle.setChecked(vehicle.isReady());
         updateGui(vehicle.isReady());
         break;
-      case 'v':
-        binding.voltageInfo.setText(
-            String.format(Locale.US, "%2.1f V", vehicle.getBatteryVoltage()));
-        break;
-      case 'w':
-        binding.speedInfo.setText(
-            String.format(
-                Locale.US,
-                "%3.0f,%3.0f rpm",
-                vehicle.getLeftWheelRpm(),
-                vehicle.getRightWheelRpm()));
-        break;
-      case 's':
-        binding.sonarInfo.setText(String.format(Locale.US, "%3.0f cm", vehicle.getSonarReading()));
-        break;
+    }
+  }
+
+  @Override
+  protected void processVehicleReadings() {
+    onVehicleMessage();
+    // Only the sensors the vehicle reports have samples.
+    if (vehicle.getBatteryVoltageTelemetry().getCount() > 0)
+      binding.voltageInfo.setText(String.format(Locale.US, "%2.1f V", vehicle.getBatteryVoltage()));
+    if (vehicle.getWheelRpmTelemetry().getCount() > 0)
+      binding.speedInfo.setText(
+          String.format(
+              Locale.US, "%3.0f,%3.0f rpm", vehicle.getLeftWheelRpm(), vehicle.getRightWheelRpm()));
+    if (vehicle.getSonarTelemetry().getCount() > 0)
+      binding.sonarInfo.setText(String.format(Locale.US, "%3.0f cm", vehicle.getSonarReading()));
+  }
+
+  /** Any message shows that the vehicle is running, so its configuration can be requested. */
+  private void onVehicleMessage() {
+    if (!vehicle.isReady()) {
+      vehicle.setReady(true);
+      vehicle.requestVehicleConfig();
     }
   }
 }
@@ -146,7 +146,7 @@ public class ServerCommunication {
   private final ServerListener serverListener;
   private Timer timer;
 
-  private String serverUrl;
+  private volatile String serverUrl;
 
   public ServerCommunication(Context context, ServerListener serverListener) {
     this.client = new AsyncHttpClient();
@@ -193,6 +193,11 @@ public class ServerCommunication {
     serverListener.onConnectionEstablished(context.getString(R.string.ip_placeholder));
   }
 
+  /** The address of the connected server, e.g. for a {@link SessionUploader}, or null. */
+  public String getServerUrl() {
+    return serverUrl;
+  }
+
   public void upload(File file) {
     if (serverUrl == null) {
       return;
@@ -0,0 +1,443 @@
+package org.openbot.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import timber.log.Timber;
+
+/**
+ * Uploads the files of a logging session to the server in chunks while the session is recorded,
+ * instead of zipping and posting the whole folder after it ends.
+ *
+ * <p>The files of a session only grow: the text and binary logs, the frame videos and their
+ * indexes, the JPEG files of the frames. Each file is sent as byte ranges, {@code chunkSize} bytes
+ * or the rest of a file that was not modified for a while. A chunk carries the SHA-256 of its
+ * bytes, so the server rejects corrupted chunks and acknowledges a chunk it already has without
+ * writing it again. The uploader remembers the size of each file acknowledged by the server; after
+ * an error, the next pass sends the same chunk again. As the server may have written it before the
+ * answer was lost, its hash is sent first, and the bytes only if the server does not have them.
+ * When a session is resumed, e.g. after the app was restarted, the acknowledged sizes are read from
+ * the server first.
+ *
+ * <p>Protocol, all answers are plain text:
+ *
+ * <ul>
+ *   <li>{@code GET /upload/status?session=S}: one line {@code <size> <path>} per received file.
+ *   <li>{@code POST /upload/chunk?session=S&path=P&offset=O} with the header {@code
+ *       X-Content-SHA256} and the bytes as body: {@code <size>} of the file on the server, followed
+ *       by {@code duplicate} if the chunk was already there. Status 409 with the size if the offset
+ *       is beyond it.
+ *   <li>{@code GET /upload/chunk?session=S&path=P&offset=O&length=L} with the header {@code
+ *       X-Content-SHA256}: {@code <size>} of the file on the server, followed by {@code duplicate}
+ *       if it has the chunk with this hash. Status 409 with the size if the offset is beyond it.
+ *   <li>{@code POST /upload/finish?session=S}: the session is complete.
+ *   <li>{@code POST /upload/cancel?session=S}: the received files are deleted.
+ * </ul>
+ */
+public class SessionUploader {
+
+  public static final int DEFAULT_CHUNK_SIZE = 512 * 1024;
+  public static final long DEFAULT_INTERVAL_MS = 5000;
+  /** Files that were not modified for this long are sent completely while recording. */
+  public static final long SETTLE_MS = 2000;
+
+  private static final long MAX_BACKOFF_MS = 60000;
+  private static final int CONNECT_TIMEOUT_MS = 5000;
+  private static final int READ_TIMEOUT_MS = 30000;
+  private static final int CONFLICT = 409;
+
+  private final String serverUrl;
+  private final File sessionDir;
+  private final String session;
+  private final int chunkSize;
+  private final long intervalMs;
+  private final byte[] buffer;
+  private final MessageDigest digest;
+
+  // Sizes acknowledged by the server by relative path, null until read from the server.
+  private Map<String, Long> acknowledged;
+
+  private volatile boolean running = false;
+  private Thread thread;
+
+  private long numChunks = 0;
+  private long numBytes = 0;
+  private long numDuplicates = 0;
+  private long numErrors = 0;
+  private long numProbes = 0;
+  // Whether the last chunk failed, so the server may have it although it was not acknowledged.
+  private boolean resend = false;
+
+  public SessionUploader(String serverUrl, File sessionDir) {
+    this(serverUrl, sessionDir, DEFAULT_CHUNK_SIZE, DEFAULT_INTERVAL_MS);
+  }
+
+  /**
+   * @param serverUrl E.g. {@code http://192.168.1.2:8000}.
+   * @param sessionDir The log folder; its name is the name of the session on the server.
+   * @param chunkSize Largest number of bytes per request.
+   * @param intervalMs Time between the upload passes while recording.
+   */
+  public SessionUploader(String serverUrl, File sessionDir, int chunkSize, long intervalMs) {
+    this.serverUrl = serverUrl;
+    this.sessionDir = sessionDir;
+    this.session = sessionDir.getName();
+    this.chunkSize = chunkSize;
+    this.intervalMs = intervalMs;
+    buffer = new byte[chunkSize];
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /** Uploads the completed parts of the session every interval on a background thread. */
+  public synchronized void start() {
+    if (running) return;
+    running = true;
+    thread = new Thread(this::loop, "SessionUploader");
+    thread.start();
+  }
+
+  private void loop() {
+    long delayMs = intervalMs;
+    while (running) {
+      try {
+        TimeUnit.MILLISECONDS.sleep(delayMs);
+      } catch (InterruptedException e) {
+        return;
+      }
+      if (!running) return;
+      try {
+        uploadPending(false);
+        delayMs = intervalMs;
+      } catch (IOException e) {
+        // Retried with the next pass, less often while the server is unreachable.
+        Timber.w("Upload of %s failed: %s", session, e.toString());
+        delayMs = Math.min(2 * delayMs, MAX_BACKOFF_MS);
+      }
+    }
+  }
+
+  /**
+   * Stops the background uploads without completing the session, e.g. while its files are still
+   * written. Another uploader of the session folder resumes the upload.
+   */
+  public void stop() {
+    final Thread t;
+    synchronized (this) {
+      running = false;
+      t = thread;
+      thread = null;
+    }
+    if (t != null) {
+      t.interrupt();
+      try {
+        t.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Stops the background uploads, then uploads the rest of the session, retrying until the timeout,
+   * and tells the server that the session is complete. Call it once all files of the session are
+   * closed.
+   *
+   * @return false if the session could not be completed; it can be resumed later.
+   */
+  public boolean finish(long timeoutMs) {
+    stop();
+    final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+    long delayMs = 500;
+    while (true) {
+      try {
+        uploadPending(true);
+        post("finish");
+        return true;
+      } catch (IOException e) {
+        Timber.w("Upload of %s failed: %s", session, e.toString());
+      }
+      if (System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMs) - deadline > 0) return false;
+      try {
+        TimeUnit.MILLISECONDS.sleep(delayMs);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+      delayMs = Math.min(2 * delayMs, MAX_BACKOFF_MS);
+    }
+  }
+
+  /** Stops the background uploads and asks the server to delete what it received. */
+  public void cancel() {
+    stop();
+    try {
+      post("cancel");
+    } catch (IOException e) {
+      Timber.w("Cancelling upload of %s failed: %s", session, e.toString());
+    }
+  }
+
+  /**
+   * Sends the parts of the files the server does not have yet.
+   *
+   * @param complete Whether the files are closed. Otherwise, only full chunks and the rest of files
+   *     that were not modified for {@link #SETTLE_MS} are sent.
+   * @return The number of bytes sent.
+   */
+  public synchronized long uploadPending(boolean complete) throws IOException {
+    if (acknowledged == null) acknowledged = readStatus();
+    final List<File> files = new ArrayList<>();
+    listFiles(sessionDir, files);
+    final long now = System.currentTimeMillis();
+    long sent = 0;
+    for (File file : files) {
+      final String path = relativePath(file);
+      final long length = file.length();
+      final boolean settled = complete || now - file.lastModified() >= SETTLE_MS;
+      Long acked = acknowledged.get(path);
+      long offset = acked != null ? acked : 0;
+      if (length < offset) {
+        Timber.w("%s is smaller than uploaded, skipped", path);
+        continue;
+      }
+      while (offset < length) {
+        final int size = (int) Math.min(chunkSize, length - offset);
+        if (size < chunkSize && !settled) break;
+        offset = sendChunk(file, path, offset, size);
+        acknowledged.put(path, offset);
+        sent += size;
+      }
+    }
+    return sent;
+  }
+
+  private static void listFiles(File dir, List<File> files) {
+    final File[] children = dir.listFiles();
+    if (children == null) return;
+    final List<File> sorted = new ArrayList<>();
+    Collections.addAll(sorted, children);
+    Collections.sort(sorted);
+    for (File child : sorted) {
+      if (child.isDirectory()) {
+        listFiles(child, files);
+      } else {
+        files.add(child);
+      }
+    }
+  }
+
+  private String relativePath(File file) {
+    final String root = sessionDir.getAbsolutePath();
+    return file.getAbsolutePath().substring(root.length() + 1).replace(File.separatorChar, '/');
+  }
+
+  /** @return The size of the file on the server after the chunk. */
+  private long sendChunk(File file, String path, long offset, int size) throws IOException {
+    try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+      in.seek(offset);
+      in.readFully(buffer, 0, size);
+    }
+    digest.reset();
+    digest.update(buffer, 0, size);
+    final String hash = toHex(digest.digest());
+    if (resend) {
+      final long serverSize = probeChunk(path, offset, size, hash);
+      resend = false;
+      if (serverSize >= 0) return serverSize;
+    }
+
+    final HttpURLConnection connection =
+        open("chunk", "&path=" + encode(path) + "&offset=" + offset, "POST");
+    try {
+      connection.setDoOutput(true);
+      connection.setFixedLengthStreamingMode(size);
+      connection.setRequestProperty("Content-Type", "application/octet-stream");
+      connection.setRequestProperty("X-Content-SHA256", hash);
+      try (OutputStream out = connection.getOutputStream()) {
+        out.write(buffer, 0, size);
+      }
+      final int code = connection.getResponseCode();
+      if (code != HttpURLConnection.HTTP_OK && code != CONFLICT) {
+        throw new IOException("Chunk " + path + "@" + offset + ": HTTP " + code);
+      }
+      final String[] answer = read(connection, code).trim().split(" ");
+      final long serverSize = Long.parseLong(answer[0]);
+      if (code == CONFLICT) {
+        // The server has less than acknowledged, e.g. it lost a chunk; continue from its size.
+        numErrors++;
+        return serverSize;
+      }
+      numChunks++;
+      if (answer.length > 1 && "duplicate".equals(answer[1])) {
+        numDuplicates++;
+      } else {
+        numBytes += size;
+      }
+      return serverSize;
+    } catch (NumberFormatException e) {
+      numErrors++;
+      resend = true;
+      throw new IOException("Chunk " + path + "@" + offset + ": invalid answer", e);
+    } catch (IOException e) {
+      numErrors++;
+      resend = true;
+      throw e;
+    } finally {
+      connection.disconnect();
+    }
+  }
+
+  /**
+   * Sends only the hash of a chunk, to find out whether the server already has it.
+   *
+   * @return The size of the file on the server if the chunk does not need to be sent, or -1.
+   */
+  private long probeChunk(String path, long offset, int size, String hash) throws IOException {
+    final HttpURLConnection connection =
+        open("chunk", "&path=" + encode(path) + "&offset=" + offset + "&length=" + size, "GET");
+    try {
+      connection.setRequestProperty("X-Content-SHA256", hash);
+      final int code = connection.getResponseCode();
+      if (code != HttpURLConnection.HTTP_OK && code != CONFLICT) {
+        throw new IOException("Probe " + path + "@" + offset + ": HTTP " + code);
+      }
+      final String[] answer = read(connection, code).trim().split(" ");
+      final long serverSize = Long.parseLong(answer[0]);
+      numProbes++;
+      if (code == CONFLICT) {
+        numErrors++;
+        return serverSize;
+      }
+      if (answer.length > 1 && "duplicate".equals(answer[1])) {
+        numChunks++;
+        numDuplicates++;
+        return serverSize;
+      }
+      return -1;
+    } catch (NumberFormatException e) {
+      numErrors++;
+      throw new IOException("Probe " + path + "@" + offset + ": invalid answer", e);
+    } catch (IOException e) {
+      numErrors++;
+      throw e;
+    } finally {
+      connection.disconnect();
+    }
+  }
+
+  private Map<String, Long> readStatus() throws IOException {
+    final HttpURLConnection connection = open("status", "", "GET");
+    try {
+      final int code = connection.getResponseCode();
+      if (code != HttpURLConnection.HTTP_OK) throw new IOException("Status: HTTP " + code);
+      final Map<String, Long> sizes = new HashMap<>();
+      for (String line : read(connection, code).split("\n")) {
+        final int space = line.indexOf(' ');
+        if (space > 0)
+          sizes.put(line.substring(space + 1), Long.parseLong(line.substring(0, space)));
+      }
+      return sizes;
+    } catch (NumberFormatException e) {
+      throw new IOException("Status: invalid answer", e);
+    } finally {
+      connection.disconnect();
+    }
+  }
+
+  private void post(String action) throws IOException {
+    final HttpURLConnection connection = open(action, "", "POST");
+    try {
+      connection.setDoOutput(true);
+      connection.setFixedLengthStreamingMode(0);
+      connection.getOutputStream().close();
+      final int code = connection.getResponseCode();
+      if (code != HttpURLConnection.HTTP_OK) throw new IOException(action + ": HTTP " + code);
+    } finally {
+      connection.disconnect();
+    }
+  }
+
+  private HttpURLConnection open(String action, String parameters, String method)
+      throws IOException {
+    final URL url =
+        new URL(serverUrl + "/upload/" + action + "?session=" + encode(session) + parameters);
+    final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+    connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+    connection.setReadTimeout(READ_TIMEOUT_MS);
+    connection.setRequestMethod(method);
+    // A connection kept alive by a phone that moved between networks often fails on reuse, and a
+    // chunk is large enough that opening a new one does not matter.
+    connection.setRequestProperty("Connection", "close");
+    return connection;
+  }
+
+  private static String read(HttpURLConnection connection, int code) throws IOException {
+    try (InputStream in = code < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+      if (in == null) return "";
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      final byte[] bytes = new byte[4096];
+      int n;
+      while ((n = in.read(bytes)) > 0) out.write(bytes, 0, n);
+      return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+  }
+
+  private static String encode(String value) {
+    try {
+      return URLEncoder.encode(value, "UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static String toHex(byte[] bytes) {
+    final StringBuilder hex = new StringBuilder(2 * bytes.length);
+    for (byte b : bytes)
+      hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    return hex.toString();
+  }
+
+  /** Chunks acknowledged by the server, including duplicates. */
+  public synchronized long getNumChunks() {
+    return numChunks;
+  }
+
+  /** Bytes written by the server, without duplicates. */
+  public synchronized long getNumBytes() {
+    return numBytes;
+  }
+
+  /** Chunks the server already had, e.g. after a lost answer; found by a probe or sent again. */
+  public synchronized long getNumDuplicates() {
+    return numDuplicates;
+  }
+
+  public synchronized long getNumErrors() {
+    return numErrors;
+  }
+
+  /** Chunks whose hash was sent before the bytes, after an error. */
+  public synchronized long getNumProbes() {
+    return numProbes;
+  }
+}
@@ -5,12 +5,15 @@ package org.openbot.tflite;
 import android.app.Activity;
 import android.graphics.Bitmap;
 import android.graphics.RectF;
-import android.os.SystemClock;
 import android.os.Trace;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import org.openbot.vehicle.Control;
 import timber.log.Timber;
 
@@ -32,6 +35,12 @@ public class Autopilot extends Network {
   private int cmdIndex;
   private int imgIndex;
 
+  /** Inputs and outputs of {@link #recognizeImages}, grown to the largest batch seen. */
+  private ByteBuffer batchImgData;
+
+  private ByteBuffer batchCmdBuffer;
+  private float[][] batchCtrl;
+
   /** Additional normalization of the used input. */
   private static final float IMAGE_MEAN = 0.0f;
 
@@ -70,13 +79,16 @@ public class Autopilot extends Network {
     // Log this method so that it can be analyzed with systrace.
     Trace.beginSection("recognizeImage");
     Trace.beginSection("preprocessBitmap");
+    long startTime = System.nanoTime();
     convertBitmapToByteBuffer(bitmap);
     convertIndicatorToByteBuffer(indicator);
+    recordSince(PREPROCESS_LATENCY, startTime);
     Trace.endSection(); // preprocessBitmap
 
     // Run the inference call.
     Trace.beginSection("runInference");
-    long startTime = SystemClock.elapsedRealtime();
+    startTime = System.nanoTime();
+    resizeInputBatch(DIM_BATCH_SIZE);
     Object[] inputArray;
     if (cmdIndex == 0) {
       inputArray = new Object[] {cmdBuffer, imgData};
@@ -87,14 +99,66 @@ public class Autopilot extends Network {
     float[][] predicted_ctrl = new float[1][2];
     outputMap.put(0, predicted_ctrl);
     tflite.runForMultipleInputsOutputs(inputArray, outputMap);
-    long endTime = SystemClock.elapsedRealtime();
+    long duration = System.nanoTime() - startTime;
+    record(INFERENCE_LATENCY, duration);
     Trace.endSection();
-    Timber.v("Timecost to run model inference: %s", (endTime - startTime));
+    Timber.v("Timecost to run model inference: %s", duration / 1000000);
 
     Trace.endSection(); // "recognizeImage"
     return new Control(predicted_ctrl[0][0], predicted_ctrl[0][1]);
   }
 
+  /**
+   * Runs the policy once on a batch of frames, e.g. when replaying a recorded dataset, and returns
+   * the control of each frame in the order of the bitmaps. The interpreter is resized to the batch,
+   * so keep the batch size constant between calls and use {@link #recognizeImage} for live frames.
+   *
+   * @param indicators The indicator of each frame.
+   */
+  public List<Control> recognizeImages(final List<Bitmap> bitmaps, final int[] indicators) {
+    final int count = bitmaps.size();
+    if (indicators.length != count)
+      throw new IllegalArgumentException("Expected one indicator per frame");
+    if (batchCtrl == null || batchCtrl.length < count) {
+      batchImgData = createInputBuffer(count);
+      batchCmdBuffer = ByteBuffer.allocateDirect(4 * count);
+      batchCmdBuffer.order(ByteOrder.nativeOrder());
+      batchCtrl = new float[count][2];
+    }
+
+    Trace.beginSection("recognizeImages");
+    long startTime = System.nanoTime();
+    batchCmdBuffer.rewind();
+    for (int i = 0; i < count; i++) {
+      convertBitmapToByteBuffer(bitmaps.get(i), batchImgData, i);
+      batchCmdBuffer.putFloat(indicators[i]);
+    }
+    recordSince(PREPROCESS_LATENCY, startTime);
+
+    // A smaller last batch runs with the remaining slots holding older frames.
+    startTime = System.nanoTime();
+    resizeInputBatch(batchCtrl.length);
+    batchImgData.rewind();
+    batchCmdBuffer.rewind();
+    Object[] inputArray;
+    if (cmdIndex == 0) {
+      inputArray = new Object[] {batchCmdBuffer, batchImgData};
+    } else {
+      inputArray = new Object[] {batchImgData, batchCmdBuffer};
+    }
+    Map<Integer, Object> outputs = new HashMap<>();
+    outputs.put(0, batchCtrl);
+    tflite.runForMultipleInputsOutputs(inputArray, outputs);
+    recordSince(INFERENCE_LATENCY, startTime);
+    Trace.endSection(); // "recognizeImages"
+
+    List<Control> controls = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      controls.add(new Control(batchCtrl[i][0], batchCtrl[i][1]));
+    }
+    return controls;
+  }
+
   @Override
   public boolean getMaintainAspect() {
     return true;
@@ -105,15 +169,18 @@ public class Autopilot extends Network {
     return new RectF(0.0f, 240.0f / 720.0f, 0.0f, 0.0f);
   }
 
+  @Override
+  protected void runWarmUp(Bitmap bitmap) {
+    recognizeImage(bitmap, 0);
+  }
+
   @Override
   protected int getNumBytesPerChannel() {
     return 4; // Float.SIZE / Byte.SIZE;
   }
 
   @Override
-  protected void addPixelValue(int pixelValue) {
-    imgData.putFloat((((pixelValue >> 16) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-    imgData.putFloat((((pixelValue >> 8) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-    imgData.putFloat(((pixelValue & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
+  protected PixelNormalizer createPixelNormalizer() {
+    return PixelNormalizer.floatInput(IMAGE_MEAN, IMAGE_STD);
   }
 }
@@ -20,17 +20,19 @@ package org.openbot.tflite;
 import android.app.Activity;
 import android.graphics.Bitmap;
 import android.graphics.RectF;
-import android.os.SystemClock;
 import android.os.Trace;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
-import java.util.PriorityQueue;
+import java.util.Map;
 import org.openbot.objectNav.ObjectNavFragment;
+import org.openbot.utils.LatencyHistogram;
+import org.openbot.utils.Metrics;
 import timber.log.Timber;
 
 /**
@@ -39,6 +41,10 @@ import timber.log.Timber;
  */
 public abstract class Detector extends Network {
 
+  private static final LatencyHistogram FEED_LATENCY = Metrics.histogram(Metrics.FEED);
+  private static final LatencyHistogram POSTPROCESS_LATENCY =
+      Metrics.histogram(Metrics.POSTPROCESS);
+
   /** Labels corresponding to the output of the vision model. */
   protected List<String> labels;
 
@@ -155,6 +161,30 @@ public abstract class Detector extends Network {
     }
   }
 
+  /**
+   * Input and output tensors of one frame. {@link #recognizeImage} uses a single set of tensors, a
+   * pipeline that preprocesses, runs and decodes different frames at the same time creates one set
+   * per frame in flight with {@link #createTensors()}. {@link #recognizeImages} uses a set sized
+   * for a batch of frames.
+   */
+  public static class Tensors {
+    private final ByteBuffer input;
+    private final Map<Integer, Object> outputs;
+    private final int batchSize;
+
+    private Tensors(ByteBuffer input, Map<Integer, Object> outputs, int batchSize) {
+      this.input = input;
+      this.outputs = outputs;
+      this.batchSize = batchSize;
+    }
+  }
+
+  /** The tensors used by {@link #recognizeImage}, created on the first call. */
+  private Tensors tensors;
+
+  /** The tensors used by {@link #recognizeImages}, grown to the largest batch seen. */
+  private Tensors batchTensors;
+
   /** Initializes a {@code Detector}. */
   protected Detector(Activity activity, Model model, Device device, int numThreads)
       throws IOException {
@@ -180,120 +210,169 @@ public abstract class Detector extends Network {
 
   public List<Recognition> recognizeImage(final Bitmap bitmap, String className)
       throws IllegalArgumentException {
+    if (tensors == null) {
+      tensors = new Tensors(imgData, outputMap, DIM_BATCH_SIZE);
+    }
+
     // Log this method so that it can be analyzed with systrace.
     Trace.beginSection("recognizeImage");
+    preprocess(bitmap, tensors);
+    runInference(tensors);
+    Trace.endSection(); // "recognizeImage"
 
-    Trace.beginSection("preprocessBitmap");
-    long startTime = SystemClock.elapsedRealtime();
-    convertBitmapToByteBuffer(bitmap);
-    long endTime = SystemClock.elapsedRealtime();
-    Timber.v("Timecost to convertBitmapToByteBuffer: %s", (endTime - startTime));
+    return postprocess(tensors, className);
+  }
+
+  /**
+   * Runs the model once on a batch of frames, e.g. when replaying a recorded dataset, and returns
+   * the recognitions of each frame in the order of the bitmaps. The interpreter is resized to the
+   * batch, so keep the batch size constant between calls and use {@link #recognizeImage} for live
+   * frames.
+   *
+   * @throws UnsupportedOperationException if the batch has more than one frame and the model does
+   *     not support batches, see {@link #supportsBatching()}.
+   */
+  public List<List<Recognition>> recognizeImages(final List<Bitmap> bitmaps, String className)
+      throws IllegalArgumentException {
+    final int count = bitmaps.size();
+    if (count > DIM_BATCH_SIZE && !supportsBatching())
+      throw new UnsupportedOperationException(
+          getClass().getSimpleName() + " runs one frame at a time, not batches of " + count);
+    if (batchTensors == null || batchTensors.batchSize < count) {
+      batchTensors = createTensors(count);
+    }
+
+    Trace.beginSection("recognizeImages");
+    long startTime = System.nanoTime();
+    for (int i = 0; i < count; i++) {
+      convertBitmapToByteBuffer(bitmaps.get(i), batchTensors.input, i);
+    }
+    recordSince(PREPROCESS_LATENCY, startTime);
+    // A smaller last batch runs with the remaining slots holding older frames.
+    runInference(batchTensors);
+    Trace.endSection(); // "recognizeImages"
+
+    startTime = System.nanoTime();
+    final List<List<Recognition>> results = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      results.add(getRecognitions(batchTensors.outputs, i, className));
+    }
+    recordSince(POSTPROCESS_LATENCY, startTime);
+    return results;
+  }
+
+  /**
+   * Whether the batch dimension of the model can be resized for {@link #recognizeImages}. True for
+   * models whose outputs all have a batch dimension.
+   */
+  public boolean supportsBatching() {
+    return true;
+  }
+
+  @Override
+  protected void runWarmUp(Bitmap bitmap) {
+    recognizeImage(bitmap, "");
+  }
+
+  /** Creates an additional set of input and output tensors for a pipelined frame. */
+  public Tensors createTensors() {
+    return createTensors(DIM_BATCH_SIZE);
+  }
 
+  private Tensors createTensors(int batchSize) {
+    return new Tensors(createInputBuffer(batchSize), new HashMap<>(), batchSize);
+  }
+
+  /** Writes the bitmap into the input tensor, first stage of {@link #recognizeImage}. */
+  public void preprocess(final Bitmap bitmap, Tensors tensors) {
+    Trace.beginSection("preprocessBitmap");
+    long startTime = System.nanoTime();
+    convertBitmapToByteBuffer(bitmap, tensors.input);
+    long duration = System.nanoTime() - startTime;
+    record(PREPROCESS_LATENCY, duration);
+    Timber.v("Timecost to convertBitmapToByteBuffer: %s", duration / 1000000);
     Trace.endSection(); // preprocessBitmap
+  }
 
+  /**
+   * Runs the model on the prepared input tensor and fills the output tensors, second stage of
+   * {@link #recognizeImage}. Must not be called concurrently, the interpreter is not thread safe.
+   */
+  public void runInference(Tensors tensors) {
     // Copy the input data into TensorFlow.
     Trace.beginSection("feed");
-    feedData();
+    long startTime = System.nanoTime();
+    feedData(tensors.outputs, tensors.batchSize);
+    resizeInputBatch(tensors.batchSize);
+    recordSince(FEED_LATENCY, startTime);
     Trace.endSection();
 
     // Run the inference call.
     Trace.beginSection("runInference");
-    startTime = SystemClock.elapsedRealtime();
-    runInference();
-    endTime = SystemClock.elapsedRealtime();
+    startTime = System.nanoTime();
+    Object[] inputArray = {tensors.input};
+    tflite.runForMultipleInputsOutputs(inputArray, tensors.outputs);
+    long duration = System.nanoTime() - startTime;
+    record(INFERENCE_LATENCY, duration);
     Trace.endSection();
-    Timber.v("Timecost to run model inference: %s", (endTime - startTime));
-
-    Trace.endSection(); // "recognizeImage"
-
-    startTime = SystemClock.elapsedRealtime();
-    List<Recognition> recognitions = getRecognitions(className);
-    endTime = SystemClock.elapsedRealtime();
-    Timber.v("Timecost for postprocessing: %s", (endTime - startTime));
+    Timber.v("Timecost to run model inference: %s", duration / 1000000);
+  }
 
+  /** Decodes the output tensors into recognitions, last stage of {@link #recognizeImage}. */
+  public List<Recognition> postprocess(Tensors tensors, String className) {
+    long startTime = System.nanoTime();
+    List<Recognition> recognitions = getRecognitions(tensors.outputs, 0, className);
+    long duration = System.nanoTime() - startTime;
+    record(POSTPROCESS_LATENCY, duration);
+    Timber.v("Timecost for postprocessing: %s", duration / 1000000);
     return recognitions;
   }
 
   protected float mNmsThresh = 0.25f;
 
+  /** Reusable non maximum suppression buffers, shared by all frames of this detector. */
+  protected final NmsEngine nmsEngine = new NmsEngine();
+
   protected float getObjThresh() {
     return ObjectNavFragment.MINIMUM_CONFIDENCE_TF_OD_API;
   }
 
   // non maximum suppression
   protected ArrayList<Recognition> nms(ArrayList<Recognition> list) {
-    ArrayList<Recognition> nmsList = new ArrayList<Recognition>();
-
-    for (int k = 0; k < labels.size(); k++) {
-      // 1. Find max confidence per class
-      PriorityQueue<Recognition> pq =
-          new PriorityQueue<Recognition>(
-              50,
-              new Comparator<Recognition>() {
-                @Override
-                public int compare(final Recognition lhs, final Recognition rhs) {
-                  // Intentionally reversed to put high confidence at the head of the queue.
-                  return Float.compare(rhs.getConfidence(), lhs.getConfidence());
-                }
-              });
-
-      for (int i = 0; i < list.size(); ++i) {
-        if (list.get(i).getClassId() == k) {
-          pq.add(list.get(i));
-        }
-      }
+    nmsEngine.clear();
+    nmsEngine.setIouThreshold(mNmsThresh);
+    for (int i = 0; i < list.size(); ++i) {
+      Recognition recognition = list.get(i);
+      RectF location = recognition.location;
+      nmsEngine.add(
+          location.left,
+          location.top,
+          location.right,
+          location.bottom,
+          recognition.getConfidence(),
+          recognition.getClassId());
+    }
 
-      // 2. Do non maximum suppression
-      while (pq.size() > 0) {
-        // insert detection with max confidence
-        Recognition[] a = new Recognition[pq.size()];
-        Recognition[] detections = pq.toArray(a);
-        Recognition max = detections[0];
-        nmsList.add(max);
-        pq.clear();
-
-        for (int j = 1; j < detections.length; j++) {
-          Recognition detection = detections[j];
-          RectF b = detection.getLocation();
-          if (box_iou(max.getLocation(), b) < mNmsThresh) {
-            pq.add(detection);
-          }
-        }
+    int numKept = nmsEngine.run();
+    ArrayList<Recognition> nmsList = new ArrayList<Recognition>(numKept);
+    for (int k = 0; k < numKept; k++) {
+      Recognition detection = list.get(nmsEngine.getKeptIndex(k));
+      float score = nmsEngine.getKeptScore(k);
+      if (score != detection.getConfidence()) {
+        // Soft-NMS decays the scores of overlapping boxes.
+        detection =
+            new Recognition(
+                detection.getId(),
+                detection.getTitle(),
+                score,
+                detection.location,
+                detection.getClassId());
       }
+      nmsList.add(detection);
     }
     return nmsList;
   }
 
-  protected float box_iou(RectF a, RectF b) {
-    return box_intersection(a, b) / box_union(a, b);
-  }
-
-  protected float box_intersection(RectF a, RectF b) {
-    float w =
-        overlap((a.left + a.right) / 2, a.right - a.left, (b.left + b.right) / 2, b.right - b.left);
-    float h =
-        overlap((a.top + a.bottom) / 2, a.bottom - a.top, (b.top + b.bottom) / 2, b.bottom - b.top);
-    if (w < 0 || h < 0) return 0;
-    float area = w * h;
-    return area;
-  }
-
-  protected float box_union(RectF a, RectF b) {
-    float i = box_intersection(a, b);
-    float u = (a.right - a.left) * (a.bottom - a.top) + (b.right - b.left) * (b.bottom - b.top) - i;
-    return u;
-  }
-
-  protected float overlap(float x1, float w1, float x2, float w2) {
-    float l1 = x1 - w1 / 2;
-    float l2 = x2 - w2 / 2;
-    float left = l1 > l2 ? l1 : l2;
-    float r1 = x1 + w1 / 2;
-    float r2 = x2 + w2 / 2;
-    float right = r1 < r2 ? r1 : r2;
-    return right - left;
-  }
-
   /**
    * Get the name of the label file stored in Assets.
    *
@@ -301,21 +380,14 @@ public abstract class Detector extends Network {
    */
   protected abstract String getLabelPath();
 
-  /**
-   * Run inference using the prepared input in {@link #imgData}. Afterwards, the result will be
-   * provided by getProbability().
-   *
-   * <p>This additional method is necessary, because we don't have a common base for different
-   * primitive data types.
-   */
-  protected abstract void runInference();
-
   /**
    * Feeds the data
    *
-   * <p>This additional method is necessary, because we can have different number of detections
+   * <p>This additional method is necessary, because we can have different number of detections. The
+   * output buffers are put into {@code outputs} on the first frame and reused afterwards. They hold
+   * the results of {@code batchSize} frames.
    */
-  protected abstract void feedData();
+  protected abstract void feedData(Map<Integer, Object> outputs, int batchSize);
 
   /**
    * Get the total number of labels.
@@ -342,9 +414,11 @@ public abstract class Detector extends Network {
   protected abstract void parseTflite();
 
   /**
-   * Get the recognitions.
+   * Get the recognitions of frame {@code batchIndex} from the output buffers filled by the last
+   * inference.
    *
    * @return
    */
-  protected abstract List<Recognition> getRecognitions(String className);
+  protected abstract List<Recognition> getRecognitions(
+      Map<Integer, Object> outputs, int batchIndex, String className);
 }
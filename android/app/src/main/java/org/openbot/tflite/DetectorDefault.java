@@ -22,22 +22,20 @@ import android.graphics.RectF;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 /** This TensorFlow Lite detector works with the quantized MobileNet and EfficientDet model. */
 public class DetectorDefault extends Detector {
 
+  // Outputs, each frame keeps its own arrays in its output map:
   // outputLocations: array of shape [Batchsize, NUM_DETECTIONS,4]
   // contains the location of detected boxes
-  private float[][][] outputLocations;
   // outputClasses: array of shape [Batchsize, NUM_DETECTIONS]
   // contains the classes of detected boxes
-  private float[][] outputClasses;
   // outputScores: array of shape [Batchsize, NUM_DETECTIONS]
   // contains the scores of detected boxes
-  private float[][] outputScores;
   // numDetections: array of shape [Batchsize]
   // contains the number of detected boxes
-  private float[] numDetections;
 
   // indices in tflite model
   private int outputLocationsIdx;
@@ -81,6 +79,12 @@ public class DetectorDefault extends Detector {
     return NUM_DETECTIONS;
   }
 
+  /** The detection postprocessing op of the SSD models only outputs a batch of 1. */
+  @Override
+  public boolean supportsBatching() {
+    return false;
+  }
+
   @Override
   protected final void parseTflite() {
     try {
@@ -99,51 +103,46 @@ public class DetectorDefault extends Detector {
   }
 
   @Override
-  protected void addPixelValue(int pixelValue) {
-    imgData.put((byte) ((pixelValue >> 16) & 0xFF));
-    imgData.put((byte) ((pixelValue >> 8) & 0xFF));
-    imgData.put((byte) (pixelValue & 0xFF));
+  protected PixelNormalizer createPixelNormalizer() {
+    return PixelNormalizer.uint8Input();
   }
 
   @Override
-  protected void runInference() {
-    Object[] inputArray = {imgData};
-    tflite.runForMultipleInputsOutputs(inputArray, outputMap);
+  protected void feedData(Map<Integer, Object> outputs, int batchSize) {
+    if (outputs.isEmpty()) {
+      outputs.put(outputLocationsIdx, new float[batchSize][getNumDetections()][4]);
+      outputs.put(outputClassesIdx, new float[batchSize][getNumDetections()]);
+      outputs.put(outputScoresIdx, new float[batchSize][getNumDetections()]);
+      outputs.put(numDetectionsIdx, new float[batchSize]);
+    }
   }
 
   @Override
-  protected void feedData() {
-    outputLocations = new float[1][getNumDetections()][4];
-    outputClasses = new float[1][getNumDetections()];
-    outputScores = new float[1][getNumDetections()];
-    numDetections = new float[1];
-
-    outputMap.put(outputLocationsIdx, outputLocations);
-    outputMap.put(outputClassesIdx, outputClasses);
-    outputMap.put(outputScoresIdx, outputScores);
-    outputMap.put(numDetectionsIdx, numDetections);
-  }
+  protected List<Recognition> getRecognitions(
+      Map<Integer, Object> outputs, int batchIndex, String className) {
+    final float[][][] outputLocations = (float[][][]) outputs.get(outputLocationsIdx);
+    final float[][] outputClasses = (float[][]) outputs.get(outputClassesIdx);
+    final float[][] outputScores = (float[][]) outputs.get(outputScoresIdx);
 
-  @Override
-  protected List<Recognition> getRecognitions(String className) {
     // Show the best detections.
     // after scaling them back to the input size.
     final ArrayList<Recognition> recognitions = new ArrayList<>(getNumDetections());
     for (int i = 0; i < getNumDetections(); ++i) {
       final RectF detection =
           new RectF(
-              outputLocations[0][i][1] * getImageSizeY(),
-              outputLocations[0][i][0] * getImageSizeX(),
-              outputLocations[0][i][3] * getImageSizeY(),
-              outputLocations[0][i][2] * getImageSizeX());
+              outputLocations[batchIndex][i][1] * getImageSizeY(),
+              outputLocations[batchIndex][i][0] * getImageSizeX(),
+              outputLocations[batchIndex][i][3] * getImageSizeY(),
+              outputLocations[batchIndex][i][2] * getImageSizeX());
       // SSD Mobilenet V1 Model assumes class 0 is background class
       // in label file and class labels start from 1 to number_of_classes+1,
       // while outputClasses correspond to class index from 0 to number_of_classes
-      int classId = (int) outputClasses[0][i];
+      int classId = (int) outputClasses[batchIndex][i];
       int labelId = classId + 1;
       if (labels.get(labelId).contentEquals(className)) {
         recognitions.add(
-            new Recognition("" + i, labels.get(labelId), outputScores[0][i], detection, classId));
+            new Recognition(
+                "" + i, labels.get(labelId), outputScores[batchIndex][i], detection, classId));
       }
     }
     return nms(recognitions);
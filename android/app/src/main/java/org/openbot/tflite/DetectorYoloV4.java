@@ -5,6 +5,7 @@ import android.graphics.RectF;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 public class DetectorYoloV4 extends Detector {
 
@@ -13,12 +14,11 @@ public class DetectorYoloV4 extends Detector {
 
   private static final float IMAGE_STD = 255.0f;
 
+  // Outputs, each frame keeps its own arrays in its output map:
   // outputLocations: array of shape [Batchsize, NUM_DETECTIONS,4]
   // contains the location of detected boxes
-  private float[][][] outputLocations;
   // outputScores: array of shape [Batchsize, NUM_DETECTIONS,labels.size()]
   // contains the scores of detected boxes
-  private float[][][] outputScores;
 
   // indices in tflite model
   private int outputLocationsIdx;
@@ -73,29 +73,24 @@ public class DetectorYoloV4 extends Detector {
   }
 
   @Override
-  protected void addPixelValue(int pixelValue) {
-    imgData.putFloat((((pixelValue >> 16) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-    imgData.putFloat((((pixelValue >> 8) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-    imgData.putFloat(((pixelValue & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
+  protected PixelNormalizer createPixelNormalizer() {
+    return PixelNormalizer.floatInput(IMAGE_MEAN, IMAGE_STD);
   }
 
   @Override
-  protected void runInference() {
-    Object[] inputArray = {imgData};
-    tflite.runForMultipleInputsOutputs(inputArray, outputMap);
+  protected void feedData(Map<Integer, Object> outputs, int batchSize) {
+    if (outputs.isEmpty()) {
+      outputs.put(outputLocationsIdx, new float[batchSize][getNumDetections()][4]);
+      outputs.put(outputScoresIdx, new float[batchSize][getNumDetections()][labels.size()]);
+    }
   }
 
   @Override
-  protected void feedData() {
-    outputLocations = new float[1][getNumDetections()][4];
-    outputScores = new float[1][getNumDetections()][labels.size()];
-
-    outputMap.put(outputLocationsIdx, outputLocations);
-    outputMap.put(outputScoresIdx, outputScores);
-  }
+  protected List<Recognition> getRecognitions(
+      Map<Integer, Object> outputs, int batchIndex, String className) {
+    final float[][][] outputLocations = (float[][][]) outputs.get(outputLocationsIdx);
+    final float[][][] outputScores = (float[][][]) outputs.get(outputScoresIdx);
 
-  @Override
-  protected List<Recognition> getRecognitions(String className) {
     // Show the best detections.
     // after scaling them back to the input size.
     final ArrayList<Recognition> recognitions = new ArrayList<>(getNumDetections());
@@ -103,7 +98,7 @@ public class DetectorYoloV4 extends Detector {
       float maxClass = 0;
       int classId = -1;
       final float[] classes = new float[labels.size()];
-      System.arraycopy(outputScores[0][i], 0, classes, 0, labels.size());
+      System.arraycopy(outputScores[batchIndex][i], 0, classes, 0, labels.size());
       for (int c = 0; c < labels.size(); ++c) {
         if (classes[c] > maxClass) {
           classId = c;
@@ -111,10 +106,10 @@ public class DetectorYoloV4 extends Detector {
         }
       }
       final float score = maxClass;
-      final float xPos = outputLocations[0][i][0];
-      final float yPos = outputLocations[0][i][1];
-      final float w = outputLocations[0][i][2];
-      final float h = outputLocations[0][i][3];
+      final float xPos = outputLocations[batchIndex][i][0];
+      final float yPos = outputLocations[batchIndex][i][1];
+      final float w = outputLocations[batchIndex][i][2];
+      final float h = outputLocations[batchIndex][i][3];
       final RectF detection =
           new RectF(
               Math.max(0, xPos - w / 2),
@@ -7,6 +7,7 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import org.tensorflow.lite.Tensor;
 
 public class DetectorYoloV5 extends Detector {
@@ -16,19 +17,14 @@ public class DetectorYoloV5 extends Detector {
 
   private static final float IMAGE_STD = 255.0f;
   private int inputSize = getImageSizeX();
-  private int output_box =
-      (int)
-          ((Math.pow((inputSize / 32), 2)
-                  + Math.pow((inputSize / 16), 2)
-                  + Math.pow((inputSize / 8), 2))
-              * 3);
+  private int output_box = YoloV5Decoder.getNumBoxes(inputSize);
   int numClass;
   boolean isModelQuantized;
   private float inputScale;
   private int inputZeroPoint;
   private float outputScale;
   private int outputZeroPoint;
-  private ByteBuffer outData;
+  private YoloV5Decoder decoder;
 
   /**
    * Initializes a {@code DetectorYoloV5}.
@@ -80,100 +76,63 @@ public class DetectorYoloV5 extends Detector {
   }
 
   @Override
-  protected void addPixelValue(int pixelValue) {
+  protected PixelNormalizer createPixelNormalizer() {
     if (isModelQuantized) {
-      imgData.put(
-          (byte)
-              ((((pixelValue >> 16) & 0xFF) - IMAGE_MEAN) / IMAGE_STD / inputScale
-                  + inputZeroPoint));
-      imgData.put(
-          (byte)
-              ((((pixelValue >> 8) & 0xFF) - IMAGE_MEAN) / IMAGE_STD / inputScale
-                  + inputZeroPoint));
-      imgData.put(
-          (byte) (((pixelValue & 0xFF) - IMAGE_MEAN) / IMAGE_STD / inputScale + inputZeroPoint));
-    } else {
-      imgData.putFloat((((pixelValue >> 16) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-      imgData.putFloat((((pixelValue >> 8) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-      imgData.putFloat(((pixelValue & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
+      return PixelNormalizer.quantizedInput(IMAGE_MEAN, IMAGE_STD, inputScale, inputZeroPoint);
     }
+    return PixelNormalizer.floatInput(IMAGE_MEAN, IMAGE_STD);
   }
 
-  @Override
-  protected void runInference() {
-    Object[] inputArray = {imgData};
-    tflite.runForMultipleInputsOutputs(inputArray, outputMap);
+  private YoloV5Decoder getDecoder() {
+    // Created lazily, the fields of this class are not initialized while parseTflite() runs.
+    if (decoder == null) {
+      decoder =
+          isModelQuantized
+              ? new YoloV5Decoder(output_box, numClass, outputScale, outputZeroPoint)
+              : new YoloV5Decoder(output_box, numClass);
+    }
+    return decoder;
   }
 
   @Override
-  protected void feedData() {
-    outData = ByteBuffer.allocateDirect(output_box * (numClass + 5) * getNumBytesPerChannel());
-    outData.order(ByteOrder.nativeOrder());
+  protected void feedData(Map<Integer, Object> outputs, int batchSize) {
+    // The output tensor is allocated once per frame buffer and reused afterwards.
+    ByteBuffer outData = (ByteBuffer) outputs.get(0);
+    if (outData == null) {
+      outData = ByteBuffer.allocateDirect(batchSize * getDecoder().getFrameBytes());
+      outData.order(ByteOrder.nativeOrder());
+      outputs.put(0, outData);
+    }
     outData.rewind();
-    outputMap.put(0, outData);
   }
 
   @Override
-  protected List<Recognition> getRecognitions(String className) {
+  protected List<Recognition> getRecognitions(
+      Map<Integer, Object> outputs, int batchIndex, String className) {
+    final ByteBuffer outData = (ByteBuffer) outputs.get(0);
+
     // Show the best detections.
     // after scaling them back to the input size.
-    ByteBuffer byteBuffer = (ByteBuffer) outputMap.get(0);
-    byteBuffer.rewind();
-
-    ArrayList<Recognition> recognitions = new ArrayList<>();
-
-    float[][][] out = new float[1][output_box][numClass + 5];
-    for (int i = 0; i < output_box; ++i) {
-      for (int j = 0; j < numClass + 5; ++j) {
-        if (isModelQuantized) {
-          out[0][i][j] = outputScale * (((int) byteBuffer.get() & 0xFF) - outputZeroPoint);
-        } else {
-          out[0][i][j] = byteBuffer.getFloat();
-        }
-      }
-      // Denormalize xywh
-      for (int j = 0; j < 4; ++j) {
-        out[0][i][j] *= inputSize;
-      }
-    }
-
-    for (int i = 0; i < output_box; ++i) {
-      final int offset = 0;
-      final float confidence = out[0][i][4];
-      int classId = -1;
-      float maxClass = 0;
-
-      final float[] classes = new float[labels.size()];
-      for (int c = 0; c < labels.size(); ++c) {
-        classes[c] = out[0][i][5 + c];
-      }
-
-      for (int c = 0; c < labels.size(); ++c) {
-        if (classes[c] > maxClass) {
-          classId = c;
-          maxClass = classes[c];
-        }
-      }
-
-      final float score = maxClass * confidence;
-      if (score > getObjThresh()) {
-        final float xPos = out[0][i][0];
-        final float yPos = out[0][i][1];
-
-        final float w = out[0][i][2];
-        final float h = out[0][i][3];
-
-        final RectF detection =
-            new RectF(
-                Math.max(0, xPos - w / 2),
-                Math.max(0, yPos - h / 2),
-                Math.min(getImageSizeX() - 1, xPos + w / 2),
-                Math.min(getImageSizeY() - 1, yPos + h / 2));
-        if (classId > -1 && labels.get(classId).contentEquals(className)) {
-          recognitions.add(new Recognition("" + i, labels.get(classId), score, detection, classId));
-        }
-      }
-    }
+    final ArrayList<Recognition> recognitions = new ArrayList<>();
+    getDecoder()
+        .decode(
+            outData,
+            batchIndex,
+            getObjThresh(),
+            inputSize,
+            getImageSizeX() - 1,
+            getImageSizeY() - 1,
+            (box, classId, score, left, top, right, bottom) -> {
+              if (classId < labels.size() && labels.get(classId).contentEquals(className)) {
+                recognitions.add(
+                    new Recognition(
+                        "" + box,
+                        labels.get(classId),
+                        score,
+                        new RectF(left, top, right, bottom),
+                        classId));
+              }
+            });
     return nms(recognitions);
   }
 }
@@ -5,7 +5,6 @@ package org.openbot.tflite;
 import android.app.Activity;
 import android.graphics.Bitmap;
 import android.graphics.RectF;
-import android.os.SystemClock;
 import android.os.Trace;
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -70,13 +69,15 @@ public class Navigation extends Network {
     // Log this method so that it can be analyzed with systrace.
     Trace.beginSection("recognizeImage");
     Trace.beginSection("preprocessBitmap");
+    long startTime = System.nanoTime();
     convertBitmapToByteBuffer(bitmap);
     convertGoalToByteBuffer(goalDistance, goalSin, goalCos);
+    recordSince(PREPROCESS_LATENCY, startTime);
     Trace.endSection(); // preprocessBitmap
 
     // Run the inference call.
     Trace.beginSection("runInference");
-    long startTime = SystemClock.elapsedRealtime();
+    startTime = System.nanoTime();
     Object[] inputArray;
     if (goalIndex == 0) {
       inputArray = new Object[] {goalBuffer, imgData};
@@ -87,24 +88,28 @@ public class Navigation extends Network {
     float[][] predicted_ctrl = new float[1][2];
     outputMap.put(0, predicted_ctrl);
     tflite.runForMultipleInputsOutputs(inputArray, outputMap);
-    long endTime = SystemClock.elapsedRealtime();
+    long duration = System.nanoTime() - startTime;
+    record(INFERENCE_LATENCY, duration);
     Trace.endSection();
-    Timber.v("Timecost to run model inference: %s", (endTime - startTime));
+    Timber.v("Timecost to run model inference: %s", duration / 1000000);
 
     Trace.endSection(); // "recognizeImage"
     return new Control(predicted_ctrl[0][0], predicted_ctrl[0][1]);
   }
 
+  @Override
+  protected void runWarmUp(Bitmap bitmap) {
+    recognizeImage(bitmap, 0, 0, 1);
+  }
+
   @Override
   protected int getNumBytesPerChannel() {
     return 4; // Float.SIZE / Byte.SIZE;
   }
 
   @Override
-  protected void addPixelValue(int pixelValue) {
-    imgData.putFloat((((pixelValue >> 16) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-    imgData.putFloat((((pixelValue >> 8) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-    imgData.putFloat(((pixelValue & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
+  protected PixelNormalizer createPixelNormalizer() {
+    return PixelNormalizer.floatInput(IMAGE_MEAN, IMAGE_STD);
   }
 
   @Override
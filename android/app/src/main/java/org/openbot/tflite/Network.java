@@ -33,6 +33,8 @@ import java.nio.channels.FileChannel;
 import java.util.HashMap;
 import java.util.Map;
 import org.openbot.env.Logger;
+import org.openbot.utils.LatencyHistogram;
+import org.openbot.utils.Metrics;
 import org.tensorflow.lite.Interpreter;
 import org.tensorflow.lite.gpu.GpuDelegate;
 
@@ -40,6 +42,15 @@ public abstract class Network {
 
   protected static final Logger LOGGER = new Logger();
 
+  /** Latency of the stages every network runs, see {@link Metrics}. */
+  protected static final LatencyHistogram PREPROCESS_LATENCY =
+      Metrics.histogram(Metrics.PREPROCESS);
+
+  protected static final LatencyHistogram INFERENCE_LATENCY = Metrics.histogram(Metrics.INFERENCE);
+
+  // Set while warmUp() runs, its latencies are not recorded.
+  private volatile boolean warmingUp = false;
+
   /** The runtime device type used for execution. */
   public enum Device {
     CPU,
@@ -71,6 +82,17 @@ public abstract class Network {
   /** A HashMap to hold output data, to be feed into Tensorflow Lite as outputs. */
   protected Map<Integer, Object> outputMap = new HashMap<>();
 
+  /** Normalizes the pixels into an input buffer, created on the first frame. */
+  private StripedImageConverter imageConverter;
+
+  private int numPreprocessThreads = 1;
+
+  /** Size of the model file, used to estimate the memory held by this network. */
+  private long modelSizeBytes;
+
+  /** The batch dimension the inputs of the interpreter are currently sized for. */
+  private int interpreterBatchSize = DIM_BATCH_SIZE;
+
   /** Initializes a {@code Network}. */
   protected Network(Activity activity, Model model, Device device, int numThreads)
       throws IOException {
@@ -93,22 +115,17 @@ public abstract class Network {
 
     if (model.pathType == Model.PATH_TYPE.FILE) {
       File modelFile = new File(model.path);
+      modelSizeBytes = modelFile.length();
       tflite = new Interpreter(modelFile, tfliteOptions);
     } else if (model.pathType == Model.PATH_TYPE.ASSET) {
       MappedByteBuffer tfliteModel = loadModelFile(activity, model);
+      modelSizeBytes = tfliteModel.capacity();
       tflite = new Interpreter(tfliteModel, tfliteOptions);
     } else {
       throw (new IOException("No model file specified!"));
     }
 
-    imgData =
-        ByteBuffer.allocateDirect(
-            DIM_BATCH_SIZE
-                * getImageSizeX()
-                * getImageSizeY()
-                * DIM_PIXEL_SIZE
-                * getNumBytesPerChannel());
-    imgData.order(ByteOrder.nativeOrder());
+    imgData = createInputBuffer();
     LOGGER.d("Created a Tensorflow Lite Network.");
   }
 
@@ -122,28 +139,129 @@ public abstract class Network {
     return fileChannel.map(FileChannel.MapMode.READ_ONLY, startOffset, declaredLength);
   }
 
+  /** Allocates a direct buffer that fits one input image of the model. */
+  protected ByteBuffer createInputBuffer() {
+    return createInputBuffer(DIM_BATCH_SIZE);
+  }
+
+  /** Allocates a direct buffer that fits {@code batchSize} input images of the model. */
+  protected ByteBuffer createInputBuffer(int batchSize) {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(batchSize * getInputImageBytes());
+    buffer.order(ByteOrder.nativeOrder());
+    return buffer;
+  }
+
+  /** Number of bytes of one image in the input buffer. */
+  protected int getInputImageBytes() {
+    return getImageSizeX() * getImageSizeY() * DIM_PIXEL_SIZE * getNumBytesPerChannel();
+  }
+
+  /**
+   * Resizes the first dimension of all inputs of the interpreter. The tensors are reallocated on
+   * the next run, so alternating between batch sizes is expensive. Not all models and delegates
+   * support batches larger than 1; the interpreter throws an {@code IllegalArgumentException} on
+   * the next run if the model does not.
+   */
+  protected void resizeInputBatch(int batchSize) {
+    if (batchSize == interpreterBatchSize) return;
+    for (int i = 0; i < tflite.getInputTensorCount(); i++) {
+      int[] shape = tflite.getInputTensor(i).shape();
+      shape[0] = batchSize;
+      tflite.resizeInput(i, shape);
+    }
+    interpreterBatchSize = batchSize;
+  }
+
+  /**
+   * Sets the number of threads used to write the image into the input buffer. The image is split
+   * into row stripes that are converted in parallel; 1 (default) converts on the calling thread.
+   */
+  public void setNumPreprocessThreads(int numThreads) {
+    numThreads = Math.max(1, numThreads);
+    if (numThreads == numPreprocessThreads) return;
+    numPreprocessThreads = numThreads;
+    if (imageConverter != null) {
+      imageConverter.close();
+      imageConverter = null;
+    }
+  }
+
+  public int getNumPreprocessThreads() {
+    return numPreprocessThreads;
+  }
+
   /** Writes Image data into a {@code ByteBuffer}. */
   protected void convertBitmapToByteBuffer(Bitmap bitmap) {
-    if (imgData == null) {
+    convertBitmapToByteBuffer(bitmap, imgData);
+  }
+
+  /** Writes Image data as image {@code index} into a buffer holding a batch of images. */
+  protected void convertBitmapToByteBuffer(Bitmap bitmap, ByteBuffer dst, int index) {
+    ByteBuffer image = dst.duplicate();
+    image.position(index * getInputImageBytes());
+    convertBitmapToByteBuffer(bitmap, image.slice().order(dst.order()));
+  }
+
+  /** Writes Image data into the given input buffer, created by {@link #createInputBuffer()}. */
+  protected void convertBitmapToByteBuffer(Bitmap bitmap, ByteBuffer dst) {
+    if (dst == null) {
       return;
     }
-    imgData.rewind();
+    if (imageConverter == null) {
+      imageConverter =
+          new StripedImageConverter(
+              createPixelNormalizer(), getImageSizeX(), getImageSizeY(), numPreprocessThreads);
+    }
     bitmap.getPixels(intValues, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
-    // Convert the image to floating point.
-    int pixel = 0;
+    // Normalize the image row by row and write each row in bulk.
     long startTime = SystemClock.elapsedRealtime();
-    for (int i = 0; i < getImageSizeX(); ++i) {
-      for (int j = 0; j < getImageSizeY(); ++j) {
-        final int val = intValues[pixel++];
-        addPixelValue(val);
-      }
-    }
+    imageConverter.convert(intValues, dst);
     long endTime = SystemClock.elapsedRealtime();
     LOGGER.v("Timecost to put values into ByteBuffer: " + (endTime - startTime));
   }
 
+  /**
+   * Runs one inference on a blank image. The interpreter allocates its tensors and the delegates
+   * prepare their kernels on the first run, so this keeps that delay away from the first camera
+   * frame.
+   */
+  public void warmUp() {
+    // The first run is much slower than the following ones and would skew the percentiles.
+    warmingUp = true;
+    try {
+      runWarmUp(Bitmap.createBitmap(getImageSizeX(), getImageSizeY(), Bitmap.Config.ARGB_8888));
+    } finally {
+      warmingUp = false;
+    }
+  }
+
+  /** Records a stage latency in nanoseconds into the {@link Metrics}, except during warm-up. */
+  protected void record(LatencyHistogram histogram, long nanos) {
+    if (!warmingUp) histogram.record(nanos);
+  }
+
+  /**
+   * Records the time since {@code startNanos} of {@link System#nanoTime()}, see {@link #record}.
+   */
+  protected void recordSince(LatencyHistogram histogram, long startNanos) {
+    if (!warmingUp) histogram.recordSince(startNanos);
+  }
+
+  /**
+   * Get a rough estimate of the memory held by this network: the model and its input buffer.
+   *
+   * @return
+   */
+  public long getMemoryEstimateBytes() {
+    return modelSizeBytes + (imgData != null ? imgData.capacity() : 0);
+  }
+
   /** Closes the interpreter and model to release resources. */
   public void close() {
+    if (imageConverter != null) {
+      imageConverter.close();
+      imageConverter = null;
+    }
     if (tflite != null) {
       tflite.close();
       tflite = null;
@@ -180,11 +298,15 @@ public abstract class Network {
   protected abstract int getNumBytesPerChannel();
 
   /**
-   * Add pixelValue to byteBuffer.
+   * Get the lookup tables that map 8-bit pixel values to the values of the input tensor. Called
+   * once, before the first frame is converted.
    *
-   * @param pixelValue
+   * @return
    */
-  protected abstract void addPixelValue(int pixelValue);
+  protected abstract PixelNormalizer createPixelNormalizer();
+
+  /** Runs the network once on the given blank image, see {@link #warmUp()}. */
+  protected abstract void runWarmUp(Bitmap bitmap);
 
   /**
    * Get boolean that determines if aspect ratio should be preserved when rescaling.
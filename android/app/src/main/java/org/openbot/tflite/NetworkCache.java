@@ -0,0 +1,150 @@
+package org.openbot.tflite;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import timber.log.Timber;
+
+/**
+ * Keeps recently used networks alive, so that switching back to a previous model, device or number
+ * of threads does not load the model and prepare the delegate again.
+ *
+ * <p>A network is either in use by exactly one caller, from {@link #acquire} until {@link
+ * #release}, or idle in the cache. Idle networks are closed in least recently used order once their
+ * estimated memory exceeds the budget.
+ */
+public class NetworkCache {
+
+  /** Creates a network if there is no cached one. */
+  public interface Factory<T extends Network> {
+    T create() throws IOException;
+  }
+
+  private static final long DEFAULT_BUDGET_BYTES = 64L * 1024 * 1024;
+
+  private static final NetworkCache instance = new NetworkCache(DEFAULT_BUDGET_BYTES);
+
+  private final Map<String, Network> idle = new LinkedHashMap<>(16, 0.75f, true);
+  private final Map<Network, String> inUse = new IdentityHashMap<>();
+  private long budgetBytes;
+  private long idleBytes = 0;
+
+  private NetworkCache(long budgetBytes) {
+    this.budgetBytes = budgetBytes;
+  }
+
+  /** The cache shared by all screens. */
+  public static NetworkCache getInstance() {
+    return instance;
+  }
+
+  /** Sets the memory estimate that idle networks may use, 0 disables the cache. */
+  public void setBudgetBytes(long budgetBytes) {
+    final List<Network> evicted;
+    synchronized (this) {
+      this.budgetBytes = budgetBytes;
+      evicted = evictOverBudget();
+    }
+    closeAll(evicted);
+  }
+
+  /**
+   * Returns the cached network for the configuration or creates and warms up a new one. Creating a
+   * network can take seconds with the GPU delegate, so call this on a background thread.
+   *
+   * @return the network, or null if the factory returned null.
+   */
+  public <T extends Network> T acquire(
+      Model model, Network.Device device, int numThreads, Factory<T> factory) throws IOException {
+    final String key = getKey(model, device, numThreads);
+    synchronized (this) {
+      final Network cached = idle.remove(key);
+      if (cached != null) {
+        idleBytes -= cached.getMemoryEstimateBytes();
+        inUse.put(cached, key);
+        Timber.d("Reusing cached network %s", key);
+        @SuppressWarnings("unchecked")
+        final T network = (T) cached;
+        return network;
+      }
+    }
+
+    final long startTime = System.nanoTime();
+    final T network = factory.create();
+    if (network == null) return null;
+    try {
+      network.warmUp();
+    } catch (RuntimeException e) {
+      network.close();
+      throw e;
+    }
+    Timber.d(
+        "Created network %s in %d ms, %d KB",
+        key, (System.nanoTime() - startTime) / 1000000, network.getMemoryEstimateBytes() / 1024);
+    synchronized (this) {
+      inUse.put(network, key);
+    }
+    return network;
+  }
+
+  /**
+   * Hands a network returned by {@link #acquire} back to the cache. It must not be used by the
+   * caller anymore.
+   */
+  public void release(Network network) {
+    final List<Network> evicted;
+    synchronized (this) {
+      final String key = inUse.remove(network);
+      if (key == null) {
+        // Not created by the cache.
+        evicted = new ArrayList<>();
+        evicted.add(network);
+      } else {
+        final Network replaced = idle.put(key, network);
+        idleBytes += network.getMemoryEstimateBytes();
+        if (replaced != null) idleBytes -= replaced.getMemoryEstimateBytes();
+        evicted = evictOverBudget();
+        if (replaced != null) evicted.add(replaced);
+      }
+    }
+    closeAll(evicted);
+  }
+
+  /** Closes all idle networks. */
+  public void clear() {
+    final List<Network> evicted;
+    synchronized (this) {
+      evicted = new ArrayList<>(idle.values());
+      idle.clear();
+      idleBytes = 0;
+    }
+    closeAll(evicted);
+  }
+
+  private List<Network> evictOverBudget() {
+    final List<Network> evicted = new ArrayList<>();
+    final Iterator<Map.Entry<String, Network>> iterator = idle.entrySet().iterator();
+    // Iterates from the least recently used entry.
+    while (idleBytes > budgetBytes && iterator.hasNext()) {
+      final Network network = iterator.next().getValue();
+      iterator.remove();
+      idleBytes -= network.getMemoryEstimateBytes();
+      evicted.add(network);
+    }
+    return evicted;
+  }
+
+  private static void closeAll(List<Network> networks) {
+    for (Network network : networks) network.close();
+  }
+
+  private static String getKey(Model model, Network.Device device, int numThreads) {
+    // The path changes when a model with the same id is downloaded again.
+    return String.format(Locale.US, "%d:%s:%s:%d", model.id, model.path, device, numThreads);
+  }
+}
@@ -0,0 +1,253 @@
+package org.openbot.tflite;
+
+import java.util.Arrays;
+
+/**
+ * Class-aware non maximum suppression on primitive arrays.
+ *
+ * <p>Candidate boxes are stored as a struct of arrays (left, top, right, bottom, score, class) and
+ * sorted once by (class, score) using packed {@code long} keys. Only classes that actually have
+ * candidates are visited. All buffers are reused between frames and only grow if a frame has more
+ * candidates than any frame before.
+ */
+public class NmsEngine {
+
+  /** The suppression strategy applied to overlapping boxes of the same class. */
+  public enum Method {
+    /** Remove every box that overlaps a kept box by at least the IoU threshold. */
+    HARD,
+    /** Soft-NMS: scale the score of overlapping boxes by {@code 1 - iou}. */
+    SOFT_LINEAR,
+    /** Soft-NMS: scale the score of every box by {@code exp(-iou^2 / sigma)}. */
+    SOFT_GAUSSIAN
+  }
+
+  private static final int INDEX_BITS = 16;
+  private static final int SCORE_BITS = 31;
+  private static final long INDEX_MASK = (1L << INDEX_BITS) - 1;
+
+  /** Maximum number of candidates per frame, limited by the packed sort key. */
+  public static final int MAX_CANDIDATES = 1 << INDEX_BITS;
+
+  /** Maximum class id, limited by the packed sort key. */
+  public static final int MAX_CLASS_ID = (1 << (63 - INDEX_BITS - SCORE_BITS)) - 1;
+
+  private float[] left;
+  private float[] top;
+  private float[] right;
+  private float[] bottom;
+  private float[] area;
+  private float[] scores;
+  private int[] classIds;
+  private long[] sortKeys;
+  private int[] order;
+  private boolean[] suppressed;
+  private int[] kept;
+  private int size = 0;
+  private int numKept = 0;
+
+  private Method method = Method.HARD;
+  private float iouThreshold = 0.25f;
+  private float sigma = 0.5f;
+  private float scoreThreshold = 0.001f;
+
+  public NmsEngine() {
+    this(256);
+  }
+
+  public NmsEngine(int initialCapacity) {
+    allocate(Math.max(1, initialCapacity));
+  }
+
+  public Method getMethod() {
+    return method;
+  }
+
+  public void setMethod(Method method) {
+    this.method = method;
+  }
+
+  public float getIouThreshold() {
+    return iouThreshold;
+  }
+
+  public void setIouThreshold(float iouThreshold) {
+    this.iouThreshold = iouThreshold;
+  }
+
+  /** Gaussian width used by {@link Method#SOFT_GAUSSIAN}. */
+  public void setSigma(float sigma) {
+    this.sigma = sigma;
+  }
+
+  /** Boxes whose score decays below this value are dropped by the soft-NMS methods. */
+  public void setScoreThreshold(float scoreThreshold) {
+    this.scoreThreshold = scoreThreshold;
+  }
+
+  /** Removes all candidates and results of the previous frame. */
+  public void clear() {
+    size = 0;
+    numKept = 0;
+  }
+
+  /**
+   * Adds a candidate box.
+   *
+   * @return the index of the candidate, used to map results back to the caller's detections.
+   */
+  public int add(float l, float t, float r, float b, float score, int classId) {
+    if (classId < 0 || classId > MAX_CLASS_ID) {
+      throw new IllegalArgumentException("Invalid class id: " + classId);
+    }
+    if (size == left.length) {
+      if (size == MAX_CANDIDATES) {
+        throw new IllegalStateException("Too many NMS candidates: " + size);
+      }
+      grow(Math.min(MAX_CANDIDATES, size * 2));
+    }
+    left[size] = l;
+    top[size] = t;
+    right[size] = r;
+    bottom[size] = b;
+    area[size] = Math.max(0, r - l) * Math.max(0, b - t);
+    scores[size] = score > 0 ? score : 0;
+    classIds[size] = classId;
+    return size++;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Runs the suppression on all candidates added since the last {@link #clear()}.
+   *
+   * @return the number of kept boxes. Use {@link #getKeptIndex(int)} and {@link #getKeptScore(int)}
+   *     to read them, grouped by class and sorted by descending score.
+   */
+  public int run() {
+    numKept = 0;
+    if (size == 0) return 0;
+
+    for (int i = 0; i < size; i++) {
+      // Non-negative floats sort like their raw bits, invert them to get descending scores.
+      long scoreKey = 0x7FFFFFFFL - Float.floatToRawIntBits(scores[i]);
+      sortKeys[i] =
+          ((long) classIds[i] << (SCORE_BITS + INDEX_BITS)) | (scoreKey << INDEX_BITS) | i;
+    }
+    Arrays.sort(sortKeys, 0, size);
+    for (int i = 0; i < size; i++) {
+      order[i] = (int) (sortKeys[i] & INDEX_MASK);
+    }
+
+    int start = 0;
+    while (start < size) {
+      final int classId = classIds[order[start]];
+      int end = start + 1;
+      while (end < size && classIds[order[end]] == classId) end++;
+      if (method == Method.HARD) {
+        suppressHard(start, end);
+      } else {
+        suppressSoft(start, end);
+      }
+      start = end;
+    }
+    return numKept;
+  }
+
+  public int getNumKept() {
+    return numKept;
+  }
+
+  /** Returns the candidate index of the k-th kept box. */
+  public int getKeptIndex(int k) {
+    return kept[k];
+  }
+
+  /** Returns the (possibly decayed) score of the k-th kept box. */
+  public float getKeptScore(int k) {
+    return scores[kept[k]];
+  }
+
+  /** Intersection over union of two candidates. */
+  public float iou(int a, int b) {
+    final float w = Math.min(right[a], right[b]) - Math.max(left[a], left[b]);
+    final float h = Math.min(bottom[a], bottom[b]) - Math.max(top[a], top[b]);
+    if (w <= 0 || h <= 0) return 0;
+    final float intersection = w * h;
+    return intersection / (area[a] + area[b] - intersection);
+  }
+
+  /** Greedy suppression over a group of candidates that is already sorted by score. */
+  private void suppressHard(int start, int end) {
+    for (int i = start; i < end; i++) suppressed[i] = false;
+    for (int i = start; i < end; i++) {
+      if (suppressed[i]) continue;
+      final int best = order[i];
+      kept[numKept++] = best;
+      for (int j = i + 1; j < end; j++) {
+        if (!suppressed[j] && iou(best, order[j]) >= iouThreshold) {
+          suppressed[j] = true;
+        }
+      }
+    }
+  }
+
+  /** Soft-NMS, scores change after every selection so the maximum is searched each round. */
+  private void suppressSoft(int start, int end) {
+    for (int i = start; i < end; i++) suppressed[i] = false;
+    for (int round = start; round < end; round++) {
+      int bestPos = -1;
+      float bestScore = 0;
+      for (int i = start; i < end; i++) {
+        if (!suppressed[i] && (bestPos < 0 || scores[order[i]] > bestScore)) {
+          bestPos = i;
+          bestScore = scores[order[i]];
+        }
+      }
+      if (bestPos < 0 || bestScore < scoreThreshold) return;
+      suppressed[bestPos] = true;
+      final int best = order[bestPos];
+      kept[numKept++] = best;
+      for (int j = start; j < end; j++) {
+        if (suppressed[j]) continue;
+        final int other = order[j];
+        final float overlap = iou(best, other);
+        if (method == Method.SOFT_LINEAR) {
+          if (overlap >= iouThreshold) scores[other] *= 1 - overlap;
+        } else {
+          scores[other] *= (float) Math.exp(-(overlap * overlap) / sigma);
+        }
+      }
+    }
+  }
+
+  private void allocate(int capacity) {
+    left = new float[capacity];
+    top = new float[capacity];
+    right = new float[capacity];
+    bottom = new float[capacity];
+    area = new float[capacity];
+    scores = new float[capacity];
+    classIds = new int[capacity];
+    sortKeys = new long[capacity];
+    order = new int[capacity];
+    suppressed = new boolean[capacity];
+    kept = new int[capacity];
+  }
+
+  private void grow(int capacity) {
+    left = Arrays.copyOf(left, capacity);
+    top = Arrays.copyOf(top, capacity);
+    right = Arrays.copyOf(right, capacity);
+    bottom = Arrays.copyOf(bottom, capacity);
+    area = Arrays.copyOf(area, capacity);
+    scores = Arrays.copyOf(scores, capacity);
+    classIds = Arrays.copyOf(classIds, capacity);
+    sortKeys = new long[capacity];
+    order = new int[capacity];
+    suppressed = new boolean[capacity];
+    kept = new int[capacity];
+  }
+}
@@ -0,0 +1,99 @@
+package org.openbot.tflite;
+
+/**
+ * Converts packed ARGB pixels into normalized input tensor values using per-channel lookup tables.
+ *
+ * <p>Every channel of an 8-bit pixel can only take 256 values, so the normalization (mean, std and
+ * optionally the input quantization) is computed once per model instead of once per pixel.
+ */
+public final class PixelNormalizer {
+
+  private static final int NUM_CHANNELS = 3;
+  private static final int NUM_VALUES = 256;
+
+  private final float[] floatTable;
+  private final byte[] byteTable;
+
+  private PixelNormalizer(float[] floatTable, byte[] byteTable) {
+    this.floatTable = floatTable;
+    this.byteTable = byteTable;
+  }
+
+  /** Float input computed as {@code (value - mean) / std} for every channel. */
+  public static PixelNormalizer floatInput(float mean, float std) {
+    return floatInput(new float[] {mean, mean, mean}, new float[] {std, std, std});
+  }
+
+  /** Float input computed as {@code (value - mean[c]) / std[c]} for the RGB channels. */
+  public static PixelNormalizer floatInput(float[] mean, float[] std) {
+    float[] table = new float[NUM_CHANNELS * NUM_VALUES];
+    for (int c = 0; c < NUM_CHANNELS; c++) {
+      for (int v = 0; v < NUM_VALUES; v++) {
+        table[c * NUM_VALUES + v] = (v - mean[c]) / std[c];
+      }
+    }
+    return new PixelNormalizer(table, null);
+  }
+
+  /**
+   * Quantized int8/uint8 input computed as {@code (value - mean) / std / scale + zeroPoint} for
+   * every channel.
+   */
+  public static PixelNormalizer quantizedInput(float mean, float std, float scale, int zeroPoint) {
+    byte[] table = new byte[NUM_CHANNELS * NUM_VALUES];
+    for (int c = 0; c < NUM_CHANNELS; c++) {
+      for (int v = 0; v < NUM_VALUES; v++) {
+        table[c * NUM_VALUES + v] = (byte) ((v - mean) / std / scale + zeroPoint);
+      }
+    }
+    return new PixelNormalizer(null, table);
+  }
+
+  /** Raw uint8 input, the channel values are copied unchanged. */
+  public static PixelNormalizer uint8Input() {
+    byte[] table = new byte[NUM_CHANNELS * NUM_VALUES];
+    for (int c = 0; c < NUM_CHANNELS; c++) {
+      for (int v = 0; v < NUM_VALUES; v++) {
+        table[c * NUM_VALUES + v] = (byte) v;
+      }
+    }
+    return new PixelNormalizer(null, table);
+  }
+
+  /** Returns true if the tensor values are floats, false if they are single bytes. */
+  public boolean isFloat() {
+    return floatTable != null;
+  }
+
+  /**
+   * Normalizes {@code count} pixels into {@code dst} as interleaved RGB floats.
+   *
+   * @param pixels Packed ARGB pixels, as returned by {@code Bitmap.getPixels()}.
+   * @param offset Index of the first pixel to convert.
+   * @param count Number of pixels to convert.
+   * @param dst Destination array, needs room for {@code 3 * count} values.
+   * @param dstOffset Index of the first value written to {@code dst}.
+   */
+  public void convert(int[] pixels, int offset, int count, float[] dst, int dstOffset) {
+    final float[] table = floatTable;
+    int out = dstOffset;
+    for (int i = offset, end = offset + count; i < end; i++) {
+      final int pixel = pixels[i];
+      dst[out++] = table[(pixel >> 16) & 0xFF];
+      dst[out++] = table[NUM_VALUES + ((pixel >> 8) & 0xFF)];
+      dst[out++] = table[2 * NUM_VALUES + (pixel & 0xFF)];
+    }
+  }
+
+  /** Normalizes {@code count} pixels into {@code dst} as interleaved RGB bytes. */
+  public void convert(int[] pixels, int offset, int count, byte[] dst, int dstOffset) {
+    final byte[] table = byteTable;
+    int out = dstOffset;
+    for (int i = offset, end = offset + count; i < end; i++) {
+      final int pixel = pixels[i];
+      dst[out++] = table[(pixel >> 16) & 0xFF];
+      dst[out++] = table[NUM_VALUES + ((pixel >> 8) & 0xFF)];
+      dst[out++] = table[2 * NUM_VALUES + (pixel & 0xFF)];
+    }
+  }
+}
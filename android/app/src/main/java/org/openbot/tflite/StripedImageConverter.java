@@ -0,0 +1,154 @@
+package org.openbot.tflite;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Converts packed ARGB pixels into an input tensor buffer, optionally split into row stripes that
+ * are converted in parallel.
+ *
+ * <p>Every stripe writes through its own view on the destination buffer positioned at its first
+ * row, so workers never share a buffer position. The calling thread converts the first stripe
+ * itself and the remaining stripes run on a fixed pool that lives as long as the converter.
+ */
+public class StripedImageConverter {
+
+  private static final int CHANNELS = 3;
+
+  private static final ThreadFactory THREAD_FACTORY =
+      new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r, "preprocess-" + count.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        }
+      };
+
+  private final PixelNormalizer normalizer;
+  private final int width;
+  private final Stripe[] stripes;
+  private final ExecutorService executor;
+
+  private volatile RuntimeException workerException;
+
+  /**
+   * Creates a converter for images of a fixed size.
+   *
+   * @param normalizer The lookup tables used for every pixel.
+   * @param width Image width in pixels.
+   * @param height Image height in pixels.
+   * @param numThreads Number of stripes converted in parallel, 1 converts on the calling thread.
+   */
+  public StripedImageConverter(PixelNormalizer normalizer, int width, int height, int numThreads) {
+    this.normalizer = normalizer;
+    this.width = width;
+
+    final int numStripes = Math.max(1, Math.min(numThreads, height));
+    stripes = new Stripe[numStripes];
+    for (int s = 0; s < numStripes; s++) {
+      final int firstRow = s * height / numStripes;
+      final int lastRow = (s + 1) * height / numStripes;
+      stripes[s] = new Stripe(firstRow, lastRow - firstRow);
+    }
+    executor = numStripes > 1 ? Executors.newFixedThreadPool(numStripes - 1, THREAD_FACTORY) : null;
+  }
+
+  public int getNumStripes() {
+    return stripes.length;
+  }
+
+  /**
+   * Converts all pixels into {@code dst}, its position is reset to 0 afterwards.
+   *
+   * @param pixels Packed ARGB pixels of the whole image.
+   * @param dst A direct input buffer of the interpreter, holding {@code width * height} pixels.
+   */
+  public void convert(int[] pixels, ByteBuffer dst) {
+    if (executor == null) {
+      stripes[0].convert(pixels, dst);
+    } else {
+      final CountDownLatch done = new CountDownLatch(stripes.length - 1);
+      for (int s = 1; s < stripes.length; s++) {
+        final Stripe stripe = stripes[s];
+        executor.execute(
+            () -> {
+              try {
+                stripe.convert(pixels, dst);
+              } catch (RuntimeException e) {
+                workerException = e;
+              } finally {
+                done.countDown();
+              }
+            });
+      }
+      stripes[0].convert(pixels, dst);
+      try {
+        done.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while converting image", e);
+      }
+      final RuntimeException e = workerException;
+      if (e != null) {
+        workerException = null;
+        throw e;
+      }
+    }
+    dst.rewind();
+  }
+
+  /** Stops the worker threads. */
+  public void close() {
+    if (executor != null) {
+      executor.shutdown();
+    }
+  }
+
+  private class Stripe {
+    private final int firstPixel;
+    private final int numRows;
+    private final int dstOffset;
+    private final float[] rowFloats;
+    private final byte[] rowBytes;
+
+    Stripe(int firstRow, int numRows) {
+      this.firstPixel = firstRow * width;
+      this.numRows = numRows;
+      this.dstOffset = firstPixel * CHANNELS;
+      if (normalizer.isFloat()) {
+        rowFloats = new float[width * CHANNELS];
+        rowBytes = null;
+      } else {
+        rowFloats = null;
+        rowBytes = new byte[width * CHANNELS];
+      }
+    }
+
+    void convert(int[] pixels, ByteBuffer dst) {
+      if (rowFloats != null) {
+        // duplicate() resets the byte order, so it has to be set again before taking the view.
+        final FloatBuffer floats = dst.duplicate().order(dst.order()).asFloatBuffer();
+        floats.position(dstOffset);
+        for (int r = 0; r < numRows; r++) {
+          normalizer.convert(pixels, firstPixel + r * width, width, rowFloats, 0);
+          floats.put(rowFloats);
+        }
+      } else {
+        final ByteBuffer bytes = dst.duplicate();
+        bytes.position(dstOffset);
+        for (int r = 0; r < numRows; r++) {
+          normalizer.convert(pixels, firstPixel + r * width, width, rowBytes, 0);
+          bytes.put(rowBytes);
+        }
+      }
+    }
+  }
+}
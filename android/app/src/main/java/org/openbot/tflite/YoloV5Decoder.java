@@ -0,0 +1,128 @@
+package org.openbot.tflite;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes the raw output tensor of a YOLOv5 model into candidate boxes.
+ *
+ * <p>Every frame of the output holds one row per anchor box with the center x, center y, width and
+ * height relative to the input size, the objectness and one score per class. The values are
+ * dequantized on the fly for quantized models. Rows whose objectness is below the threshold are
+ * skipped before their class scores are read.
+ */
+public class YoloV5Decoder {
+
+  /** Receives the boxes whose score passes the threshold, in input image coordinates. */
+  public interface Sink {
+    void add(int box, int classId, float score, float left, float top, float right, float bottom);
+  }
+
+  private final int numBoxes;
+  private final int numClasses;
+  private final boolean quantized;
+  private final float scale;
+  private final int zeroPoint;
+
+  /** Creates a decoder for a float output tensor. */
+  public YoloV5Decoder(int numBoxes, int numClasses) {
+    this(numBoxes, numClasses, false, 0, 0);
+  }
+
+  /** Creates a decoder for an output tensor that is quantized with the given parameters. */
+  public YoloV5Decoder(int numBoxes, int numClasses, float scale, int zeroPoint) {
+    this(numBoxes, numClasses, true, scale, zeroPoint);
+  }
+
+  private YoloV5Decoder(
+      int numBoxes, int numClasses, boolean quantized, float scale, int zeroPoint) {
+    this.numBoxes = numBoxes;
+    this.numClasses = numClasses;
+    this.quantized = quantized;
+    this.scale = scale;
+    this.zeroPoint = zeroPoint;
+  }
+
+  /** Number of anchor boxes of a model with a square input, 3 anchors on 3 scales. */
+  public static int getNumBoxes(int inputSize) {
+    final int s32 = inputSize / 32;
+    final int s16 = inputSize / 16;
+    final int s8 = inputSize / 8;
+    return (s32 * s32 + s16 * s16 + s8 * s8) * 3;
+  }
+
+  public int getNumBoxes() {
+    return numBoxes;
+  }
+
+  /** Size of one frame of the output tensor in bytes. */
+  public int getFrameBytes() {
+    return numBoxes * (numClasses + 5) * (quantized ? 1 : 4);
+  }
+
+  /** Reads the dequantized output value at the given absolute element index. */
+  private float get(ByteBuffer outData, int index) {
+    if (quantized) {
+      return scale * (((int) outData.get(index) & 0xFF) - zeroPoint);
+    }
+    return outData.getFloat(index * 4);
+  }
+
+  /**
+   * Passes every box of frame {@code batchIndex} whose objectness times best class score exceeds
+   * {@code threshold} to the sink.
+   *
+   * @param inputSize Size of the square model input, the box coordinates are relative to it.
+   * @param maxX Largest x coordinate, boxes are clipped to the image.
+   * @param maxY Largest y coordinate.
+   * @return the number of boxes passed to the sink.
+   */
+  public int decode(
+      ByteBuffer outData,
+      int batchIndex,
+      float threshold,
+      float inputSize,
+      float maxX,
+      float maxY,
+      Sink sink) {
+    final int stride = numClasses + 5;
+    final int frameOffset = batchIndex * numBoxes * stride;
+    int count = 0;
+    for (int i = 0; i < numBoxes; ++i) {
+      final int offset = frameOffset + i * stride;
+      final float confidence = get(outData, offset + 4);
+      // Class scores are at most 1, so the final score can never exceed the objectness.
+      if (confidence <= threshold) {
+        continue;
+      }
+
+      int classId = -1;
+      float maxClass = 0;
+      for (int c = 0; c < numClasses; ++c) {
+        final float classScore = get(outData, offset + 5 + c);
+        if (classScore > maxClass) {
+          classId = c;
+          maxClass = classScore;
+        }
+      }
+
+      final float score = maxClass * confidence;
+      if (score > threshold && classId > -1) {
+        // Denormalize xywh
+        final float xPos = get(outData, offset) * inputSize;
+        final float yPos = get(outData, offset + 1) * inputSize;
+        final float w = get(outData, offset + 2) * inputSize;
+        final float h = get(outData, offset + 3) * inputSize;
+        sink.add(
+            i,
+            classId,
+            score,
+            Math.max(0, xPos - w / 2),
+            Math.max(0, yPos - h / 2),
+            Math.min(maxX, xPos + w / 2),
+            Math.min(maxY, yPos + h / 2));
+        count++;
+      }
+    }
+    return count;
+  }
+}
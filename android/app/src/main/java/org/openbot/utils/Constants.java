@@ -6,6 +6,11 @@ public class Constants {
 
   public static final String USB_ACTION_DATA_RECEIVED = "usb.data_received";
 
+  /** Key of the settings switch for {@link org.openbot.tflite.Network#setNumPreprocessThreads}. */
+  public static final String PREF_PARALLEL_PREPROCESSING = "parallel_preprocessing";
+
+  public static final String PREF_CONTROL_RATE = "control_rate";
+
   public static final int REQUEST_CAMERA_PERMISSION = 1;
   public static final int REQUEST_AUDIO_PERMISSION = 2;
   public static final int REQUEST_STORAGE_PERMISSION = 3;
@@ -0,0 +1,365 @@
+package org.openbot.utils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * A bounded pipeline that passes reusable frame buffers through a chain of stages, each running on
+ * its own executor.
+ *
+ * <p>Every stage holds at most one pending frame. If a newer frame arrives before the stage took
+ * the pending one, the older frame is dropped and returned to the pool, so slow stages always work
+ * on the latest frame and never build up latency. The number of frame buffers is fixed; {@link
+ * #acquire()} reclaims the frame waiting for the first stage if all of them are in use.
+ *
+ * @param <T> The frame type, typically a holder of preallocated input and output buffers.
+ */
+public class FramePipeline<T> {
+
+  /** Work done by one stage on one frame. */
+  public interface Processor<T> {
+    /**
+     * Processes the frame.
+     *
+     * @return false to drop the frame instead of passing it to the next stage.
+     */
+    boolean process(T frame);
+  }
+
+  /** Runs the stages, e.g. {@code handler::post} of a {@code HandlerThread}. */
+  public interface StageExecutor {
+    /**
+     * Schedules the task. It must not run inline.
+     *
+     * @return false if the task was rejected and will never run, e.g. because the looper quit.
+     */
+    boolean post(Runnable task);
+  }
+
+  /** A snapshot of the counters of one stage. */
+  public static class StageStats {
+    public final String name;
+    public final int queueDepth;
+    public final long processed;
+    public final long dropped;
+    public final double avgWaitMs;
+    public final double avgLatencyMs;
+
+    StageStats(
+        String name,
+        int queueDepth,
+        long processed,
+        long dropped,
+        double avgWaitMs,
+        double avgLatencyMs) {
+      this.name = name;
+      this.queueDepth = queueDepth;
+      this.processed = processed;
+      this.dropped = dropped;
+      this.avgWaitMs = avgWaitMs;
+      this.avgLatencyMs = avgLatencyMs;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          Locale.US,
+          "%s: queue %d, processed %d, dropped %d, wait %.1f ms, latency %.1f ms",
+          name,
+          queueDepth,
+          processed,
+          dropped,
+          avgWaitMs,
+          avgLatencyMs);
+    }
+  }
+
+  private static final int MOVING_AVG_SIZE = 30;
+
+  private final Object lock = new Object();
+  private final ArrayDeque<T> freeFrames = new ArrayDeque<>();
+  private final List<Stage> stages = new ArrayList<>();
+  private long acquired = 0;
+  private long acquireFailed = 0;
+  private int activeStages = 0;
+  private boolean closed = false;
+  private Runnable onClosed;
+
+  /** @param frames The frame buffers to cycle, at least one more than stages avoids drops. */
+  public FramePipeline(List<T> frames) {
+    freeFrames.addAll(frames);
+  }
+
+  /**
+   * Appends a stage. All stages have to be added before the first frame is submitted.
+   *
+   * @param name Name of the stage, used in {@link #getStats()}.
+   * @param executor Runs the stage. Stages never run concurrently with themselves, so a single
+   *     thread is sufficient. If it rejects the stage, the pending frame is dropped.
+   * @param processor The work of the stage.
+   */
+  public FramePipeline<T> addStage(String name, StageExecutor executor, Processor<T> processor) {
+    synchronized (lock) {
+      Stage stage = new Stage(name, executor, processor);
+      if (!stages.isEmpty()) stages.get(stages.size() - 1).next = stage;
+      stages.add(stage);
+    }
+    return this;
+  }
+
+  /**
+   * Appends a stage run by an {@link Executor}, see {@link #addStage(String, StageExecutor,
+   * Processor)}. A separate name, since lambdas and {@code handler::post} fit both interfaces.
+   */
+  public FramePipeline<T> addStageOn(String name, Executor executor, Processor<T> processor) {
+    return addStage(
+        name,
+        task -> {
+          try {
+            executor.execute(task);
+            return true;
+          } catch (RejectedExecutionException e) {
+            return false;
+          }
+        },
+        processor);
+  }
+
+  /**
+   * Takes a free frame for the caller to fill, e.g. with the latest camera image.
+   *
+   * @return the frame, or null if the pipeline is closed or all frames are being processed.
+   */
+  public T acquire() {
+    synchronized (lock) {
+      if (closed) return null;
+      T frame = freeFrames.poll();
+      if (frame == null && !stages.isEmpty()) {
+        frame = stages.get(0).takePending();
+      }
+      if (frame == null) {
+        acquireFailed++;
+      } else {
+        acquired++;
+      }
+      return frame;
+    }
+  }
+
+  /** Hands a frame returned by {@link #acquire()} to the first stage. */
+  public void submit(T frame) {
+    Runnable callback = null;
+    synchronized (lock) {
+      if (closed || stages.isEmpty()) {
+        freeFrames.add(frame);
+      } else {
+        callback = stages.get(0).offer(frame);
+      }
+    }
+    if (callback != null) callback.run();
+  }
+
+  /** Returns a frame returned by {@link #acquire()} without processing it. */
+  public void release(T frame) {
+    synchronized (lock) {
+      freeFrames.add(frame);
+    }
+  }
+
+  /**
+   * Stops accepting frames and drops all pending ones. Stages that are running finish their current
+   * frame but do not pass it on.
+   *
+   * @param onClosed Called once no stage is running anymore, either right away or on the thread of
+   *     the last stage that finished. Use it to release resources the stages depend on. May be
+   *     null.
+   */
+  public void close(Runnable onClosed) {
+    Runnable callback = null;
+    synchronized (lock) {
+      if (closed) return;
+      closed = true;
+      for (Stage stage : stages) {
+        T frame = stage.takePending();
+        if (frame != null) freeFrames.add(frame);
+      }
+      if (activeStages == 0) {
+        callback = onClosed;
+      } else {
+        this.onClosed = onClosed;
+      }
+    }
+    if (callback != null) callback.run();
+  }
+
+  public boolean isClosed() {
+    synchronized (lock) {
+      return closed;
+    }
+  }
+
+  /** Frames handed out by {@link #acquire()} since the pipeline was created. */
+  public long getNumAcquired() {
+    synchronized (lock) {
+      return acquired;
+    }
+  }
+
+  /** Calls of {@link #acquire()} that returned null because every frame was busy. */
+  public long getNumAcquireFailed() {
+    synchronized (lock) {
+      return acquireFailed;
+    }
+  }
+
+  /** Returns the counters of all stages, in pipeline order. */
+  public List<StageStats> getStats() {
+    synchronized (lock) {
+      List<StageStats> stats = new ArrayList<>(stages.size());
+      for (Stage stage : stages) {
+        stats.add(
+            new StageStats(
+                stage.name,
+                stage.pending != null ? 1 : 0,
+                stage.processed,
+                stage.dropped,
+                stage.avgWaitMs,
+                stage.avgLatencyMs));
+      }
+      return stats;
+    }
+  }
+
+  private class Stage implements Runnable {
+    private final String name;
+    private final StageExecutor executor;
+    private final Processor<T> processor;
+    private Stage next;
+
+    // Guarded by lock.
+    private T pending;
+    private long pendingSinceNs;
+    private boolean scheduled = false;
+    private long processed = 0;
+    private long dropped = 0;
+    private final MovingAverage waitNs = new MovingAverage(MOVING_AVG_SIZE);
+    private final MovingAverage latencyNs = new MovingAverage(MOVING_AVG_SIZE);
+    private double avgWaitMs = 0;
+    private double avgLatencyMs = 0;
+
+    Stage(String name, StageExecutor executor, Processor<T> processor) {
+      this.name = name;
+      this.executor = executor;
+      this.processor = processor;
+    }
+
+    /**
+     * Replaces the pending frame, called with the lock held.
+     *
+     * @return the close callback, see {@link #post()}.
+     */
+    Runnable offer(T frame) {
+      if (pending != null) {
+        dropped++;
+        freeFrames.add(pending);
+      }
+      pending = frame;
+      pendingSinceNs = System.nanoTime();
+      if (scheduled) return null;
+      scheduled = true;
+      activeStages++;
+      return post();
+    }
+
+    /**
+     * Schedules the stage for its pending frame, called with the lock held. If the executor rejects
+     * it, the frame is dropped and the stage is idle again, so closing still completes.
+     *
+     * @return the close callback if the stage was rejected as the last running stage of a closed
+     *     pipeline.
+     */
+    private Runnable post() {
+      if (executor.post(this)) return null;
+      final T frame = takePending();
+      if (frame != null) freeFrames.add(frame);
+      return finish();
+    }
+
+    /** Removes the pending frame, called with the lock held. */
+    T takePending() {
+      T frame = pending;
+      if (frame != null) {
+        dropped++;
+        pending = null;
+      }
+      return frame;
+    }
+
+    @Override
+    public void run() {
+      final T frame;
+      Runnable callback = null;
+      synchronized (lock) {
+        if (pending == null || closed) {
+          callback = finish();
+          frame = null;
+        } else {
+          frame = pending;
+          pending = null;
+          avgWaitMs = waitNs.next(System.nanoTime() - pendingSinceNs) / 1e6;
+        }
+      }
+      if (frame == null) {
+        if (callback != null) callback.run();
+        return;
+      }
+
+      final long startNs = System.nanoTime();
+      boolean passOn = false;
+      try {
+        passOn = processor.process(frame);
+      } finally {
+        final long latency = System.nanoTime() - startNs;
+        synchronized (lock) {
+          processed++;
+          avgLatencyMs = latencyNs.next(latency) / 1e6;
+          Runnable nextCallback = null;
+          if (passOn && !closed && next != null) {
+            nextCallback = next.offer(frame);
+          } else {
+            freeFrames.add(frame);
+          }
+          if (pending != null && !closed) {
+            // Run again for the frame that arrived meanwhile. Posting instead of looping lets
+            // other work queued on the same executor, e.g. recreating the network, run in between.
+            callback = post();
+          } else {
+            callback = finish();
+          }
+          if (callback == null) callback = nextCallback;
+        }
+        if (callback != null) callback.run();
+      }
+    }
+
+    /**
+     * Marks the stage as idle, called with the lock held.
+     *
+     * @return the close callback if this was the last running stage of a closed pipeline.
+     */
+    private Runnable finish() {
+      scheduled = false;
+      activeStages--;
+      if (closed && activeStages == 0) {
+        final Runnable callback = onClosed;
+        onClosed = null;
+        return callback;
+      }
+      return null;
+    }
+  }
+}
@@ -0,0 +1,408 @@
+package org.openbot.utils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import timber.log.Timber;
+
+/**
+ * A fixed number of worker threads that process frames from a bounded queue, e.g. to compress the
+ * logged camera frames without blocking the camera.
+ *
+ * <p>Frames belong to lanes, e.g. preview and crop, each with a fixed set of reusable frame
+ * buffers. A producer takes a free buffer with {@link #acquire}, fills it and {@link #submit}s it.
+ * The queue can never hold more frames than there are buffers, so memory stays bounded when the
+ * workers fall behind. Instead, frames are dropped according to the {@link DropPolicy} and counted.
+ *
+ * @param <T> The frame type, typically a holder of a bitmap and its metadata.
+ */
+public class FrameWorkerPool<T> {
+
+  public enum DropPolicy {
+    /**
+     * Frames are processed in the order they were submitted. If a lane has no free buffer, its
+     * oldest waiting frame is dropped and its buffer reused.
+     */
+    DROP_OLDEST,
+    /**
+     * Frames of lanes with a higher priority are processed first, e.g. the crops for training
+     * before the previews. While such frames are waiting, frames of lanes with a lower priority are
+     * not accepted. Otherwise, like {@link #DROP_OLDEST}.
+     */
+    DROP_LOW_PRIORITY
+  }
+
+  /** Work done on one frame by a worker thread. */
+  public interface Processor<T> {
+    void process(T frame);
+  }
+
+  /** A snapshot of the counters of one lane. */
+  public static class LaneStats {
+    public final String name;
+    public final int queueDepth;
+    public final long submitted;
+    public final long processed;
+    public final long dropped;
+
+    LaneStats(String name, int queueDepth, long submitted, long processed, long dropped) {
+      this.name = name;
+      this.queueDepth = queueDepth;
+      this.submitted = submitted;
+      this.processed = processed;
+      this.dropped = dropped;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          Locale.US,
+          "%s: queue %d, submitted %d, processed %d, dropped %d",
+          name,
+          queueDepth,
+          submitted,
+          processed,
+          dropped);
+    }
+  }
+
+  /** A snapshot of the counters of the pool. */
+  public static class Stats {
+    public final List<LaneStats> lanes;
+    public final int queueDepth;
+    public final int maxQueueDepth;
+    public final int busyWorkers;
+    public final long processed;
+    public final long dropped;
+    /** Frames whose processing threw; they are not counted as processed. */
+    public final long errors;
+    /** Processed frames per second since the pool was started. */
+    public final double throughput;
+
+    public final double avgWaitMs;
+    public final double avgProcessMs;
+
+    Stats(
+        List<LaneStats> lanes,
+        int queueDepth,
+        int maxQueueDepth,
+        int busyWorkers,
+        long errors,
+        double throughput,
+        double avgWaitMs,
+        double avgProcessMs) {
+      this.lanes = lanes;
+      this.queueDepth = queueDepth;
+      this.maxQueueDepth = maxQueueDepth;
+      this.busyWorkers = busyWorkers;
+      long processed = 0;
+      long dropped = 0;
+      for (LaneStats lane : lanes) {
+        processed += lane.processed;
+        dropped += lane.dropped;
+      }
+      this.processed = processed;
+      this.dropped = dropped;
+      this.errors = errors;
+      this.throughput = throughput;
+      this.avgWaitMs = avgWaitMs;
+      this.avgProcessMs = avgProcessMs;
+    }
+
+    @Override
+    public String toString() {
+      final StringBuilder builder =
+          new StringBuilder(
+              String.format(
+                  Locale.US,
+                  "%.1f frames/s, queue %d (max %d), busy %d, processed %d, dropped %d, errors %d,"
+                      + " wait %.1f ms, process %.1f ms",
+                  throughput,
+                  queueDepth,
+                  maxQueueDepth,
+                  busyWorkers,
+                  processed,
+                  dropped,
+                  errors,
+                  avgWaitMs,
+                  avgProcessMs));
+      for (LaneStats lane : lanes) builder.append('\n').append(lane);
+      return builder.toString();
+    }
+  }
+
+  private static final int MOVING_AVG_SIZE = 30;
+
+  private class Lane {
+    final String name;
+    final int priority;
+    final ArrayDeque<T> free;
+    // Waiting frames, oldest first, with the time they were submitted.
+    final Object[] queue;
+    final long[] submittedNs;
+    int head = 0;
+    int count = 0;
+    long submitted = 0;
+    long processed = 0;
+    long dropped = 0;
+
+    Lane(String name, int priority, List<T> frames) {
+      this.name = name;
+      this.priority = priority;
+      free = new ArrayDeque<>(frames);
+      queue = new Object[frames.size()];
+      submittedNs = new long[frames.size()];
+    }
+
+    void add(T frame) {
+      final int i = (head + count) % queue.length;
+      queue[i] = frame;
+      submittedNs[i] = System.nanoTime();
+      count++;
+    }
+
+    @SuppressWarnings("unchecked")
+    T poll() {
+      final T frame = (T) queue[head];
+      queue[head] = null;
+      head = (head + 1) % queue.length;
+      count--;
+      return frame;
+    }
+  }
+
+  private final String name;
+  private final int numWorkers;
+  private final DropPolicy policy;
+  private final Processor<T> processor;
+
+  private final Object lock = new Object();
+  private final List<Lane> lanes = new ArrayList<>();
+  private final List<Thread> workers = new ArrayList<>();
+  private int queued = 0;
+  private int maxQueued = 0;
+  private int busy = 0;
+  private long errors = 0;
+  private long startNs;
+  private long stopNs;
+  private boolean started = false;
+  private boolean closed = false;
+  private final MovingAverage waitNs = new MovingAverage(MOVING_AVG_SIZE);
+  private final MovingAverage processNs = new MovingAverage(MOVING_AVG_SIZE);
+  private double avgWaitMs = 0;
+  private double avgProcessMs = 0;
+
+  /**
+   * @param name Name of the worker threads.
+   * @param numWorkers Number of frames processed at the same time.
+   * @param processor The work done on each frame; it must be safe to call from all workers.
+   */
+  public FrameWorkerPool(String name, int numWorkers, DropPolicy policy, Processor<T> processor) {
+    this.name = name;
+    this.numWorkers = numWorkers;
+    this.policy = policy;
+    this.processor = processor;
+  }
+
+  /**
+   * Adds a lane. All lanes have to be added before the pool is started.
+   *
+   * @param priority Only used with {@link DropPolicy#DROP_LOW_PRIORITY}, higher is more important.
+   * @param frames The buffers of the lane. One more than the workers lets a frame wait while all
+   *     workers are busy.
+   * @return The id of the lane for {@link #acquire} and {@link #submit}.
+   */
+  public int addLane(String name, int priority, List<T> frames) {
+    synchronized (lock) {
+      if (started) throw new IllegalStateException("Pool already started");
+      if (frames.isEmpty()) throw new IllegalArgumentException("Lane without frames: " + name);
+      lanes.add(new Lane(name, priority, frames));
+      return lanes.size() - 1;
+    }
+  }
+
+  public void start() {
+    synchronized (lock) {
+      if (started) return;
+      started = true;
+      startNs = System.nanoTime();
+      for (int i = 0; i < numWorkers; i++) {
+        final Thread worker = new Thread(this::work, name + "-" + i);
+        workers.add(worker);
+        worker.start();
+      }
+    }
+  }
+
+  /**
+   * Takes a free buffer of the lane for the caller to fill, e.g. with the latest camera image.
+   *
+   * @return The buffer, or null if the frame has to be dropped or the pool is closed.
+   */
+  public T acquire(int lane) {
+    synchronized (lock) {
+      if (closed) return null;
+      final Lane l = lanes.get(lane);
+      if (policy == DropPolicy.DROP_LOW_PRIORITY && isMoreImportantWaiting(l)) {
+        l.dropped++;
+        return null;
+      }
+      T frame = l.free.poll();
+      if (frame == null && l.count > 0) {
+        // Reuse the oldest waiting frame, it is dropped.
+        frame = l.poll();
+        queued--;
+        l.dropped++;
+      }
+      if (frame == null) l.dropped++;
+      return frame;
+    }
+  }
+
+  private boolean isMoreImportantWaiting(Lane lane) {
+    for (Lane other : lanes) {
+      if (other.priority > lane.priority && other.count > 0) return true;
+    }
+    return false;
+  }
+
+  /** Queues a buffer returned by {@link #acquire} for the workers. */
+  public void submit(int lane, T frame) {
+    synchronized (lock) {
+      final Lane l = lanes.get(lane);
+      if (closed) {
+        l.free.add(frame);
+        l.dropped++;
+        return;
+      }
+      l.add(frame);
+      l.submitted++;
+      queued++;
+      if (queued > maxQueued) maxQueued = queued;
+      lock.notify();
+    }
+  }
+
+  /** Returns a buffer returned by {@link #acquire} without processing it. */
+  public void release(int lane, T frame) {
+    synchronized (lock) {
+      lanes.get(lane).free.add(frame);
+    }
+  }
+
+  private void work() {
+    while (true) {
+      final Lane lane;
+      final T frame;
+      synchronized (lock) {
+        while (queued == 0 && !closed) {
+          try {
+            lock.wait();
+          } catch (InterruptedException e) {
+            return;
+          }
+        }
+        if (queued == 0) return;
+        lane = next();
+        avgWaitMs = waitNs.next(System.nanoTime() - lane.submittedNs[lane.head]) / 1e6;
+        frame = lane.poll();
+        queued--;
+        busy++;
+      }
+
+      final long startNs = System.nanoTime();
+      RuntimeException failure = null;
+      try {
+        processor.process(frame);
+      } catch (RuntimeException e) {
+        // Keep the worker alive for the next frames.
+        failure = e;
+      } finally {
+        final long latency = System.nanoTime() - startNs;
+        final boolean firstFailure;
+        synchronized (lock) {
+          busy--;
+          lane.free.add(frame);
+          if (failure == null) lane.processed++;
+          firstFailure = failure != null && errors++ == 0;
+          avgProcessMs = processNs.next(latency) / 1e6;
+          stopNs = System.nanoTime();
+        }
+        if (firstFailure) {
+          Timber.e(failure, "Frame of %s failed, further failures are only counted", lane.name);
+        }
+      }
+    }
+  }
+
+  /** The lane of the next frame to process, called with the lock held and frames waiting. */
+  private Lane next() {
+    Lane next = null;
+    for (Lane lane : lanes) {
+      if (lane.count == 0) continue;
+      if (next == null) {
+        next = lane;
+      } else if (policy == DropPolicy.DROP_LOW_PRIORITY && lane.priority != next.priority) {
+        if (lane.priority > next.priority) next = lane;
+      } else if (lane.submittedNs[lane.head] - next.submittedNs[next.head] < 0) {
+        next = lane;
+      }
+    }
+    return next;
+  }
+
+  /**
+   * Stops accepting frames. The workers process the frames that are waiting, then stop; see {@link
+   * #awaitTermination}.
+   */
+  public void close() {
+    synchronized (lock) {
+      closed = true;
+      lock.notifyAll();
+    }
+  }
+
+  /**
+   * Waits until the workers stopped after {@link #close}.
+   *
+   * @return false if they are still running after the timeout.
+   */
+  public boolean awaitTermination(long timeoutMs) throws InterruptedException {
+    final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+    final List<Thread> threads;
+    synchronized (lock) {
+      threads = new ArrayList<>(workers);
+    }
+    for (Thread worker : threads) {
+      final long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+      if (remainingMs > 0) worker.join(remainingMs);
+      if (worker.isAlive()) return false;
+    }
+    return true;
+  }
+
+  public Stats getStats() {
+    synchronized (lock) {
+      final List<LaneStats> laneStats = new ArrayList<>(lanes.size());
+      long processed = 0;
+      for (Lane lane : lanes) {
+        laneStats.add(
+            new LaneStats(lane.name, lane.count, lane.submitted, lane.processed, lane.dropped));
+        processed += lane.processed;
+      }
+      final long end = busy > 0 || queued > 0 || !closed ? System.nanoTime() : stopNs;
+      final double seconds = started ? Math.max(end - startNs, 1) / 1e9 : 0;
+      return new Stats(
+          laneStats,
+          queued,
+          maxQueued,
+          busy,
+          errors,
+          seconds > 0 ? processed / seconds : 0,
+          avgWaitMs,
+          avgProcessMs);
+    }
+  }
+}
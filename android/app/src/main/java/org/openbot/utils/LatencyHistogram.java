@@ -0,0 +1,127 @@
+package org.openbot.utils;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free latency histogram with logarithmic buckets in the style of HdrHistogram.
+ *
+ * <p>Values are recorded in nanoseconds. Every power of two is split into {@value #SUB_BUCKETS}
+ * linear sub-buckets, so percentiles are accurate to about 3% of the value over the whole range
+ * from 1 ns to about 36 minutes (2^41 ns). Larger values are clamped to the last bucket. {@link
+ * #record} only updates atomic counters and never allocates, so it can stay enabled on every frame.
+ */
+public class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 5;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int MAX_EXPONENT = 40;
+  private static final int NUM_BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+  private static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+
+  private final String name;
+  private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong sum = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+
+  public LatencyHistogram(String name) {
+    this.name = name;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /** Records a latency in nanoseconds. */
+  public void record(long nanos) {
+    final long value = Math.min(Math.max(nanos, 0), MAX_VALUE);
+    counts.incrementAndGet(bucketIndex(value));
+    count.incrementAndGet();
+    sum.addAndGet(value);
+    long currentMax = max.get();
+    while (value > currentMax && !max.compareAndSet(currentMax, value)) {
+      currentMax = max.get();
+    }
+  }
+
+  /** Records the time since {@code startNanos}, a value of {@link System#nanoTime()}. */
+  public void recordSince(long startNanos) {
+    record(System.nanoTime() - startNanos);
+  }
+
+  public long getCount() {
+    return count.get();
+  }
+
+  public long getMaxNanos() {
+    return max.get();
+  }
+
+  public double getMeanNanos() {
+    final long n = count.get();
+    return n == 0 ? 0 : (double) sum.get() / n;
+  }
+
+  /**
+   * Returns the value below which the given percentage of the recorded latencies falls.
+   *
+   * @param percentile Between 0 and 100.
+   * @return the upper end of the matching bucket in nanoseconds, at most the recorded maximum.
+   */
+  public long getPercentileNanos(double percentile) {
+    long total = 0;
+    final long[] snapshot = new long[NUM_BUCKETS];
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      snapshot[i] = counts.get(i);
+      total += snapshot[i];
+    }
+    if (total == 0) return 0;
+
+    final long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+    long seen = 0;
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      seen += snapshot[i];
+      if (seen >= rank) return Math.min(bucketUpperBound(i), max.get());
+    }
+    return max.get();
+  }
+
+  /** Clears all recorded values. Values recorded while resetting may be lost or kept. */
+  public void reset() {
+    for (int i = 0; i < NUM_BUCKETS; i++) counts.set(i, 0);
+    count.set(0);
+    sum.set(0);
+    max.set(0);
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        Locale.US,
+        "%s: count %d, mean %.3f ms, p50 %.3f ms, p95 %.3f ms, p99 %.3f ms, max %.3f ms",
+        name,
+        getCount(),
+        getMeanNanos() / 1e6,
+        getPercentileNanos(50) / 1e6,
+        getPercentileNanos(95) / 1e6,
+        getPercentileNanos(99) / 1e6,
+        getMaxNanos() / 1e6);
+  }
+
+  static int bucketIndex(long value) {
+    if (value < SUB_BUCKETS) return (int) value;
+    final int exponent = 63 - Long.numberOfLeadingZeros(value);
+    final int shift = exponent - SUB_BUCKET_BITS;
+    final int subBucket = (int) (value >>> shift) - SUB_BUCKETS;
+    return (shift + 1) * SUB_BUCKETS + subBucket;
+  }
+
+  static long bucketUpperBound(int index) {
+    if (index < SUB_BUCKETS) return index;
+    final int shift = index / SUB_BUCKETS - 1;
+    final long subBucket = index % SUB_BUCKETS;
+    return ((SUB_BUCKETS + subBucket + 1) << shift) - 1;
+  }
+}
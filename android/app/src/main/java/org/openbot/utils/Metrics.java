@@ -0,0 +1,85 @@
+package org.openbot.utils;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Process wide registry of the latency histograms of the inference path.
+ *
+ * <p>Look up a histogram once, e.g. in a static field, and record into it on every frame. The
+ * histograms can be read at any time with {@link #report()} or written to a file.
+ */
+public class Metrics {
+
+  /** Bitmap into input tensor, including extra inputs like the indicator or the goal. */
+  public static final String PREPROCESS = "preprocess";
+  /** Preparing the output buffers of the interpreter. */
+  public static final String FEED = "feed";
+  /** The interpreter run. */
+  public static final String INFERENCE = "inference";
+  /** Decoding and non maximum suppression of the detector outputs. */
+  public static final String POSTPROCESS = "postprocess";
+  /** From the camera frame to the control command sent to the vehicle. */
+  public static final String FRAME_TO_CONTROL = "frameToControl";
+  /** Delay of the heartbeat to the vehicle against its fixed-rate schedule. */
+  public static final String HEARTBEAT_LATENESS = "heartbeatLateness";
+
+  private static final ConcurrentMap<String, LatencyHistogram> histograms =
+      new ConcurrentHashMap<>();
+
+  private Metrics() {}
+
+  /** Returns the histogram with the given name, it is created on the first call. */
+  public static LatencyHistogram histogram(String name) {
+    LatencyHistogram histogram = histograms.get(name);
+    if (histogram == null) {
+      final LatencyHistogram created = new LatencyHistogram(name);
+      histogram = histograms.putIfAbsent(name, created);
+      if (histogram == null) histogram = created;
+    }
+    return histogram;
+  }
+
+  /** Returns all histograms sorted by name. */
+  public static List<LatencyHistogram> getHistograms() {
+    final List<String> names = new ArrayList<>(histograms.keySet());
+    Collections.sort(names);
+    final List<LatencyHistogram> list = new ArrayList<>(names.size());
+    for (String name : names) list.add(histograms.get(name));
+    return list;
+  }
+
+  /** Clears the recorded values of all histograms. */
+  public static void reset() {
+    for (LatencyHistogram histogram : histograms.values()) histogram.reset();
+  }
+
+  /** Returns one summary line per histogram, and the failures of the scheduled tasks if any. */
+  public static String report() {
+    final StringBuilder builder = new StringBuilder();
+    for (LatencyHistogram histogram : getHistograms()) {
+      if (histogram.getCount() > 0) builder.append(histogram).append('\n');
+    }
+    final long failures = SharedScheduler.get().getNumFailures();
+    if (failures > 0) builder.append("scheduledTaskFailures: ").append(failures).append('\n');
+    return builder.toString();
+  }
+
+  /** Writes {@link #report()} to the given file, creating its folder if needed. */
+  public static void writeReport(File file) throws IOException {
+    final File folder = file.getParentFile();
+    if (folder != null && !folder.exists() && !folder.mkdirs()) {
+      throw new IOException("Cannot create " + folder);
+    }
+    try (Writer writer = new FileWriter(file)) {
+      writer.write(report());
+    }
+  }
+}
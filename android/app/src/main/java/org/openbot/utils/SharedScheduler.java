@@ -0,0 +1,156 @@
+package org.openbot.utils;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import timber.log.Timber;
+
+/**
+ * One named thread for the periodic and delayed tasks of the app, like the heartbeat and the noise
+ * of the vehicle.
+ *
+ * <p>Starting and stopping tasks never creates threads, unlike a {@link java.util.Timer} per task.
+ * The tasks must be short, since they share the thread. Every run of a periodic task records how
+ * late it started against its fixed-rate schedule, which shows whether e.g. the heartbeat keeps up
+ * with the timeout of the firmware. A task that throws keeps being scheduled and counts a failure;
+ * the first failure of each task is logged.
+ */
+public class SharedScheduler {
+
+  /** A periodic task, scheduled at a fixed rate until it is cancelled. */
+  public static class Task implements Runnable {
+    private final String name;
+    private final Runnable action;
+    private final long periodNanos;
+    private final LatencyHistogram lateness;
+    private final long firstRunNanos;
+    private final AtomicLong numRuns = new AtomicLong();
+    private final AtomicLong numFailures = new AtomicLong();
+    private volatile ScheduledFuture<?> future;
+
+    private final AtomicLong schedulerFailures;
+
+    private Task(
+        String name,
+        Runnable action,
+        long initialDelayNanos,
+        long periodNanos,
+        LatencyHistogram lateness,
+        AtomicLong schedulerFailures) {
+      this.name = name;
+      this.action = action;
+      this.schedulerFailures = schedulerFailures;
+      this.periodNanos = periodNanos;
+      this.lateness = lateness;
+      this.firstRunNanos = System.nanoTime() + initialDelayNanos;
+    }
+
+    @Override
+    public void run() {
+      final long run = numRuns.getAndIncrement();
+      if (lateness != null) lateness.recordSince(firstRunNanos + run * periodNanos);
+      try {
+        action.run();
+      } catch (RuntimeException e) {
+        schedulerFailures.incrementAndGet();
+        if (numFailures.getAndIncrement() == 0) {
+          Timber.e(e, "Task %s failed, further failures are only counted", name);
+        }
+      }
+    }
+
+    /** Stops the task; a run that already started completes. */
+    public void cancel() {
+      final ScheduledFuture<?> f = future;
+      if (f != null) f.cancel(false);
+    }
+
+    public boolean isCancelled() {
+      final ScheduledFuture<?> f = future;
+      return f != null && f.isCancelled();
+    }
+
+    public long getNumRuns() {
+      return numRuns.get();
+    }
+
+    /** Number of runs that threw an exception. */
+    public long getNumFailures() {
+      return numFailures.get();
+    }
+
+    public String getName() {
+      return name;
+    }
+  }
+
+  private static final SharedScheduler INSTANCE = new SharedScheduler("openbot-scheduler");
+
+  private final ScheduledThreadPoolExecutor executor;
+  private final AtomicLong numFailures = new AtomicLong();
+
+  /** The scheduler of the app. */
+  public static SharedScheduler get() {
+    return INSTANCE;
+  }
+
+  /** A separate scheduler, e.g. for tests. */
+  public SharedScheduler(String threadName) {
+    final AtomicInteger count = new AtomicInteger();
+    executor =
+        new ScheduledThreadPoolExecutor(
+            1,
+            runnable -> {
+              final Thread thread =
+                  new Thread(
+                      runnable, count.getAndIncrement() == 0 ? threadName : threadName + count);
+              thread.setDaemon(true);
+              return thread;
+            });
+    executor.setRemoveOnCancelPolicy(true);
+  }
+
+  /**
+   * Runs the action every {@code periodMs} after {@code initialDelayMs}. After a stall of the
+   * thread, the missed runs follow each other immediately until the task is back on schedule.
+   *
+   * @param name Names the task in the log if it fails.
+   * @param lateness Receives the delay of each run against its schedule, or null.
+   */
+  public Task scheduleAtFixedRate(
+      String name, Runnable action, long initialDelayMs, long periodMs, LatencyHistogram lateness) {
+    final Task task =
+        new Task(
+            name,
+            action,
+            TimeUnit.MILLISECONDS.toNanos(initialDelayMs),
+            TimeUnit.MILLISECONDS.toNanos(periodMs),
+            lateness,
+            numFailures);
+    task.future =
+        executor.scheduleAtFixedRate(task, initialDelayMs, periodMs, TimeUnit.MILLISECONDS);
+    return task;
+  }
+
+  /** Runs the action once after the delay. */
+  public ScheduledFuture<?> schedule(Runnable action, long delay, TimeUnit unit) {
+    return executor.schedule(action, delay, unit);
+  }
+
+  /** Number of failed runs of all periodic tasks since the start. */
+  public long getNumFailures() {
+    return numFailures.get();
+  }
+
+  /** Number of scheduled tasks, periodic ones count until they are cancelled. */
+  public int getNumTasks() {
+    return executor.getQueue().size();
+  }
+
+  /** Stops the thread; only for separate schedulers. */
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+}
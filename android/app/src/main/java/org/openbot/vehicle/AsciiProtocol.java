@@ -0,0 +1,55 @@
+package org.openbot.vehicle;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+import java.util.Locale;
+
+/** The text commands, one line per command with a single character header. */
+public class AsciiProtocol implements VehicleProtocol {
+
+  /** Requests the configuration of the vehicle, always sent as text. */
+  public static final String CONFIG_REQUEST = "f\n";
+
+  private static byte[] encode(String format, int value) {
+    return String.format(Locale.US, format, value).getBytes(US_ASCII);
+  }
+
+  private static byte[] encode(String format, int first, int second) {
+    return String.format(Locale.US, format, first, second).getBytes(US_ASCII);
+  }
+
+  @Override
+  public byte[] control(int left, int right) {
+    return encode("c%d,%d\n", left, right);
+  }
+
+  @Override
+  public byte[] indicator(int left, int right) {
+    return encode("i%d,%d\n", left, right);
+  }
+
+  @Override
+  public byte[] light(int front, int back) {
+    return encode("l%d,%d\n", front, back);
+  }
+
+  @Override
+  public byte[] heartbeat(int timeoutMs) {
+    return encode("h%d\n", timeoutMs);
+  }
+
+  @Override
+  public byte[] sonarInterval(int intervalMs) {
+    return encode("s%d\n", intervalMs);
+  }
+
+  @Override
+  public byte[] voltageInterval(int intervalMs) {
+    return encode("v%d\n", intervalMs);
+  }
+
+  @Override
+  public byte[] wheelOdometryInterval(int intervalMs) {
+    return encode("w%d\n", intervalMs);
+  }
+}
@@ -0,0 +1,183 @@
+package org.openbot.vehicle;
+
+/**
+ * Fixed-size binary command frames, announced by the vehicle with the {@value #FEATURE} feature.
+ *
+ * <p>Every frame has {@value #FRAME_SIZE} bytes: the sync byte {@code 0xAA}, the message type, a
+ * little-endian payload of 4 bytes and a CRC-8 (polynomial 0x07) over the type and the payload. The
+ * message types are the headers of the text commands, e.g. {@code 'c'} for control. Commands with
+ * two values store them as two signed 16 bit values, commands with one value as an unsigned 32 bit
+ * value. The sync byte is never part of a text command, so the vehicle can tell both apart.
+ */
+public class BinaryProtocol implements VehicleProtocol {
+
+  /** Feature in the vehicle configuration that announces support for binary frames. */
+  public static final String FEATURE = "bp";
+
+  public static final int FRAME_SIZE = 7;
+  public static final int SYNC = 0xAA;
+
+  public static final byte TYPE_CONTROL = 'c';
+  public static final byte TYPE_INDICATOR = 'i';
+  public static final byte TYPE_LIGHT = 'l';
+  public static final byte TYPE_HEARTBEAT = 'h';
+  public static final byte TYPE_SONAR = 's';
+  public static final byte TYPE_VOLTAGE = 'v';
+  public static final byte TYPE_WHEELS = 'w';
+
+  private static final byte[] CRC_TABLE = new byte[256];
+
+  static {
+    for (int i = 0; i < 256; i++) {
+      int crc = i;
+      for (int bit = 0; bit < 8; bit++) {
+        crc = (crc & 0x80) != 0 ? (crc << 1) ^ 0x07 : crc << 1;
+      }
+      CRC_TABLE[i] = (byte) crc;
+    }
+  }
+
+  /** CRC-8 of {@code length} bytes starting at {@code offset}. */
+  static int crc8(byte[] data, int offset, int length) {
+    int crc = 0;
+    for (int i = offset; i < offset + length; i++) crc = CRC_TABLE[(crc ^ data[i]) & 0xFF] & 0xFF;
+    return crc;
+  }
+
+  private static byte[] encode(byte type, int payload) {
+    final byte[] frame = new byte[FRAME_SIZE];
+    frame[0] = (byte) SYNC;
+    frame[1] = type;
+    frame[2] = (byte) payload;
+    frame[3] = (byte) (payload >>> 8);
+    frame[4] = (byte) (payload >>> 16);
+    frame[5] = (byte) (payload >>> 24);
+    frame[6] = (byte) crc8(frame, 1, 5);
+    return frame;
+  }
+
+  private static byte[] encode(byte type, int first, int second) {
+    return encode(type, (first & 0xFFFF) | (second << 16));
+  }
+
+  /** The first of two 16 bit values of a payload. */
+  public static int first(int payload) {
+    return (short) payload;
+  }
+
+  /** The second of two 16 bit values of a payload. */
+  public static int second(int payload) {
+    return (short) (payload >>> 16);
+  }
+
+  @Override
+  public byte[] control(int left, int right) {
+    return encode(TYPE_CONTROL, left, right);
+  }
+
+  @Override
+  public byte[] indicator(int left, int right) {
+    return encode(TYPE_INDICATOR, left, right);
+  }
+
+  @Override
+  public byte[] light(int front, int back) {
+    return encode(TYPE_LIGHT, front, back);
+  }
+
+  @Override
+  public byte[] heartbeat(int timeoutMs) {
+    return encode(TYPE_HEARTBEAT, timeoutMs);
+  }
+
+  @Override
+  public byte[] sonarInterval(int intervalMs) {
+    return encode(TYPE_SONAR, intervalMs);
+  }
+
+  @Override
+  public byte[] voltageInterval(int intervalMs) {
+    return encode(TYPE_VOLTAGE, intervalMs);
+  }
+
+  @Override
+  public byte[] wheelOdometryInterval(int intervalMs) {
+    return encode(TYPE_WHEELS, intervalMs);
+  }
+
+  /**
+   * Incremental decoder for a byte stream of frames, with the same resynchronization as {@code
+   * bin_frame_feed} in the firmware. Every sync byte outside of a frame starts one; the vehicle
+   * hands the other bytes to its text parser, the decoder skips them. After a CRC error decoding
+   * restarts at the next sync byte within the rejected frame. Both are tested against the cases in
+   * {@code firmware/openbot_nano/test/binary_frames.txt}. It does not allocate while decoding.
+   */
+  public static class Decoder {
+
+    /** Receives every valid frame. */
+    public interface Listener {
+      void onFrame(byte type, int payload);
+    }
+
+    private final Listener listener;
+    private final byte[] frame = new byte[FRAME_SIZE];
+    private int length = 0;
+    private long numFrames = 0;
+    private long numCrcErrors = 0;
+    private long numSkippedBytes = 0;
+
+    public Decoder(Listener listener) {
+      this.listener = listener;
+    }
+
+    public void feed(byte[] data, int offset, int count) {
+      for (int i = offset; i < offset + count; i++) feed(data[i]);
+    }
+
+    public void feed(byte b) {
+      if (length == 0 && (b & 0xFF) != SYNC) {
+        numSkippedBytes++;
+        return;
+      }
+      frame[length++] = b;
+      if (length < FRAME_SIZE) return;
+
+      if (crc8(frame, 1, 5) == (frame[6] & 0xFF)) {
+        length = 0;
+        numFrames++;
+        final int payload =
+            (frame[2] & 0xFF)
+                | (frame[3] & 0xFF) << 8
+                | (frame[4] & 0xFF) << 16
+                | (frame[5] & 0xFF) << 24;
+        listener.onFrame(frame[1], payload);
+        return;
+      }
+
+      numCrcErrors++;
+      // Restart at the next sync byte after the start of the rejected frame.
+      int next = 1;
+      while (next < FRAME_SIZE && (frame[next] & 0xFF) != SYNC) next++;
+      numSkippedBytes += next;
+      length = FRAME_SIZE - next;
+      System.arraycopy(frame, next, frame, 0, length);
+    }
+
+    /** True while a frame has been started but not completed. */
+    public boolean isInFrame() {
+      return length > 0;
+    }
+
+    public long getNumFrames() {
+      return numFrames;
+    }
+
+    public long getNumCrcErrors() {
+      return numCrcErrors;
+    }
+
+    public long getNumSkippedBytes() {
+      return numSkippedBytes;
+    }
+  }
+}
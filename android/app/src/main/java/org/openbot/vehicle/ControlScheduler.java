@@ -0,0 +1,200 @@
+package org.openbot.vehicle;
+
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import org.openbot.utils.LatencyHistogram;
+
+/**
+ * Writes all commands to the vehicle from a single thread at a fixed rate.
+ *
+ * <p>Controls can be set from any thread. Only the latest control is kept and written on the next
+ * tick, so a burst of controls from the UI, the autopilot and the noise timer results in at most
+ * one control per tick. Other commands such as heartbeat, indicator and light are queued and
+ * written before the control of the same tick, so they are never replaced by controls. A command
+ * that cannot be queued or written is dropped and counted, and so is every tick that starts more
+ * than one period late. A control that must not wait for the next tick, like an emergency stop, is
+ * written right away by {@link #setControlNow}.
+ */
+public class ControlScheduler {
+
+  /** Writes a command to the vehicle. */
+  public interface Output {
+    /** @return false if the command could not be written. */
+    boolean write(byte[] command);
+  }
+
+  public static final int DEFAULT_RATE_HZ = 50;
+  private static final int QUEUE_CAPACITY = 32;
+  private static final long NO_CONTROL = Long.MIN_VALUE;
+
+  private final Output output;
+  private final long periodNanos;
+  private final ArrayBlockingQueue<byte[]> commands = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+  private final AtomicLong pendingControl = new AtomicLong(NO_CONTROL);
+  private volatile long pendingSince;
+  private volatile VehicleProtocol protocol = new AsciiProtocol();
+  private volatile boolean urgent;
+  private volatile long urgentSince;
+  private volatile LatencyHistogram urgentLatency;
+
+  private final AtomicLong numControls = new AtomicLong();
+  private final AtomicLong numCoalesced = new AtomicLong();
+  private final AtomicLong numDropped = new AtomicLong();
+  private final AtomicLong numLateTicks = new AtomicLong();
+  private final LatencyHistogram controlLatency = new LatencyHistogram("control");
+
+  private volatile boolean running;
+  private volatile Thread thread;
+
+  public ControlScheduler(Output output, int rateHz) {
+    if (rateHz <= 0) throw new IllegalArgumentException("Invalid rate: " + rateHz);
+    this.output = output;
+    this.periodNanos = TimeUnit.SECONDS.toNanos(1) / rateHz;
+  }
+
+  /**
+   * Sets the protocol used to encode the controls, e.g. after the vehicle announced its features.
+   */
+  public void setProtocol(VehicleProtocol protocol) {
+    this.protocol = protocol;
+  }
+
+  /** Replaces the control to be written on the next tick. */
+  public void setControl(int left, int right) {
+    final long now = System.nanoTime();
+    numControls.incrementAndGet();
+    final long previous = pendingControl.getAndSet(((long) left << 32) | (right & 0xFFFFFFFFL));
+    if (previous == NO_CONTROL) pendingSince = now;
+    else numCoalesced.incrementAndGet();
+  }
+
+  /**
+   * Replaces the control and wakes up the scheduler to write it immediately, still from its own
+   * thread.
+   *
+   * @param latency Receives the time until the control was written, or null.
+   */
+  public void setControlNow(int left, int right, LatencyHistogram latency) {
+    urgentSince = System.nanoTime();
+    urgentLatency = latency;
+    setControl(left, right);
+    urgent = true;
+    final Thread t = thread;
+    if (t != null) LockSupport.unpark(t);
+  }
+
+  /** Queues a command that is written before the next control. */
+  public void send(byte[] command) {
+    if (!commands.offer(command)) numDropped.incrementAndGet();
+  }
+
+  public synchronized void start() {
+    if (running) return;
+    running = true;
+    thread = new Thread(this::loop, "ControlScheduler");
+    thread.setPriority(Thread.MAX_PRIORITY);
+    thread.start();
+  }
+
+  /** Stops the loop after it has written the pending commands and control. */
+  public synchronized void stop() {
+    if (!running) return;
+    running = false;
+    LockSupport.unpark(thread);
+    try {
+      thread.join(TimeUnit.NANOSECONDS.toMillis(periodNanos) + 100);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    thread = null;
+  }
+
+  private void loop() {
+    long deadline = System.nanoTime();
+    while (running) {
+      final long now = System.nanoTime();
+      if (now - deadline > periodNanos) {
+        // Skip the missed ticks instead of writing them in a burst.
+        numLateTicks.incrementAndGet();
+        deadline = now;
+      }
+      tick();
+      deadline += periodNanos;
+      long wait;
+      while (running && (wait = deadline - System.nanoTime()) > 0) {
+        if (urgent) tick();
+        else LockSupport.parkNanos(wait);
+      }
+    }
+    tick();
+  }
+
+  /** Writes the queued commands and then the latest control, if there is one. */
+  void tick() {
+    urgent = false;
+    byte[] command;
+    while ((command = commands.poll()) != null) write(command);
+
+    final long control = pendingControl.getAndSet(NO_CONTROL);
+    if (control != NO_CONTROL) {
+      final long since = pendingSince;
+      if (write(protocol.control((int) (control >> 32), (int) control))) {
+        controlLatency.recordSince(since);
+        final LatencyHistogram latency = urgentLatency;
+        if (latency != null) {
+          urgentLatency = null;
+          latency.recordSince(urgentSince);
+        }
+      }
+    }
+  }
+
+  private boolean write(byte[] command) {
+    if (output.write(command)) return true;
+    numDropped.incrementAndGet();
+    return false;
+  }
+
+  public long getPeriodNanos() {
+    return periodNanos;
+  }
+
+  /** Number of controls that were set. */
+  public long getNumControls() {
+    return numControls.get();
+  }
+
+  /** Number of controls that were replaced by a later one before they were written. */
+  public long getNumCoalesced() {
+    return numCoalesced.get();
+  }
+
+  /** Number of commands that could not be queued or written. */
+  public long getNumDropped() {
+    return numDropped.get();
+  }
+
+  public long getNumLateTicks() {
+    return numLateTicks.get();
+  }
+
+  /** Time from setting a control until it was written, for the first of coalesced controls. */
+  public LatencyHistogram getControlLatency() {
+    return controlLatency;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        Locale.US,
+        "controls %d, coalesced %d, dropped %d, late ticks %d\n%s",
+        getNumControls(),
+        getNumCoalesced(),
+        getNumDropped(),
+        getNumLateTicks(),
+        controlLatency);
+  }
+}
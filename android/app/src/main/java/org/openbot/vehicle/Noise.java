@@ -3,30 +3,47 @@ package org.openbot.vehicle;
 import android.os.SystemClock;
 import java.util.Random;
 
+/**
+ * Pulses of noise that are added to the control of one side, to collect data of recovering from
+ * drift. Updates do not allocate; the pulses are repeatable for a given seed.
+ */
 public class Noise {
 
   public Noise(int minDuration, int maxDuration, long timeout) {
+    this(minDuration, maxDuration, timeout, new Random());
+  }
+
+  public Noise(int minDuration, int maxDuration, long timeout, long seed) {
+    this(minDuration, maxDuration, timeout, new Random(seed));
+  }
+
+  private Noise(int minDuration, int maxDuration, long timeout, Random random) {
     this.minDuration = minDuration;
     this.maxDuration = maxDuration;
     this.timeout = timeout;
+    this.random = random;
   }
 
   private final int minDuration;
   private final int maxDuration;
   private final long timeout;
+  private final Random random;
   private float value = 0;
   private int direction = 0;
   private long duration = 0;
   private long startTime = 0;
 
   public void update() {
-    long currentTime = SystemClock.elapsedRealtime();
+    update(SystemClock.elapsedRealtime());
+  }
+
+  /** @param currentTime Time in ms. */
+  public void update(long currentTime) {
     if (currentTime > startTime + duration + timeout) {
       startTime = currentTime;
       duration = generateRandomInt(minDuration, maxDuration);
       value = 0;
-      Random r = new Random();
-      direction = r.nextBoolean() ? -1 : 1;
+      direction = random.nextBoolean() ? -1 : 1;
     }
     if (currentTime < startTime + duration) {
       if (currentTime < startTime + duration / 2) {
@@ -47,12 +64,6 @@ public class Noise {
   }
 
   private int generateRandomInt(int min, int max) {
-    Random r = new Random();
-    return r.nextInt((max - min) + 1) + min;
-  }
-
-  private float generateRandomFloat() {
-    Random r = new Random();
-    return r.nextFloat();
+    return random.nextInt((max - min) + 1) + min;
   }
 }
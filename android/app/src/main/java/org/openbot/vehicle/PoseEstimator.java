@@ -0,0 +1,165 @@
+package org.openbot.vehicle;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Dead reckoning of the 2D pose of the vehicle from the wheel odometry and the yaw rate of the
+ * gyroscope of the phone.
+ *
+ * <p>The wheels give the forward speed, the gyroscope gives the yaw rate since the wheels slip when
+ * turning. Without recent gyroscope readings the yaw rate of the wheels is used instead. While the
+ * wheels stand still, the gyroscope bias is estimated and subtracted afterwards. Each reading
+ * advances the pose to its timestamp in fixed steps with the previous inputs, so the result does
+ * not depend on which sensor reports first. All state is preallocated and updates do not allocate.
+ *
+ * <p>The pose starts at the origin facing along the x axis; the heading grows counterclockwise.
+ */
+public class PoseEstimator {
+
+  /** A pose with its velocity. */
+  public static class Pose {
+    public long timestampNanos;
+    /** Position in meters. */
+    public double x;
+
+    public double y;
+    /** Heading in radians. */
+    public double heading;
+    /** Forward speed in m/s. */
+    public double speed;
+    /** Yaw rate in rad/s. */
+    public double yawRate;
+
+    public void set(Pose other) {
+      timestampNanos = other.timestampNanos;
+      x = other.x;
+      y = other.y;
+      heading = other.heading;
+      speed = other.speed;
+      yawRate = other.yawRate;
+    }
+  }
+
+  /**
+   * Receives every update of the pose on the thread of the sensor that caused it, while the
+   * estimator is locked. The pose is reused and must be copied if it is kept.
+   */
+  public interface Listener {
+    void onPose(Pose pose);
+  }
+
+  private static final long STEP_NANOS = 5_000_000;
+  private static final long GYRO_TIMEOUT_NANOS = 100_000_000;
+  private static final double BIAS_ALPHA = 0.01;
+
+  private final double metersPerRevolution;
+  private final double wheelBaseMeters;
+  private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+
+  // Guarded by this.
+  private final Pose pose = new Pose();
+  private final Pose published = new Pose();
+  private boolean started = false;
+  private double wheelSpeed;
+  private double wheelYawRate;
+  private boolean stationary = true;
+  private double gyroYawRate;
+  private long gyroTimestampNanos;
+  private boolean hasGyro = false;
+  private double gyroBias;
+
+  /**
+   * @param wheelDiameterMeters Diameter of the wheels.
+   * @param wheelBaseMeters Distance between the left and the right wheels.
+   */
+  public PoseEstimator(double wheelDiameterMeters, double wheelBaseMeters) {
+    this.metersPerRevolution = Math.PI * wheelDiameterMeters;
+    this.wheelBaseMeters = wheelBaseMeters;
+  }
+
+  public void addListener(Listener listener) {
+    listeners.add(listener);
+  }
+
+  public void removeListener(Listener listener) {
+    listeners.remove(listener);
+  }
+
+  /** Updates the pose with the wheel speeds in rpm measured at the given time. */
+  public void onWheelRpm(float leftRpm, float rightRpm, long timestampNanos) {
+    synchronized (this) {
+      advance(timestampNanos);
+      final double left = leftRpm / 60.0 * metersPerRevolution;
+      final double right = rightRpm / 60.0 * metersPerRevolution;
+      wheelSpeed = (left + right) / 2;
+      wheelYawRate = (right - left) / wheelBaseMeters;
+      stationary = leftRpm == 0 && rightRpm == 0;
+      updateVelocity();
+      notifyListeners();
+    }
+  }
+
+  /** Updates the pose with the yaw rate in rad/s, counterclockwise, measured at the given time. */
+  public void onYawRate(float yawRate, long timestampNanos) {
+    synchronized (this) {
+      advance(timestampNanos);
+      gyroYawRate = yawRate;
+      gyroTimestampNanos = timestampNanos;
+      hasGyro = true;
+      if (stationary) gyroBias += (yawRate - gyroBias) * BIAS_ALPHA;
+      updateVelocity();
+      notifyListeners();
+    }
+  }
+
+  private void updateVelocity() {
+    pose.speed = wheelSpeed;
+    pose.yawRate =
+        hasGyro && pose.timestampNanos - gyroTimestampNanos < GYRO_TIMEOUT_NANOS
+            ? (stationary ? 0 : gyroYawRate - gyroBias)
+            : wheelYawRate;
+  }
+
+  /** Integrates the current velocity up to the given time in steps of at most 5 ms. */
+  private void advance(long timestampNanos) {
+    if (!started) {
+      started = true;
+      pose.timestampNanos = timestampNanos;
+      return;
+    }
+    final long elapsed = timestampNanos - pose.timestampNanos;
+    if (elapsed <= 0) return;
+    final long steps = (elapsed + STEP_NANOS - 1) / STEP_NANOS;
+    final double dt = elapsed * 1e-9 / steps;
+    for (long i = 0; i < steps; i++) {
+      // Midpoint heading, exact for a constant speed on a straight line.
+      final double heading = pose.heading + pose.yawRate * dt / 2;
+      pose.x += pose.speed * Math.cos(heading) * dt;
+      pose.y += pose.speed * Math.sin(heading) * dt;
+      pose.heading += pose.yawRate * dt;
+    }
+    pose.timestampNanos = timestampNanos;
+  }
+
+  private void notifyListeners() {
+    if (listeners.isEmpty()) return;
+    published.set(pose);
+    for (Listener listener : listeners) listener.onPose(published);
+  }
+
+  /** Copies the latest pose into {@code out}. */
+  public synchronized void getPose(Pose out) {
+    out.set(pose);
+  }
+
+  public synchronized double getGyroBias() {
+    return gyroBias;
+  }
+
+  /** Moves the pose back to the origin, e.g. when a navigation starts. */
+  public synchronized void reset() {
+    pose.x = 0;
+    pose.y = 0;
+    pose.heading = 0;
+  }
+}
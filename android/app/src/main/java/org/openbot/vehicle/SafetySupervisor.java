@@ -0,0 +1,167 @@
+package org.openbot.vehicle;
+
+import java.util.concurrent.TimeUnit;
+import org.openbot.utils.LatencyHistogram;
+
+/**
+ * Limits the controls sent to the vehicle by the sonar distance and the bumpers.
+ *
+ * <p>The supervisor sees the readings as soon as they are parsed, on the read thread of the
+ * vehicle, and does not wait for the next command of the driver or the network. When a reading
+ * changes the limit of the current control, {@link #onSonar} or {@link #onBumper} returns true and
+ * the vehicle sends the limited control right away. Every control passes {@link #apply} before it
+ * is sent.
+ *
+ * <p>Only motion towards an obstacle is limited; turning on the spot and driving away from it are
+ * always possible. Near an obstacle in front, the forward speed is reduced according to the {@link
+ * BrakingProfile}. A bumper hit blocks motion towards the bumper that was hit for {@link
+ * Config#bumperHoldMs}, like the firmware does while it handles the hit.
+ */
+public class SafetySupervisor {
+
+  public enum BrakingProfile {
+    /** Full speed until the stop distance, then stop. */
+    STOP,
+    /** Forward speed falls linearly from the slow-down distance to zero at the stop distance. */
+    LINEAR
+  }
+
+  public static class Config {
+    /** Distance in cm at which forward motion stops. */
+    public float stopDistanceCm = 25;
+    /** Distance in cm at which the forward speed starts to be reduced. */
+    public float slowDistanceCm = 60;
+
+    public BrakingProfile braking = BrakingProfile.LINEAR;
+    /** Time after a bumper hit during which motion towards the bumper stays blocked. */
+    public long bumperHoldMs = 1000;
+  }
+
+  private final Config config;
+  private final LatencyHistogram stopLatency = new LatencyHistogram("stop");
+
+  // Guarded by this.
+  private boolean enabled = true;
+  private float sonarDistanceCm = Float.MAX_VALUE;
+  private long frontBlockedUntilNanos;
+  private long backBlockedUntilNanos;
+  private boolean hasBumped = false;
+  private int requestedLeft;
+  private int requestedRight;
+  private int leftOutput;
+  private int rightOutput;
+  private long numStops = 0;
+  private long numLimited = 0;
+
+  public SafetySupervisor() {
+    this(new Config());
+  }
+
+  public SafetySupervisor(Config config) {
+    this.config = config;
+  }
+
+  public Config getConfig() {
+    return config;
+  }
+
+  public synchronized void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  public synchronized boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Updates the distance to the obstacle in front.
+   *
+   * @return true if the limit of the last applied control changed and it must be sent again.
+   */
+  public synchronized boolean onSonar(float distanceCm, long nowNanos) {
+    sonarDistanceCm = distanceCm;
+    return needsOverride(nowNanos);
+  }
+
+  /**
+   * Handles a bumper message of the firmware, e.g. "lf" for the left front bumper or "bb" for both
+   * back bumpers. Unknown bumpers block both directions.
+   *
+   * @return true if the limit of the last applied control changed and it must be sent again.
+   */
+  public synchronized boolean onBumper(String bumper, long nowNanos) {
+    final long until = nowNanos + TimeUnit.MILLISECONDS.toNanos(config.bumperHoldMs);
+    final boolean front = bumper.endsWith("f");
+    final boolean back = bumper.endsWith("b");
+    if (front || !back) frontBlockedUntilNanos = until;
+    if (back || !front) backBlockedUntilNanos = until;
+    hasBumped = true;
+    return needsOverride(nowNanos);
+  }
+
+  private boolean needsOverride(long nowNanos) {
+    if (!enabled) return false;
+    final int left = leftOutput;
+    final int right = rightOutput;
+    limit(requestedLeft, requestedRight, nowNanos);
+    final boolean override = leftOutput != left || rightOutput != right;
+    if (override && leftOutput == 0 && rightOutput == 0) numStops++;
+    return override;
+  }
+
+  /** Limits the control for the current readings; read the result with the output getters. */
+  public synchronized void apply(int left, int right, long nowNanos) {
+    requestedLeft = left;
+    requestedRight = right;
+    if (!enabled) {
+      leftOutput = left;
+      rightOutput = right;
+      return;
+    }
+    limit(left, right, nowNanos);
+    if (leftOutput != left || rightOutput != right) numLimited++;
+  }
+
+  private void limit(int left, int right, long nowNanos) {
+    final int forward = left + right;
+    float factor = 1;
+    if (forward > 0) {
+      if (hasBumped && nowNanos - frontBlockedUntilNanos < 0) factor = 0;
+      else factor = getForwardFactor();
+    } else if (forward < 0 && hasBumped && nowNanos - backBlockedUntilNanos < 0) {
+      factor = 0;
+    }
+    leftOutput = Math.round(left * factor);
+    rightOutput = Math.round(right * factor);
+  }
+
+  private float getForwardFactor() {
+    final float distance = sonarDistanceCm;
+    if (distance <= config.stopDistanceCm) return 0;
+    if (config.braking == BrakingProfile.STOP || distance >= config.slowDistanceCm) return 1;
+    return (distance - config.stopDistanceCm) / (config.slowDistanceCm - config.stopDistanceCm);
+  }
+
+  public synchronized int getLeftOutput() {
+    return leftOutput;
+  }
+
+  public synchronized int getRightOutput() {
+    return rightOutput;
+  }
+
+  /** Number of times a reading stopped the vehicle. */
+  public synchronized long getNumStops() {
+    return numStops;
+  }
+
+  /** Number of controls that were reduced when they were applied. */
+  public synchronized long getNumLimited() {
+    return numLimited;
+  }
+
+  /** Time from the reading that stopped the vehicle until the stop was written to it. */
+  public LatencyHistogram getStopLatency() {
+    return stopLatency;
+  }
+}
@@ -0,0 +1,209 @@
+package org.openbot.vehicle;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Splits the bytes read from the vehicle into messages, one per line.
+ *
+ * <p>The bytes are copied into a ring buffer and every byte is scanned once, no matter how the
+ * stream is split into chunks. Voltage, sonar and wheel odometry readings are parsed in place and
+ * passed to the {@link Listener} as numbers, so the periodic sensor messages do not allocate. All
+ * other messages, and sensor messages whose value is not a plain decimal number, are passed on as
+ * trimmed strings. Lines that do not fit into the buffer are dropped.
+ *
+ * <p>The parser is not thread-safe; it is fed from the read thread of the serial device.
+ */
+public class SerialMessageParser {
+
+  /** Receives the parsed messages on the thread that feeds the parser. */
+  public interface Listener {
+    /** Battery voltage in volts, sent as {@code v<volts>}. */
+    void onVoltage(float volts);
+
+    /** Sonar distance in cm, sent as {@code s<distance>}. */
+    void onSonar(float distance);
+
+    /** Wheel speed in rpm, sent as {@code w<left>,<right>}. */
+    void onWheelRpm(float left, float right);
+
+    /** Any other message, e.g. the vehicle configuration, without its line break. */
+    void onMessage(String message);
+  }
+
+  public static final int DEFAULT_CAPACITY = 1024;
+
+  private final Listener listener;
+  private final byte[] ring;
+  private final int mask;
+  private boolean forwardSensorMessages = false;
+
+  // Positions in the stream; the index into the ring is the position masked by its capacity.
+  private long lineStart = 0;
+  private long writePosition = 0;
+  private boolean dropping = false;
+
+  private long numMessages = 0;
+  private long numDroppedLines = 0;
+
+  // Results of parseNumber, so that it can return the end of the number and its value.
+  private float number;
+  private int numberEnd;
+
+  public SerialMessageParser(Listener listener) {
+    this(listener, DEFAULT_CAPACITY);
+  }
+
+  /** @param capacity Size of the ring buffer in bytes, rounded up to a power of two. */
+  public SerialMessageParser(Listener listener, int capacity) {
+    this.listener = listener;
+    int size = Integer.highestOneBit(Math.max(capacity, 16) - 1) << 1;
+    ring = new byte[size];
+    mask = size - 1;
+  }
+
+  /**
+   * Also passes the voltage, sonar and wheel messages to {@link Listener#onMessage} after they have
+   * been parsed, for receivers that still need the text.
+   */
+  public void setForwardSensorMessages(boolean forwardSensorMessages) {
+    this.forwardSensorMessages = forwardSensorMessages;
+  }
+
+  public void feed(byte[] data) {
+    feed(data, 0, data.length);
+  }
+
+  public void feed(byte[] data, int offset, int count) {
+    while (count > 0) {
+      if (writePosition - lineStart == ring.length) {
+        // The current line fills the whole buffer; drop it up to its line break.
+        dropping = true;
+        lineStart = writePosition;
+      }
+      final int index = (int) (writePosition & mask);
+      final int free = ring.length - (int) (writePosition - lineStart);
+      final int n = Math.min(count, Math.min(free, ring.length - index));
+      System.arraycopy(data, offset, ring, index, n);
+      offset += n;
+      count -= n;
+
+      final long end = writePosition + n;
+      for (long position = writePosition; position < end; position++) {
+        if (ring[(int) (position & mask)] == '\n') {
+          if (dropping) {
+            dropping = false;
+            numDroppedLines++;
+          } else {
+            dispatch(lineStart, position);
+          }
+          lineStart = position + 1;
+        }
+      }
+      writePosition = end;
+    }
+  }
+
+  private byte at(long position) {
+    return ring[(int) (position & mask)];
+  }
+
+  /** Parses the line between {@code start} and the line break at {@code end}. */
+  private void dispatch(long start, long end) {
+    while (start < end && (at(start) & 0xFF) <= ' ') start++;
+    while (end > start && (at(end - 1) & 0xFF) <= ' ') end--;
+    if (start == end) return;
+    numMessages++;
+
+    // Offsets relative to the start of the line, the ring is indexed through at().
+    final int length = (int) (end - start);
+    boolean parsed = false;
+    switch (at(start)) {
+      case 'v':
+        if (parseNumber(start, 1, length) && numberEnd == length) {
+          listener.onVoltage(number);
+          parsed = true;
+        }
+        break;
+      case 's':
+        if (parseNumber(start, 1, length) && numberEnd == length) {
+          listener.onSonar(number);
+          parsed = true;
+        }
+        break;
+      case 'w':
+        if (parseNumber(start, 1, length) && numberEnd < length && at(start + numberEnd) == ',') {
+          final float left = number;
+          if (parseNumber(start, numberEnd + 1, length) && numberEnd == length) {
+            listener.onWheelRpm(left, number);
+            parsed = true;
+          }
+        }
+        break;
+    }
+    if (!parsed || forwardSensorMessages) listener.onMessage(toString(start, length));
+  }
+
+  /**
+   * Parses a decimal number with an optional sign and fraction, as printed by the firmware, from
+   * {@code from} up to the first character that is not part of it.
+   *
+   * @return false if there is no digit; otherwise the value is in {@link #number} and the end
+   *     offset in {@link #numberEnd}.
+   */
+  private boolean parseNumber(long line, int from, int to) {
+    int i = from;
+    boolean negative = false;
+    if (i < to && (at(line + i) == '-' || at(line + i) == '+')) {
+      negative = at(line + i) == '-';
+      i++;
+    }
+    long mantissa = 0;
+    int scale = 0;
+    int digits = 0;
+    boolean fraction = false;
+    for (; i < to; i++) {
+      final byte c = at(line + i);
+      if (c >= '0' && c <= '9') {
+        // Digits beyond the precision of a float do not change the result.
+        if (digits < 18) {
+          mantissa = mantissa * 10 + (c - '0');
+          digits++;
+          if (fraction) scale++;
+        } else if (!fraction) {
+          scale--;
+        }
+      } else if (c == '.' && !fraction) {
+        fraction = true;
+      } else {
+        break;
+      }
+    }
+    if (digits == 0) return false;
+    double value = mantissa;
+    if (scale > 0) value /= Math.pow(10, scale);
+    else if (scale < 0) value *= Math.pow(10, -scale);
+    number = (float) (negative ? -value : value);
+    numberEnd = i;
+    return true;
+  }
+
+  private String toString(long start, int length) {
+    final int index = (int) (start & mask);
+    if (index + length <= ring.length) return new String(ring, index, length, UTF_8);
+    final byte[] line = new byte[length];
+    final int first = ring.length - index;
+    System.arraycopy(ring, index, line, 0, first);
+    System.arraycopy(ring, 0, line, first, length - first);
+    return new String(line, UTF_8);
+  }
+
+  /** Number of non-empty lines passed to the listener. */
+  public long getNumMessages() {
+    return numMessages;
+  }
+
+  /** Number of lines dropped because they were longer than the buffer. */
+  public long getNumDroppedLines() {
+    return numDroppedLines;
+  }
+}
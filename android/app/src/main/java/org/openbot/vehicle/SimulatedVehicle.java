@@ -0,0 +1,428 @@
+package org.openbot.vehicle;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import org.openbot.utils.LatencyHistogram;
+
+/**
+ * A simulated vehicle that speaks the protocol of the firmware, for tests without a phone or an
+ * Arduino.
+ *
+ * <p>It accepts the text commands and the binary frames of the firmware and reports voltage, sonar
+ * and wheel odometry at the requested intervals. The motors follow the commands with a first order
+ * response scaled by the battery voltage, and the body moves as a differential drive in a square
+ * arena whose walls are seen by the sonar. Like the firmware, it stops the motors if the heartbeat
+ * times out.
+ *
+ * <p>Time only advances with {@link #advance}, so tests are deterministic. {@link #start} runs a
+ * thread that advances it in real time, like the read thread of a real connection. The messages of
+ * the vehicle are passed to the listener from the thread that advances the time, so {@link
+ * #advance} must not be called while it is started.
+ */
+public class SimulatedVehicle implements VehicleTransport {
+
+  /** Physical parameters of the simulated vehicle. */
+  public static class Config {
+    public String robotType = "SIM";
+    public float maxRpm = 200;
+    public float motorTimeConstantSeconds = 0.15f;
+    public float wheelDiameterMeters = 0.065f;
+    public float wheelBaseMeters = 0.15f;
+    public int ticksPerRevolution = 20;
+    public float fullVoltage = 12.6f;
+    public float emptyVoltage = 9.0f;
+    public float minMotorVoltage = 2.5f;
+    /** Voltage lost per second at full command on both motors. */
+    public float dischargeVoltsPerSecond = 0.002f;
+    /** Voltage drop under full load, recovered when the motors stop. */
+    public float sagVolts = 0.4f;
+    /** Half of the side length of the square arena. */
+    public float arenaHalfSizeMeters = 2;
+
+    public int maxSonarDistanceCm = 300;
+    public long stepMillis = 5;
+  }
+
+  private final Config config;
+  private final SerialMessageParser parser;
+  private volatile SerialMessageParser.Listener listener;
+  private final BinaryProtocol.Decoder decoder = new BinaryProtocol.Decoder(this::onFrame);
+  private final StringBuilder textCommand = new StringBuilder();
+  private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+  private final LatencyHistogram controlInterval = new LatencyHistogram("control interval");
+
+  // Firmware state, guarded by this.
+  private long timeNanos = 0;
+  private int ctrlLeft = 0;
+  private int ctrlRight = 0;
+  private int indicatorLeft = 0;
+  private int indicatorRight = 0;
+  private long heartbeatIntervalMs = -1;
+  private long heartbeatTimeNanos = 0;
+  private long voltageIntervalMs = 1000;
+  private long sonarIntervalMs = 1000;
+  private long wheelIntervalMs = 1000;
+  private long voltageTimeNanos = 0;
+  private long sonarTimeNanos = 0;
+  private long wheelTimeNanos = 0;
+  private long lastControlNanos = 0;
+  private long numCommands = 0;
+  private long numControls = 0;
+  private long numParseErrors = 0;
+  private long numBytesIn = 0;
+  private long numBytesOut = 0;
+
+  // Physical state, guarded by this.
+  private double rpmLeft = 0;
+  private double rpmRight = 0;
+  private double ticksLeft = 0;
+  private double ticksRight = 0;
+  private double x = 0;
+  private double y = 0;
+  private double heading = 0;
+  private double openCircuitVoltage;
+
+  private volatile boolean running;
+  private Thread thread;
+
+  public SimulatedVehicle() {
+    this(new Config());
+  }
+
+  public SimulatedVehicle(Config config) {
+    this.config = config;
+    openCircuitVoltage = config.fullVoltage;
+    parser =
+        new SerialMessageParser(
+            new SerialMessageParser.Listener() {
+              @Override
+              public void onVoltage(float volts) {
+                final SerialMessageParser.Listener l = listener;
+                if (l != null) l.onVoltage(volts);
+              }
+
+              @Override
+              public void onSonar(float distance) {
+                final SerialMessageParser.Listener l = listener;
+                if (l != null) l.onSonar(distance);
+              }
+
+              @Override
+              public void onWheelRpm(float left, float right) {
+                final SerialMessageParser.Listener l = listener;
+                if (l != null) l.onWheelRpm(left, right);
+              }
+
+              @Override
+              public void onMessage(String message) {
+                final SerialMessageParser.Listener l = listener;
+                if (l != null) l.onMessage(message);
+              }
+            });
+  }
+
+  @Override
+  public void setListener(SerialMessageParser.Listener listener) {
+    this.listener = listener;
+  }
+
+  /** Starts advancing the time in real time on a separate thread. */
+  @Override
+  public synchronized boolean start() {
+    if (running) return true;
+    running = true;
+    println("r");
+    thread = new Thread(this::loop, "SimulatedVehicle");
+    thread.start();
+    return true;
+  }
+
+  @Override
+  public void stop() {
+    final Thread t;
+    synchronized (this) {
+      running = false;
+      t = thread;
+      thread = null;
+    }
+    if (t == null) return;
+    t.interrupt();
+    try {
+      t.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void loop() {
+    final long step = TimeUnit.MILLISECONDS.toNanos(config.stepMillis);
+    long last = System.nanoTime();
+    while (running) {
+      try {
+        Thread.sleep(config.stepMillis);
+      } catch (InterruptedException e) {
+        break;
+      }
+      final long now = System.nanoTime();
+      // Catch up in fixed steps, so that the physics do not depend on the scheduling.
+      while (now - last >= step) {
+        advance(step);
+        last += step;
+      }
+    }
+  }
+
+  @Override
+  public boolean isOpen() {
+    return running;
+  }
+
+  @Override
+  public synchronized boolean send(byte[] data) {
+    numBytesIn += data.length;
+    for (byte b : data) {
+      if (decoder.isInFrame() || (textCommand.length() == 0 && (b & 0xFF) == BinaryProtocol.SYNC)) {
+        decoder.feed(b);
+      } else if (b == '\n') {
+        onTextCommand(textCommand.toString().trim());
+        textCommand.setLength(0);
+      } else {
+        textCommand.append((char) b);
+      }
+    }
+    return true;
+  }
+
+  private void onTextCommand(String command) {
+    if (command.isEmpty()) return;
+    final String[] values = command.substring(1).split(",");
+    final int first;
+    final int second;
+    try {
+      first = values[0].isEmpty() ? 0 : Integer.parseInt(values[0]);
+      second = values.length > 1 ? Integer.parseInt(values[1]) : 0;
+    } catch (NumberFormatException e) {
+      numParseErrors++;
+      return;
+    }
+    onCommand(command.charAt(0), first, second, first);
+  }
+
+  private void onFrame(byte type, int payload) {
+    onCommand((char) type, BinaryProtocol.first(payload), BinaryProtocol.second(payload), payload);
+  }
+
+  private void onCommand(char type, int first, int second, int value) {
+    numCommands++;
+    switch (type) {
+      case 'c':
+        if (numControls++ > 0) controlInterval.record(System.nanoTime() - lastControlNanos);
+        lastControlNanos = System.nanoTime();
+        ctrlLeft = Math.max(-255, Math.min(255, first));
+        ctrlRight = Math.max(-255, Math.min(255, second));
+        break;
+      case 'i':
+        indicatorLeft = first;
+        indicatorRight = second;
+        break;
+      case 'h':
+        heartbeatIntervalMs = value;
+        heartbeatTimeNanos = timeNanos;
+        break;
+      case 'v':
+        voltageIntervalMs = value;
+        break;
+      case 's':
+        sonarIntervalMs = value;
+        break;
+      case 'w':
+        wheelIntervalMs = value;
+        break;
+      case 'f':
+        println("f" + config.robotType + ":v:i:s:wf:wb:bp:");
+        println(String.format(Locale.US, "vmin:%.2f", config.minMotorVoltage));
+        println(String.format(Locale.US, "vlow:%.2f", config.emptyVoltage));
+        println(String.format(Locale.US, "vmax:%.2f", config.fullVoltage));
+        break;
+      default:
+        break;
+    }
+  }
+
+  private void println(String message) {
+    final byte[] bytes = (message + "\r\n").getBytes(US_ASCII);
+    output.write(bytes, 0, bytes.length);
+  }
+
+  /** Advances the simulation and passes the messages sent meanwhile to the listener. */
+  public void advance(long nanos) {
+    final byte[] messages;
+    synchronized (this) {
+      step(nanos * 1e-9);
+      timeNanos += nanos;
+      report();
+      messages = output.toByteArray();
+      output.reset();
+      numBytesOut += messages.length;
+    }
+    if (messages.length > 0) parser.feed(messages);
+  }
+
+  private void step(double dt) {
+    if (heartbeatIntervalMs >= 0
+        && timeNanos - heartbeatTimeNanos >= TimeUnit.MILLISECONDS.toNanos(heartbeatIntervalMs)) {
+      ctrlLeft = 0;
+      ctrlRight = 0;
+    }
+    final double load = (Math.abs(ctrlLeft) + Math.abs(ctrlRight)) / 510.0;
+    openCircuitVoltage =
+        Math.max(
+            config.emptyVoltage, openCircuitVoltage - config.dischargeVoltsPerSecond * load * dt);
+    final double voltageFactor = getVoltage() / config.fullVoltage;
+
+    final double alpha = 1 - Math.exp(-dt / config.motorTimeConstantSeconds);
+    rpmLeft += (ctrlLeft / 255.0 * config.maxRpm * voltageFactor - rpmLeft) * alpha;
+    rpmRight += (ctrlRight / 255.0 * config.maxRpm * voltageFactor - rpmRight) * alpha;
+    ticksLeft += rpmLeft / 60 * dt * config.ticksPerRevolution;
+    ticksRight += rpmRight / 60 * dt * config.ticksPerRevolution;
+
+    final double circumference = Math.PI * config.wheelDiameterMeters;
+    final double left = rpmLeft / 60 * circumference;
+    final double right = rpmRight / 60 * circumference;
+    final double limit = config.arenaHalfSizeMeters;
+    heading += (right - left) / config.wheelBaseMeters * dt;
+    x = Math.max(-limit, Math.min(limit, x + (left + right) / 2 * Math.cos(heading) * dt));
+    y = Math.max(-limit, Math.min(limit, y + (left + right) / 2 * Math.sin(heading) * dt));
+  }
+
+  private void report() {
+    if (isDue(voltageTimeNanos, voltageIntervalMs)) {
+      voltageTimeNanos = timeNanos;
+      println(String.format(Locale.US, "v%.2f", getVoltage()));
+    }
+    if (isDue(sonarTimeNanos, sonarIntervalMs)) {
+      sonarTimeNanos = timeNanos;
+      println("s" + getSonarDistanceCm());
+    }
+    if (isDue(wheelTimeNanos, wheelIntervalMs)) {
+      final double seconds = (timeNanos - wheelTimeNanos) * 1e-9;
+      wheelTimeNanos = timeNanos;
+      // Whole ticks only, like the counters of the firmware.
+      final long left = (long) ticksLeft;
+      final long right = (long) ticksRight;
+      ticksLeft -= left;
+      ticksRight -= right;
+      final double factor = 60.0 / seconds / config.ticksPerRevolution;
+      println(String.format(Locale.US, "w%.0f,%.0f", left * factor, right * factor));
+    }
+  }
+
+  private boolean isDue(long lastNanos, long intervalMs) {
+    return intervalMs > 0 && timeNanos - lastNanos >= TimeUnit.MILLISECONDS.toNanos(intervalMs);
+  }
+
+  /** Distance to the arena wall ahead, up to the range of the sonar. */
+  private int getSonarDistanceCm() {
+    final double limit = config.arenaHalfSizeMeters;
+    final double dx = Math.cos(heading);
+    final double dy = Math.sin(heading);
+    double distance = Double.MAX_VALUE;
+    if (dx > 1e-9) distance = Math.min(distance, (limit - x) / dx);
+    if (dx < -1e-9) distance = Math.min(distance, (-limit - x) / dx);
+    if (dy > 1e-9) distance = Math.min(distance, (limit - y) / dy);
+    if (dy < -1e-9) distance = Math.min(distance, (-limit - y) / dy);
+    return (int) Math.min(config.maxSonarDistanceCm, distance * 100);
+  }
+
+  public synchronized float getVoltage() {
+    final double load = (Math.abs(ctrlLeft) + Math.abs(ctrlRight)) / 510.0;
+    return (float) (openCircuitVoltage - config.sagVolts * load);
+  }
+
+  public synchronized int getCtrlLeft() {
+    return ctrlLeft;
+  }
+
+  public synchronized int getCtrlRight() {
+    return ctrlRight;
+  }
+
+  public synchronized int getIndicatorLeft() {
+    return indicatorLeft;
+  }
+
+  public synchronized int getIndicatorRight() {
+    return indicatorRight;
+  }
+
+  public synchronized float getLeftRpm() {
+    return (float) rpmLeft;
+  }
+
+  public synchronized float getRightRpm() {
+    return (float) rpmRight;
+  }
+
+  public synchronized double getX() {
+    return x;
+  }
+
+  public synchronized double getY() {
+    return y;
+  }
+
+  public synchronized double getHeading() {
+    return heading;
+  }
+
+  /** Simulated time in nanoseconds since the start. */
+  public synchronized long getTimeNanos() {
+    return timeNanos;
+  }
+
+  /** Number of commands received, text and binary. */
+  public synchronized long getNumCommands() {
+    return numCommands;
+  }
+
+  public synchronized long getNumControls() {
+    return numControls;
+  }
+
+  /** Number of text commands whose values are not numbers; they are ignored. */
+  public synchronized long getNumParseErrors() {
+    return numParseErrors;
+  }
+
+  /** Heartbeat timeout in ms last set by the app, or -1 if none was received. */
+  public synchronized long getHeartbeatInterval() {
+    return heartbeatIntervalMs;
+  }
+
+  @Override
+  public synchronized long getNumBytesSent() {
+    return numBytesIn;
+  }
+
+  @Override
+  public synchronized long getNumBytesReceived() {
+    return numBytesOut;
+  }
+
+  /** Current reporting intervals in ms of the voltage, the sonar and the wheel odometry. */
+  public synchronized long[] getReportIntervals() {
+    return new long[] {voltageIntervalMs, sonarIntervalMs, wheelIntervalMs};
+  }
+
+  public long getNumCrcErrors() {
+    return decoder.getNumCrcErrors();
+  }
+
+  /** Wall-clock time between two received controls. */
+  public LatencyHistogram getControlInterval() {
+    return controlInterval;
+  }
+}
@@ -0,0 +1,172 @@
+package org.openbot.vehicle;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chooses the intervals at which the firmware reports the voltage, the sonar and the wheel
+ * odometry.
+ *
+ * <p>The base intervals depend on the mode: autonomous modes react to obstacles and need fast sonar
+ * and odometry, manual driving keeps the rates the app always used, and an idle vehicle only needs
+ * slow updates for the display. The vehicle is idle when no control other than stop was sent for
+ * {@link #IDLE_TIMEOUT_MS}. On top, the policy measures the utilization of the serial link from the
+ * bytes sent and received. When the link is close to its capacity, all intervals are doubled, up to
+ * {@link #MAX_BACKOFF_LEVEL} times, and they come back one level at a time once the link has room
+ * again.
+ *
+ * <p>{@link #update} is called periodically, e.g. with the heartbeat, and tells which intervals
+ * must be sent to the firmware again.
+ */
+public class TelemetryPolicy {
+
+  public enum Channel {
+    VOLTAGE,
+    SONAR,
+    WHEELS
+  }
+
+  public enum Mode {
+    IDLE,
+    MANUAL,
+    AUTONOMOUS
+  }
+
+  /** Base intervals in ms, indexed by mode and channel. */
+  private static final int[][] INTERVALS_MS = {
+    {1000, 1000, 1000}, // IDLE
+    {250, 100, 500}, // MANUAL
+    {250, 50, 100} // AUTONOMOUS
+  };
+
+  public static final long IDLE_TIMEOUT_MS = 10_000;
+  public static final int MAX_BACKOFF_LEVEL = 3;
+  private static final float HIGH_UTILIZATION = 0.8f;
+  private static final float LOW_UTILIZATION = 0.4f;
+  private static final long MIN_BACKOFF_HOLD_NANOS = TimeUnit.SECONDS.toNanos(1);
+  // Time constant of the smoothed utilization, independent of how often update is called.
+  private static final float UTILIZATION_TIME_CONSTANT_SECONDS = 0.4f;
+
+  private final float bytesPerSecond;
+  private final int[] intervals = new int[Channel.values().length];
+
+  private volatile boolean autonomous = false;
+  private volatile long lastActiveNanos;
+
+  // Guarded by this.
+  private Mode mode = Mode.MANUAL;
+  private int backoffLevel = 0;
+  private long lastBackoffChangeNanos;
+  private boolean hasSample = false;
+  private long lastUpdateNanos;
+  private long lastBytesSent;
+  private long lastBytesReceived;
+  private float utilization = 0;
+
+  /**
+   * @param baudRate Baud rate of the serial link; with 8N1 framing every byte takes 10 bits.
+   * @param nowNanos Current time, the vehicle counts as active until the idle timeout.
+   */
+  public TelemetryPolicy(int baudRate, long nowNanos) {
+    bytesPerSecond = baudRate / 10f;
+    lastActiveNanos = nowNanos;
+    computeIntervals();
+  }
+
+  /** Autonomous modes get the fastest rates, also while they stand still. */
+  public void setAutonomous(boolean autonomous) {
+    this.autonomous = autonomous;
+  }
+
+  public boolean isAutonomous() {
+    return autonomous;
+  }
+
+  /** Records a control sent to the vehicle; any control other than stop keeps it active. */
+  public void onControl(int left, int right, long nowNanos) {
+    if (left != 0 || right != 0) lastActiveNanos = nowNanos;
+  }
+
+  /**
+   * Updates the mode and the link utilization.
+   *
+   * @param bytesSent Total number of bytes written to the vehicle so far.
+   * @param bytesReceived Total number of bytes read from the vehicle so far.
+   * @return true if any interval changed.
+   */
+  public synchronized boolean update(long nowNanos, long bytesSent, long bytesReceived) {
+    if (hasSample && nowNanos > lastUpdateNanos) {
+      final float seconds = (nowNanos - lastUpdateNanos) * 1e-9f;
+      // The link is full duplex, the busier direction limits it.
+      final long bytes = Math.max(bytesSent - lastBytesSent, bytesReceived - lastBytesReceived);
+      final float alpha = 1 - (float) Math.exp(-seconds / UTILIZATION_TIME_CONSTANT_SECONDS);
+      utilization += (bytes / seconds / bytesPerSecond - utilization) * alpha;
+    }
+    hasSample = true;
+    lastUpdateNanos = nowNanos;
+    lastBytesSent = bytesSent;
+    lastBytesReceived = bytesReceived;
+
+    final int previousBackoffLevel = backoffLevel;
+    if (nowNanos - lastBackoffChangeNanos >= MIN_BACKOFF_HOLD_NANOS) {
+      if (utilization > HIGH_UTILIZATION && backoffLevel < MAX_BACKOFF_LEVEL) {
+        backoffLevel++;
+      } else if (utilization < LOW_UTILIZATION && backoffLevel > 0) {
+        backoffLevel--;
+      }
+      if (backoffLevel != previousBackoffLevel) lastBackoffChangeNanos = nowNanos;
+    }
+
+    final Mode previousMode = mode;
+    if (autonomous) mode = Mode.AUTONOMOUS;
+    else if (nowNanos - lastActiveNanos > TimeUnit.MILLISECONDS.toNanos(IDLE_TIMEOUT_MS)) {
+      mode = Mode.IDLE;
+    } else mode = Mode.MANUAL;
+
+    if (mode == previousMode && backoffLevel == previousBackoffLevel) return false;
+    computeIntervals();
+    return true;
+  }
+
+  private void computeIntervals() {
+    for (Channel channel : Channel.values()) {
+      intervals[channel.ordinal()] =
+          INTERVALS_MS[mode.ordinal()][channel.ordinal()] << backoffLevel;
+    }
+  }
+
+  /** Interval in ms at which the firmware should report the channel. */
+  public synchronized int getInterval(Channel channel) {
+    return intervals[channel.ordinal()];
+  }
+
+  public synchronized float getRateHz(Channel channel) {
+    return 1000f / intervals[channel.ordinal()];
+  }
+
+  public synchronized Mode getMode() {
+    return mode;
+  }
+
+  /** Smoothed fraction of the capacity of the serial link in use. */
+  public synchronized float getLinkUtilization() {
+    return utilization;
+  }
+
+  /** Number of times the intervals are doubled because of the load of the link. */
+  public synchronized int getBackoffLevel() {
+    return backoffLevel;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format(
+        Locale.US,
+        "%s, link %.0f%%, voltage %.1f Hz, sonar %.1f Hz, wheels %.1f Hz",
+        mode,
+        utilization * 100,
+        getRateHz(Channel.VOLTAGE),
+        getRateHz(Channel.SONAR),
+        getRateHz(Channel.WHEELS));
+  }
+}
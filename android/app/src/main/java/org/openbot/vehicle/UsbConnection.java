@@ -12,18 +12,16 @@ import android.content.IntentFilter;
 import android.hardware.usb.UsbDevice;
 import android.hardware.usb.UsbDeviceConnection;
 import android.hardware.usb.UsbManager;
-import android.os.AsyncTask;
 import android.os.Build;
 import android.widget.Toast;
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 import com.felhr.usbserial.UsbSerialDevice;
 import com.felhr.usbserial.UsbSerialInterface;
-import java.io.UnsupportedEncodingException;
 import java.util.Map;
 import org.openbot.env.Logger;
 import org.openbot.utils.Constants;
 
-public class UsbConnection {
+public class UsbConnection implements VehicleTransport {
   private static final int USB_VENDOR_ID = 6790; // 0x2341; // 9025
   private static final int USB_PRODUCT_ID = 29987; // 0x0001;
   private static final Logger LOGGER = new Logger();
@@ -36,10 +34,13 @@ public class UsbConnection {
   private UsbDeviceConnection connection;
   private UsbSerialDevice serialDevice;
   private final LocalBroadcastManager localBroadcastManager;
-  private String buffer = "";
+  private final SerialMessageParser parser;
   private final Context context;
   private final int baudRate;
-  private boolean busy;
+  private volatile boolean busy;
+  // Each is only written by one thread, the control scheduler or the read thread.
+  private volatile long numBytesSent = 0;
+  private volatile long numBytesReceived = 0;
   private int vendorId;
   private int productId;
   private String productName;
@@ -49,6 +50,7 @@ public class UsbConnection {
   public UsbConnection(Context context, int baudRate) {
     this.context = context;
     this.baudRate = baudRate;
+    parser = new SerialMessageParser(messageListener);
     localBroadcastManager = LocalBroadcastManager.getInstance(this.context);
     usbManager = (UsbManager) context.getSystemService(Context.USB_SERVICE);
     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
@@ -61,20 +63,40 @@ public class UsbConnection {
     }
   }
 
+  private volatile SerialMessageParser.Listener sensorListener;
+
+  // Passes the readings to the sensor listener. Only the other messages, e.g. the vehicle
+  // configuration, are broadcast as text.
+  private final SerialMessageParser.Listener messageListener =
+      new SerialMessageParser.Listener() {
+        @Override
+        public void onVoltage(float volts) {
+          if (sensorListener != null) sensorListener.onVoltage(volts);
+        }
+
+        @Override
+        public void onSonar(float distance) {
+          if (sensorListener != null) sensorListener.onSonar(distance);
+        }
+
+        @Override
+        public void onWheelRpm(float left, float right) {
+          if (sensorListener != null) sensorListener.onWheelRpm(left, right);
+        }
+
+        @Override
+        public void onMessage(String message) {
+          if (sensorListener != null) sensorListener.onMessage(message);
+          onSerialDataReceived(message);
+        }
+      };
+
+  // Called on the read thread of the serial device, which is never used concurrently.
   private final UsbSerialInterface.UsbReadCallback callback =
       data -> {
-        try {
-          String dataUtf8 = new String(data, "UTF-8");
-          buffer += dataUtf8;
-          int index;
-          while ((index = buffer.indexOf('\n')) != -1) {
-            final String dataStr = buffer.substring(0, index).trim();
-            buffer = buffer.length() == index ? "" : buffer.substring(index + 1);
-
-            AsyncTask.execute(() -> onSerialDataReceived(dataStr));
-          }
-        } catch (UnsupportedEncodingException e) {
-          LOGGER.e("Error receiving USB data");
+        if (data != null) {
+          numBytesReceived += data.length;
+          parser.feed(data);
         }
       };
 
@@ -109,6 +131,25 @@ public class UsbConnection {
         }
       };
 
+  /**
+   * Receives the readings and the other messages on the USB read thread. Messages other than
+   * readings are then broadcast with {@link Constants#USB_ACTION_DATA_RECEIVED}.
+   */
+  @Override
+  public void setListener(SerialMessageParser.Listener listener) {
+    sensorListener = listener;
+  }
+
+  @Override
+  public boolean start() {
+    return startUsbConnection();
+  }
+
+  @Override
+  public void stop() {
+    stopUsbConnection();
+  }
+
   public boolean startUsbConnection() {
     IntentFilter localIntentFilter = new IntentFilter();
     localIntentFilter.addAction(UsbManager.ACTION_USB_DEVICE_DETACHED);
@@ -197,14 +238,34 @@ public class UsbConnection {
     }
   }
 
-  public void send(String msg) {
+  public boolean send(String msg) {
+    return send(msg.getBytes(UTF_8));
+  }
+
+  /** @return false if the connection is closed or busy and the data was dropped. */
+  @Override
+  public boolean send(byte[] data) {
     if (isOpen() && !isBusy()) {
       busy = true;
-      serialDevice.write(msg.getBytes(UTF_8));
+      serialDevice.write(data);
       busy = false;
+      numBytesSent += data.length;
+      return true;
     }
+    return false;
+  }
+
+  @Override
+  public long getNumBytesSent() {
+    return numBytesSent;
+  }
+
+  @Override
+  public long getNumBytesReceived() {
+    return numBytesReceived;
   }
 
+  @Override
   public boolean isOpen() {
     return connection != null;
   }
@@ -1,32 +1,75 @@
 package org.openbot.vehicle;
 
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
 import android.content.Context;
-import java.util.Locale;
-import java.util.Timer;
-import java.util.TimerTask;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.SystemClock;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 import org.openbot.env.GameController;
-import org.openbot.env.SensorReading;
+import org.openbot.env.TelemetryChannel;
 import org.openbot.utils.Enums;
+import org.openbot.utils.LatencyHistogram;
+import org.openbot.utils.Metrics;
+import org.openbot.utils.SharedScheduler;
 
 public class Vehicle {
 
+  /**
+   * Receives the sensor readings as numbers on the thread that reads them from the vehicle, after
+   * they have been recorded in the telemetry channels. The timestamps are those of the channels,
+   * see {@link SystemClock#elapsedRealtimeNanos()}.
+   */
+  public interface ReadingListener {
+    void onVoltage(long timestampNanos, float volts);
+
+    void onSonar(long timestampNanos, float distance);
+
+    void onWheelRpm(long timestampNanos, float left, float right);
+  }
+
   private final Noise noise = new Noise(1000, 2000, 5000);
-  private boolean noiseEnabled = false;
+  private volatile boolean noiseEnabled = false;
 
   private int indicator = 0;
   private int speedMultiplier = 192; // 128,192,255
   private Control control = new Control(0, 0);
 
-  private final SensorReading batteryVoltage = new SensorReading();
-  private final SensorReading leftWheelRpm = new SensorReading();
-  private final SensorReading rightWheelRpm = new SensorReading();
-  private final SensorReading sonarReading = new SensorReading();
+  // Written on the USB read thread, read on the UI and inference threads.
+  private static final int TELEMETRY_HISTORY_SIZE = 64;
+  private final TelemetryChannel batteryVoltage =
+      new TelemetryChannel("voltage", TELEMETRY_HISTORY_SIZE);
+  private final TelemetryChannel wheelRpm = new TelemetryChannel("wheels", TELEMETRY_HISTORY_SIZE);
+  private final TelemetryChannel sonarReading =
+      new TelemetryChannel("sonar", TELEMETRY_HISTORY_SIZE);
+  private final CopyOnWriteArrayList<ReadingListener> readingListeners =
+      new CopyOnWriteArrayList<>();
 
   private float minMotorVoltage = 2.5f;
   private float lowBatteryVoltage = 9.0f;
   private float maxBatteryVoltage = 12.6f;
 
   private UsbConnection usbConnection;
+  // The USB connection or a simulated vehicle.
+  private VehicleTransport transport;
+  private ControlScheduler controlScheduler;
+  private int controlRateHz = ControlScheduler.DEFAULT_RATE_HZ;
+  private final TelemetryPolicy telemetryPolicy;
+  private final SafetySupervisor safetySupervisor = new SafetySupervisor();
+  // Null while the controls are sent open loop.
+  private volatile WheelSpeedController speedController;
+
+  // Geometry of the DIY body, used to turn the wheel speeds into a pose.
+  private static final double WHEEL_DIAMETER_M = 0.065;
+  private static final double WHEEL_BASE_M = 0.15;
+  private final PoseEstimator poseEstimator = new PoseEstimator(WHEEL_DIAMETER_M, WHEEL_BASE_M);
+  // Interval over which the firmware averages the wheel speeds, its default until one is sent.
+  private volatile int wheelOdometryIntervalMs = 1000;
+  private SensorEventListener gyroscopeListener;
   protected boolean usbConnected;
   private final Context context;
   private final int baudRate;
@@ -43,6 +86,9 @@ public class Vehicle {
   private boolean hasLedsStatus = false;
   private boolean isReady = false;
 
+  private final VehicleProtocol asciiProtocol = new AsciiProtocol();
+  private VehicleProtocol protocol = asciiProtocol;
+
   public float getMinMotorVoltage() {
     return minMotorVoltage;
   }
@@ -155,35 +201,51 @@ public class Vehicle {
     this.vehicleType = vehicleType;
   }
 
+  /** The protocol used for the commands, binary if the vehicle supports it. */
+  public VehicleProtocol getProtocol() {
+    return protocol;
+  }
+
+  private void setProtocol(VehicleProtocol protocol) {
+    this.protocol = protocol;
+    if (controlScheduler != null) controlScheduler.setProtocol(protocol);
+  }
+
   public void requestVehicleConfig() {
-    sendStringToUsb(String.format(Locale.US, "f\n"));
+    sendToUsb(AsciiProtocol.CONFIG_REQUEST.getBytes(US_ASCII));
   }
 
   public void processVehicleConfig(String message) {
 
     setVehicleType(message.split(":")[0]);
 
+    // Switch first, so that the commands below already use the binary frames.
+    setProtocol(
+        message.contains(":" + BinaryProtocol.FEATURE + ":")
+            ? new BinaryProtocol()
+            : asciiProtocol);
+
     if (message.contains(":v:")) {
       setHasVoltageDivider(true);
-      setVoltageFrequency(250);
+      setVoltageFrequency(telemetryPolicy.getInterval(TelemetryPolicy.Channel.VOLTAGE));
     }
     if (message.contains(":i:")) {
       setHasIndicators(true);
     }
     if (message.contains(":s:")) {
       setHasSonar(true);
-      setSonarFrequency(100);
+      setSonarFrequency(telemetryPolicy.getInterval(TelemetryPolicy.Channel.SONAR));
     }
     if (message.contains(":b:")) {
       setHasBumpSensor(true);
     }
     if (message.contains(":wf:")) {
       setHasWheelOdometryFront(true);
-      setWheelOdometryFrequency(500);
+      setWheelOdometryFrequency(getWheelOdometryInterval());
     }
     if (message.contains(":wb:")) {
       setHasWheelOdometryBack(true);
-      setWheelOdometryFrequency(500);
+      setWheelOdometryFrequency(getWheelOdometryInterval());
     }
     if (message.contains(":lf:")) {
       setHasLedsFront(true);
@@ -198,43 +260,70 @@ public class Vehicle {
 
   protected Enums.DriveMode driveMode = Enums.DriveMode.GAME;
   private final GameController gameController;
-  private Timer heartbeatTimer;
+  private SharedScheduler.Task heartbeatTask;
+  private static final int HEARTBEAT_INTERVAL_MS = 250;
+  // The firmware stops the motors if no heartbeat arrives within this time.
+  private static final int HEARTBEAT_TIMEOUT_MS = 750;
+  private static final LatencyHistogram HEARTBEAT_LATENESS =
+      Metrics.histogram(Metrics.HEARTBEAT_LATENESS);
 
   public Vehicle(Context context, int baudRate) {
     this.context = context;
     this.baudRate = baudRate;
     gameController = new GameController(driveMode);
+    telemetryPolicy = new TelemetryPolicy(baudRate, SystemClock.elapsedRealtimeNanos());
+    // Manual driving is not limited unless the supervisor is enabled explicitly.
+    safetySupervisor.setEnabled(false);
   }
 
   public float getBatteryVoltage() {
-    return batteryVoltage.getReading();
+    return batteryVoltage.getFirst();
   }
 
   public int getBatteryPercentage() {
     return (int)
-        ((batteryVoltage.getReading() - lowBatteryVoltage)
+        ((batteryVoltage.getFirst() - lowBatteryVoltage)
             * 100
             / (maxBatteryVoltage - lowBatteryVoltage));
   }
 
   public void setBatteryVoltage(float batteryVoltage) {
-    this.batteryVoltage.setReading(batteryVoltage);
+    this.batteryVoltage.record(SystemClock.elapsedRealtimeNanos(), batteryVoltage);
   }
 
   public float getLeftWheelRpm() {
-    return leftWheelRpm.getReading();
+    return wheelRpm.getFirst();
   }
 
   public void setLeftWheelRpm(float leftWheelRpm) {
-    this.leftWheelRpm.setReading(leftWheelRpm);
+    wheelRpm.recordFirst(SystemClock.elapsedRealtimeNanos(), leftWheelRpm);
   }
 
   public float getRightWheelRpm() {
-    return rightWheelRpm.getReading();
+    return wheelRpm.getSecond();
   }
 
   public void setRightWheelRpm(float rightWheelRpm) {
-    this.rightWheelRpm.setReading(rightWheelRpm);
+    wheelRpm.recordSecond(SystemClock.elapsedRealtimeNanos(), rightWheelRpm);
+  }
+
+  /**
+   * Sets the speed of both sides as one sample, so that readers never see only one of them. The
+   * firmware reports the average speed since its previous report, so the sample is timestamped at
+   * the middle of the reporting interval, where the average is closest to the actual speed.
+   */
+  public void setWheelRpm(float leftWheelRpm, float rightWheelRpm) {
+    recordWheelRpm(leftWheelRpm, rightWheelRpm);
+  }
+
+  /** @return the timestamp of the sample, see {@link #setWheelRpm}. */
+  private long recordWheelRpm(float leftWheelRpm, float rightWheelRpm) {
+    final long timestamp =
+        SystemClock.elapsedRealtimeNanos()
+            - TimeUnit.MILLISECONDS.toNanos(wheelOdometryIntervalMs) / 2;
+    wheelRpm.record(timestamp, leftWheelRpm, rightWheelRpm);
+    poseEstimator.onWheelRpm(leftWheelRpm, rightWheelRpm, timestamp);
+    return timestamp;
   }
 
   public float getRotation() {
@@ -256,11 +345,76 @@ public class Vehicle {
   }
 
   public float getSonarReading() {
-    return sonarReading.getReading();
+    return sonarReading.getFirst();
   }
 
   public void setSonarReading(float sonarReading) {
-    this.sonarReading.setReading(sonarReading);
+    this.sonarReading.record(SystemClock.elapsedRealtimeNanos(), sonarReading);
+  }
+
+  /**
+   * Battery voltage samples, timestamped with {@link SystemClock#elapsedRealtimeNanos()} like the
+   * sensor logs.
+   */
+  public TelemetryChannel getBatteryVoltageTelemetry() {
+    return batteryVoltage;
+  }
+
+  /** Left and right wheel speed samples in rpm. */
+  public TelemetryChannel getWheelRpmTelemetry() {
+    return wheelRpm;
+  }
+
+  public TelemetryChannel getSonarTelemetry() {
+    return sonarReading;
+  }
+
+  public void addReadingListener(ReadingListener listener) {
+    readingListeners.add(listener);
+  }
+
+  public void removeReadingListener(ReadingListener listener) {
+    readingListeners.remove(listener);
+  }
+
+  /**
+   * Pose from the wheel odometry, refined with the gyroscope while {@link #startPoseTracking} is
+   * active. Needs the wheel odometry of the vehicle.
+   */
+  public PoseEstimator getPoseEstimator() {
+    return poseEstimator;
+  }
+
+  /**
+   * Feeds the yaw rate of the gyroscope to the pose estimator. The phone is expected in its holder,
+   * in landscape with the top to the left, where the x axis of the device points up.
+   */
+  public void startPoseTracking() {
+    if (gyroscopeListener != null) return;
+    final SensorManager sensorManager =
+        (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
+    final Sensor gyroscope = sensorManager.getDefaultSensor(Sensor.TYPE_GYROSCOPE);
+    if (gyroscope == null) return;
+    gyroscopeListener =
+        new SensorEventListener() {
+          @Override
+          public void onSensorChanged(SensorEvent event) {
+            // Sensor timestamps use the same clock as the telemetry.
+            poseEstimator.onYawRate(event.values[0], event.timestamp);
+          }
+
+          @Override
+          public void onAccuracyChanged(Sensor sensor, int accuracy) {}
+        };
+    sensorManager.registerListener(gyroscopeListener, gyroscope, SensorManager.SENSOR_DELAY_GAME);
+  }
+
+  public void stopPoseTracking() {
+    if (gyroscopeListener == null) return;
+    final SensorManager sensorManager =
+        (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
+    sensorManager.unregisterListener(gyroscopeListener);
+    gyroscopeListener = null;
   }
 
   public Control getControl() {
@@ -277,7 +431,7 @@ public class Vehicle {
     sendControl();
   }
 
-  private Timer noiseTimer;
+  private SharedScheduler.Task noiseTask;
 
   public void toggleNoise() {
     if (noiseEnabled) stopNoise();
@@ -301,24 +455,28 @@ public class Vehicle {
     return gameController;
   }
 
-  private class NoiseTask extends TimerTask {
-    @Override
-    public void run() {
-      noise.update();
-      sendControl();
-    }
-  }
-
-  public void startNoise() {
-    noiseTimer = new Timer();
-    NoiseTask noiseTask = new NoiseTask();
-    noiseTimer.schedule(noiseTask, 0, 50); // no delay 50ms intervals
+  public synchronized void startNoise() {
+    if (noiseTask != null) noiseTask.cancel();
+    noiseTask =
+        SharedScheduler.get()
+            .scheduleAtFixedRate(
+                "noise",
+                () -> {
+                  noise.update();
+                  sendControl();
+                },
+                0,
+                50,
+                null);
     noiseEnabled = true;
   }
 
-  public void stopNoise() {
+  public synchronized void stopNoise() {
     noiseEnabled = false;
-    noiseTimer.cancel();
+    if (noiseTask != null) {
+      noiseTask.cancel();
+      noiseTask = null;
+    }
     sendControl();
   }
 
@@ -338,47 +496,152 @@ public class Vehicle {
     this.indicator = indicator;
     switch (indicator) {
       case -1:
-        sendStringToUsb(String.format(Locale.US, "i1,0\n"));
+        sendToUsb(protocol.indicator(1, 0));
         break;
       case 0:
-        sendStringToUsb(String.format(Locale.US, "i0,0\n"));
+        sendToUsb(protocol.indicator(0, 0));
         break;
       case 1:
-        sendStringToUsb(String.format(Locale.US, "i0,1\n"));
+        sendToUsb(protocol.indicator(0, 1));
         break;
     }
   }
 
+  // Updates the readings on the USB read thread and passes them to the reading listeners.
+  private final SerialMessageParser.Listener sensorReadingListener =
+      new SerialMessageParser.Listener() {
+        @Override
+        public void onVoltage(float volts) {
+          final long timestamp = SystemClock.elapsedRealtimeNanos();
+          batteryVoltage.record(timestamp, volts);
+          for (ReadingListener listener : readingListeners) listener.onVoltage(timestamp, volts);
+        }
+
+        @Override
+        public void onSonar(float distance) {
+          final long timestamp = SystemClock.elapsedRealtimeNanos();
+          sonarReading.record(timestamp, distance);
+          if (safetySupervisor.onSonar(distance, timestamp)) {
+            sendControl(true);
+          }
+          for (ReadingListener listener : readingListeners) listener.onSonar(timestamp, distance);
+        }
+
+        @Override
+        public void onWheelRpm(float left, float right) {
+          final long timestamp = recordWheelRpm(left, right);
+          final WheelSpeedController controller = speedController;
+          if (controller != null && controlScheduler != null) {
+            controller.update(left, right);
+            controlScheduler.setControl(controller.getLeftOutput(), controller.getRightOutput());
+          }
+          for (ReadingListener listener : readingListeners) {
+            listener.onWheelRpm(timestamp, left, right);
+          }
+        }
+
+        @Override
+        public void onMessage(String message) {
+          if (message.charAt(0) == 'b'
+              && safetySupervisor.onBumper(
+                  message.substring(1), SystemClock.elapsedRealtimeNanos())) {
+            sendControl(true);
+          }
+        }
+      };
+
   public UsbConnection getUsbConnection() {
     return usbConnection;
   }
 
+  /** Commands are written by the control scheduler, which is running while connected. */
+  public ControlScheduler getControlScheduler() {
+    return controlScheduler;
+  }
+
+  public int getControlRate() {
+    return controlRateHz;
+  }
+
+  /** Sets the rate at which controls are written, in Hz, and restarts the scheduler if running. */
+  public void setControlRate(int controlRateHz) {
+    this.controlRateHz = controlRateHz;
+    if (controlScheduler != null) {
+      controlScheduler.stop();
+      startControlScheduler();
+    }
+  }
+
+  private void startControlScheduler() {
+    controlScheduler = new ControlScheduler(transport::send, controlRateHz);
+    controlScheduler.setProtocol(protocol);
+    controlScheduler.start();
+  }
+
   public void connectUsb() {
     if (usbConnection == null) usbConnection = new UsbConnection(context, baudRate);
-    usbConnected = usbConnection.startUsbConnection();
-    if (usbConnected) {
-      if (heartbeatTimer == null) {
-        startHeartbeat();
-      }
-    }
+    usbConnected = connect(usbConnection);
   }
 
   public void disconnectUsb() {
     if (usbConnection != null) {
-      stopBot();
-      stopHeartbeat();
-      usbConnection.stopUsbConnection();
+      disconnect();
       usbConnection = null;
       usbConnected = false;
     }
   }
 
+  /**
+   * Connects to the vehicle through the given transport and starts writing commands to it once it
+   * is open. Calling it again with the same transport restarts it, e.g. after the USB permission
+   * was granted.
+   *
+   * @return true if the transport is open.
+   */
+  public boolean connect(VehicleTransport transport) {
+    if (this.transport != transport) {
+      disconnect();
+      this.transport = transport;
+      transport.setListener(sensorReadingListener);
+    }
+    // A newly connected vehicle may not support binary frames until it sent its configuration.
+    setProtocol(asciiProtocol);
+    final boolean connected = transport.start();
+    if (connected) {
+      if (controlScheduler == null) startControlScheduler();
+      if (heartbeatTask == null) startHeartbeat();
+    } else if (controlScheduler != null) {
+      controlScheduler.stop();
+      controlScheduler = null;
+    }
+    return connected;
+  }
+
+  /** Stops the vehicle and closes the transport. */
+  public void disconnect() {
+    if (transport == null) return;
+    stopBot();
+    stopHeartbeat();
+    // Writes the stop control before the transport is closed.
+    if (controlScheduler != null) {
+      controlScheduler.stop();
+      controlScheduler = null;
+    }
+    transport.stop();
+    transport.setListener(null);
+    transport = null;
+  }
+
+  public VehicleTransport getTransport() {
+    return transport;
+  }
+
   public boolean isUsbConnected() {
     return usbConnected;
   }
 
-  private void sendStringToUsb(String message) {
-    if (usbConnection != null) usbConnection.send(message);
+  private void sendToUsb(byte[] message) {
+    if (controlScheduler != null) controlScheduler.send(message);
   }
 
   public float getLeftSpeed() {
@@ -392,10 +655,15 @@ public class Vehicle {
   public void sendLightIntensity(float frontPercent, float backPercent) {
     int front = (int) (frontPercent * 255.f);
     int back = (int) (backPercent * 255.f);
-    sendStringToUsb(String.format(Locale.US, "l%d,%d\n", front, back));
+    sendToUsb(protocol.light(front, back));
   }
 
   public void sendControl() {
+    sendControl(false);
+  }
+
+  /** @param now Writes the control right away instead of on the next tick of the scheduler. */
+  private void sendControl(boolean now) {
     int left = (int) (getLeftSpeed());
     int right = (int) (getRightSpeed());
     if (noiseEnabled && noise.getDirection() < 0)
@@ -406,53 +674,146 @@ public class Vehicle {
     // raw control value is used
     if (noiseEnabled && noise.getDirection() > 0)
       right = (int) ((control.getRight() - noise.getValue()) * speedMultiplier);
-    sendStringToUsb(String.format(Locale.US, "c%d,%d\n", left, right));
+    synchronized (safetySupervisor) {
+      safetySupervisor.apply(left, right, SystemClock.elapsedRealtimeNanos());
+      left = safetySupervisor.getLeftOutput();
+      right = safetySupervisor.getRightOutput();
+    }
+    final WheelSpeedController controller = speedController;
+    if (controller != null) {
+      // The command is the target speed that it would reach with a full battery.
+      final float kf = controller.getGains().kf;
+      controller.setTarget(left / kf, right / kf);
+      left = controller.getLeftOutput();
+      right = controller.getRightOutput();
+    }
+    telemetryPolicy.onControl(left, right, SystemClock.elapsedRealtimeNanos());
+    final ControlScheduler scheduler = controlScheduler;
+    if (scheduler == null) return;
+    if (now) {
+      final boolean stop = left == 0 && right == 0;
+      scheduler.setControlNow(left, right, stop ? safetySupervisor.getStopLatency() : null);
+    } else scheduler.setControl(left, right);
+  }
+
+  /**
+   * Limits the controls by the sonar and the bumpers. It is enabled while the network drives, see
+   * {@link #setAutonomous}.
+   */
+  public SafetySupervisor getSafetySupervisor() {
+    return safetySupervisor;
+  }
+
+  public WheelSpeedController getSpeedController() {
+    return speedController;
+  }
+
+  /**
+   * Tracks the speed of the controls with the wheel odometry instead of sending them open loop. The
+   * odometry is requested once per step of the controller. Requires wheel odometry.
+   */
+  public void enableSpeedControl(WheelSpeedController controller) {
+    speedController = controller;
+    setWheelOdometryFrequency(getWheelOdometryInterval());
+    sendControl();
+  }
+
+  public void disableSpeedControl() {
+    speedController = null;
+    setWheelOdometryFrequency(getWheelOdometryInterval());
+    sendControl();
+  }
+
+  private int getWheelOdometryInterval() {
+    final WheelSpeedController controller = speedController;
+    return controller == null
+        ? telemetryPolicy.getInterval(TelemetryPolicy.Channel.WHEELS)
+        : Math.round(controller.getStepSeconds() * 1000);
+  }
+
+  public TelemetryPolicy getTelemetryPolicy() {
+    return telemetryPolicy;
+  }
+
+  /**
+   * Autonomous modes get faster sonar and wheel odometry updates while they drive, and the safety
+   * supervisor stops them in front of obstacles.
+   */
+  public void setAutonomous(boolean autonomous) {
+    telemetryPolicy.setAutonomous(autonomous);
+    safetySupervisor.setEnabled(autonomous);
+    updateTelemetryRates();
+  }
+
+  /** Sends the reporting intervals again if the mode or the load of the link changed them. */
+  private void updateTelemetryRates() {
+    final VehicleTransport transport = this.transport;
+    if (transport == null || !transport.isOpen()) return;
+    if (telemetryPolicy.update(
+        SystemClock.elapsedRealtimeNanos(),
+        transport.getNumBytesSent(),
+        transport.getNumBytesReceived())) {
+      if (hasVoltageDivider)
+        setVoltageFrequency(telemetryPolicy.getInterval(TelemetryPolicy.Channel.VOLTAGE));
+      if (hasSonar) setSonarFrequency(telemetryPolicy.getInterval(TelemetryPolicy.Channel.SONAR));
+      if (hasWheelOdometryFront || hasWheelOdometryBack)
+        setWheelOdometryFrequency(getWheelOdometryInterval());
+    }
   }
 
   protected void sendHeartbeat(int timeout_ms) {
-    if (usbConnection != null && usbConnection.isOpen() && !usbConnection.isBusy()) {
-      usbConnection.send(String.format(Locale.getDefault(), "h%d\n", timeout_ms));
+    if (transport != null && transport.isOpen()) {
+      sendToUsb(protocol.heartbeat(timeout_ms));
     }
   }
 
   protected void setSonarFrequency(int interval_ms) {
-    if (usbConnection != null && usbConnection.isOpen() && !usbConnection.isBusy()) {
-      usbConnection.send(String.format(Locale.getDefault(), "s%d\n", interval_ms));
+    if (transport != null && transport.isOpen()) {
+      sendToUsb(protocol.sonarInterval(interval_ms));
     }
   }
 
   protected void setVoltageFrequency(int interval_ms) {
-    if (usbConnection != null && usbConnection.isOpen() && !usbConnection.isBusy()) {
-      usbConnection.send(String.format(Locale.getDefault(), "v%d\n", interval_ms));
+    if (transport != null && transport.isOpen()) {
+      sendToUsb(protocol.voltageInterval(interval_ms));
     }
   }
 
   protected void setWheelOdometryFrequency(int interval_ms) {
-    if (usbConnection != null && usbConnection.isOpen() && !usbConnection.isBusy()) {
-      usbConnection.send(String.format(Locale.getDefault(), "w%d\n", interval_ms));
+    if (transport != null && transport.isOpen()) {
+      sendToUsb(protocol.wheelOdometryInterval(interval_ms));
+      wheelOdometryIntervalMs = interval_ms;
     }
   }
 
-  private class HeartBeatTask extends TimerTask {
-
-    @Override
-    public void run() {
-      sendHeartbeat(750);
+  public synchronized void startHeartbeat() {
+    if (heartbeatTask != null) heartbeatTask.cancel();
+    heartbeatTask =
+        SharedScheduler.get()
+            .scheduleAtFixedRate(
+                "heartbeat",
+                () -> {
+                  sendHeartbeat(HEARTBEAT_TIMEOUT_MS);
+                  updateTelemetryRates();
+                },
+                HEARTBEAT_INTERVAL_MS,
+                HEARTBEAT_INTERVAL_MS,
+                HEARTBEAT_LATENESS);
+  }
+
+  public synchronized void stopHeartbeat() {
+    if (heartbeatTask != null) {
+      heartbeatTask.cancel();
+      heartbeatTask = null;
     }
   }
 
-  public void startHeartbeat() {
-    heartbeatTimer = new Timer();
-    HeartBeatTask heartBeatTask = new HeartBeatTask();
-    heartbeatTimer.schedule(heartBeatTask, 250, 250); // 250ms delay and 250ms intervals
-  }
-
-  public void stopHeartbeat() {
-    if (heartbeatTimer != null) {
-      heartbeatTimer.cancel();
-      heartbeatTimer.purge();
-      heartbeatTimer = null;
-    }
+  /**
+   * How late the heartbeats were sent against their schedule. A heartbeat later than the timeout
+   * minus the interval lets the firmware stop the motors.
+   */
+  public LatencyHistogram getHeartbeatLateness() {
+    return HEARTBEAT_LATENESS;
   }
 
   public void stopBot() {
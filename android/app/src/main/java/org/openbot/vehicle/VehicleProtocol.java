@@ -0,0 +1,27 @@
+package org.openbot.vehicle;
+
+/**
+ * Encodes the commands sent from the phone to the vehicle. The vehicle always understands the text
+ * commands of {@link AsciiProtocol}; {@link BinaryProtocol} is used if the vehicle announces it in
+ * its configuration.
+ */
+public interface VehicleProtocol {
+
+  /** Sets the speed of the left and right wheels, each in the range of -255 to 255. */
+  byte[] control(int left, int right);
+
+  /** Switches the left and right indicator on (1) or off (0). */
+  byte[] indicator(int left, int right);
+
+  /** Sets the brightness of the front and back lights, each in the range of 0 to 255. */
+  byte[] light(int front, int back);
+
+  /** Stops the vehicle if no other heartbeat arrives within the timeout. */
+  byte[] heartbeat(int timeoutMs);
+
+  byte[] sonarInterval(int intervalMs);
+
+  byte[] voltageInterval(int intervalMs);
+
+  byte[] wheelOdometryInterval(int intervalMs);
+}
@@ -0,0 +1,30 @@
+package org.openbot.vehicle;
+
+/**
+ * The connection to the vehicle: USB with {@link UsbConnection}, or {@link SimulatedVehicle} for
+ * tests without hardware. Both speak the protocol of the firmware.
+ */
+public interface VehicleTransport {
+
+  /**
+   * Sets the receiver of the voltage, sonar and wheel readings, called on the thread that reads
+   * from the vehicle.
+   */
+  void setListener(SerialMessageParser.Listener listener);
+
+  /** @return true if the connection is open. It may also open later, e.g. after a permission. */
+  boolean start();
+
+  void stop();
+
+  boolean isOpen();
+
+  /** @return false if the data could not be written. */
+  boolean send(byte[] data);
+
+  /** Total number of bytes written to the vehicle, to measure the load of the link. */
+  long getNumBytesSent();
+
+  /** Total number of bytes read from the vehicle. */
+  long getNumBytesReceived();
+}
@@ -0,0 +1,140 @@
+package org.openbot.vehicle;
+
+/**
+ * Closed-loop speed control of the left and right wheels from the wheel odometry.
+ *
+ * <p>Each side runs a PID controller with feed-forward on a fixed time step, so the same sequence
+ * of measurements always gives the same outputs. The output is the motor command of the vehicle in
+ * the range of -{@link Gains#maxOutput} to {@link Gains#maxOutput}. The feed-forward term maps the
+ * target speed to the command that reaches it with a full battery; the integral term makes up for
+ * battery sag and load. The integral only grows while the output is not saturated in the direction
+ * of the error (anti-windup), and the change of the output per step is limited to avoid current
+ * spikes. A target of zero stops the side immediately and clears its state.
+ */
+public class WheelSpeedController {
+
+  /** Gains and limits of the controller, in motor command units per rpm and per second. */
+  public static class Gains {
+    public final float kp;
+    public final float ki;
+    public final float kd;
+    /** Feed-forward command per rpm of target speed. */
+    public final float kf;
+    /** Largest absolute motor command. */
+    public final float maxOutput;
+    /** Largest change of the motor command per second. */
+    public final float maxSlewRate;
+
+    public Gains(float kp, float ki, float kd, float kf, float maxOutput, float maxSlewRate) {
+      this.kp = kp;
+      this.ki = ki;
+      this.kd = kd;
+      this.kf = kf;
+      this.maxOutput = maxOutput;
+      this.maxSlewRate = maxSlewRate;
+    }
+
+    /** Gains for a vehicle whose wheels turn at about {@code maxRpm} at full command. */
+    public static Gains forMaxRpm(float maxRpm) {
+      return new Gains(0.5f, 4.0f, 0.0f, 255 / maxRpm, 255, 1000);
+    }
+  }
+
+  /** PID state of one side. */
+  private static class Side {
+    float target;
+    float integral;
+    float lastMeasured;
+    boolean hasMeasured;
+    float output;
+
+    void reset() {
+      integral = 0;
+      hasMeasured = false;
+      output = 0;
+    }
+  }
+
+  private final Gains gains;
+  private final float stepSeconds;
+  private final Side left = new Side();
+  private final Side right = new Side();
+
+  /** @param stepSeconds Time between two calls of {@link #update}, the odometry interval. */
+  public WheelSpeedController(Gains gains, float stepSeconds) {
+    if (stepSeconds <= 0) throw new IllegalArgumentException("Invalid step: " + stepSeconds);
+    this.gains = gains;
+    this.stepSeconds = stepSeconds;
+  }
+
+  public Gains getGains() {
+    return gains;
+  }
+
+  public float getStepSeconds() {
+    return stepSeconds;
+  }
+
+  /** Sets the target speeds in rpm, applied on the next update unless they are zero. */
+  public synchronized void setTarget(float leftRpm, float rightRpm) {
+    setTarget(left, leftRpm);
+    setTarget(right, rightRpm);
+  }
+
+  private static void setTarget(Side side, float rpm) {
+    // Reversing or stopping starts from a clean state instead of unwinding the integral.
+    if (rpm == 0 || Math.signum(rpm) != Math.signum(side.target)) side.reset();
+    side.target = rpm;
+  }
+
+  /** Advances the controller by one step with the measured wheel speeds in rpm. */
+  public synchronized void update(float measuredLeftRpm, float measuredRightRpm) {
+    update(left, measuredLeftRpm);
+    update(right, measuredRightRpm);
+  }
+
+  private void update(Side side, float measured) {
+    if (side.target == 0) {
+      side.reset();
+      return;
+    }
+    final float error = side.target - measured;
+    // Derivative on the measurement, so that a new target does not cause a kick.
+    final float derivative = side.hasMeasured ? -(measured - side.lastMeasured) / stepSeconds : 0;
+    side.lastMeasured = measured;
+    side.hasMeasured = true;
+
+    final float proportional = gains.kf * side.target + gains.kp * error + gains.kd * derivative;
+    float integral = side.integral + gains.ki * error * stepSeconds;
+    // Anti-windup: while saturated, the integral grows at most up to the limit of the output.
+    if (error > 0 && proportional + integral > gains.maxOutput) {
+      integral = Math.min(integral, Math.max(side.integral, gains.maxOutput - proportional));
+    } else if (error < 0 && proportional + integral < -gains.maxOutput) {
+      integral = Math.max(integral, Math.min(side.integral, -gains.maxOutput - proportional));
+    }
+    side.integral = integral;
+
+    final float desired = clamp(proportional + integral, gains.maxOutput);
+    final float maxStep = gains.maxSlewRate * stepSeconds;
+    side.output = side.output + clamp(desired - side.output, maxStep);
+  }
+
+  private static float clamp(float value, float limit) {
+    return Math.max(-limit, Math.min(limit, value));
+  }
+
+  public synchronized int getLeftOutput() {
+    return Math.round(left.output);
+  }
+
+  public synchronized int getRightOutput() {
+    return Math.round(right.output);
+  }
+
+  public synchronized void reset() {
+    left.reset();
+    right.reset();
+    left.target = 0;
+    right.target = 0;
+  }
+}
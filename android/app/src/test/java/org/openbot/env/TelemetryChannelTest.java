@@ -0,0 +1,97 @@
+package org.openbot.env;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+
+public class TelemetryChannelTest {
+
+  @Test
+  public void history_keepsTheLatestSamplesInOrder() {
+    TelemetryChannel channel = new TelemetryChannel("wheels", 3);
+    assertEquals(4, channel.getHistorySize());
+    assertNull(channel.getLatest());
+    assertEquals(Long.MAX_VALUE, channel.getIntervalNanos());
+
+    for (int i = 1; i <= 6; i++) channel.record(i * 100, i, -i);
+    channel.recordSecond(700, 42);
+
+    List<TelemetryChannel.Sample> history = channel.getHistory();
+    assertEquals(4, history.size());
+    assertEquals(400, history.get(0).timestampNanos);
+    assertEquals(6, history.get(2).first, 0);
+    assertEquals(6, history.get(3).first, 0);
+    assertEquals(42, history.get(3).second, 0);
+    assertEquals(100, channel.getIntervalNanos());
+    assertEquals(50, channel.getAgeNanos(750));
+    assertEquals(7, channel.getCount());
+  }
+
+  /**
+   * One writer records samples whose values are derived from their timestamp while readers check
+   * that they never see a mix of two samples, in the latest sample and in the history.
+   */
+  @Test
+  public void readers_alwaysSeeConsistentSamples() throws InterruptedException {
+    final TelemetryChannel channel = new TelemetryChannel("stress", 8);
+    final int numSamples = 500_000;
+    final int numReaders = 3;
+    final AtomicBoolean done = new AtomicBoolean();
+    final AtomicReference<String> failure = new AtomicReference<>();
+    final CountDownLatch start = new CountDownLatch(1);
+
+    List<Thread> threads = new ArrayList<>();
+    for (int r = 0; r < numReaders; r++) {
+      threads.add(
+          new Thread(
+              () -> {
+                try {
+                  start.await();
+                } catch (InterruptedException e) {
+                  return;
+                }
+                long lastTimestamp = 0;
+                while (!done.get() && failure.get() == null) {
+                  TelemetryChannel.Sample latest = channel.getLatest();
+                  if (latest != null) {
+                    if (latest.first != latest.timestampNanos || latest.second != -latest.first) {
+                      failure.set("torn sample at " + latest.timestampNanos);
+                    }
+                    if (latest.timestampNanos < lastTimestamp) failure.set("went back in time");
+                    lastTimestamp = latest.timestampNanos;
+                  }
+                  List<TelemetryChannel.Sample> history = channel.getHistory();
+                  for (int i = 0; i < history.size(); i++) {
+                    TelemetryChannel.Sample sample = history.get(i);
+                    if (sample.second != -sample.first
+                        || (i > 0
+                            && sample.timestampNanos != history.get(i - 1).timestampNanos + 1)) {
+                      failure.set("inconsistent history at " + sample.timestampNanos);
+                    }
+                  }
+                  float first = channel.getFirst();
+                  if (first != 0 && first < lastTimestamp) failure.set("stale value " + first);
+                }
+              }));
+    }
+    for (Thread thread : threads) thread.start();
+
+    start.countDown();
+    // Values up to 2^24 are exact as float, so they can be compared with the timestamp.
+    for (int i = 1; i <= numSamples; i++) channel.record(i, i, -i);
+    done.set(true);
+    for (Thread thread : threads) thread.join();
+
+    assertNull(failure.get(), failure.get());
+    assertEquals(numSamples, channel.getCount());
+    assertEquals(numSamples, channel.getLatest().timestampNanos);
+    assertTrue(channel.getHistory().size() == channel.getHistorySize());
+  }
+}
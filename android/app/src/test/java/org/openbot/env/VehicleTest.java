@@ -2,6 +2,7 @@ package org.openbot.env;
 
 import static org.junit.Assert.assertEquals;
 
+import android.os.SystemClock;
 import androidx.test.core.app.ApplicationProvider;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 import org.junit.Before;
@@ -52,4 +53,16 @@ public class VehicleTest {
     assertEquals(255, vehicle.getLeftSpeed(), 0.0);
     assertEquals(255, vehicle.getRightSpeed(), 0.0);
   }
+
+  @Test
+  public void setWheelRpm_timestampsTheMiddleOfTheInterval() {
+    final long now = SystemClock.elapsedRealtimeNanos();
+    vehicle.setWheelRpm(60, 30);
+
+    // The firmware averages the speeds over its default interval of one second.
+    TelemetryChannel.Sample sample = vehicle.getWheelRpmTelemetry().getLatest();
+    assertEquals(now - 500_000_000L, sample.timestampNanos);
+    assertEquals(60, sample.first, 0.0);
+    assertEquals(30, sample.second, 0.0);
+  }
 }
@@ -0,0 +1,117 @@
+package org.openbot.logging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class AsyncLogWriterTest {
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private static List<String> lines(File file) throws IOException {
+    return Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void log_formatsLikeStringConcatenation() throws IOException {
+    File file = new File(folder.getRoot(), "session/log.txt");
+    AsyncLogWriter writer = new AsyncLogWriter();
+    int log = writer.open(file, "timestamp[ns],x,y,z");
+    writer.start();
+    float[] values = {0.1f, -9.81f, 1.0E-7f, Float.NaN};
+    writer.log(log, 123456789L, values, 3);
+    writer.log(log, 5L, Long.MIN_VALUE, 42L);
+    writer.log(log, 6L, -1L);
+    writer.log(log, 7L, "47.3,8.5,\u00e4\u00f6\u00fc");
+    // Ids of logs that failed to open or were never opened are rejected.
+    assertFalse(writer.log(-1, 8L, 1L));
+    assertFalse(writer.log(log + 1, 9L, 1L));
+    writer.close();
+
+    List<String> lines = lines(file);
+    assertEquals(5, lines.size());
+    assertEquals("timestamp[ns],x,y,z", lines.get(0));
+    assertEquals(123456789L + "," + values[0] + "," + values[1] + "," + values[2], lines.get(1));
+    assertEquals(5L + "," + Long.MIN_VALUE + "," + 42L, lines.get(2));
+    assertEquals("6,-1", lines.get(3));
+    assertEquals("7,47.3,8.5,\u00e4\u00f6\u00fc", lines.get(4));
+    assertEquals(5, writer.getNumRecords());
+    assertEquals(0, writer.getNumErrors());
+    assertEquals(file.length(), writer.getNumBytes());
+  }
+
+  @Test
+  public void log_keepsAllRecordsOfConcurrentProducers() throws Exception {
+    File[] files = {folder.newFile("a.txt"), folder.newFile("b.txt")};
+    AsyncLogWriter writer = new AsyncLogWriter(1024, 1000, 0);
+    int[] logs = {writer.open(files[0], null), writer.open(files[1], null)};
+    writer.start();
+    final int numThreads = 4;
+    final int numRecords = 20000;
+    Thread[] threads = new Thread[numThreads];
+    for (int t = 0; t < numThreads; t++) {
+      final int id = t;
+      threads[t] =
+          new Thread(
+              () -> {
+                for (int i = 0; i < numRecords; i++) {
+                  // Retry dropped records, the ring is small on purpose.
+                  while (!writer.log(logs[i % 2], id, i)) Thread.yield();
+                }
+              });
+      threads[t].start();
+    }
+    for (Thread thread : threads) thread.join();
+    writer.close();
+
+    Set<String> expected = new HashSet<>();
+    for (int t = 0; t < numThreads; t++) {
+      for (int i = 0; i < numRecords; i++) expected.add(t + "," + i);
+    }
+    Set<String> actual = new HashSet<>(lines(files[0]));
+    actual.addAll(lines(files[1]));
+    assertEquals(expected, actual);
+    assertEquals(numThreads * numRecords, writer.getNumRecords());
+    // Batched: far fewer writes than records.
+    assertTrue(writer.getNumWrites() < writer.getNumRecords() / 100);
+  }
+
+  @Test
+  public void log_dropsAndCountsWhenTheRingIsFull() throws IOException {
+    File file = folder.newFile("log.txt");
+    AsyncLogWriter writer = new AsyncLogWriter(8, 1000, 0);
+    int log = writer.open(file, null);
+    // Not started, nothing drains the ring.
+    for (int i = 0; i < 10; i++) writer.log(log, i, i);
+    assertEquals(2, writer.getNumDropped());
+    writer.close();
+    assertEquals(8, lines(file).size());
+  }
+
+  @Test
+  public void log_isWrittenAfterTheFlushInterval() throws Exception {
+    File file = folder.newFile("log.txt");
+    AsyncLogWriter writer = new AsyncLogWriter(64, 50, 100);
+    int log = writer.open(file, null);
+    writer.start();
+    writer.log(log, 1L, 2L);
+    long deadline = System.currentTimeMillis() + 2000;
+    while (file.length() == 0 && System.currentTimeMillis() < deadline) Thread.sleep(10);
+    assertEquals("1,2\n", new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+    deadline = System.currentTimeMillis() + 2000;
+    while (writer.getNumSyncs() == 0 && System.currentTimeMillis() < deadline) Thread.sleep(10);
+    assertEquals(1, writer.getNumSyncs());
+    writer.close();
+  }
+}
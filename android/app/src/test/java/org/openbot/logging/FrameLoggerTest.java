@@ -0,0 +1,96 @@
+package org.openbot.logging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.graphics.Bitmap;
+import android.graphics.Matrix;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.openbot.utils.FrameWorkerPool.DropPolicy;
+
+/**
+ * Logs frames while the only worker is stalled, like on slow storage, and checks that the frame log
+ * lists the frames with an image.
+ */
+@RunWith(AndroidJUnit4.class)
+public class FrameLoggerTest {
+
+  private static final int NUM_FRAMES = 20;
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private final CountDownLatch stalled = new CountDownLatch(1);
+  private final CountDownLatch released = new CountDownLatch(1);
+  // The frame numbers LoggerFragment sends to the frame log.
+  private final List<Long> frameLog = Collections.synchronizedList(new ArrayList<>());
+
+  private void stall() {
+    stalled.countDown();
+    try {
+      released.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private FrameLogger frameLogger(File images, DropPolicy policy) {
+    return new FrameLogger(
+        images.getPath(),
+        true,
+        1,
+        policy,
+        (frameNumber, timestampNanos) -> frameLog.add(frameNumber),
+        this::stall);
+  }
+
+  /** Logs the frames like {@code LoggerFragment} while the worker is stalled on the first one. */
+  private void logFrames(FrameLogger logger, Matrix cropTransform) throws InterruptedException {
+    final Bitmap bitmap = Bitmap.createBitmap(64, 48, Bitmap.Config.ARGB_8888);
+    for (long frame = 1; frame <= NUM_FRAMES; frame++) {
+      logger.logFrame(bitmap, true, cropTransform, 32, 24, frame, 1000 * frame);
+      if (frame == 1) assertTrue(stalled.await(5, TimeUnit.SECONDS));
+    }
+    released.countDown();
+    assertTrue(logger.awaitClosed(5000));
+  }
+
+  private static List<Long> frameNumbers(File video) throws IOException {
+    final List<Long> numbers = new ArrayList<>();
+    try (MjpegReader reader = new MjpegReader(video)) {
+      for (int i = 0; i < reader.getNumFrames(); i++) numbers.add(reader.getFrameNumber(i));
+    }
+    return numbers;
+  }
+
+  @Test
+  public void logFrame_logsTheFramesWithASavedCrop() throws Exception {
+    final File images = folder.newFolder("images");
+    logFrames(frameLogger(images, DropPolicy.DROP_LOW_PRIORITY), new Matrix());
+
+    assertFalse(frameLog.isEmpty());
+    assertTrue("No frame was dropped", frameLog.size() < NUM_FRAMES);
+    assertEquals(frameLog, frameNumbers(new File(images, "crop" + MjpegWriter.EXTENSION)));
+  }
+
+  @Test
+  public void logFrame_logsTheSavedPreviewsWithoutCrop() throws Exception {
+    final File images = folder.newFolder("images");
+    logFrames(frameLogger(images, DropPolicy.DROP_OLDEST), null);
+
+    assertFalse(frameLog.isEmpty());
+    assertEquals(frameLog, frameNumbers(new File(images, "preview" + MjpegWriter.EXTENSION)));
+    assertEquals(0, frameNumbers(new File(images, "crop" + MjpegWriter.EXTENSION)).size());
+  }
+}
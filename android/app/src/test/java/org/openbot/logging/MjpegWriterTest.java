@@ -0,0 +1,231 @@
+package org.openbot.logging;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import javax.imageio.ImageIO;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MjpegWriterTest {
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  /** Noisy JPEGs, so their data contains stuffed 0xFF bytes. */
+  private static List<byte[]> jpegs(int count) throws IOException {
+    Random random = new Random(3);
+    List<byte[]> jpegs = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      BufferedImage image = new BufferedImage(64, 48, BufferedImage.TYPE_INT_RGB);
+      for (int y = 0; y < 48; y++) {
+        for (int x = 0; x < 64; x++) image.setRGB(x, y, random.nextInt());
+      }
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      assertTrue(ImageIO.write(image, "jpeg", out));
+      jpegs.add(out.toByteArray());
+    }
+    // A comment segment with an end of image marker in it.
+    byte[] jpeg = jpegs.get(count - 1);
+    byte[] comment = {(byte) 0xFF, (byte) 0xFE, 0, 6, (byte) 0xFF, (byte) 0xD9, (byte) 0xFF, 0};
+    byte[] commented = new byte[jpeg.length + comment.length];
+    System.arraycopy(jpeg, 0, commented, 0, 2);
+    System.arraycopy(comment, 0, commented, 2, comment.length);
+    System.arraycopy(jpeg, 2, commented, 2 + comment.length, jpeg.length - 2);
+    jpegs.set(count - 1, commented);
+    return jpegs;
+  }
+
+  /** The JPEG as written to the video, with the frame comment after the start of image. */
+  private static byte[] withComment(byte[] jpeg, long frameNumber, long timestampNanos) {
+    byte[] text =
+        (MjpegWriter.COMMENT_PREFIX + frameNumber + "," + timestampNanos)
+            .getBytes(StandardCharsets.US_ASCII);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.write(jpeg, 0, 2);
+    out.write(0xFF);
+    out.write(0xFE);
+    out.write((text.length + 2) >> 8);
+    out.write(text.length + 2);
+    out.write(text, 0, text.length);
+    out.write(jpeg, 2, jpeg.length - 2);
+    return out.toByteArray();
+  }
+
+  private File record(List<byte[]> jpegs) throws IOException {
+    File video = new File(folder.getRoot(), "images/crop" + MjpegWriter.EXTENSION);
+    MjpegWriter writer = new MjpegWriter(video);
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    for (int i = 0; i < jpegs.size(); i++) {
+      buffer.reset();
+      buffer.write(jpegs.get(i));
+      // Frames 10, 20, ... as if the others were not logged.
+      assertTrue(writer.write(10 * (i + 1), 1000L * i, buffer));
+    }
+    writer.close();
+    assertEquals(jpegs.size(), writer.getNumFrames());
+    assertEquals(video.length(), writer.getNumBytes());
+    return video;
+  }
+
+  @Test
+  public void reader_findsTheFramesWithTheIndex() throws IOException {
+    List<byte[]> jpegs = jpegs(5);
+    File video = record(jpegs);
+    assertEquals("crop_index.txt", MjpegWriter.getIndexFile(video).getName());
+
+    try (MjpegReader reader = new MjpegReader(video)) {
+      assertEquals(5, reader.getNumFrames());
+      assertEquals(5, reader.getNumIndexedFrames());
+      assertEquals(3, reader.indexOf(40));
+      assertEquals(-1, reader.indexOf(41));
+      assertEquals(3000, reader.getTimestamp(3));
+      byte[] buffer = reader.readFrame(3, null);
+      assertArrayEquals(
+          withComment(jpegs.get(3), 40, 3000), Arrays.copyOf(buffer, reader.getLength(3)));
+
+      File images = folder.newFolder("extracted");
+      assertEquals(5, reader.extract(images, "_crop.jpeg"));
+      for (int i = 0; i < 5; i++) {
+        File file = new File(images, 10 * (i + 1) + "_crop.jpeg");
+        assertArrayEquals(
+            withComment(jpegs.get(i), 10 * (i + 1), 1000L * i), Files.readAllBytes(file.toPath()));
+        assertEquals(64, ImageIO.read(file).getWidth());
+      }
+    }
+  }
+
+  @Test
+  public void reader_sortsFramesWrittenOutOfOrder() throws IOException {
+    List<byte[]> jpegs = jpegs(3);
+    File video = new File(folder.getRoot(), "preview" + MjpegWriter.EXTENSION);
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    try (MjpegWriter writer = new MjpegWriter(video)) {
+      for (int i : new int[] {1, 0, 2}) {
+        buffer.reset();
+        buffer.write(jpegs.get(i));
+        writer.write(i + 1, 1000L * i, buffer);
+      }
+    }
+
+    try (MjpegReader reader = new MjpegReader(video)) {
+      for (int i = 0; i < 3; i++) {
+        assertEquals(i, reader.indexOf(i + 1));
+        assertEquals(1000L * i, reader.getTimestamp(i));
+        byte[] frame = reader.readFrame(i, null);
+        assertArrayEquals(
+            withComment(jpegs.get(i), i + 1, 1000L * i), Arrays.copyOf(frame, reader.getLength(i)));
+      }
+    }
+  }
+
+  @Test
+  public void reader_scansVideosWithoutIndex() throws IOException {
+    List<byte[]> jpegs = jpegs(5);
+    File video = record(jpegs);
+    assertTrue(MjpegWriter.getIndexFile(video).delete());
+    // The last frame is incomplete, like after a crash.
+    try (RandomAccessFile file = new RandomAccessFile(video, "rw")) {
+      file.setLength(file.length() - 100);
+    }
+
+    try (MjpegReader reader = new MjpegReader(video)) {
+      assertEquals(4, reader.getNumFrames());
+      assertEquals(0, reader.getNumIndexedFrames());
+      for (int i = 0; i < 4; i++) {
+        // From the comments of the frames.
+        assertEquals(10 * (i + 1), reader.getFrameNumber(i));
+        assertEquals(1000L * i, reader.getTimestamp(i));
+        byte[] buffer = reader.readFrame(i, null);
+        assertArrayEquals(
+            withComment(jpegs.get(i), 10 * (i + 1), 1000L * i),
+            Arrays.copyOf(buffer, reader.getLength(i)));
+      }
+    }
+  }
+
+  @Test
+  public void reader_scansTheFramesAfterAnIncompleteIndex() throws IOException {
+    List<byte[]> jpegs = jpegs(5);
+    File video = record(jpegs);
+    File index = MjpegWriter.getIndexFile(video);
+    List<String> lines = Files.readAllLines(index.toPath());
+    // The header and two frames were written, the third line only partly.
+    Files.write(index.toPath(), (String.join("\n", lines.subList(0, 3)) + "\n30,20").getBytes());
+
+    try (MjpegReader reader = new MjpegReader(video)) {
+      assertEquals(5, reader.getNumFrames());
+      assertEquals(2, reader.getNumIndexedFrames());
+      assertEquals(20, reader.getFrameNumber(1));
+      assertEquals(30, reader.getFrameNumber(2));
+      assertEquals(4, reader.indexOf(50));
+      byte[] buffer = reader.readFrame(4, null);
+      assertArrayEquals(
+          withComment(jpegs.get(4), 50, 4000), Arrays.copyOf(buffer, reader.getLength(4)));
+    }
+  }
+
+  @Test
+  public void reader_skipsScannedFramesWithoutNumber() throws IOException {
+    List<byte[]> jpegs = jpegs(4);
+    File video = record(jpegs.subList(1, 3));
+    // JPEGs appended without frame comment, before and after the numbered ones.
+    byte[] recorded = Files.readAllBytes(video.toPath());
+    try (FileOutputStream out = new FileOutputStream(video)) {
+      out.write(jpegs.get(0));
+      out.write(recorded);
+      out.write(jpegs.get(3));
+    }
+    assertTrue(MjpegWriter.getIndexFile(video).delete());
+
+    try (MjpegReader reader = new MjpegReader(video)) {
+      assertEquals(4, reader.getNumFrames());
+      assertEquals(2, reader.getNumNumberedFrames());
+      assertEquals(10, reader.getFrameNumber(0));
+      assertEquals(20, reader.getFrameNumber(1));
+      assertEquals(1, reader.indexOf(20));
+      // The frames without number follow in the order of the video.
+      assertEquals(MjpegReader.NO_FRAME_NUMBER, reader.getFrameNumber(2));
+      assertEquals(MjpegReader.NO_TIMESTAMP, reader.getTimestamp(2));
+      byte[] buffer = reader.readFrame(2, null);
+      assertArrayEquals(jpegs.get(0), Arrays.copyOf(buffer, reader.getLength(2)));
+      buffer = reader.readFrame(3, null);
+      assertArrayEquals(jpegs.get(3), Arrays.copyOf(buffer, reader.getLength(3)));
+      assertEquals(-1, reader.indexOf(MjpegReader.NO_FRAME_NUMBER));
+
+      File images = folder.newFolder("extracted");
+      assertEquals(2, reader.extract(images, "_crop.jpeg"));
+      assertEquals(2, images.list().length);
+    }
+  }
+
+  @Test
+  public void writer_flushesTheIndexWhileRecording() throws IOException {
+    byte[] jpeg = jpegs(1).get(0);
+    File video = new File(folder.getRoot(), "crop" + MjpegWriter.EXTENSION);
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    try (MjpegWriter writer = new MjpegWriter(video)) {
+      for (int i = 1; i <= MjpegWriter.INDEX_FLUSH_FRAMES + 1; i++) {
+        buffer.reset();
+        buffer.write(jpeg);
+        assertTrue(writer.write(i, 1000L * i, buffer));
+      }
+      List<String> lines = Files.readAllLines(MjpegWriter.getIndexFile(video).toPath());
+      assertEquals(MjpegWriter.INDEX_HEADER, lines.get(0));
+      assertEquals(MjpegWriter.INDEX_FLUSH_FRAMES + 1, lines.size());
+    }
+  }
+}
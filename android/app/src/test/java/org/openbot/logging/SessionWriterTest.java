@@ -0,0 +1,182 @@
+package org.openbot.logging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.openbot.logging.SessionFormat.Channel;
+import org.openbot.logging.SessionFormat.ColumnType;
+
+public class SessionWriterTest {
+
+  private static final long MS = 1_000_000L;
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  /** Logs a session like SensorService does, with the log writer of the given format. */
+  private static void logSession(AsyncLogWriter writer, File dir, int seconds) {
+    int accelerometer = writer.open(new File(dir, "accelerometerLog.txt"), "timestamp[ns],x,y,z");
+    int pose = writer.open(new File(dir, "poseLog.txt"), "timestamp[ns],x,...,id");
+    int ctrl = writer.open(new File(dir, "ctrlLog.txt"), "timestamp[ns],leftCtrl,rightCtrl");
+    int gps = writer.open(new File(dir, "gpsLog.txt"), "timestamp[ns],latitude,longitude");
+    // Like the bumper log of a vehicle without bumpers.
+    writer.open(new File(dir, "bumperLog.txt"), "timestamp[ns],bumper");
+    Random random = new Random(7);
+    float[] values = new float[15];
+    long start = 1_000_000_000_000L;
+    for (int ms = 0; ms < seconds * 1000; ms += 5) {
+      long t = start + ms * MS + random.nextInt(100_000);
+      values[0] = 0.1f * random.nextInt(20);
+      values[1] = 9.81f + 0.01f * random.nextInt(10);
+      values[2] = -0.05f * random.nextInt(10);
+      while (!writer.log(accelerometer, t, values, 3)) Thread.yield();
+      if (ms % 20 == 0) {
+        // Pose and velocities change slowly, like the motion of the phone.
+        for (int i = 3; i < 15; i++) values[i] += 0.001f * (random.nextFloat() - 0.5f);
+        while (!writer.log(pose, t, values, 15)) Thread.yield();
+      }
+      if (ms % 50 == 0) {
+        while (!writer.log(ctrl, t, random.nextInt(256) - 128, random.nextInt(256) - 128)) {
+          Thread.yield();
+        }
+      }
+      if (ms % 1000 == 0) {
+        while (!writer.log(gps, t, 48.1 + 0.0001 * ms + "," + (11.5 - 0.0001 * ms))) {
+          Thread.yield();
+        }
+      }
+    }
+  }
+
+  @Test
+  public void converter_writesTheSameLogsAsTheTextFormat() throws IOException {
+    File textDir = folder.newFolder("text");
+    AsyncLogWriter textWriter = new AsyncLogWriter();
+    textWriter.start();
+    logSession(textWriter, textDir, 20);
+    textWriter.close();
+
+    File binaryDir = folder.newFolder("binary");
+    File sessionFile = new File(binaryDir, SessionWriter.FILE_NAME);
+    AsyncLogWriter binaryWriter = new AsyncLogWriter(new SessionWriter(sessionFile));
+    binaryWriter.start();
+    logSession(binaryWriter, binaryDir, 20);
+    binaryWriter.close();
+    assertEquals(0, binaryWriter.getNumErrors());
+    assertEquals(0, binaryWriter.getNumDropped());
+
+    File csvDir = new File(folder.getRoot(), "csv");
+    assertEquals(5, SessionCsvConverter.convert(sessionFile, csvDir).size());
+    long textSize = 0;
+    for (String name : textDir.list()) {
+      File text = new File(textDir, name);
+      textSize += text.length();
+      assertEquals(name, Files.readAllLines(text.toPath()), readLines(new File(csvDir, name)));
+    }
+    // About 4 times smaller; the noise in the last bits of the floats does not compress.
+    assertTrue(sessionFile.length() + " vs " + textSize, sessionFile.length() * 3 < textSize);
+  }
+
+  private static List<String> readLines(File file) throws IOException {
+    return Files.readAllLines(file.toPath());
+  }
+
+  @Test
+  public void reader_seeksByTimestampAndReadsAllColumnTypes() throws IOException {
+    File file = folder.newFile("session.bin");
+    SessionWriter writer = new SessionWriter(file, 100, 1);
+    int numbers =
+        writer.addChannel(
+            "numbers.txt", "t,f,d,l", ColumnType.FLOAT32, ColumnType.FLOAT64, ColumnType.INT64);
+    int texts = writer.addChannel("texts.txt", null, ColumnType.TEXT, ColumnType.TEXT);
+    for (int i = 0; i < 1000; i++) {
+      writer.startRecord(numbers, i * MS);
+      writer.putFloat(i / 3f);
+      writer.putDouble(i / 7.0);
+      writer.putLong(-i);
+      writer.endRecord();
+      if (i % 10 == 0) {
+        writer.startRecord(texts, i * MS);
+        writer.putText("a" + i);
+        writer.putText(i % 20 == 0 ? "" : "\u00e4");
+        writer.endRecord();
+      }
+    }
+    // A cancelled record leaves no trace.
+    writer.startRecord(texts, 5000 * MS);
+    writer.putText("cancelled");
+    writer.cancelRecord();
+    writer.close();
+    assertEquals(1100, writer.getNumRecords());
+
+    try (SessionReader reader = new SessionReader(file)) {
+      assertTrue(reader.isComplete());
+      assertNull(reader.getChannel("missing.txt"));
+      Channel channel = reader.getChannel("numbers.txt");
+      assertEquals(10, channel.getBlocks().size());
+      assertEquals(1000, channel.getNumRecords());
+
+      SessionReader.Cursor cursor = reader.read(channel, 733 * MS);
+      for (int i = 733; i < 1000; i++) {
+        assertTrue(cursor.next());
+        assertEquals(i * MS, cursor.getTimestamp());
+        assertEquals(i / 3f, cursor.getFloat(0), 0);
+        assertEquals(i / 7.0, cursor.getDouble(1), 0);
+        assertEquals(-i, cursor.getLong(2));
+      }
+      assertFalse(cursor.next());
+
+      cursor = reader.read(reader.getChannel("texts.txt"));
+      StringBuilder line = new StringBuilder();
+      for (int i = 0; i < 1000; i += 10) {
+        assertTrue(cursor.next());
+        line.setLength(0);
+        cursor.appendLine(line);
+        assertEquals(i * MS + ",a" + i + "," + (i % 20 == 0 ? "" : "\u00e4"), line.toString());
+      }
+      assertFalse(cursor.next());
+    }
+  }
+
+  @Test
+  public void reader_recoversTheCompleteBlocksOfAnUnclosedFile() throws IOException {
+    File file = folder.newFile("session.bin");
+    SessionWriter writer = new SessionWriter(file, 64, 1);
+    int channel = writer.addChannel("ctrlLog.txt", "t,l,r", ColumnType.INT64, ColumnType.INT64);
+    for (int i = 0; i < 1000; i++) {
+      writer.startRecord(channel, i);
+      writer.putLong(i);
+      writer.putLong(-i);
+      writer.endRecord();
+    }
+    writer.flush(false);
+    // Cut the file in the middle of the last block, like a crash while writing it.
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.setLength(raf.length() - 10);
+    }
+
+    try (SessionReader reader = new SessionReader(file)) {
+      assertFalse(reader.isComplete());
+      Channel recovered = reader.getChannel("ctrlLog.txt");
+      assertEquals(15 * 64, recovered.getNumRecords());
+      SessionReader.Cursor cursor = reader.read(recovered);
+      long count = 0;
+      while (cursor.next()) {
+        assertEquals(count, cursor.getTimestamp());
+        assertEquals(-count, cursor.getLong(1));
+        count++;
+      }
+      assertEquals(15 * 64, count);
+    }
+  }
+}
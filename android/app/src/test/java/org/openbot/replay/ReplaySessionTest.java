@@ -0,0 +1,148 @@
+package org.openbot.replay;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.openbot.logging.AsyncLogWriter;
+import org.openbot.logging.MjpegWriter;
+import org.openbot.logging.SessionWriter;
+import org.openbot.vehicle.Control;
+
+public class ReplaySessionTest {
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private File folder;
+
+  private void write(String name, String content) throws IOException {
+    try (Writer writer = new FileWriter(new File(folder, name))) {
+      writer.write(content);
+    }
+  }
+
+  @Before
+  public void writeSession() throws IOException {
+    folder = temporaryFolder.newFolder("session");
+    File images = new File(folder, ReplaySession.IMAGE_FOLDER);
+    images.mkdirs();
+    for (int frame : new int[] {1, 2, 3, 5}) new File(images, frame + "_crop.jpeg").createNewFile();
+
+    write(ReplaySession.FRAME_LOG, "timestamp[ns],frame\n100,1\n200,2\n300,3\n400,4\n500,5\n");
+    // Logged out of order on purpose.
+    write(ReplaySession.CONTROL_LOG, "timestamp[ns],leftCtrl,rightCtrl\n250,255,0\n150,0,-255\n");
+    write(ReplaySession.INDICATOR_LOG, "timestamp[ns],signal\n300,-1\n");
+  }
+
+  @Test
+  public void load_alignsFramesWithLastControlAndIndicator() throws IOException {
+    List<ReplaySession.Frame> frames = ReplaySession.load(folder).getFrames();
+
+    // Frame 1 is before the first control and frame 4 has no image.
+    assertEquals(3, frames.size());
+    assertEquals(2, frames.get(0).frameNumber);
+    assertEquals(-1.f, frames.get(0).control.getRight(), 0);
+    assertEquals(0, frames.get(0).indicator);
+    assertEquals(3, frames.get(1).frameNumber);
+    assertEquals(1.f, frames.get(1).control.getLeft(), 0);
+    assertEquals(-1, frames.get(1).indicator);
+    assertEquals(5, frames.get(2).frameNumber);
+    assertEquals(500, frames.get(2).timestampNanos);
+  }
+
+  @Test
+  public void load_readsBinaryLogsAndTheCropVideo() throws IOException {
+    File session = temporaryFolder.newFolder("binarySession");
+    // Stored like the app does, with the logs next to the images.
+    File sensorData = new File(session, ReplaySession.SENSOR_FOLDER);
+    assertTrue(sensorData.mkdir());
+    AsyncLogWriter writer =
+        new AsyncLogWriter(new SessionWriter(new File(sensorData, SessionWriter.FILE_NAME)));
+    int frameLog =
+        writer.open(new File(sensorData, ReplaySession.FRAME_LOG), "timestamp[ns],frame");
+    int ctrlLog =
+        writer.open(
+            new File(sensorData, ReplaySession.CONTROL_LOG), "timestamp[ns],leftCtrl,rightCtrl");
+    // Never logged, so the indicator stays 0.
+    writer.open(new File(sensorData, ReplaySession.INDICATOR_LOG), "timestamp[ns],signal");
+    writer.start();
+    assertTrue(writer.log(ctrlLog, 150, 0, -255));
+    for (int frame = 1; frame <= 4; frame++) assertTrue(writer.log(frameLog, 100 * frame, frame));
+    writer.close();
+
+    MjpegWriter video =
+        new MjpegWriter(
+            new File(new File(session, ReplaySession.IMAGE_FOLDER), ReplaySession.CROP_VIDEO));
+    ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+    // Frame 3 was not saved.
+    for (int frame : new int[] {1, 2, 4}) {
+      jpeg.reset();
+      for (int i = 0; i < frame; i++) jpeg.write(frame);
+      assertTrue(video.write(frame, 100 * frame, jpeg));
+    }
+    video.close();
+
+    try (ReplaySession replay = ReplaySession.load(session)) {
+      List<ReplaySession.Frame> frames = replay.getFrames();
+      // Frame 1 is before the first control and frame 3 has no image.
+      assertEquals(2, frames.size());
+      assertEquals(2, frames.get(0).frameNumber);
+      assertEquals(-1.f, frames.get(0).control.getRight(), 0);
+      assertEquals(0, frames.get(0).indicator);
+      assertNull(frames.get(0).image);
+      assertEquals(4, frames.get(1).frameNumber);
+      assertEquals(4, frames.get(1).imageLength);
+      byte[] image = replay.readImage(frames.get(1), null);
+      assertArrayEquals(new byte[] {4, 4, 4, 4}, Arrays.copyOf(image, 4));
+    }
+  }
+
+  @Test
+  public void run_reportsErrorAgainstLoggedControls() throws IOException {
+    ReplaySession session = ReplaySession.load(folder);
+    ReplayRunner<Integer> runner =
+        new ReplayRunner<>((jpeg, length) -> length, (image, indicator) -> new Control(0, 0));
+
+    ReplayRunner.Report report = runner.run(session, 1);
+    assertEquals(2, report.getNumFrames());
+    assertEquals(2, report.getPredictLatency().getCount());
+    // Both remaining frames are off by 1 on one side and exact on the other.
+    assertEquals(0.5, report.getMeanAbsoluteError(), 1e-6);
+    assertEquals(Math.sqrt(0.5), report.getRootMeanSquaredError(), 1e-6);
+  }
+
+  @Test
+  public void run_passesTheFramesInBatches() throws IOException {
+    ReplaySession session = ReplaySession.load(folder);
+    final List<String> batches = new ArrayList<>();
+    ReplayRunner<Integer> runner =
+        new ReplayRunner<>(
+            (jpeg, length) -> length,
+            (images, indicators) -> {
+              batches.add(images.size() + ":" + Arrays.toString(indicators));
+              return Collections.nCopies(images.size(), new Control(0, 0));
+            },
+            2);
+
+    ReplayRunner.Report report = runner.run(session);
+    // The last batch holds the remaining frame.
+    assertEquals(Arrays.asList("2:[0, -1]", "1:[-1]"), batches);
+    assertEquals(3, report.getNumFrames());
+    assertEquals(3, report.getPredictLatency().getCount());
+    assertEquals(0.5, report.getMeanAbsoluteError(), 1e-6);
+  }
+}
@@ -0,0 +1,346 @@
+package org.openbot.server;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SessionUploaderTest {
+
+  private static final int CHUNK = 1024;
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  /** Stand-in for the upload endpoints of the server, keeping the files in memory. */
+  private static class UploadServer {
+    final HttpServer http;
+    final Map<String, byte[]> files = new TreeMap<>();
+    final List<String> chunks = new ArrayList<>();
+    final List<String> probes = new ArrayList<>();
+    long numBytesWritten = 0;
+    boolean finished = false;
+    boolean cancelled = false;
+    // Chunks whose answer is lost after they were written, counted down.
+    int loseAnswers = 0;
+    // Chunks that fail before they are written, counted down.
+    int failChunks = 0;
+
+    UploadServer() throws IOException {
+      http = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+      http.createContext("/upload/", this::handle);
+      http.start();
+    }
+
+    String url() {
+      return "http://127.0.0.1:" + http.getAddress().getPort();
+    }
+
+    synchronized void handle(HttpExchange exchange) throws IOException {
+      final Map<String, String> query = parse(exchange.getRequestURI().getRawQuery());
+      final String action = exchange.getRequestURI().getPath().substring("/upload/".length());
+      final byte[] body = readAll(exchange.getRequestBody());
+      switch (action) {
+        case "status":
+          final StringBuilder status = new StringBuilder();
+          for (Map.Entry<String, byte[]> file : files.entrySet()) {
+            status.append(file.getValue().length).append(' ').append(file.getKey()).append('\n');
+          }
+          answer(exchange, 200, status.toString());
+          return;
+        case "chunk":
+          if (exchange.getRequestMethod().equals("GET")) {
+            probe(exchange, query);
+          } else {
+            chunk(exchange, query, body);
+          }
+          return;
+        case "finish":
+          finished = true;
+          answer(exchange, 200, "");
+          return;
+        case "cancel":
+          cancelled = true;
+          files.clear();
+          answer(exchange, 200, "");
+          return;
+        default:
+          answer(exchange, 404, "");
+      }
+    }
+
+    private void chunk(HttpExchange exchange, Map<String, String> query, byte[] body)
+        throws IOException {
+      if (!sha256(body).equals(exchange.getRequestHeaders().getFirst("X-Content-SHA256"))) {
+        answer(exchange, 400, "hash mismatch");
+        return;
+      }
+      final String path = query.get("path");
+      final int offset = Integer.parseInt(query.get("offset"));
+      chunks.add(path + "@" + offset);
+      if (failChunks > 0) {
+        failChunks--;
+        answer(exchange, 503, "");
+        return;
+      }
+      byte[] file = files.getOrDefault(path, new byte[0]);
+      if (offset > file.length) {
+        answer(exchange, 409, String.valueOf(file.length));
+        return;
+      }
+      final boolean duplicate =
+          offset + body.length <= file.length
+              && Arrays.equals(Arrays.copyOfRange(file, offset, offset + body.length), body);
+      if (!duplicate) {
+        if (offset + body.length > file.length) file = Arrays.copyOf(file, offset + body.length);
+        System.arraycopy(body, 0, file, offset, body.length);
+        files.put(path, file);
+        numBytesWritten += body.length;
+      }
+      if (loseAnswers > 0) {
+        loseAnswers--;
+        answer(exchange, 503, "");
+        return;
+      }
+      answer(exchange, 200, file.length + (duplicate ? " duplicate" : ""));
+    }
+
+    private void probe(HttpExchange exchange, Map<String, String> query) throws IOException {
+      final String path = query.get("path");
+      final int offset = Integer.parseInt(query.get("offset"));
+      final int length = Integer.parseInt(query.get("length"));
+      probes.add(path + "@" + offset);
+      final byte[] file = files.getOrDefault(path, new byte[0]);
+      if (offset > file.length) {
+        answer(exchange, 409, String.valueOf(file.length));
+        return;
+      }
+      final boolean duplicate =
+          offset + length <= file.length
+              && sha256(Arrays.copyOfRange(file, offset, offset + length))
+                  .equals(exchange.getRequestHeaders().getFirst("X-Content-SHA256"));
+      answer(exchange, 200, file.length + (duplicate ? " duplicate" : ""));
+    }
+
+    private static void answer(HttpExchange exchange, int code, String text) throws IOException {
+      final byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+      if (bytes.length == 0) {
+        exchange.sendResponseHeaders(code, -1);
+        exchange.close();
+        return;
+      }
+      exchange.sendResponseHeaders(code, bytes.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(bytes);
+      }
+    }
+
+    void stop() {
+      http.stop(0);
+    }
+  }
+
+  private static Map<String, String> parse(String query) throws UnsupportedEncodingException {
+    final Map<String, String> parameters = new HashMap<>();
+    for (String parameter : query.split("&")) {
+      final int equals = parameter.indexOf('=');
+      parameters.put(
+          parameter.substring(0, equals),
+          URLDecoder.decode(parameter.substring(equals + 1), "UTF-8"));
+    }
+    return parameters;
+  }
+
+  private static byte[] readAll(InputStream in) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final byte[] buffer = new byte[4096];
+    int n;
+    while ((n = in.read(buffer)) > 0) out.write(buffer, 0, n);
+    return out.toByteArray();
+  }
+
+  private static String sha256(byte[] bytes) {
+    try {
+      final StringBuilder hex = new StringBuilder();
+      for (byte b : MessageDigest.getInstance("SHA-256").digest(bytes)) {
+        hex.append(String.format("%02x", b));
+      }
+      return hex.toString();
+    } catch (Exception e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private UploadServer server;
+  private File session;
+  private final Random random = new Random(5);
+
+  @Before
+  public void startServer() throws IOException {
+    server = new UploadServer();
+    session = folder.newFolder("20261018_120000");
+  }
+
+  @After
+  public void stopServer() {
+    server.stop();
+  }
+
+  private void append(String path, int size) throws IOException {
+    final File file = new File(session, path);
+    file.getParentFile().mkdirs();
+    final byte[] bytes = new byte[size];
+    random.nextBytes(bytes);
+    try (FileOutputStream out = new FileOutputStream(file, true)) {
+      out.write(bytes);
+    }
+  }
+
+  private void assertUploaded(String path) throws IOException {
+    assertArrayEquals(
+        path, Files.readAllBytes(new File(session, path).toPath()), server.files.get(path));
+  }
+
+  /** Repeats a pass after errors, like the background uploads do. */
+  private static void pass(SessionUploader uploader, boolean complete) {
+    for (int attempt = 0; attempt < 5; attempt++) {
+      try {
+        uploader.uploadPending(complete);
+        return;
+      } catch (IOException e) {
+        assertTrue(uploader.getNumErrors() > 0);
+      }
+    }
+    throw new AssertionError("Upload failed");
+  }
+
+  private int length(String path) {
+    final byte[] file = server.files.get(path);
+    return file == null ? 0 : file.length;
+  }
+
+  @Test
+  public void uploadPending_sendsFullChunksWhileRecording() throws IOException {
+    append("sensor_data/ctrlLog.txt", 2500);
+    append("images/crop.mjpeg", 700);
+    SessionUploader uploader = new SessionUploader(server.url(), session, CHUNK, 1000);
+
+    // Only the full chunks of the files, which were just modified.
+    pass(uploader, false);
+    assertEquals(2 * CHUNK, length("sensor_data/ctrlLog.txt"));
+    assertEquals(0, length("images/crop.mjpeg"));
+
+    append("sensor_data/ctrlLog.txt", 600);
+    append("images/crop.mjpeg", 400);
+    pass(uploader, false);
+    assertEquals(3 * CHUNK, length("sensor_data/ctrlLog.txt"));
+    assertEquals(CHUNK, length("images/crop.mjpeg"));
+
+    // The rest once the files are closed.
+    assertTrue(uploader.finish(5000));
+    assertTrue(server.finished);
+    assertUploaded("sensor_data/ctrlLog.txt");
+    assertUploaded("images/crop.mjpeg");
+    assertEquals(3100 + 1100, server.numBytesWritten);
+  }
+
+  @Test
+  public void uploadPending_probesTheChunkOfALostAnswer() throws IOException {
+    append("sensor_data/poseLog.txt", 3000);
+    SessionUploader uploader = new SessionUploader(server.url(), session, CHUNK, 1000);
+    // The server writes the chunk, but the uploader does not know and sends it again.
+    server.loseAnswers = 1;
+    pass(uploader, true);
+    assertEquals(0, server.loseAnswers);
+    assertEquals(1, uploader.getNumDuplicates());
+    // Only its hash was sent again, then the other chunks.
+    assertEquals(Arrays.asList("sensor_data/poseLog.txt@0"), server.probes);
+    assertEquals(1, uploader.getNumProbes());
+    assertEquals(
+        Arrays.asList(
+            "sensor_data/poseLog.txt@0",
+            "sensor_data/poseLog.txt@1024",
+            "sensor_data/poseLog.txt@2048"),
+        server.chunks);
+    // Every byte was written once.
+    assertEquals(3000, server.numBytesWritten);
+    assertUploaded("sensor_data/poseLog.txt");
+  }
+
+  @Test
+  public void uploadPending_resumesFromTheSizesOnTheServer() throws IOException {
+    append("sensor_data/ctrlLog.txt", 2000);
+    append("images/1_crop.jpeg", 300);
+    SessionUploader first = new SessionUploader(server.url(), session, CHUNK, 1000);
+    pass(first, false);
+    assertEquals(CHUNK, server.numBytesWritten);
+
+    // The app was restarted; a new uploader only sends what the server is missing.
+    append("sensor_data/ctrlLog.txt", 100);
+    final int before = server.chunks.size();
+    SessionUploader second = new SessionUploader(server.url(), session, CHUNK, 1000);
+    assertTrue(second.finish(5000));
+    assertFalse(
+        server.chunks.subList(before, server.chunks.size()).contains("sensor_data/ctrlLog.txt@0"));
+    assertEquals(2100 + 300, server.numBytesWritten);
+    assertUploaded("sensor_data/ctrlLog.txt");
+    assertUploaded("images/1_crop.jpeg");
+  }
+
+  @Test
+  public void uploadPending_resendsAChunkTheServerDoesNotHave() throws IOException {
+    append("sensor_data/poseLog.txt", 1500);
+    SessionUploader uploader = new SessionUploader(server.url(), session, CHUNK, 1000);
+    // The first chunk fails before the server wrote it.
+    server.failChunks = 1;
+    pass(uploader, true);
+    assertEquals(Arrays.asList("sensor_data/poseLog.txt@0"), server.probes);
+    assertEquals(0, uploader.getNumDuplicates());
+    assertEquals(1500, server.numBytesWritten);
+    assertUploaded("sensor_data/poseLog.txt");
+  }
+
+  @Test
+  public void finish_failsWithoutServer() throws IOException {
+    append("sensor_data/ctrlLog.txt", 100);
+    server.stop();
+    SessionUploader uploader = new SessionUploader(server.url(), session, CHUNK, 1000);
+    assertFalse(uploader.finish(200));
+  }
+
+  @Test
+  public void cancel_deletesTheSessionOnTheServer() throws IOException {
+    append("sensor_data/ctrlLog.txt", 2000);
+    SessionUploader uploader = new SessionUploader(server.url(), session, CHUNK, 1000);
+    pass(uploader, false);
+    uploader.cancel();
+    assertTrue(server.cancelled);
+    assertTrue(server.files.isEmpty());
+  }
+}
@@ -0,0 +1,80 @@
+package org.openbot.tflite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class NmsEngineTest {
+
+  private NmsEngine engine;
+
+  @Before
+  public void setupEngine() {
+    engine = new NmsEngine(2);
+    engine.setIouThreshold(0.25f);
+  }
+
+  @Test
+  public void hardNms_keepsBestOverlappingBoxPerClass() {
+    engine.add(0, 0, 10, 10, 0.6f, 1);
+    engine.add(1, 1, 11, 11, 0.9f, 1);
+    engine.add(50, 50, 60, 60, 0.7f, 1);
+    // Same location as the first two boxes, but a different class.
+    engine.add(0, 0, 10, 10, 0.8f, 0);
+
+    assertEquals(3, engine.run());
+    // Results are grouped by class and sorted by descending score.
+    assertEquals(3, engine.getKeptIndex(0));
+    assertEquals(1, engine.getKeptIndex(1));
+    assertEquals(2, engine.getKeptIndex(2));
+    assertEquals(0.9f, engine.getKeptScore(1), 0.0f);
+  }
+
+  @Test
+  public void clear_resetsCandidates() {
+    engine.add(0, 0, 10, 10, 0.6f, 0);
+    engine.run();
+    engine.clear();
+    assertEquals(0, engine.size());
+    assertEquals(0, engine.run());
+  }
+
+  @Test
+  public void iou_matchesAreaRatio() {
+    engine.add(0, 0, 10, 10, 1, 0);
+    engine.add(5, 0, 15, 10, 1, 0);
+    engine.add(20, 20, 30, 30, 1, 0);
+    assertEquals(50f / 150f, engine.iou(0, 1), 1e-6f);
+    assertEquals(0f, engine.iou(0, 2), 0.0f);
+  }
+
+  @Test
+  public void softNms_decaysInsteadOfRemoving() {
+    engine.setMethod(NmsEngine.Method.SOFT_LINEAR);
+    engine.add(0, 0, 10, 10, 0.9f, 0);
+    engine.add(5, 0, 15, 10, 0.8f, 0);
+
+    assertEquals(2, engine.run());
+    assertEquals(0, engine.getKeptIndex(0));
+    assertEquals(1, engine.getKeptIndex(1));
+    assertEquals(0.8f * (1 - 50f / 150f), engine.getKeptScore(1), 1e-6f);
+  }
+
+  @Test
+  public void add_growsBeyondInitialCapacity() {
+    for (int i = 0; i < 1000; i++) {
+      engine.add(i * 20, 0, i * 20 + 10, 10, (i % 100) / 100f, i % 80);
+    }
+    assertEquals(1000, engine.run());
+    for (int k = 1; k < engine.getNumKept(); k++) {
+      int previousClass = engine.getKeptIndex(k - 1) % 80;
+      int currentClass = engine.getKeptIndex(k) % 80;
+      assertTrue(previousClass <= currentClass);
+      if (previousClass == currentClass) {
+        assertTrue(engine.getKeptScore(k - 1) >= engine.getKeptScore(k));
+      }
+    }
+  }
+}
@@ -0,0 +1,56 @@
+package org.openbot.tflite;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class YoloV5DecoderTest {
+
+  private static final int NUM_CLASSES = 3;
+  private static final int STRIDE = NUM_CLASSES + 5;
+
+  private static void putBox(ByteBuffer buffer, int index, float... values) {
+    for (int i = 0; i < values.length; i++) buffer.putFloat((index * STRIDE + i) * 4, values[i]);
+  }
+
+  @Test
+  public void decode_keepsConfidentBoxesOfSecondFrame() {
+    YoloV5Decoder decoder = new YoloV5Decoder(2, NUM_CLASSES);
+    ByteBuffer outData =
+        ByteBuffer.allocateDirect(2 * decoder.getFrameBytes()).order(ByteOrder.nativeOrder());
+    // Frame 1: the first box is confident in class 2, the second one is below the threshold.
+    putBox(outData, 2, 0.5f, 0.5f, 0.25f, 0.5f, 0.9f, 0.1f, 0.2f, 0.8f);
+    putBox(outData, 3, 0.5f, 0.5f, 0.25f, 0.5f, 0.3f, 0.9f, 0f, 0f);
+
+    List<float[]> boxes = new ArrayList<>();
+    int count =
+        decoder.decode(
+            outData,
+            1,
+            0.5f,
+            100,
+            99,
+            99,
+            (box, classId, score, left, top, right, bottom) ->
+                boxes.add(new float[] {box, classId, score, left, top, right, bottom}));
+
+    assertEquals(1, count);
+    assertEquals(0, boxes.get(0)[0], 0);
+    assertEquals(2, boxes.get(0)[1], 0);
+    assertEquals(0.72f, boxes.get(0)[2], 1e-6f);
+    assertEquals(37.5f, boxes.get(0)[3], 1e-4f);
+    assertEquals(25f, boxes.get(0)[4], 1e-4f);
+    assertEquals(62.5f, boxes.get(0)[5], 1e-4f);
+    assertEquals(75f, boxes.get(0)[6], 1e-4f);
+  }
+
+  @Test
+  public void getNumBoxes_matchesYoloV5Anchors() {
+    assertEquals(6300, YoloV5Decoder.getNumBoxes(320));
+    assertEquals(10647, YoloV5Decoder.getNumBoxes(416));
+  }
+}
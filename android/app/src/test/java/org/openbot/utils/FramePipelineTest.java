@@ -0,0 +1,247 @@
+package org.openbot.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FramePipelineTest {
+
+  private static class Frame {
+    int value;
+  }
+
+  private ExecutorService first;
+  private ExecutorService second;
+
+  @Before
+  public void startExecutors() {
+    first = Executors.newSingleThreadExecutor();
+    second = Executors.newSingleThreadExecutor();
+  }
+
+  @After
+  public void stopExecutors() {
+    first.shutdownNow();
+    second.shutdownNow();
+  }
+
+  private static List<Frame> frames(int count) {
+    List<Frame> frames = new ArrayList<>();
+    for (int i = 0; i < count; i++) frames.add(new Frame());
+    return frames;
+  }
+
+  @Test
+  public void framesPassAllStagesInOrder() throws InterruptedException {
+    final List<Integer> results = Collections.synchronizedList(new ArrayList<>());
+    final Semaphore done = new Semaphore(0);
+    FramePipeline<Frame> pipeline =
+        new FramePipeline<>(frames(2))
+            .addStageOn(
+                "double",
+                first,
+                frame -> {
+                  frame.value *= 2;
+                  return true;
+                })
+            .addStageOn(
+                "collect",
+                second,
+                frame -> {
+                  results.add(frame.value);
+                  done.release();
+                  return true;
+                });
+
+    for (int i = 1; i <= 5; i++) {
+      Frame frame = pipeline.acquire();
+      assertNotNull(frame);
+      frame.value = i;
+      pipeline.submit(frame);
+      // Wait for each frame, so none of them is dropped.
+      assertTrue(done.tryAcquire(5, TimeUnit.SECONDS));
+    }
+    assertEquals(Arrays.asList(2, 4, 6, 8, 10), results);
+    assertEquals(5, pipeline.getStats().get(0).processed);
+    assertEquals(0, pipeline.getStats().get(1).dropped);
+  }
+
+  @Test
+  public void busyStageOnlyTakesLatestFrame() throws InterruptedException {
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(2);
+    final List<Integer> results = Collections.synchronizedList(new ArrayList<>());
+    FramePipeline<Frame> pipeline =
+        new FramePipeline<>(frames(3))
+            .addStageOn(
+                "slow",
+                first,
+                frame -> {
+                  started.countDown();
+                  try {
+                    release.await();
+                  } catch (InterruptedException e) {
+                    return false;
+                  }
+                  results.add(frame.value);
+                  done.countDown();
+                  return true;
+                });
+
+    for (int i = 1; i <= 3; i++) {
+      Frame frame = pipeline.acquire();
+      assertNotNull(frame);
+      frame.value = i;
+      pipeline.submit(frame);
+      if (i == 1) assertTrue(started.await(5, TimeUnit.SECONDS));
+    }
+    // Frame 2 was replaced by frame 3 while the stage was busy with frame 1.
+    assertEquals(1, pipeline.getStats().get(0).queueDepth);
+    release.countDown();
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertEquals(Arrays.asList(1, 3), results);
+    assertEquals(1, pipeline.getStats().get(0).dropped);
+  }
+
+  @Test
+  public void acquire_reclaimsPendingFrameWhenAllAreBusy() throws InterruptedException {
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    FramePipeline<Frame> pipeline =
+        new FramePipeline<>(frames(2))
+            .addStageOn(
+                "slow",
+                first,
+                frame -> {
+                  started.countDown();
+                  try {
+                    release.await();
+                  } catch (InterruptedException e) {
+                    return false;
+                  }
+                  return true;
+                });
+
+    pipeline.submit(pipeline.acquire());
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    Frame pending = pipeline.acquire();
+    pipeline.submit(pending);
+    // The only other frame is being processed, so the pending one is handed out again.
+    assertTrue(pending == pipeline.acquire());
+    assertNull(pipeline.acquire());
+    assertEquals(1, pipeline.getNumAcquireFailed());
+    release.countDown();
+  }
+
+  @Test
+  public void close_waitsForRunningStage() throws InterruptedException {
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch closed = new CountDownLatch(1);
+    final List<Integer> passedOn = Collections.synchronizedList(new ArrayList<>());
+    FramePipeline<Frame> pipeline =
+        new FramePipeline<>(frames(2))
+            .addStageOn(
+                "slow",
+                first,
+                frame -> {
+                  started.countDown();
+                  try {
+                    release.await();
+                  } catch (InterruptedException e) {
+                    return false;
+                  }
+                  return true;
+                })
+            .addStageOn(
+                "next",
+                second,
+                frame -> {
+                  passedOn.add(frame.value);
+                  return true;
+                });
+
+    pipeline.submit(pipeline.acquire());
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    pipeline.close(closed::countDown);
+    assertEquals(1, closed.getCount());
+    assertNull(pipeline.acquire());
+
+    release.countDown();
+    assertTrue(closed.await(5, TimeUnit.SECONDS));
+    assertTrue(passedOn.isEmpty());
+    assertTrue(pipeline.isClosed());
+    assertFalse(pipeline.getStats().isEmpty());
+  }
+
+  @Test
+  public void close_completesWhenAStageWasRejected() throws InterruptedException {
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch processed = new CountDownLatch(1);
+    final CountDownLatch closed = new CountDownLatch(1);
+    FramePipeline<Frame> pipeline =
+        new FramePipeline<>(frames(1))
+            .addStageOn(
+                "slow",
+                first,
+                frame -> {
+                  started.countDown();
+                  try {
+                    release.await();
+                  } catch (InterruptedException e) {
+                    return false;
+                  }
+                  processed.countDown();
+                  return true;
+                })
+            .addStageOn("stopped", second, frame -> true);
+
+    pipeline.submit(pipeline.acquire());
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    // Like a looper that quit, the next stage no longer runs anything.
+    second.shutdown();
+    release.countDown();
+    assertTrue(processed.await(5, TimeUnit.SECONDS));
+    // The frame was dropped instead of waiting for the stopped stage.
+    Frame frame = null;
+    for (int i = 0; i < 100 && frame == null; i++) {
+      frame = pipeline.acquire();
+      if (frame == null) Thread.sleep(10);
+    }
+    assertNotNull(frame);
+    pipeline.release(frame);
+
+    pipeline.close(closed::countDown);
+    assertTrue(closed.await(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void submit_dropsTheFrameIfTheExecutorRejectsIt() {
+    final CountDownLatch closed = new CountDownLatch(1);
+    FramePipeline<Frame> pipeline =
+        new FramePipeline<Frame>(frames(1)).addStage("quit", task -> false, frame -> true);
+
+    pipeline.submit(pipeline.acquire());
+    assertNotNull(pipeline.acquire());
+    assertEquals(1, pipeline.getStats().get(0).dropped);
+    pipeline.close(closed::countDown);
+    assertEquals(0, closed.getCount());
+  }
+}
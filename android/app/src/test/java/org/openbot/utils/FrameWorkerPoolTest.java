@@ -0,0 +1,145 @@
+package org.openbot.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+import org.openbot.utils.FrameWorkerPool.DropPolicy;
+
+public class FrameWorkerPoolTest {
+
+  private static class Frame {
+    int value;
+  }
+
+  private FrameWorkerPool<Frame> pool;
+  private final List<Integer> results = Collections.synchronizedList(new ArrayList<>());
+  private final Semaphore started = new Semaphore(0);
+  private final CountDownLatch blocked = new CountDownLatch(1);
+
+  @After
+  public void closePool() throws InterruptedException {
+    blocked.countDown();
+    if (pool != null) {
+      pool.close();
+      assertTrue(pool.awaitTermination(1000));
+    }
+  }
+
+  private static List<Frame> frames(int count) {
+    List<Frame> frames = new ArrayList<>();
+    for (int i = 0; i < count; i++) frames.add(new Frame());
+    return frames;
+  }
+
+  /** Records the frames; the first one blocks the worker until {@link #blocked} is released. */
+  private void record(Frame frame) {
+    started.release();
+    try {
+      if (frame.value == 1) blocked.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    results.add(frame.value);
+  }
+
+  private void submit(int lane, int value) {
+    Frame frame = pool.acquire(lane);
+    assertNotNull(frame);
+    frame.value = value;
+    pool.submit(lane, frame);
+  }
+
+  @Test
+  public void workersProcessAllFramesBeforeClosing() throws InterruptedException {
+    pool =
+        new FrameWorkerPool<>(
+            "test",
+            3,
+            DropPolicy.DROP_OLDEST,
+            frame -> {
+              if (frame.value == 13) throw new IllegalStateException("Broken frame");
+              results.add(frame.value);
+            });
+    int lane = pool.addLane("crop", 0, frames(4));
+    pool.start();
+    for (int i = 2; i < 102; i++) {
+      Frame frame;
+      while ((frame = pool.acquire(lane)) == null) Thread.yield();
+      frame.value = i;
+      pool.submit(lane, frame);
+    }
+    pool.close();
+    assertTrue(pool.awaitTermination(1000));
+    assertNull(pool.acquire(lane));
+
+    // Every frame is either processed, failed or dropped for a newer one, none is lost.
+    FrameWorkerPool.Stats stats = pool.getStats();
+    assertEquals(100, stats.processed + stats.errors + stats.dropped);
+    assertEquals(stats.processed, results.size());
+    assertFalse(results.contains(13));
+    assertTrue(stats.errors <= 1);
+    assertEquals(0, stats.queueDepth);
+    assertTrue(stats.maxQueueDepth <= 4);
+    assertTrue(stats.throughput > 0);
+  }
+
+  @Test
+  public void dropOldest_reusesTheOldestWaitingFrame() throws InterruptedException {
+    pool = new FrameWorkerPool<>("test", 1, DropPolicy.DROP_OLDEST, this::record);
+    int lane = pool.addLane("crop", 0, frames(3));
+    pool.start();
+    submit(lane, 1);
+    assertTrue(started.tryAcquire(1, TimeUnit.SECONDS));
+    submit(lane, 2);
+    submit(lane, 3);
+    // Frame 2 is dropped for frame 4.
+    submit(lane, 4);
+    assertEquals(2, pool.getStats().queueDepth);
+    blocked.countDown();
+    pool.close();
+    assertTrue(pool.awaitTermination(1000));
+
+    assertEquals(Arrays.asList(1, 3, 4), results);
+    FrameWorkerPool.LaneStats stats = pool.getStats().lanes.get(lane);
+    assertEquals(4, stats.submitted);
+    assertEquals(3, stats.processed);
+    assertEquals(1, stats.dropped);
+  }
+
+  @Test
+  public void dropLowPriority_skipsPreviewsWhileCropsWait() throws InterruptedException {
+    pool = new FrameWorkerPool<>("test", 1, DropPolicy.DROP_LOW_PRIORITY, this::record);
+    int preview = pool.addLane("preview", 0, frames(3));
+    int crop = pool.addLane("crop", 1, frames(3));
+    pool.start();
+    submit(preview, 1);
+    assertTrue(started.tryAcquire(1, TimeUnit.SECONDS));
+    submit(preview, 2);
+    submit(crop, 3);
+    // A crop is waiting, so previews are skipped, but crops are not.
+    assertNull(pool.acquire(preview));
+    submit(crop, 4);
+    blocked.countDown();
+    pool.close();
+    assertTrue(pool.awaitTermination(1000));
+
+    // The crops are processed before the older preview.
+    assertEquals(Arrays.asList(1, 3, 4, 2), results);
+    FrameWorkerPool.Stats stats = pool.getStats();
+    assertEquals(1, stats.lanes.get(preview).dropped);
+    assertEquals(0, stats.lanes.get(crop).dropped);
+    assertEquals(3, stats.maxQueueDepth);
+  }
+}
@@ -0,0 +1,55 @@
+package org.openbot.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+  @Test
+  public void bucketBounds_containTheirValues() {
+    for (long value = 0; value < 1_000_000; value += 7) {
+      int index = LatencyHistogram.bucketIndex(value);
+      assertTrue(value <= LatencyHistogram.bucketUpperBound(index));
+      if (index > 0) assertTrue(value > LatencyHistogram.bucketUpperBound(index - 1));
+    }
+  }
+
+  @Test
+  public void percentiles_areWithinBucketPrecision() {
+    LatencyHistogram histogram = new LatencyHistogram("test");
+    // 1 ms to 100 ms in steps of 1 ms.
+    for (int i = 1; i <= 100; i++) histogram.record(i * 1_000_000L);
+
+    assertEquals(100, histogram.getCount());
+    assertEquals(50.5e6, histogram.getMeanNanos(), 1.0);
+    assertEquals(100_000_000L, histogram.getMaxNanos());
+    assertEquals(50e6, histogram.getPercentileNanos(50), 50e6 * 0.035);
+    assertEquals(95e6, histogram.getPercentileNanos(95), 95e6 * 0.035);
+    assertEquals(99e6, histogram.getPercentileNanos(99), 99e6 * 0.035);
+    assertEquals(100_000_000L, histogram.getPercentileNanos(100));
+  }
+
+  @Test
+  public void reset_clearsAllValues() {
+    LatencyHistogram histogram = new LatencyHistogram("test");
+    histogram.record(-5);
+    histogram.record(Long.MAX_VALUE);
+    assertEquals(2, histogram.getCount());
+    assertEquals(0, histogram.getPercentileNanos(50));
+
+    histogram.reset();
+    assertEquals(0, histogram.getCount());
+    assertEquals(0, histogram.getMaxNanos());
+    assertEquals(0, histogram.getPercentileNanos(99));
+  }
+
+  @Test
+  public void metrics_returnsSameHistogramForName() {
+    LatencyHistogram histogram = Metrics.histogram("metricsTest");
+    assertTrue(histogram == Metrics.histogram("metricsTest"));
+    histogram.record(1_000_000);
+    assertTrue(Metrics.report().contains("metricsTest: count 1"));
+  }
+}
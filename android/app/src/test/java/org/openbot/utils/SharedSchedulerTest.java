@@ -0,0 +1,67 @@
+package org.openbot.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class SharedSchedulerTest {
+
+  @Test
+  public void scheduleAtFixedRate_recordsTheLatenessOfEveryRun() throws InterruptedException {
+    SharedScheduler scheduler = new SharedScheduler("test-scheduler");
+    LatencyHistogram lateness = new LatencyHistogram("lateness");
+    CountDownLatch runs = new CountDownLatch(20);
+    String[] threadName = new String[1];
+    SharedScheduler.Task task =
+        scheduler.scheduleAtFixedRate(
+            "test",
+            () -> {
+              threadName[0] = Thread.currentThread().getName();
+              runs.countDown();
+            },
+            0,
+            5,
+            lateness);
+    assertTrue(runs.await(5, TimeUnit.SECONDS));
+    task.cancel();
+
+    assertTrue(task.isCancelled());
+    assertEquals(0, scheduler.getNumTasks());
+    assertEquals("test-scheduler", threadName[0]);
+    assertEquals(task.getNumRuns(), lateness.getCount());
+    // A 250 ms heartbeat against the 750 ms timeout of the firmware has 500 ms of slack.
+    assertTrue(lateness.getPercentileNanos(50) < TimeUnit.MILLISECONDS.toNanos(100));
+    scheduler.shutdown();
+  }
+
+  @Test
+  public void tasks_shareOneThreadAndSurviveFailures() throws InterruptedException {
+    SharedScheduler scheduler = new SharedScheduler("test-scheduler");
+    int threadsBefore = Thread.activeCount();
+    CountDownLatch runs = new CountDownLatch(10);
+    SharedScheduler.Task failing =
+        scheduler.scheduleAtFixedRate(
+            "failing",
+            () -> {
+              runs.countDown();
+              throw new IllegalStateException("failure");
+            },
+            0,
+            2,
+            null);
+    // Restarting tasks, like toggling the noise, does not add threads.
+    for (int i = 0; i < 100; i++)
+      scheduler.scheduleAtFixedRate("noop", () -> {}, 0, 10, null).cancel();
+    assertTrue(runs.await(5, TimeUnit.SECONDS));
+    failing.cancel();
+
+    assertTrue(failing.getNumFailures() >= 10);
+    assertEquals(failing.getNumRuns(), failing.getNumFailures());
+    assertTrue(scheduler.getNumFailures() >= 10);
+    assertTrue(Thread.activeCount() <= threadsBefore + 1);
+    scheduler.shutdown();
+  }
+}
@@ -0,0 +1,155 @@
+package org.openbot.vehicle;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.Assume;
+import org.junit.Test;
+
+public class BinaryProtocolTest {
+
+  /** A fake vehicle that decodes the frames written to it, like the firmware does. */
+  private static class LoopbackSerialDevice {
+    final List<String> received = new ArrayList<>();
+    final BinaryProtocol.Decoder decoder =
+        new BinaryProtocol.Decoder(
+            (type, payload) ->
+                received.add(
+                    (char) type
+                        + (type == BinaryProtocol.TYPE_CONTROL
+                                || type == BinaryProtocol.TYPE_INDICATOR
+                                || type == BinaryProtocol.TYPE_LIGHT
+                            ? BinaryProtocol.first(payload) + "," + BinaryProtocol.second(payload)
+                            : Integer.toString(payload))));
+
+    void write(byte[] data, int chunkSize) {
+      for (int i = 0; i < data.length; i += chunkSize) {
+        decoder.feed(data, i, Math.min(chunkSize, data.length - i));
+      }
+    }
+  }
+
+  private static byte[] concat(byte[]... messages) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (byte[] message : messages) out.write(message, 0, message.length);
+    return out.toByteArray();
+  }
+
+  @Test
+  public void asciiProtocol_matchesTextCommands() {
+    AsciiProtocol ascii = new AsciiProtocol();
+    assertArrayEquals("c-192,255\n".getBytes(US_ASCII), ascii.control(-192, 255));
+    assertArrayEquals("i1,0\n".getBytes(US_ASCII), ascii.indicator(1, 0));
+    assertArrayEquals("l127,0\n".getBytes(US_ASCII), ascii.light(127, 0));
+    assertArrayEquals("h750\n".getBytes(US_ASCII), ascii.heartbeat(750));
+    assertArrayEquals("w500\n".getBytes(US_ASCII), ascii.wheelOdometryInterval(500));
+  }
+
+  @Test
+  public void frames_roundTripInArbitraryChunks() {
+    BinaryProtocol binary = new BinaryProtocol();
+    byte[] stream =
+        concat(
+            binary.control(-255, 192),
+            binary.indicator(0, 1),
+            binary.light(255, 0),
+            binary.heartbeat(750),
+            binary.sonarInterval(100),
+            binary.voltageInterval(250),
+            binary.wheelOdometryInterval(500));
+    assertEquals(7 * BinaryProtocol.FRAME_SIZE, stream.length);
+
+    for (int chunkSize = 1; chunkSize <= stream.length; chunkSize++) {
+      LoopbackSerialDevice device = new LoopbackSerialDevice();
+      device.write(stream, chunkSize);
+      assertEquals(
+          "chunk size " + chunkSize,
+          Arrays.asList("c-255,192", "i0,1", "l255,0", "h750", "s100", "v250", "w500"),
+          device.received);
+      assertEquals(0, device.decoder.getNumCrcErrors());
+    }
+  }
+
+  @Test
+  public void decoder_skipsTextAndCorruptedFrames() {
+    BinaryProtocol binary = new BinaryProtocol();
+    byte[] corrupted = binary.control(100, 100);
+    corrupted[3] ^= 0x10;
+    byte[] stream =
+        concat(
+            "f\n".getBytes(US_ASCII),
+            binary.control(1, 2),
+            corrupted,
+            new AsciiProtocol().heartbeat(500),
+            binary.control(3, 4));
+
+    LoopbackSerialDevice device = new LoopbackSerialDevice();
+    device.write(stream, stream.length);
+    assertEquals(Arrays.asList("c1,2", "c3,4"), device.received);
+    assertEquals(1, device.decoder.getNumCrcErrors());
+    assertEquals(2, device.decoder.getNumFrames());
+  }
+
+  @Test
+  public void decoder_resynchronizesOnRandomNoise() {
+    BinaryProtocol binary = new BinaryProtocol();
+    Random random = new Random(42);
+    byte[] noise = new byte[1000];
+    random.nextBytes(noise);
+
+    LoopbackSerialDevice device = new LoopbackSerialDevice();
+    device.write(noise, 13);
+    device.received.clear();
+    // A frame may still be in progress after the noise, so the first control can be lost.
+    device.write(concat(binary.control(5, 6), binary.control(7, 8), binary.control(9, 10)), 5);
+    assertEquals("c9,10", device.received.get(device.received.size() - 1));
+  }
+
+  /** Finds the corruption cases that the firmware is tested against, in the repository. */
+  private static File sharedCases() {
+    for (File dir = new File("").getAbsoluteFile(); dir != null; dir = dir.getParentFile()) {
+      File cases = new File(dir, "firmware/openbot_nano/test/binary_frames.txt");
+      if (cases.isFile()) return cases;
+    }
+    return null;
+  }
+
+  @Test
+  public void decoder_matchesFirmwareOnCorruptedStreams() throws IOException {
+    File cases = sharedCases();
+    Assume.assumeTrue("firmware test cases not found", cases != null);
+
+    int numCases = 0;
+    for (String line : Files.readAllLines(cases.toPath(), US_ASCII)) {
+      if (line.isEmpty() || line.startsWith("#")) continue;
+      String[] fields = line.split("\\|", -1);
+      String name = fields[0].trim();
+      String[] hex = fields[1].trim().split(" ");
+      byte[] stream = new byte[hex.length];
+      for (int i = 0; i < hex.length; i++) stream[i] = (byte) Integer.parseInt(hex[i], 16);
+
+      List<String> decoded = new ArrayList<>();
+      BinaryProtocol.Decoder decoder =
+          new BinaryProtocol.Decoder(
+              (type, payload) -> decoded.add(String.format("%c%08X", type, payload)));
+      decoder.feed(stream, 0, stream.length);
+
+      String expected = fields[2].trim();
+      assertEquals(
+          name, expected.isEmpty() ? Arrays.asList() : Arrays.asList(expected.split(" ")), decoded);
+      assertEquals(name, Long.parseLong(fields[3].trim()), decoder.getNumCrcErrors());
+      numCases++;
+    }
+    assertTrue(numCases > 0);
+  }
+}
@@ -0,0 +1,103 @@
+package org.openbot.vehicle;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class ControlSchedulerTest {
+
+  /** Records the written commands as text and fails while {@code connected} is false. */
+  private static class RecordingOutput implements ControlScheduler.Output {
+    final List<String> written = Collections.synchronizedList(new ArrayList<>());
+    volatile boolean connected = true;
+
+    @Override
+    public boolean write(byte[] command) {
+      if (!connected) return false;
+      written.add(new String(command, US_ASCII).trim());
+      return true;
+    }
+  }
+
+  private final AsciiProtocol ascii = new AsciiProtocol();
+
+  @Test
+  public void tick_writesCommandsBeforeTheLatestControl() {
+    RecordingOutput output = new RecordingOutput();
+    ControlScheduler scheduler = new ControlScheduler(output, 50);
+
+    scheduler.setControl(10, 10);
+    scheduler.setControl(20, 20);
+    scheduler.send(ascii.indicator(1, 0));
+    scheduler.setControl(30, -30);
+    scheduler.send(ascii.heartbeat(750));
+    scheduler.tick();
+    // Nothing new to write.
+    scheduler.tick();
+
+    assertEquals(Arrays.asList("i1,0", "h750", "c30,-30"), output.written);
+    assertEquals(3, scheduler.getNumControls());
+    assertEquals(2, scheduler.getNumCoalesced());
+    assertEquals(1, scheduler.getControlLatency().getCount());
+  }
+
+  @Test
+  public void tick_countsDroppedCommands() {
+    RecordingOutput output = new RecordingOutput();
+    output.connected = false;
+    ControlScheduler scheduler = new ControlScheduler(output, 50);
+
+    for (int i = 0; i < 40; i++) scheduler.send(ascii.heartbeat(750));
+    scheduler.setControl(1, 1);
+    scheduler.tick();
+
+    // 8 commands did not fit into the queue, the other 32 and the control failed to write.
+    assertEquals(41, scheduler.getNumDropped());
+    assertEquals(0, scheduler.getControlLatency().getCount());
+
+    output.connected = true;
+    scheduler.setProtocol(new BinaryProtocol());
+    scheduler.setControl(2, 2);
+    scheduler.tick();
+    assertEquals(1, output.written.size());
+  }
+
+  @Test
+  public void stop_writesThePendingControl() throws InterruptedException {
+    CountDownLatch writing = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    RecordingOutput output =
+        new RecordingOutput() {
+          @Override
+          public boolean write(byte[] command) {
+            writing.countDown();
+            try {
+              release.await();
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+            return super.write(command);
+          }
+        };
+    ControlScheduler scheduler = new ControlScheduler(output, 100);
+    scheduler.start();
+    scheduler.setControl(0, 0);
+    // The scheduler is stuck writing the first control, so all others are coalesced.
+    assertTrue(writing.await(5, TimeUnit.SECONDS));
+    for (int i = 1; i <= 100; i++) scheduler.setControl(i, -i);
+    release.countDown();
+    scheduler.stop();
+
+    assertEquals(Arrays.asList("c0,0", "c100,-100"), output.written);
+    assertEquals(101, scheduler.getNumControls());
+    assertEquals(99, scheduler.getNumCoalesced());
+  }
+}
@@ -0,0 +1,32 @@
+package org.openbot.vehicle;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class NoiseTest {
+
+  private static float[] run(Noise noise) {
+    float[] values = new float[400];
+    for (int i = 0; i < values.length; i++) {
+      noise.update(10_000 + i * 50L);
+      values[i] = noise.getDirection() * noise.getValue();
+    }
+    return values;
+  }
+
+  @Test
+  public void update_isRepeatableForASeed() {
+    float[] first = run(new Noise(1000, 2000, 5000, 42));
+    assertArrayEquals(first, run(new Noise(1000, 2000, 5000, 42)), 0);
+
+    // Pulses of 1 to 2 s every 6 to 7 s, at most 0.5.
+    int active = 0;
+    for (float value : first) {
+      assertTrue(Math.abs(value) <= 0.5f);
+      if (value != 0) active++;
+    }
+    assertTrue(active > first.length / 10 && active < first.length / 3);
+  }
+}
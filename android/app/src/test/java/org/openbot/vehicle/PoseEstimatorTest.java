@@ -0,0 +1,120 @@
+package org.openbot.vehicle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class PoseEstimatorTest {
+
+  private static final double WHEEL_DIAMETER = 0.065;
+  private static final double WHEEL_BASE = 0.15;
+  private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  /** Wheel speed in rpm that moves the vehicle at the given speed in m/s. */
+  private static float rpm(double speed) {
+    return (float) (speed * 60 / (Math.PI * WHEEL_DIAMETER));
+  }
+
+  @Test
+  public void wheelOdometry_drivesStraightAndTurnsOnTheSpot() {
+    PoseEstimator estimator = new PoseEstimator(WHEEL_DIAMETER, WHEEL_BASE);
+    PoseEstimator.Pose pose = new PoseEstimator.Pose();
+
+    // 0.5 m/s for 2 s, reported every 100 ms.
+    for (long t = 0; t <= 2000; t += 100) estimator.onWheelRpm(rpm(0.5), rpm(0.5), t * MS);
+    estimator.getPose(pose);
+    assertEquals(1.0, pose.x, 1e-6);
+    assertEquals(0.0, pose.y, 1e-9);
+    assertEquals(0.5, pose.speed, 1e-6);
+
+    // Half a turn counterclockwise in 1 s.
+    float turn = rpm(Math.PI * WHEEL_BASE / 2);
+    for (long t = 2000; t <= 3000; t += 100) estimator.onWheelRpm(-turn, turn, t * MS);
+    estimator.onWheelRpm(0, 0, 3000 * MS);
+    estimator.getPose(pose);
+    assertEquals(Math.PI, pose.heading, 1e-5);
+    assertEquals(1.0, pose.x, 1e-3);
+    assertEquals(0, pose.speed, 0);
+    assertEquals(0, pose.yawRate, 0);
+  }
+
+  @Test
+  public void gyroscope_overridesTheYawRateOfSlippingWheels() {
+    PoseEstimator estimator = new PoseEstimator(WHEEL_DIAMETER, WHEEL_BASE);
+    PoseEstimator.Pose pose = new PoseEstimator.Pose();
+
+    // A circle of radius 0.5 m at 0.5 m/s, while the wheels claim to turn twice as fast.
+    double speed = 0.5;
+    double yawRate = 1.0;
+    double slipYaw = 2 * yawRate * WHEEL_BASE / 2;
+    long end = TimeUnit.SECONDS.toNanos(1) * (long) Math.ceil(2 * Math.PI / yawRate);
+    for (long t = 0; t <= end; t += 5 * MS) {
+      if (t % (50 * MS) == 0) {
+        estimator.onWheelRpm(rpm(speed - slipYaw), rpm(speed + slipYaw), t);
+      }
+      estimator.onYawRate((float) yawRate, t + MS);
+    }
+    estimator.getPose(pose);
+    double seconds = pose.timestampNanos * 1e-9;
+    assertEquals(yawRate * seconds, pose.heading, 0.01);
+    assertEquals(0.5 * Math.sin(yawRate * seconds), pose.x, 0.01);
+    assertEquals(0.5 * (1 - Math.cos(yawRate * seconds)), pose.y, 0.01);
+  }
+
+  @Test
+  public void gyroscope_biasIsLearnedWhileStandingStill() {
+    PoseEstimator estimator = new PoseEstimator(WHEEL_DIAMETER, WHEEL_BASE);
+    PoseEstimator.Pose pose = new PoseEstimator.Pose();
+    float bias = 0.02f;
+
+    estimator.onWheelRpm(0, 0, 0);
+    for (long t = 0; t < 5000; t += 5) estimator.onYawRate(bias, t * MS);
+    estimator.getPose(pose);
+    assertEquals(0, pose.heading, 0);
+    assertEquals(bias, estimator.getGyroBias(), 1e-4);
+
+    // Driving straight, the biased gyroscope does not bend the path.
+    for (long t = 5000; t <= 15000; t += 5) {
+      if (t % 100 == 0) estimator.onWheelRpm(rpm(0.5), rpm(0.5), t * MS);
+      estimator.onYawRate(bias, t * MS);
+    }
+    estimator.getPose(pose);
+    assertEquals(5.0, pose.x, 0.01);
+    assertEquals(0, pose.heading, 1e-3);
+  }
+
+  @Test
+  public void wheelOdometry_isUsedWhenTheGyroscopeStops() {
+    PoseEstimator estimator = new PoseEstimator(WHEEL_DIAMETER, WHEEL_BASE);
+    PoseEstimator.Pose pose = new PoseEstimator.Pose();
+    float turn = rpm(WHEEL_BASE / 2);
+
+    estimator.onYawRate(5, 0);
+    // About 5 rad/s from the gyroscope for 100 ms, then it is stale and the wheels turn 1 rad/s.
+    for (long t = 0; t <= 1100; t += 100) estimator.onWheelRpm(-turn, turn, t * MS);
+    estimator.getPose(pose);
+    assertEquals(1.0, pose.yawRate, 1e-6);
+    assertTrue(pose.heading > 1.4 && pose.heading < 1.6);
+  }
+
+  @Test
+  public void listener_receivesEveryUpdate() {
+    PoseEstimator estimator = new PoseEstimator(WHEEL_DIAMETER, WHEEL_BASE);
+    int[] count = new int[1];
+    double[] lastX = new double[1];
+    PoseEstimator.Listener listener =
+        pose -> {
+          count[0]++;
+          lastX[0] = pose.x;
+        };
+    estimator.addListener(listener);
+    for (long t = 0; t <= 1000; t += 100) estimator.onWheelRpm(rpm(1), rpm(1), t * MS);
+    estimator.removeListener(listener);
+    estimator.onWheelRpm(0, 0, 1100 * MS);
+
+    assertEquals(11, count[0]);
+    assertEquals(1.0, lastX[0], 1e-6);
+  }
+}
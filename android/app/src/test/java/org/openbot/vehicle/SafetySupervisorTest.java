@@ -0,0 +1,130 @@
+package org.openbot.vehicle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class SafetySupervisorTest {
+
+  private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private static void assertOutput(SafetySupervisor supervisor, int left, int right) {
+    assertEquals(left, supervisor.getLeftOutput());
+    assertEquals(right, supervisor.getRightOutput());
+  }
+
+  @Test
+  public void sonar_slowsDownAndStopsForwardMotionOnly() {
+    SafetySupervisor supervisor = new SafetySupervisor();
+    supervisor.apply(200, 200, 0);
+    assertOutput(supervisor, 200, 200);
+
+    // Halfway between the slow-down distance of 60 cm and the stop distance of 25 cm.
+    assertTrue(supervisor.onSonar(42.5f, 0));
+    assertOutput(supervisor, 100, 100);
+    assertTrue(supervisor.onSonar(20, 0));
+    assertOutput(supervisor, 0, 0);
+    assertFalse(supervisor.onSonar(10, 0));
+    assertEquals(1, supervisor.getNumStops());
+
+    supervisor.apply(-100, 100, 0);
+    assertOutput(supervisor, -100, 100);
+    supervisor.apply(-150, -150, 0);
+    assertOutput(supervisor, -150, -150);
+
+    supervisor.getConfig().braking = SafetySupervisor.BrakingProfile.STOP;
+    supervisor.onSonar(30, 0);
+    supervisor.apply(200, 200, 0);
+    assertOutput(supervisor, 200, 200);
+
+    supervisor.setEnabled(false);
+    supervisor.onSonar(10, 0);
+    supervisor.apply(200, 200, 0);
+    assertOutput(supervisor, 200, 200);
+  }
+
+  @Test
+  public void bumper_blocksMotionTowardsTheHitForTheHoldTime() {
+    SafetySupervisor supervisor = new SafetySupervisor();
+    supervisor.apply(100, 100, 0);
+
+    assertTrue(supervisor.onBumper("lf", 0));
+    assertOutput(supervisor, 0, 0);
+    supervisor.apply(-100, -100, 10 * MS);
+    assertOutput(supervisor, -100, -100);
+    supervisor.apply(100, 100, 999 * MS);
+    assertOutput(supervisor, 0, 0);
+    supervisor.apply(100, 100, 1000 * MS);
+    assertOutput(supervisor, 100, 100);
+
+    supervisor.onBumper("bb", 2000 * MS);
+    supervisor.apply(-100, -100, 2000 * MS);
+    assertOutput(supervisor, 0, 0);
+    supervisor.apply(100, 100, 2000 * MS);
+    assertOutput(supervisor, 100, 100);
+
+    // An unknown bumper blocks both directions.
+    supervisor.onBumper("??", 4000 * MS);
+    supervisor.apply(100, 100, 4000 * MS);
+    assertOutput(supervisor, 0, 0);
+    supervisor.apply(-100, -100, 4000 * MS);
+    assertOutput(supervisor, 0, 0);
+  }
+
+  /**
+   * Drives the simulated vehicle towards a wall with a slow control scheduler and checks that the
+   * supervisor stops it on the sonar message, without waiting for the next tick.
+   */
+  @Test
+  public void simulation_stopsBeforeTheWall() throws InterruptedException {
+    SimulatedVehicle.Config config = new SimulatedVehicle.Config();
+    config.arenaHalfSizeMeters = 0.5f;
+    SimulatedVehicle vehicle = new SimulatedVehicle(config);
+    ControlScheduler scheduler = new ControlScheduler(vehicle::send, 2);
+    SafetySupervisor supervisor = new SafetySupervisor();
+    supervisor.getConfig().braking = SafetySupervisor.BrakingProfile.STOP;
+    vehicle.setListener(
+        new SerialMessageParser.Listener() {
+          @Override
+          public void onVoltage(float volts) {}
+
+          @Override
+          public void onSonar(float distance) {
+            if (supervisor.onSonar(distance, System.nanoTime())) {
+              scheduler.setControlNow(
+                  supervisor.getLeftOutput(),
+                  supervisor.getRightOutput(),
+                  supervisor.getStopLatency());
+            }
+          }
+
+          @Override
+          public void onWheelRpm(float left, float right) {}
+
+          @Override
+          public void onMessage(String message) {}
+        });
+    vehicle.send(new AsciiProtocol().sonarInterval(20));
+    supervisor.apply(255, 255, System.nanoTime());
+    scheduler.setControl(supervisor.getLeftOutput(), supervisor.getRightOutput());
+    scheduler.start();
+    vehicle.start();
+
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (supervisor.getNumStops() == 0 && System.nanoTime() < deadline) Thread.sleep(10);
+    Thread.sleep(500);
+    scheduler.stop();
+    vehicle.stop();
+
+    assertEquals(1, supervisor.getNumStops());
+    assertEquals(0, vehicle.getCtrlLeft());
+    assertEquals(0, vehicle.getCtrlRight());
+    assertTrue(vehicle.getX() < config.arenaHalfSizeMeters - 0.05);
+    assertEquals(1, supervisor.getStopLatency().getCount());
+    // The scheduler ticks every 500 ms, the stop is written right away.
+    assertTrue(supervisor.getStopLatency().getMaxNanos() < 50 * MS);
+  }
+}
@@ -0,0 +1,86 @@
+package org.openbot.vehicle;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+public class SerialMessageParserTest {
+
+  /** Records every callback as text. */
+  private static class RecordingListener implements SerialMessageParser.Listener {
+    final List<String> received = new ArrayList<>();
+
+    @Override
+    public void onVoltage(float volts) {
+      received.add("voltage " + volts);
+    }
+
+    @Override
+    public void onSonar(float distance) {
+      received.add("sonar " + distance);
+    }
+
+    @Override
+    public void onWheelRpm(float left, float right) {
+      received.add("wheels " + left + " " + right);
+    }
+
+    @Override
+    public void onMessage(String message) {
+      received.add(message);
+    }
+  }
+
+  private static final String STREAM =
+      "r\r\nfDIY:v:bp:\nvmin:7.00\nv11.53\ns-1\n\n w-120,85.5 \nb3\nvnan\nw12\n";
+
+  private static final List<String> EXPECTED =
+      Arrays.asList(
+          "r",
+          "fDIY:v:bp:",
+          "vmin:7.00",
+          "voltage 11.53",
+          "sonar -1.0",
+          "wheels -120.0 85.5",
+          "b3",
+          "vnan",
+          "w12");
+
+  @Test
+  public void feed_splitsLinesAcrossArbitraryChunks() {
+    byte[] stream = STREAM.getBytes(US_ASCII);
+    for (int chunkSize = 1; chunkSize <= stream.length; chunkSize++) {
+      RecordingListener listener = new RecordingListener();
+      // A small buffer so that the lines wrap around its end.
+      SerialMessageParser parser = new SerialMessageParser(listener, 16);
+      for (int i = 0; i < stream.length; i += chunkSize) {
+        parser.feed(stream, i, Math.min(chunkSize, stream.length - i));
+      }
+      assertEquals("chunk size " + chunkSize, EXPECTED, listener.received);
+      assertEquals(EXPECTED.size(), parser.getNumMessages());
+    }
+  }
+
+  @Test
+  public void feed_dropsLinesLongerThanTheBuffer() {
+    RecordingListener listener = new RecordingListener();
+    SerialMessageParser parser = new SerialMessageParser(listener, 16);
+    parser.feed("v12.1\nfthis configuration is too long\nv12.2".getBytes(US_ASCII));
+    parser.feed("\n".getBytes(US_ASCII));
+    assertEquals(Arrays.asList("voltage 12.1", "voltage 12.2"), listener.received);
+    assertEquals(1, parser.getNumDroppedLines());
+  }
+
+  @Test
+  public void forwardSensorMessages_passesTheTextAfterTheReading() {
+    RecordingListener listener = new RecordingListener();
+    SerialMessageParser parser = new SerialMessageParser(listener);
+    parser.setForwardSensorMessages(true);
+    parser.feed("s42\nw1,2\n".getBytes(US_ASCII));
+    assertEquals(Arrays.asList("sonar 42.0", "s42", "wheels 1.0 2.0", "w1,2"), listener.received);
+  }
+}
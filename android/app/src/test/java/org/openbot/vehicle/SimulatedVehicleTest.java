@@ -0,0 +1,150 @@
+package org.openbot.vehicle;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class SimulatedVehicleTest {
+
+  private static final long STEP = TimeUnit.MILLISECONDS.toNanos(5);
+
+  /** Keeps the latest readings and all other messages. */
+  private static class RecordingListener implements SerialMessageParser.Listener {
+    final List<String> messages = Collections.synchronizedList(new ArrayList<>());
+    volatile float voltage;
+    volatile float sonar;
+    volatile float leftRpm;
+    volatile float rightRpm;
+
+    @Override
+    public void onVoltage(float volts) {
+      voltage = volts;
+    }
+
+    @Override
+    public void onSonar(float distance) {
+      sonar = distance;
+    }
+
+    @Override
+    public void onWheelRpm(float left, float right) {
+      leftRpm = left;
+      rightRpm = right;
+    }
+
+    @Override
+    public void onMessage(String message) {
+      messages.add(message);
+    }
+  }
+
+  private static void run(SimulatedVehicle vehicle, long millis) {
+    for (long t = 0; t < TimeUnit.MILLISECONDS.toNanos(millis); t += STEP) vehicle.advance(STEP);
+  }
+
+  @Test
+  public void simulation_drivesAndReportsLikeTheFirmware() {
+    SimulatedVehicle vehicle = new SimulatedVehicle();
+    RecordingListener listener = new RecordingListener();
+    vehicle.setListener(listener);
+
+    vehicle.send(AsciiProtocol.CONFIG_REQUEST.getBytes(US_ASCII));
+    run(vehicle, 5);
+    assertEquals("fSIM:v:i:s:wf:wb:bp:", listener.messages.get(0));
+    assertEquals("vmax:12.60", listener.messages.get(3));
+
+    BinaryProtocol binary = new BinaryProtocol();
+    vehicle.send(binary.wheelOdometryInterval(100));
+    vehicle.send(binary.sonarInterval(100));
+    vehicle.send(binary.voltageInterval(250));
+    vehicle.send(binary.control(255, 255));
+    run(vehicle, 2000);
+
+    // Straight ahead at about 200 rpm, slowed down by the voltage sag under load.
+    assertEquals(12.2, listener.voltage, 0.05);
+    assertEquals(200 * 12.2 / 12.6, listener.leftRpm, 20);
+    assertEquals(listener.leftRpm, listener.rightRpm, 0);
+    assertEquals(0, vehicle.getHeading(), 1e-9);
+    double distance = vehicle.getX();
+    assertTrue(distance > 1.1 && distance < 1.3);
+    assertEquals((2 - distance) * 100, listener.sonar, 10);
+
+    // Turn on the spot.
+    vehicle.send(new AsciiProtocol().control(-128, 128));
+    run(vehicle, 1000);
+    assertTrue(vehicle.getHeading() > 1);
+    assertTrue(listener.leftRpm < 0 && listener.rightRpm > 0);
+    assertEquals(0, vehicle.getNumCrcErrors());
+  }
+
+  @Test
+  public void simulation_stopsWhenTheHeartbeatTimesOut() {
+    SimulatedVehicle vehicle = new SimulatedVehicle();
+    AsciiProtocol ascii = new AsciiProtocol();
+    vehicle.send(ascii.heartbeat(200));
+    vehicle.send(ascii.control(100, 100));
+    run(vehicle, 150);
+    assertEquals(100, vehicle.getCtrlLeft());
+    run(vehicle, 100);
+    assertEquals(0, vehicle.getCtrlLeft());
+    assertEquals(0, vehicle.getCtrlRight());
+  }
+
+  @Test
+  public void simulation_ignoresMalformedTextCommands() {
+    SimulatedVehicle vehicle = new SimulatedVehicle();
+    vehicle.send("c10,x\nhfoo\nc\nc20,-20\n".getBytes(US_ASCII));
+    assertEquals(2, vehicle.getNumParseErrors());
+    assertEquals(2, vehicle.getNumControls());
+    assertEquals(20, vehicle.getCtrlLeft());
+    assertEquals(-20, vehicle.getCtrlRight());
+    assertEquals(-1, vehicle.getHeartbeatInterval());
+  }
+
+  /**
+   * Sends controls from several threads through the scheduler at 500 Hz to a simulated vehicle
+   * running in real time, and checks that the vehicle received every written control without drops.
+   * The number of ticks depends on the load of the machine, so it is not checked.
+   */
+  @Test
+  public void scheduler_deliversEveryWrittenControl() throws InterruptedException {
+    SimulatedVehicle vehicle = new SimulatedVehicle();
+    RecordingListener listener = new RecordingListener();
+    vehicle.setListener(listener);
+    ControlScheduler scheduler = new ControlScheduler(vehicle::send, 500);
+    scheduler.setProtocol(new BinaryProtocol());
+    vehicle.start();
+    scheduler.send(new BinaryProtocol().wheelOdometryInterval(50));
+    scheduler.start();
+
+    List<Thread> producers = new ArrayList<>();
+    for (int p = 0; p < 3; p++) {
+      final int sign = p % 2 == 0 ? 1 : -1;
+      producers.add(
+          new Thread(
+              () -> {
+                long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(500);
+                for (int i = 0; System.nanoTime() < end; i++) {
+                  scheduler.setControl(sign * (i % 256), 200);
+                }
+              }));
+    }
+    for (Thread producer : producers) producer.start();
+    for (Thread producer : producers) producer.join();
+    scheduler.stop();
+    vehicle.stop();
+
+    assertEquals(0, scheduler.getNumDropped());
+    long written = scheduler.getNumControls() - scheduler.getNumCoalesced();
+    assertEquals(written, vehicle.getNumControls());
+    assertEquals(written, scheduler.getControlLatency().getCount());
+    assertTrue(written > 0);
+    assertEquals(0, vehicle.getNumCrcErrors());
+  }
+}
@@ -0,0 +1,116 @@
+package org.openbot.vehicle;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class TelemetryPolicyTest {
+
+  private static final int BAUD_RATE = 115200;
+  private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  private static int[] intervals(TelemetryPolicy policy) {
+    return new int[] {
+      policy.getInterval(TelemetryPolicy.Channel.VOLTAGE),
+      policy.getInterval(TelemetryPolicy.Channel.SONAR),
+      policy.getInterval(TelemetryPolicy.Channel.WHEELS)
+    };
+  }
+
+  @Test
+  public void update_followsTheMode() {
+    TelemetryPolicy policy = new TelemetryPolicy(BAUD_RATE, 0);
+    assertFalse(policy.update(0, 0, 0));
+    assertArrayEquals(new int[] {250, 100, 500}, intervals(policy));
+
+    policy.setAutonomous(true);
+    assertTrue(policy.update(SECOND / 4, 0, 0));
+    assertEquals(TelemetryPolicy.Mode.AUTONOMOUS, policy.getMode());
+    assertArrayEquals(new int[] {250, 50, 100}, intervals(policy));
+    assertEquals(20, policy.getRateHz(TelemetryPolicy.Channel.SONAR), 0);
+
+    // Idle only after the timeout without a control that moves the vehicle.
+    policy.setAutonomous(false);
+    policy.onControl(100, 100, SECOND);
+    policy.onControl(0, 0, 5 * SECOND);
+    assertTrue(policy.update(2 * SECOND, 0, 0));
+    assertEquals(TelemetryPolicy.Mode.MANUAL, policy.getMode());
+    assertFalse(policy.update(10 * SECOND, 0, 0));
+    assertTrue(policy.update(12 * SECOND, 0, 0));
+    assertEquals(TelemetryPolicy.Mode.IDLE, policy.getMode());
+    assertArrayEquals(new int[] {1000, 1000, 1000}, intervals(policy));
+  }
+
+  @Test
+  public void update_backsOffWhileTheLinkIsSaturated() {
+    TelemetryPolicy policy = new TelemetryPolicy(BAUD_RATE, 0);
+    policy.setAutonomous(true);
+    long now = 0;
+    long received = 0;
+    // Every 250 ms, 95% of the 11520 bytes/s that the link carries.
+    for (int i = 0; i < 20; i++) {
+      now += SECOND / 4;
+      received += 2736;
+      policy.update(now, i, received);
+    }
+    assertTrue(policy.getLinkUtilization() > 0.9);
+    assertEquals(TelemetryPolicy.MAX_BACKOFF_LEVEL, policy.getBackoffLevel());
+    assertArrayEquals(new int[] {2000, 400, 800}, intervals(policy));
+
+    // The load goes away, the rates come back one level per second.
+    for (int i = 0; i < 4; i++) {
+      now += SECOND / 4;
+      policy.update(now, 0, received);
+    }
+    assertEquals(TelemetryPolicy.MAX_BACKOFF_LEVEL - 1, policy.getBackoffLevel());
+    for (int i = 0; i < 12; i++) {
+      now += SECOND / 4;
+      policy.update(now, 0, received);
+    }
+    assertEquals(0, policy.getBackoffLevel());
+    assertArrayEquals(new int[] {250, 50, 100}, intervals(policy));
+  }
+
+  @Test
+  public void update_smoothsTheUtilizationOverTimeNotCalls() {
+    TelemetryPolicy often = new TelemetryPolicy(BAUD_RATE, 0);
+    TelemetryPolicy rarely = new TelemetryPolicy(BAUD_RATE, 0);
+    often.update(0, 0, 0);
+    rarely.update(0, 0, 0);
+    // Half of the 11520 bytes/s that the link carries, updated every 50 ms and every 500 ms.
+    for (long t = SECOND / 20; t <= SECOND; t += SECOND / 20) {
+      often.update(t, 0, t * 5760 / SECOND);
+      if (t % (SECOND / 2) == 0) rarely.update(t, 0, t * 5760 / SECOND);
+    }
+    // After a second, both approached the load by the same time constant.
+    assertEquals(0.5 * (1 - Math.exp(-1 / 0.4)), often.getLinkUtilization(), 1e-3);
+    assertEquals(often.getLinkUtilization(), rarely.getLinkUtilization(), 1e-3);
+  }
+
+  @Test
+  public void intervals_areAppliedByTheSimulatedFirmware() {
+    SimulatedVehicle vehicle = new SimulatedVehicle();
+    TelemetryPolicy policy = new TelemetryPolicy(BAUD_RATE, 0);
+    BinaryProtocol protocol = new BinaryProtocol();
+    policy.setAutonomous(true);
+    policy.update(0, vehicle.getNumBytesSent(), vehicle.getNumBytesReceived());
+    vehicle.send(protocol.voltageInterval(policy.getInterval(TelemetryPolicy.Channel.VOLTAGE)));
+    vehicle.send(protocol.sonarInterval(policy.getInterval(TelemetryPolicy.Channel.SONAR)));
+    vehicle.send(
+        protocol.wheelOdometryInterval(policy.getInterval(TelemetryPolicy.Channel.WHEELS)));
+    assertArrayEquals(new long[] {250, 50, 100}, vehicle.getReportIntervals());
+
+    for (long t = 0; t < SECOND; t += TimeUnit.MILLISECONDS.toNanos(5)) {
+      vehicle.advance(TimeUnit.MILLISECONDS.toNanos(5));
+    }
+    policy.update(SECOND, vehicle.getNumBytesSent(), vehicle.getNumBytesReceived());
+    // About 30 short messages per second use a few percent of the link.
+    assertTrue(vehicle.getNumBytesReceived() > 0);
+    assertTrue(policy.getLinkUtilization() < 0.1);
+    assertEquals(0, policy.getBackoffLevel());
+  }
+}
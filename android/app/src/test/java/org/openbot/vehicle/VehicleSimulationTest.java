@@ -0,0 +1,182 @@
+package org.openbot.vehicle;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Drives {@link Vehicle} through a {@link SimulatedVehicle} running in real time, from connecting
+ * to disconnecting, like the app drives a real vehicle over USB.
+ */
+@RunWith(AndroidJUnit4.class)
+public class VehicleSimulationTest {
+
+  private static final long TIMEOUT_MS = 5000;
+
+  /** Passes the messages of the simulated vehicle to the app like the USB connection does. */
+  private static class AppTransport implements VehicleTransport {
+    final SimulatedVehicle simulation = new SimulatedVehicle();
+    final List<String> messages = Collections.synchronizedList(new ArrayList<>());
+
+    @Override
+    public void setListener(SerialMessageParser.Listener listener) {
+      if (listener == null) {
+        simulation.setListener(null);
+        return;
+      }
+      simulation.setListener(
+          new SerialMessageParser.Listener() {
+            @Override
+            public void onVoltage(float volts) {
+              listener.onVoltage(volts);
+            }
+
+            @Override
+            public void onSonar(float distance) {
+              listener.onSonar(distance);
+            }
+
+            @Override
+            public void onWheelRpm(float left, float right) {
+              listener.onWheelRpm(left, right);
+            }
+
+            @Override
+            public void onMessage(String message) {
+              listener.onMessage(message);
+              messages.add(message);
+            }
+          });
+    }
+
+    @Override
+    public boolean start() {
+      return simulation.start();
+    }
+
+    @Override
+    public void stop() {
+      simulation.stop();
+    }
+
+    @Override
+    public boolean isOpen() {
+      return simulation.isOpen();
+    }
+
+    @Override
+    public boolean send(byte[] data) {
+      return simulation.send(data);
+    }
+
+    @Override
+    public long getNumBytesSent() {
+      return simulation.getNumBytesSent();
+    }
+
+    @Override
+    public long getNumBytesReceived() {
+      return simulation.getNumBytesReceived();
+    }
+
+    String findMessage(char header) {
+      synchronized (messages) {
+        for (String message : messages) if (message.charAt(0) == header) return message;
+      }
+      return null;
+    }
+  }
+
+  private Vehicle vehicle;
+  private AppTransport transport;
+
+  @Before
+  public void connect() {
+    vehicle = new Vehicle(ApplicationProvider.getApplicationContext(), 115200);
+    transport = new AppTransport();
+    assertTrue(vehicle.connect(transport));
+  }
+
+  @After
+  public void disconnect() {
+    vehicle.disconnect();
+  }
+
+  private static void await(String what, BooleanSupplier condition) throws InterruptedException {
+    final long end = System.currentTimeMillis() + TIMEOUT_MS;
+    while (!condition.getAsBoolean()) {
+      if (System.currentTimeMillis() > end) fail("Timed out waiting for " + what);
+      Thread.sleep(5);
+    }
+  }
+
+  @Test
+  public void connect_sendsHeartbeats() throws InterruptedException {
+    SimulatedVehicle simulation = transport.simulation;
+    await("heartbeat", () -> simulation.getHeartbeatInterval() == 750);
+    // The heartbeat keeps the motors running for longer than its timeout.
+    vehicle.setControl(1, 1);
+    Thread.sleep(1000);
+    assertEquals(192, simulation.getCtrlLeft());
+    assertEquals(192, simulation.getCtrlRight());
+  }
+
+  @Test
+  public void config_switchesToBinaryFramesAndSetsTheTelemetryRates() throws InterruptedException {
+    SimulatedVehicle simulation = transport.simulation;
+    vehicle.requestVehicleConfig();
+    await("configuration", () -> transport.findMessage('f') != null);
+    // The fragments pass the configuration to the vehicle.
+    vehicle.processVehicleConfig(transport.findMessage('f').substring(1));
+
+    assertTrue(vehicle.getProtocol() instanceof BinaryProtocol);
+    assertTrue(vehicle.isHasVoltageDivider());
+    assertTrue(vehicle.isHasSonar());
+    assertTrue(vehicle.isHasWheelOdometryFront());
+    TelemetryPolicy policy = vehicle.getTelemetryPolicy();
+    long[] expected = {
+      policy.getInterval(TelemetryPolicy.Channel.VOLTAGE),
+      policy.getInterval(TelemetryPolicy.Channel.SONAR),
+      policy.getInterval(TelemetryPolicy.Channel.WHEELS)
+    };
+    await("telemetry intervals", () -> Arrays.equals(expected, simulation.getReportIntervals()));
+    assertArrayEquals(expected, simulation.getReportIntervals());
+    assertEquals(0, simulation.getNumParseErrors());
+    assertEquals(0, simulation.getNumCrcErrors());
+  }
+
+  @Test
+  public void telemetry_updatesTheReadingsWhileDriving() throws InterruptedException {
+    vehicle.requestVehicleConfig();
+    await("configuration", () -> transport.findMessage('f') != null);
+    vehicle.processVehicleConfig(transport.findMessage('f').substring(1));
+
+    await("voltage", () -> vehicle.getBatteryVoltage() > 12);
+    await("sonar", () -> vehicle.getSonarReading() > 0);
+    vehicle.setControl(1, 1);
+    await("wheel speed", () -> vehicle.getLeftWheelRpm() > 100 && vehicle.getRightWheelRpm() > 100);
+    // The voltage sags under load.
+    await("voltage under load", () -> vehicle.getBatteryVoltage() < 12.5);
+
+    SimulatedVehicle simulation = transport.simulation;
+    vehicle.disconnect();
+    // The stop control is written before the connection is closed.
+    assertEquals(0, simulation.getCtrlLeft());
+    assertEquals(0, simulation.getCtrlRight());
+    assertFalse(simulation.isOpen());
+  }
+}
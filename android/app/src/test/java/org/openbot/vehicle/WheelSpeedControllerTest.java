@@ -0,0 +1,118 @@
+package org.openbot.vehicle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class WheelSpeedControllerTest {
+
+  private static final float MAX_RPM = 200;
+  private static final float STEP = 0.1f;
+
+  /**
+   * A DC motor with a first order response. The steady-state speed is proportional to the command
+   * and the battery level. The measurement is the mean speed over one step, like the ticks the
+   * firmware counts per odometry interval.
+   */
+  private static class SimulatedMotor {
+    final float timeConstant = 0.15f;
+    float battery = 1;
+    float load = 0;
+    float rpm = 0;
+
+    float run(int command, float seconds) {
+      final int substeps = 20;
+      final float dt = seconds / substeps;
+      float sum = 0;
+      for (int i = 0; i < substeps; i++) {
+        final float steadyState = command / 255f * MAX_RPM * battery - load;
+        rpm += (steadyState - rpm) * dt / timeConstant;
+        sum += rpm;
+      }
+      return sum / substeps;
+    }
+  }
+
+  /** Runs both sides with the same motor for the given number of steps and returns the speed. */
+  private static float track(WheelSpeedController controller, SimulatedMotor motor, int steps) {
+    float measured = 0;
+    for (int i = 0; i < steps; i++) {
+      controller.update(measured, measured);
+      measured = motor.run(controller.getLeftOutput(), STEP);
+    }
+    return measured;
+  }
+
+  @Test
+  public void update_holdsTheTargetSpeedUnderBatterySag() {
+    WheelSpeedController controller =
+        new WheelSpeedController(WheelSpeedController.Gains.forMaxRpm(MAX_RPM), STEP);
+    SimulatedMotor motor = new SimulatedMotor();
+    motor.battery = 0.75f;
+    controller.setTarget(120, 120);
+
+    assertEquals(120, track(controller, motor, 50), 3);
+
+    // Open loop, the same command only reaches 75% of the speed.
+    SimulatedMotor openLoop = new SimulatedMotor();
+    openLoop.battery = 0.75f;
+    float openLoopRpm = 0;
+    for (int i = 0; i < 50; i++) openLoopRpm = openLoop.run(Math.round(120 * 255 / MAX_RPM), STEP);
+    assertEquals(90, openLoopRpm, 1);
+  }
+
+  @Test
+  public void update_limitsTheChangeOfTheOutputPerStep() {
+    WheelSpeedController.Gains gains = WheelSpeedController.Gains.forMaxRpm(MAX_RPM);
+    WheelSpeedController controller = new WheelSpeedController(gains, STEP);
+    SimulatedMotor motor = new SimulatedMotor();
+    controller.setTarget(MAX_RPM, MAX_RPM);
+
+    float measured = 0;
+    int previous = 0;
+    for (int i = 0; i < 20; i++) {
+      controller.update(measured, measured);
+      int output = controller.getLeftOutput();
+      assertTrue(Math.abs(output - previous) <= gains.maxSlewRate * STEP + 1);
+      assertTrue(Math.abs(output) <= gains.maxOutput);
+      previous = output;
+      measured = motor.run(output, STEP);
+    }
+
+    controller.setTarget(0, 0);
+    assertEquals(0, controller.getLeftOutput());
+    assertEquals(0, controller.getRightOutput());
+  }
+
+  @Test
+  public void update_recoversQuicklyAfterSaturation() {
+    WheelSpeedController controller =
+        new WheelSpeedController(WheelSpeedController.Gains.forMaxRpm(MAX_RPM), STEP);
+    SimulatedMotor motor = new SimulatedMotor();
+    // A load that makes the target unreachable saturates the output for 10 seconds.
+    motor.load = 100;
+    controller.setTarget(150, 150);
+    track(controller, motor, 100);
+    assertEquals(255, controller.getLeftOutput());
+
+    // Without anti-windup the integral would keep the output at the limit for many seconds.
+    motor.load = 0;
+    controller.setTarget(100, 100);
+    float measured = track(controller, motor, 15);
+    assertEquals(100, measured, 5);
+  }
+
+  @Test
+  public void update_isDeterministic() {
+    int[] outputs = new int[2];
+    for (int run = 0; run < 2; run++) {
+      WheelSpeedController controller =
+          new WheelSpeedController(WheelSpeedController.Gains.forMaxRpm(MAX_RPM), STEP);
+      controller.setTarget(80, -60);
+      for (int i = 0; i < 10; i++) controller.update(i * 7, -i * 5);
+      outputs[run] = controller.getLeftOutput() * 1000 + controller.getRightOutput();
+    }
+    assertEquals(outputs[0], outputs[1]);
+  }
+}
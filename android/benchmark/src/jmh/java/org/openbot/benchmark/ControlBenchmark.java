@@ -0,0 +1,63 @@
+package org.openbot.benchmark;
+
+import org.openbot.env.ControlMapping;
+import org.openbot.vehicle.AsciiProtocol;
+import org.openbot.vehicle.BinaryProtocol;
+import org.openbot.vehicle.Control;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The work done on every control tick: mapping the game controller axes to a {@link Control} for
+ * each drive mode, and encoding the command that {@code Vehicle.sendControl} writes to the USB
+ * connection as text or as a binary frame. {@code commandConcat} is a text reference without {@code
+ * String.format}.
+ */
+@State(Scope.Thread)
+public class ControlBenchmark {
+
+  private static final int SPEED_MULTIPLIER = 192;
+
+  private float leftAxis = 0.42f;
+  private float rightAxis = -0.73f;
+  private float steeringOffset = 0.1f;
+
+  private final AsciiProtocol ascii = new AsciiProtocol();
+  private final BinaryProtocol binary = new BinaryProtocol();
+
+  @Benchmark
+  public Control dual() {
+    return ControlMapping.dualToControl(leftAxis, rightAxis);
+  }
+
+  @Benchmark
+  public Control game() {
+    return ControlMapping.gameToControl(leftAxis, rightAxis, steeringOffset);
+  }
+
+  @Benchmark
+  public Control joystick() {
+    return ControlMapping.joystickToControl(leftAxis, rightAxis);
+  }
+
+  @Benchmark
+  public byte[] asciiCommand() {
+    return ascii.control((int) (leftAxis * SPEED_MULTIPLIER), (int) (rightAxis * SPEED_MULTIPLIER));
+  }
+
+  @Benchmark
+  public byte[] binaryCommand() {
+    return binary.control(
+        (int) (leftAxis * SPEED_MULTIPLIER), (int) (rightAxis * SPEED_MULTIPLIER));
+  }
+
+  @Benchmark
+  public String commandConcat() {
+    return "c"
+        + (int) (leftAxis * SPEED_MULTIPLIER)
+        + ","
+        + (int) (rightAxis * SPEED_MULTIPLIER)
+        + "\n";
+  }
+}
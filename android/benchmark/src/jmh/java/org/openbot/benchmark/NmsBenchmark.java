@@ -0,0 +1,159 @@
+package org.openbot.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import org.openbot.tflite.NmsEngine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares {@link NmsEngine} with the per-label {@code PriorityQueue} implementation that {@code
+ * Detector.nms()} used before. The input mimics a YOLOv5 320x320 output (6300 anchor boxes)
+ * clustered around a few objects of a few COCO classes.
+ */
+@State(Scope.Thread)
+public class NmsBenchmark {
+
+  private static final int NUM_LABELS = 80;
+  private static final int NUM_OBJECTS = 20;
+  private static final int IMAGE_SIZE = 320;
+  private static final float IOU_THRESHOLD = 0.25f;
+
+  @Param({"6300"})
+  public int numBoxes;
+
+  @Param({"4", "20"})
+  public int numClasses;
+
+  private float[][] boxes;
+  private float[] scores;
+  private int[] classIds;
+  private List<Detection> detections;
+  private NmsEngine engine;
+
+  @Setup
+  public void setup() {
+    Random random = new Random(42);
+    float[][] objects = new float[NUM_OBJECTS][];
+    int[] objectClasses = new int[NUM_OBJECTS];
+    for (int o = 0; o < NUM_OBJECTS; o++) {
+      float size = 20 + random.nextFloat() * 100;
+      float x = random.nextFloat() * (IMAGE_SIZE - size);
+      float y = random.nextFloat() * (IMAGE_SIZE - size);
+      objects[o] = new float[] {x, y, x + size, y + size};
+      objectClasses[o] = random.nextInt(numClasses);
+    }
+
+    boxes = new float[numBoxes][];
+    scores = new float[numBoxes];
+    classIds = new int[numBoxes];
+    detections = new ArrayList<>(numBoxes);
+    for (int i = 0; i < numBoxes; i++) {
+      int o = random.nextInt(NUM_OBJECTS);
+      float[] box = new float[4];
+      for (int j = 0; j < 4; j++) box[j] = objects[o][j] + (random.nextFloat() - 0.5f) * 16;
+      boxes[i] = box;
+      scores[i] = 0.3f + random.nextFloat() * 0.7f;
+      classIds[i] = objectClasses[o];
+      detections.add(new Detection(box, scores[i], classIds[i]));
+    }
+    engine = new NmsEngine(numBoxes);
+    engine.setIouThreshold(IOU_THRESHOLD);
+    for (int i = 0; i < numBoxes; i++) {
+      float[] box = boxes[i];
+      engine.add(box[0], box[1], box[2], box[3], scores[i], classIds[i]);
+    }
+  }
+
+  @Benchmark
+  public int nmsEngine() {
+    engine.clear();
+    for (int i = 0; i < numBoxes; i++) {
+      float[] box = boxes[i];
+      engine.add(box[0], box[1], box[2], box[3], scores[i], classIds[i]);
+    }
+    return engine.run();
+  }
+
+  @Benchmark
+  public int legacyNms() {
+    return legacyNms(detections).size();
+  }
+
+  /** IoU of the first box with every other box, {@code NmsEngine.iou} on the stored candidates. */
+  @Benchmark
+  public float iouEngine() {
+    float sum = 0;
+    for (int i = 1; i < numBoxes; i++) sum += engine.iou(0, i);
+    return sum;
+  }
+
+  /** The same with the former {@code Detector.box_iou} on copied locations. */
+  @Benchmark
+  public float iouLegacy() {
+    float sum = 0;
+    Detection first = detections.get(0);
+    for (int i = 1; i < numBoxes; i++) {
+      sum += boxIou(first.getLocation(), detections.get(i).getLocation());
+    }
+    return sum;
+  }
+
+  /** Copy of the former {@code Detector.nms()} loop, with {@code RectF} replaced by arrays. */
+  private static List<Detection> legacyNms(List<Detection> list) {
+    List<Detection> nmsList = new ArrayList<>();
+    for (int k = 0; k < NUM_LABELS; k++) {
+      PriorityQueue<Detection> pq =
+          new PriorityQueue<>(50, (lhs, rhs) -> Float.compare(rhs.confidence, lhs.confidence));
+      for (int i = 0; i < list.size(); ++i) {
+        if (list.get(i).classId == k) {
+          pq.add(list.get(i));
+        }
+      }
+      while (pq.size() > 0) {
+        Detection[] a = new Detection[pq.size()];
+        Detection[] dets = pq.toArray(a);
+        Detection max = dets[0];
+        nmsList.add(max);
+        pq.clear();
+        for (int j = 1; j < dets.length; j++) {
+          Detection detection = dets[j];
+          if (boxIou(max.getLocation(), detection.getLocation()) < IOU_THRESHOLD) {
+            pq.add(detection);
+          }
+        }
+      }
+    }
+    return nmsList;
+  }
+
+  private static float boxIou(float[] a, float[] b) {
+    float w = Math.min(a[2], b[2]) - Math.max(a[0], b[0]);
+    float h = Math.min(a[3], b[3]) - Math.max(a[1], b[1]);
+    if (w < 0 || h < 0) return 0;
+    float i = w * h;
+    return i / ((a[2] - a[0]) * (a[3] - a[1]) + (b[2] - b[0]) * (b[3] - b[1]) - i);
+  }
+
+  private static class Detection {
+    private final float[] location;
+    private final float confidence;
+    private final int classId;
+
+    Detection(float[] location, float confidence, int classId) {
+      this.location = location;
+      this.confidence = confidence;
+      this.classId = classId;
+    }
+
+    /** Mirrors {@code Recognition.getLocation()}, which returns a copy on every call. */
+    float[] getLocation() {
+      return location.clone();
+    }
+  }
+}
@@ -0,0 +1,72 @@
+package org.openbot.benchmark;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import org.openbot.tflite.PixelNormalizer;
+import org.openbot.tflite.StripedImageConverter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Converts one camera frame into a float input tensor, as {@code Network.convertBitmapToByteBuffer}
+ * does, with a varying number of row stripes. {@code perPixel} is the former conversion that wrote
+ * every channel with its own {@code putFloat} call.
+ */
+@State(Scope.Thread)
+public class PreprocessBenchmark {
+
+  private static final float IMAGE_MEAN = 0.0f;
+  private static final float IMAGE_STD = 255.0f;
+
+  /** Autopilot (256x96) and detector input sizes. */
+  @Param({"256x96", "320x320", "416x416"})
+  public String size;
+
+  @Param({"1", "2", "4"})
+  public int numThreads;
+
+  private int[] pixels;
+  private ByteBuffer imgData;
+  private StripedImageConverter converter;
+
+  @Setup
+  public void setup() {
+    String[] dims = size.split("x");
+    int width = Integer.parseInt(dims[0]);
+    int height = Integer.parseInt(dims[1]);
+    Random random = new Random(42);
+    pixels = new int[width * height];
+    for (int i = 0; i < pixels.length; i++) pixels[i] = random.nextInt();
+    imgData = ByteBuffer.allocateDirect(pixels.length * 3 * 4).order(ByteOrder.nativeOrder());
+    converter =
+        new StripedImageConverter(
+            PixelNormalizer.floatInput(IMAGE_MEAN, IMAGE_STD), width, height, numThreads);
+  }
+
+  @TearDown
+  public void tearDown() {
+    converter.close();
+  }
+
+  @Benchmark
+  public ByteBuffer striped() {
+    converter.convert(pixels, imgData);
+    return imgData;
+  }
+
+  @Benchmark
+  public ByteBuffer perPixel() {
+    imgData.rewind();
+    for (int pixelValue : pixels) {
+      imgData.putFloat((((pixelValue >> 16) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
+      imgData.putFloat((((pixelValue >> 8) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
+      imgData.putFloat(((pixelValue & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
+    }
+    return imgData;
+  }
+}
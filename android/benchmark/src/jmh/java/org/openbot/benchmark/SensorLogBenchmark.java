@@ -0,0 +1,84 @@
+package org.openbot.benchmark;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import org.openbot.logging.AsyncLogWriter;
+import org.openbot.logging.SessionWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Logs one sensor event, as {@code SensorService.onSensorChanged} does for every event: 3 values
+ * for the motion sensors, 15 for the pose sensor. {@code flushPerLine} is the former way of
+ * formatting the line on the sensor thread and flushing it to the file; {@code asyncLog} is the
+ * same with {@link AsyncLogWriter}. It waits for a free slot instead of dropping the record, so it
+ * measures the lines per second the writer thread sustains, not only the cost of queueing. {@code
+ * binaryLog} writes the records into a compressed {@link SessionWriter} file instead of text.
+ */
+@State(Scope.Thread)
+public class SensorLogBenchmark {
+
+  @Param({"3", "15"})
+  public int numValues;
+
+  private final long timestamp = 123456789012345L;
+  private float[] values;
+  private File file;
+  private BufferedWriter bufferedWriter;
+  private AsyncLogWriter logWriter;
+  private int log;
+  private File sessionFile;
+  private AsyncLogWriter binaryWriter;
+  private int binaryLog;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    values = new float[numValues];
+    for (int i = 0; i < numValues; i++) values[i] = 9.80665f / (i + 1);
+    file = File.createTempFile("sensorLog", ".txt");
+    bufferedWriter = new BufferedWriter(new FileWriter(file, true));
+    logWriter = new AsyncLogWriter();
+    log = logWriter.open(file, null);
+    logWriter.start();
+    sessionFile = File.createTempFile("sensorData", ".bin");
+    binaryWriter = new AsyncLogWriter(new SessionWriter(sessionFile));
+    binaryLog = binaryWriter.open(new File("sensorLog.txt"), "timestamp[ns],values");
+    binaryWriter.start();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    bufferedWriter.close();
+    logWriter.close();
+    binaryWriter.close();
+    file.delete();
+    sessionFile.delete();
+  }
+
+  @Benchmark
+  public void flushPerLine() throws IOException {
+    final StringBuilder line = new StringBuilder();
+    line.append(timestamp);
+    for (int i = 0; i < numValues; i++) line.append(',').append(values[i]);
+    bufferedWriter.append(line);
+    bufferedWriter.newLine();
+    bufferedWriter.flush();
+  }
+
+  @Benchmark
+  public void asyncLog() {
+    while (!logWriter.log(log, timestamp, values, numValues)) Thread.onSpinWait();
+  }
+
+  @Benchmark
+  public void binaryLog() {
+    while (!binaryWriter.log(binaryLog, timestamp, values, numValues)) Thread.onSpinWait();
+  }
+}
@@ -0,0 +1,130 @@
+package org.openbot.benchmark;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+import org.openbot.vehicle.SerialMessageParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Reading one second of vehicle messages: voltage every 250 ms, sonar every 100 ms and wheel
+ * odometry every 500 ms, split into USB chunks of {@code chunkSize} bytes.
+ *
+ * <p>{@code legacyCallback} is the previous {@code UsbConnection} callback, which appends every
+ * chunk to a {@code String} and splits the lines with {@code indexOf} and {@code substring},
+ * followed by the parsing the fragments did. It leaves out the {@code AsyncTask} and broadcast per
+ * line. {@code parser} dispatches the readings as numbers and {@code parserWithText} also creates
+ * the text that is still broadcast for the fragments.
+ */
+@State(Scope.Thread)
+public class SerialReadBenchmark {
+
+  @Param({"16", "64"})
+  public int chunkSize;
+
+  private byte[][] chunks;
+  private String buffer;
+  private SerialMessageParser parser;
+  private SerialMessageParser parserWithText;
+
+  private static class Sink implements SerialMessageParser.Listener {
+    Blackhole blackhole;
+
+    @Override
+    public void onVoltage(float volts) {
+      blackhole.consume(volts);
+    }
+
+    @Override
+    public void onSonar(float distance) {
+      blackhole.consume(distance);
+    }
+
+    @Override
+    public void onWheelRpm(float left, float right) {
+      blackhole.consume(left);
+      blackhole.consume(right);
+    }
+
+    @Override
+    public void onMessage(String message) {
+      blackhole.consume(message);
+    }
+  }
+
+  private final Sink sink = new Sink();
+
+  @Setup
+  public void setup() {
+    Random random = new Random(42);
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    for (int ms = 0; ms < 1000; ms += 50) {
+      StringBuilder messages = new StringBuilder();
+      if (ms % 250 == 0) messages.append(String.format("v%.2f\r\n", 11 + random.nextFloat()));
+      if (ms % 100 == 0) messages.append("s").append(random.nextInt(300)).append("\r\n");
+      if (ms % 500 == 0) {
+        messages.append("w").append(random.nextInt(200)).append(",");
+        messages.append(random.nextInt(200)).append("\r\n");
+      }
+      byte[] bytes = messages.toString().getBytes(US_ASCII);
+      stream.write(bytes, 0, bytes.length);
+    }
+    byte[] data = stream.toByteArray();
+    chunks = new byte[(data.length + chunkSize - 1) / chunkSize][];
+    for (int i = 0; i < chunks.length; i++) {
+      int length = Math.min(chunkSize, data.length - i * chunkSize);
+      chunks[i] = new byte[length];
+      System.arraycopy(data, i * chunkSize, chunks[i], 0, length);
+    }
+
+    buffer = "";
+    parser = new SerialMessageParser(sink);
+    parserWithText = new SerialMessageParser(sink);
+    parserWithText.setForwardSensorMessages(true);
+  }
+
+  @Benchmark
+  public void legacyCallback(Blackhole blackhole) {
+    for (byte[] data : chunks) {
+      buffer += new String(data, UTF_8);
+      int index;
+      while ((index = buffer.indexOf('\n')) != -1) {
+        final String line = buffer.substring(0, index).trim();
+        buffer = buffer.length() == index ? "" : buffer.substring(index + 1);
+        final char header = line.charAt(0);
+        final String body = line.substring(1);
+        switch (header) {
+          case 'v':
+          case 's':
+            blackhole.consume(Float.parseFloat(body));
+            break;
+          case 'w':
+            String[] items = body.split(",");
+            blackhole.consume(Float.parseFloat(items[0]));
+            blackhole.consume(Float.parseFloat(items[1]));
+            break;
+        }
+        blackhole.consume(line);
+      }
+    }
+  }
+
+  @Benchmark
+  public void parser(Blackhole blackhole) {
+    sink.blackhole = blackhole;
+    for (byte[] data : chunks) parser.feed(data);
+  }
+
+  @Benchmark
+  public void parserWithText(Blackhole blackhole) {
+    sink.blackhole = blackhole;
+    for (byte[] data : chunks) parserWithText.feed(data);
+  }
+}
@@ -0,0 +1,66 @@
+package org.openbot.benchmark;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import org.openbot.tflite.NmsEngine;
+import org.openbot.tflite.YoloV5Decoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Decodes a synthetic YOLOv5 output tensor with 80 COCO classes into the candidates of {@link
+ * NmsEngine}, as {@code DetectorYoloV5.getRecognitions} does before non maximum suppression. A
+ * fraction of the anchor boxes passes the objectness threshold, as on a busy scene.
+ */
+@State(Scope.Thread)
+public class YoloV5DecodeBenchmark {
+
+  private static final int NUM_CLASSES = 80;
+  private static final float THRESHOLD = 0.5f;
+
+  @Param({"320", "416"})
+  public int inputSize;
+
+  @Param({"false", "true"})
+  public boolean quantized;
+
+  private ByteBuffer outData;
+  private YoloV5Decoder decoder;
+  private NmsEngine engine;
+  private YoloV5Decoder.Sink sink;
+
+  @Setup
+  public void setup() {
+    int numBoxes = YoloV5Decoder.getNumBoxes(inputSize);
+    float scale = 1 / 255f;
+    decoder =
+        quantized
+            ? new YoloV5Decoder(numBoxes, NUM_CLASSES, scale, 0)
+            : new YoloV5Decoder(numBoxes, NUM_CLASSES);
+    outData = ByteBuffer.allocateDirect(decoder.getFrameBytes()).order(ByteOrder.nativeOrder());
+
+    Random random = new Random(42);
+    int stride = NUM_CLASSES + 5;
+    for (int i = 0; i < numBoxes * stride; i++) {
+      float value = random.nextFloat();
+      // About 2% of the boxes are confident detections.
+      if (i % stride == 4) value = random.nextFloat() < 0.02f ? 0.9f : value * 0.3f;
+      if (quantized) outData.put(i, (byte) Math.round(value / scale));
+      else outData.putFloat(i * 4, value);
+    }
+    engine = new NmsEngine(numBoxes);
+    sink =
+        (box, classId, score, left, top, right, bottom) ->
+            engine.add(left, top, right, bottom, score, classId);
+  }
+
+  @Benchmark
+  public int decode() {
+    engine.clear();
+    return decoder.decode(outData, 0, THRESHOLD, inputSize, inputSize - 1, inputSize - 1, sink);
+  }
+}
@@ -0,0 +1,60 @@
+package org.openbot.benchmark;
+
+import java.util.Random;
+import org.openbot.env.YuvConverter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Converts one camera frame from YUV to ARGB, as done for every preview frame of the camera
+ * screens. {@code planar} is the {@code YUV_420_888} layout of the camera2 API with interleaved
+ * chroma planes (pixel stride 2), {@code semiPlanar} the NV21 layout of the legacy camera API.
+ */
+@State(Scope.Thread)
+public class YuvBenchmark {
+
+  @Param({"640x480", "1280x720"})
+  public String size;
+
+  private int width;
+  private int height;
+  private byte[] yPlane;
+  private byte[] uPlane;
+  private byte[] vPlane;
+  private byte[] nv21;
+  private int[] argb;
+
+  @Setup
+  public void setup() {
+    String[] dims = size.split("x");
+    width = Integer.parseInt(dims[0]);
+    height = Integer.parseInt(dims[1]);
+    Random random = new Random(42);
+    yPlane = new byte[width * height];
+    // Both chroma planes view the same interleaved buffer on most devices.
+    uPlane = new byte[width * height / 2];
+    vPlane = new byte[width * height / 2];
+    nv21 = new byte[width * height * 3 / 2];
+    random.nextBytes(yPlane);
+    random.nextBytes(uPlane);
+    random.nextBytes(vPlane);
+    random.nextBytes(nv21);
+    argb = new int[width * height];
+  }
+
+  @Benchmark
+  public int[] planar() {
+    YuvConverter.convertYUV420ToARGB8888(
+        yPlane, uPlane, vPlane, width, height, width, width, 2, argb);
+    return argb;
+  }
+
+  @Benchmark
+  public int[] semiPlanar() {
+    YuvConverter.convertYUV420SPToARGB8888(nv21, width, height, argb);
+    return argb;
+  }
+}
@@ -0,0 +1,98 @@
+package org.openbot.benchmark;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import javax.imageio.ImageIO;
+import org.openbot.replay.ReplayRunner;
+import org.openbot.replay.ReplaySession;
+import org.openbot.tflite.PixelNormalizer;
+import org.openbot.tflite.StripedImageConverter;
+import org.openbot.vehicle.Control;
+
+/**
+ * Replays a session recorded by the app on a plain JVM and reports the decoding and preprocessing
+ * throughput of the autopilot input.
+ *
+ * <p>The TensorFlow Lite library of the app only ships Android binaries, so the model itself is not
+ * run here and no control error is reported; run {@code AutopilotReplayTest} on a phone for that.
+ *
+ * <p>Usage: {@code ./gradlew :benchmark:replay -PsessionDir=<log folder> [-PnumThreads=<n>]}
+ */
+public class ReplayMain {
+
+  private static final float IMAGE_MEAN = 0.0f;
+  private static final float IMAGE_STD = 255.0f;
+  private static final int WARM_UP_FRAMES = 10;
+
+  /** A decoded frame in the ARGB layout of {@code Bitmap.getPixels}. */
+  private static class Frame {
+    final int width;
+    final int height;
+    final int[] pixels;
+
+    Frame(BufferedImage image) {
+      width = image.getWidth();
+      height = image.getHeight();
+      pixels = image.getRGB(0, 0, width, height, null, 0, width);
+    }
+  }
+
+  /** Writes every frame into a float input tensor, like {@code Autopilot} does. */
+  private static class Preprocessor implements ReplayRunner.Policy<Frame> {
+    private final int numThreads;
+    private StripedImageConverter converter;
+    private ByteBuffer imgData;
+
+    Preprocessor(int numThreads) {
+      this.numThreads = numThreads;
+    }
+
+    @Override
+    public Control predict(Frame frame, int indicator) {
+      if (converter == null) {
+        converter =
+            new StripedImageConverter(
+                PixelNormalizer.floatInput(IMAGE_MEAN, IMAGE_STD),
+                frame.width,
+                frame.height,
+                numThreads);
+        imgData =
+            ByteBuffer.allocateDirect(frame.width * frame.height * 3 * 4)
+                .order(ByteOrder.nativeOrder());
+      }
+      converter.convert(frame.pixels, imgData);
+      return null;
+    }
+
+    void close() {
+      if (converter != null) converter.close();
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1) {
+      System.err.println("Usage: ReplayMain <log folder> [numThreads]");
+      System.exit(1);
+    }
+    final int numThreads = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+    final Preprocessor preprocessor = new Preprocessor(numThreads);
+    try (ReplaySession session = ReplaySession.load(new File(args[0]))) {
+      System.out.println("Replaying " + session.getFrames().size() + " frames of " + args[0]);
+      final ReplayRunner<Frame> runner =
+          new ReplayRunner<>(
+              (jpeg, length) -> {
+                final BufferedImage image = ImageIO.read(new ByteArrayInputStream(jpeg, 0, length));
+                if (image == null) throw new IOException("Cannot decode frame");
+                return new Frame(image);
+              },
+              preprocessor);
+      System.out.println(runner.run(session, WARM_UP_FRAMES));
+    } finally {
+      preprocessor.close();
+    }
+  }
+}
@@ -0,0 +1,48 @@
+// Binary frames: sync byte, message type, 4 byte little-endian payload, CRC-8 (poly 0x07)
+// over type and payload. Announced to the phone with the "bp" feature.
+//
+// Kept free of Arduino dependencies so that test/bin_frame_test.c can check it on a computer
+// against the same corruption cases as the decoder of the app (BinaryProtocolTest).
+#ifndef BIN_FRAME_H
+#define BIN_FRAME_H
+
+#include <stdint.h>
+#include <string.h>
+
+#define BIN_SYNC 0xAA
+#define BIN_FRAME_SZ 7
+
+static uint8_t crc8(const uint8_t *data, uint8_t len)
+{
+  uint8_t crc = 0;
+  for (uint8_t i = 0; i < len; i++)
+  {
+    crc ^= data[i];
+    for (uint8_t bit = 0; bit < 8; bit++)
+      crc = (crc & 0x80) ? (crc << 1) ^ 0x07 : crc << 1;
+  }
+  return crc;
+}
+
+// Adds a byte to the frame in buf and returns 1 once it holds a complete frame with a valid CRC.
+// Call it for sync bytes and for all bytes while *idx > 0. After a CRC error, decoding restarts
+// at the next sync byte within the rejected frame, so a lost byte only costs the frame it was in.
+static uint8_t bin_frame_feed(uint8_t *buf, uint8_t *idx, uint8_t inByte)
+{
+  buf[(*idx)++] = inByte;
+  if (*idx < BIN_FRAME_SZ)
+    return 0;
+  if (crc8(buf + 1, 5) == buf[6])
+  {
+    *idx = 0;
+    return 1;
+  }
+  uint8_t next = 1;
+  while (next < BIN_FRAME_SZ && buf[next] != BIN_SYNC)
+    next++;
+  *idx = BIN_FRAME_SZ - next;
+  memmove(buf, buf + next, *idx);
+  return 0;
+}
+
+#endif
@@ -1154,6 +1154,10 @@ const char MAX_MSG_SZ = 32;
 char msg_buf[MAX_MSG_SZ];
 int msg_idx = 0;
 
+#include "bin_frame.h"
+uint8_t bin_buf[BIN_FRAME_SZ];
+uint8_t bin_idx = 0;
+
 void process_ctrl_msg()
 {
   char *tmp;                   // this is used by strtok() as an index
@@ -1255,14 +1259,19 @@ void process_sonar_msg()
 }
 #endif
 
+void send_voltage_limits()
+{
+  Serial.println(String("vmin:") + String(VOLTAGE_MIN, 2));
+  Serial.println(String("vlow:") + String(VOLTAGE_LOW, 2));
+  Serial.println(String("vmax:") + String(VOLTAGE_MAX, 2));
+}
+
 void process_voltage_msg()
 {
 #if HAS_VOLTAGE_DIVIDER
   voltage_interval = atol(msg_buf); // convert to long
 #endif
-  Serial.println(String("vmin:") + String(VOLTAGE_MIN, 2));
-  Serial.println(String("vlow:") + String(VOLTAGE_LOW, 2));
-  Serial.println(String("vmax:") + String(VOLTAGE_MAX, 2));
+  send_voltage_limits();
 }
 
 #if (HAS_SPEED_SENSORS_FRONT or HAS_SPEED_SENSORS_BACK or HAS_SPEED_SENSORS_MIDDLE)
@@ -1305,12 +1314,68 @@ void process_feature_msg()
 #if HAS_LEDS_STATUS
   msg += "ls:";
 #endif
+  msg += "bp:";
   Serial.println(msg);
 }
 
+void process_binary(uint8_t inByte)
+{
+  if (!bin_frame_feed(bin_buf, &bin_idx, inByte))
+    return;
+  uint32_t payload = (uint32_t)bin_buf[2] | ((uint32_t)bin_buf[3] << 8) | ((uint32_t)bin_buf[4] << 16) | ((uint32_t)bin_buf[5] << 24);
+  int first = (int16_t)(payload & 0xFFFF);
+  int second = (int16_t)(payload >> 16);
+  switch (bin_buf[1])
+  {
+    case 'c':
+      ctrl_left = first;
+      ctrl_right = second;
+      break;
+    case 'h':
+      heartbeat_interval = payload;
+      heartbeat_time = millis();
+      break;
+#if HAS_INDICATORS
+    case 'i':
+      indicator_left = first;
+      indicator_right = second;
+      break;
+#endif
+#if (HAS_LEDS_FRONT || HAS_LEDS_BACK)
+    case 'l':
+      light_front = first;
+      light_back = second;
+      update_light();
+      break;
+#endif
+#if HAS_SONAR
+    case 's':
+      sonar_interval = payload;
+      break;
+#endif
+#if HAS_VOLTAGE_DIVIDER
+    case 'v':
+      voltage_interval = payload;
+      send_voltage_limits();
+      break;
+#endif
+#if (HAS_SPEED_SENSORS_FRONT or HAS_SPEED_SENSORS_BACK or HAS_SPEED_SENSORS_MIDDLE)
+    case 'w':
+      wheel_interval = payload;
+      break;
+#endif
+  }
+}
+
 void on_serial_rx()
 {
   char inChar = Serial.read();
+  // The sync byte never appears in text messages, so binary frames can only start between them.
+  if (bin_idx > 0 || (msgPart == HEADER && (uint8_t)inChar == BIN_SYNC))
+  {
+    process_binary((uint8_t)inChar);
+    return;
+  }
   if (inChar != endChar)
   {
     switch (msgPart)
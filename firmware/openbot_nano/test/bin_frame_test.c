@@ -0,0 +1,78 @@
+// Feeds the cases in binary_frames.txt to bin_frame_feed like on_serial_rx does between text
+// messages and compares the decoded frames and CRC errors.
+//
+//   cc -I.. -o bin_frame_test bin_frame_test.c && ./bin_frame_test binary_frames.txt
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+
+#include "bin_frame.h"
+
+static char *field(char **line)
+{
+  char *start = *line;
+  char *end = strchr(start, '|');
+  if (end)
+  {
+    *end = '\0';
+    *line = end + 1;
+  }
+  else
+    *line = start + strlen(start);
+  while (*start == ' ')
+    start++;
+  for (char *last = start + strlen(start); last > start && strchr(" \r\n", last[-1]); last--)
+    last[-1] = '\0';
+  return start;
+}
+
+int main(int argc, char **argv)
+{
+  FILE *file = fopen(argc > 1 ? argv[1] : "binary_frames.txt", "r");
+  if (!file)
+  {
+    perror("binary_frames.txt");
+    return 2;
+  }
+  char line[512];
+  int failures = 0;
+  while (fgets(line, sizeof(line), file))
+  {
+    if (line[0] == '#' || line[0] == '\n')
+      continue;
+    char *rest = line;
+    const char *name = field(&rest);
+    char *input = field(&rest);
+    const char *expected = field(&rest);
+    int expected_errors = atoi(field(&rest));
+
+    uint8_t buf[BIN_FRAME_SZ];
+    uint8_t idx = 0;
+    int errors = 0;
+    char decoded[256] = "";
+    for (char *token = strtok(input, " "); token; token = strtok(NULL, " "))
+    {
+      uint8_t in = (uint8_t)strtoul(token, NULL, 16);
+      if (idx == 0 && in != BIN_SYNC)
+        continue; // Handled by the text parser.
+      uint8_t before = idx;
+      if (bin_frame_feed(buf, &idx, in))
+      {
+        uint32_t payload = (uint32_t)buf[2] | ((uint32_t)buf[3] << 8) | ((uint32_t)buf[4] << 16) | ((uint32_t)buf[5] << 24);
+        char frame[16];
+        snprintf(frame, sizeof(frame), "%s%c%08lX", decoded[0] ? " " : "", buf[1], (unsigned long)payload);
+        strcat(decoded, frame);
+      }
+      else if (before == BIN_FRAME_SZ - 1)
+        errors++;
+    }
+    if (strcmp(decoded, expected) != 0 || errors != expected_errors)
+    {
+      printf("FAIL %s: decoded '%s' with %d CRC errors, expected '%s' with %d\n", name, decoded, errors, expected, expected_errors);
+      failures++;
+    }
+  }
+  fclose(file);
+  printf("%s\n", failures ? "FAILED" : "OK");
+  return failures ? 1 : 0;
+}
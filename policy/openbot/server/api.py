@@ -16,7 +16,14 @@ from .models import (
 )
 from .preview import handle_preview
 from .prediction import getPrediction
-from .upload import handle_file_upload
+from .upload import (
+    handle_chunk,
+    handle_chunk_cancel,
+    handle_chunk_finish,
+    handle_chunk_probe,
+    handle_chunk_status,
+    handle_file_upload,
+)
 from .. import base_dir, dataset_dir
 from ..train import (
     CancelledException,
@@ -65,10 +72,21 @@ async def handle_upload(request: web.Request) -> web.Response:
     return web.Response(text="file not found")
 
 
+async def handle_upload_finish(request: web.Request) -> web.Response:
+    res = await handle_chunk_finish(request)
+    await rpc.notify("session")
+    return res
+
+
 async def init_api(app: web.Application):
     app.router.add_get("/test", handle_test)
     app.router.add_get("/models", handle_models)
     app.router.add_post("/upload", handle_upload)
+    app.router.add_get("/upload/status", handle_chunk_status)
+    app.router.add_get("/upload/chunk", handle_chunk_probe)
+    app.router.add_post("/upload/chunk", handle_chunk)
+    app.router.add_post("/upload/finish", handle_upload_finish)
+    app.router.add_post("/upload/cancel", handle_chunk_cancel)
     app.router.add_get("/{path:.*/preview\\.gif}", handle_preview)
     app.router.add_get("/{path:.*\\.jpeg}", handle_static)
     app.router.add_get("/{path:.*\\.png}", handle_static)
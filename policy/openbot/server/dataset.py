@@ -30,7 +30,8 @@ def get_dir_info(dir_path):
 
 
 def listdir(*parts):
-    list1 = [d for d in os.listdir(os.path.join(*parts)) if ".DS_Store" not in d]
+    # Hidden entries, e.g. .DS_Store or the .partial uploads, are not datasets.
+    list1 = [d for d in os.listdir(os.path.join(*parts)) if not d.startswith(".")]
     list1.sort()
     return list1
 
@@ -1,10 +1,14 @@
 import hashlib
 import os
+import shutil
 import zipfile
 
 from aiohttp import multipart, web
 
-from .. import dataset_dir
+from .. import dataset_dir, upload_dir
+
+# Sessions uploaded in chunks while recorded, moved to upload_dir once complete.
+partial_dir = os.path.join(dataset_dir, ".partial")
 
 
 async def handle_file_upload(field: multipart.BodyPartReader) -> web.Response:
@@ -22,6 +26,8 @@ async def handle_file_upload(field: multipart.BodyPartReader) -> web.Response:
         zip_ref.extractall(dataset_dir + "/uploaded/" + field.filename[:-4])
 
     os.unlink(path)
+    # The zip file replaces a chunked upload of the session that did not finish.
+    shutil.rmtree(os.path.join(partial_dir, field.filename[:-4]), ignore_errors=True)
 
     return web.json_response(
         {
@@ -30,3 +36,110 @@ async def handle_file_upload(field: multipart.BodyPartReader) -> web.Response:
             "hash": hash.hexdigest(),
         }
     )
+
+
+def _session_dir(request: web.Request) -> str:
+    session = request.query.get("session", "")
+    if not session or session != os.path.basename(session) or session.startswith("."):
+        raise web.HTTPBadRequest(text="invalid session")
+    return os.path.join(partial_dir, session)
+
+
+def _session_file(session_dir: str, path: str) -> str:
+    real = os.path.normpath(os.path.join(session_dir, path))
+    if not real.startswith(session_dir + os.sep):
+        raise web.HTTPBadRequest(text="invalid path")
+    return real
+
+
+def _query_int(request: web.Request, name: str) -> int:
+    try:
+        value = int(request.query.get(name, ""))
+    except ValueError:
+        raise web.HTTPBadRequest(text=f"invalid {name}")
+    if value < 0:
+        raise web.HTTPBadRequest(text=f"invalid {name}")
+    return value
+
+
+async def handle_chunk_status(request: web.Request) -> web.Response:
+    """One line "<size> <path>" per file received for the session."""
+    session_dir = _session_dir(request)
+    lines = []
+    for root, _, files in os.walk(session_dir):
+        for name in files:
+            real = os.path.join(root, name)
+            path = os.path.relpath(real, session_dir).replace(os.sep, "/")
+            lines.append(f"{os.path.getsize(real)} {path}\n")
+    return web.Response(text="".join(lines))
+
+
+async def handle_chunk(request: web.Request) -> web.Response:
+    """Writes a chunk of a session file at its offset, see SessionUploader of the app.
+
+    A chunk that is already there is not written again. The chunks are smaller than
+    the 1 MB request limit of aiohttp.
+    """
+    session_dir = _session_dir(request)
+    real = _session_file(session_dir, request.query.get("path", ""))
+    offset = _query_int(request, "offset")
+    body = await request.read()
+    expected = request.headers.get("X-Content-SHA256", "").lower()
+    if hashlib.sha256(body).hexdigest() != expected:
+        raise web.HTTPBadRequest(text="hash mismatch")
+
+    size = os.path.getsize(real) if os.path.isfile(real) else 0
+    if offset > size:
+        return web.Response(status=409, text=str(size))
+    if offset + len(body) <= size:
+        with open(real, "rb") as f:
+            f.seek(offset)
+            if f.read(len(body)) == body:
+                return web.Response(text=f"{size} duplicate")
+    os.makedirs(os.path.dirname(real), exist_ok=True)
+    with open(real, "r+b" if os.path.isfile(real) else "wb") as f:
+        f.seek(offset)
+        f.write(body)
+    return web.Response(text=str(max(size, offset + len(body))))
+
+
+async def handle_chunk_probe(request: web.Request) -> web.Response:
+    """Whether a chunk is already there, from its hash, before the app sends it again.
+
+    Answers like handle_chunk, "<size> duplicate" if the bytes at the offset have the
+    hash and "<size>" if they have to be sent.
+    """
+    session_dir = _session_dir(request)
+    real = _session_file(session_dir, request.query.get("path", ""))
+    offset = _query_int(request, "offset")
+    length = _query_int(request, "length")
+    expected = request.headers.get("X-Content-SHA256", "").lower()
+
+    size = os.path.getsize(real) if os.path.isfile(real) else 0
+    if offset > size:
+        return web.Response(status=409, text=str(size))
+    if offset + length <= size:
+        with open(real, "rb") as f:
+            f.seek(offset)
+            if hashlib.sha256(f.read(length)).hexdigest() == expected:
+                return web.Response(text=f"{size} duplicate")
+    return web.Response(text=str(size))
+
+
+async def handle_chunk_finish(request: web.Request) -> web.Response:
+    """Moves a complete session next to the sessions uploaded as zip files."""
+    session_dir = _session_dir(request)
+    target = os.path.join(upload_dir, os.path.basename(session_dir))
+    if not os.path.isdir(session_dir):
+        # Finished before, the answer was lost; or a session without files.
+        os.makedirs(target, exist_ok=True)
+        return web.Response(text="")
+    if os.path.exists(target):
+        raise web.HTTPConflict(text="session exists")
+    os.rename(session_dir, target)
+    return web.Response(text="")
+
+
+async def handle_chunk_cancel(request: web.Request) -> web.Response:
+    shutil.rmtree(_session_dir(request), ignore_errors=True)
+    return web.Response(text="")
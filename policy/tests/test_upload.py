@@ -0,0 +1,178 @@
+"""Tests of the upload handlers of the server.
+
+Run from the policy folder with: python -m unittest discover -s tests
+"""
+import hashlib
+import io
+import json
+import os
+import shutil
+import tempfile
+import unittest
+import zipfile
+from unittest import mock
+
+from aiohttp import web
+
+from openbot.server import upload
+
+
+class FakeRequest:
+    """The parts of a request the handlers use."""
+
+    def __init__(self, query, body=b"", sha256=None):
+        self.query = query
+        self.body = body
+        hash = sha256 if sha256 is not None else hashlib.sha256(body).hexdigest()
+        self.headers = {"X-Content-SHA256": hash}
+
+    async def read(self):
+        return self.body
+
+
+class FakeField:
+    """A multipart field with a zip file, read in chunks."""
+
+    def __init__(self, filename, data):
+        self.filename = filename
+        self.data = io.BytesIO(data)
+
+    async def read_chunk(self, size=8192):
+        return self.data.read(size)
+
+
+def sha256(data):
+    return hashlib.sha256(data).hexdigest()
+
+
+class UploadTest(unittest.IsolatedAsyncioTestCase):
+    def setUp(self):
+        self.base = tempfile.mkdtemp()
+        self.dataset_dir = os.path.join(self.base, "dataset")
+        self.upload_dir = os.path.join(self.dataset_dir, "uploaded")
+        self.partial_dir = os.path.join(self.dataset_dir, ".partial")
+        os.makedirs(self.upload_dir)
+        for name in ("dataset_dir", "upload_dir", "partial_dir"):
+            patcher = mock.patch.object(upload, name, getattr(self, name))
+            patcher.start()
+            self.addCleanup(patcher.stop)
+
+    def tearDown(self):
+        shutil.rmtree(self.base, ignore_errors=True)
+
+    async def chunk(self, data, offset, path="sensor_data/ctrlLog.txt", session="s1"):
+        query = {"session": session, "path": path, "offset": str(offset)}
+        return await upload.handle_chunk(FakeRequest(query, data))
+
+    async def probe(self, data, offset, path="sensor_data/ctrlLog.txt"):
+        query = {
+            "session": "s1",
+            "path": path,
+            "offset": str(offset),
+            "length": str(len(data)),
+        }
+        return await upload.handle_chunk_probe(FakeRequest(query, sha256=sha256(data)))
+
+    def read(self, *path):
+        with open(os.path.join(*path), "rb") as f:
+            return f.read()
+
+    async def test_chunk_writes_at_the_offset(self):
+        self.assertEqual("5", (await self.chunk(b"hello", 0)).text)
+        self.assertEqual("11", (await self.chunk(b" world", 5)).text)
+        path = os.path.join(self.partial_dir, "s1", "sensor_data", "ctrlLog.txt")
+        self.assertEqual(b"hello world", self.read(path))
+
+    async def test_chunk_already_there_is_a_duplicate(self):
+        await self.chunk(b"hello world", 0)
+        self.assertEqual("11 duplicate", (await self.chunk(b"world", 6)).text)
+        # Different bytes at the offset are written.
+        self.assertEqual("11", (await self.chunk(b"there", 6)).text)
+
+    async def test_chunk_beyond_the_size_is_a_conflict(self):
+        await self.chunk(b"hello", 0)
+        response = await self.chunk(b"x", 20)
+        self.assertEqual(409, response.status)
+        self.assertEqual("5", response.text)
+
+    async def test_chunk_with_wrong_hash_is_rejected(self):
+        query = {"session": "s1", "path": "a.txt", "offset": "0"}
+        with self.assertRaises(web.HTTPBadRequest):
+            await upload.handle_chunk(FakeRequest(query, b"hello", sha256(b"other")))
+        self.assertFalse(os.path.exists(os.path.join(self.partial_dir, "s1", "a.txt")))
+
+    async def test_chunk_outside_the_session_is_rejected(self):
+        for session, path, offset in [
+            ("..", "a.txt", "0"),
+            (".partial", "a.txt", "0"),
+            ("s1", "../s2/a.txt", "0"),
+            ("s1", "a.txt", "-1"),
+            ("s1", "a.txt", "x"),
+        ]:
+            query = {"session": session, "path": path, "offset": offset}
+            message = f"{session} {path} {offset}"
+            with self.assertRaises(web.HTTPBadRequest, msg=message):
+                await upload.handle_chunk(FakeRequest(query, b"x"))
+
+    async def test_probe_finds_chunks_by_hash(self):
+        await self.chunk(b"hello world", 0)
+        self.assertEqual("11 duplicate", (await self.probe(b"world", 6)).text)
+        self.assertEqual("11", (await self.probe(b"there", 6)).text)
+        # Longer than the file, the rest has to be sent.
+        self.assertEqual("11", (await self.probe(b"world!", 6)).text)
+        response = await self.probe(b"new", 0, path="images/crop.mjpeg")
+        self.assertEqual("0", response.text)
+        response = await self.probe(b"x", 20)
+        self.assertEqual(409, response.status)
+        self.assertEqual("11", response.text)
+
+    async def test_status_lists_the_received_files(self):
+        await self.chunk(b"hello", 0)
+        await self.chunk(b"jpeg", 0, path="images/1_crop.jpeg")
+        response = await upload.handle_chunk_status(FakeRequest({"session": "s1"}))
+        self.assertEqual(
+            ["4 images/1_crop.jpeg", "5 sensor_data/ctrlLog.txt"],
+            sorted(response.text.splitlines()),
+        )
+        response = await upload.handle_chunk_status(FakeRequest({"session": "s2"}))
+        self.assertEqual("", response.text)
+
+    async def test_finish_moves_the_session_and_can_be_repeated(self):
+        await self.chunk(b"hello", 0)
+        await upload.handle_chunk_finish(FakeRequest({"session": "s1"}))
+        target = os.path.join(self.upload_dir, "s1", "sensor_data", "ctrlLog.txt")
+        self.assertEqual(b"hello", self.read(target))
+        self.assertFalse(os.path.exists(os.path.join(self.partial_dir, "s1")))
+        # The answer was lost and the app finishes again.
+        await upload.handle_chunk_finish(FakeRequest({"session": "s1"}))
+        self.assertEqual(b"hello", self.read(target))
+
+    async def test_finish_does_not_replace_a_session(self):
+        await self.chunk(b"hello", 0)
+        os.makedirs(os.path.join(self.upload_dir, "s1"))
+        with self.assertRaises(web.HTTPConflict):
+            await upload.handle_chunk_finish(FakeRequest({"session": "s1"}))
+
+    async def test_cancel_deletes_the_session(self):
+        await self.chunk(b"hello", 0)
+        await upload.handle_chunk_cancel(FakeRequest({"session": "s1"}))
+        self.assertFalse(os.path.exists(os.path.join(self.partial_dir, "s1")))
+
+    async def test_zip_upload_replaces_the_partial_session(self):
+        session = "20261018_120000"
+        await self.chunk(b"hel", 0, session=session)
+        data = io.BytesIO()
+        with zipfile.ZipFile(data, "w") as zip:
+            zip.writestr("sensor_data/ctrlLog.txt", "hello")
+        field = FakeField(session + ".zip", data.getvalue())
+        response = await upload.handle_file_upload(field)
+        self.assertEqual(len(data.getvalue()), json.loads(response.text)["size"])
+        target = os.path.join(self.upload_dir, session, "sensor_data", "ctrlLog.txt")
+        self.assertEqual(b"hello", self.read(target))
+        self.assertFalse(os.path.exists(os.path.join(self.partial_dir, session)))
+        zip_file = os.path.join(self.dataset_dir, session + ".zip")
+        self.assertFalse(os.path.exists(zip_file))
+
+
+if __name__ == "__main__":
+    unittest.main()